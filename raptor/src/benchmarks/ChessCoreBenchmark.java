@@ -0,0 +1,452 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameFactory;
+import raptor.chess.Move;
+import raptor.chess.Result;
+import raptor.chess.Variant;
+import raptor.chess.pgn.MappedPgnParser;
+import raptor.chess.pgn.Nag;
+import raptor.chess.pgn.PgnParser;
+import raptor.chess.pgn.PgnParserListener;
+import raptor.chess.pgn.StreamingPgnParser;
+import raptor.chess.util.Benchmark;
+import raptor.chess.util.FenUtils;
+import raptor.chess.util.PackedMoveUtils;
+import raptor.chess.util.PerftUtils;
+import raptor.chess.util.SanUtils;
+
+/**
+ * Throughput benchmarks for the chess core. Run with the ant benchmark target
+ * or directly with the names of the benchmarks to run as arguments, e.g.
+ * "perft.atomic fen". With no arguments every benchmark is run.
+ * 
+ * Each benchmark is run for WARMUP_ITERATIONS untimed iterations so the JIT
+ * has compiled the code paths, then for MEASUREMENT_ITERATIONS timed
+ * iterations. The mean and standard deviation of the operations per second of
+ * the timed iterations are printed. Results of each operation are folded into
+ * sink so the JIT can't remove the work.
+ */
+public class ChessCoreBenchmark implements GameConstants {
+	/**
+	 * A unit of benchmark work. run() performs the work once and returns the
+	 * number of operations it performed.
+	 */
+	protected static abstract class Workload {
+		protected final String name;
+
+		protected Workload(String name) {
+			this.name = name;
+		}
+
+		public abstract long run();
+	}
+
+	/**
+	 * Counts parser events and folds their lengths into sink.
+	 */
+	protected static class CountingPgnParserListener implements
+			PgnParserListener {
+		protected long events;
+
+		public void onAnnotation(PgnParser parser, String annotation) {
+			events++;
+			sink += annotation.length();
+		}
+
+		public boolean onGameEnd(PgnParser parser, Result result) {
+			events++;
+			sink += result.ordinal();
+			return false;
+		}
+
+		public void onGameStart(PgnParser parser) {
+			events++;
+		}
+
+		public void onHeader(PgnParser parser, String headerName,
+				String headerValue) {
+			events++;
+			sink += headerValue.length();
+		}
+
+		public void onMoveNag(PgnParser parser, Nag nag) {
+			events++;
+			sink += nag.ordinal();
+		}
+
+		public void onMoveNumber(PgnParser parser, int moveNumber) {
+			events++;
+			sink += moveNumber;
+		}
+
+		public void onMoveSublineEnd(PgnParser parser) {
+			events++;
+		}
+
+		public void onMoveSublineStart(PgnParser parser) {
+			events++;
+		}
+
+		public void onMoveWord(PgnParser parser, String word) {
+			events++;
+			sink += word.length();
+		}
+
+		public void onUnknown(PgnParser parser, String unknown) {
+			events++;
+		}
+	}
+
+	public static final int WARMUP_ITERATIONS = 5;
+	public static final int MEASUREMENT_ITERATIONS = 20;
+	public static final int PERFT_DEPTH = 3;
+	public static final String PGN_FILE = "projectFiles/test/Alekhine4Pawns.pgn";
+
+	/**
+	 * A 40 ply Ruy Lopez used by the san benchmark.
+	 */
+	public static final String[] SAN_MOVES = { "e4", "e5", "Nf3", "Nc6",
+			"Bb5", "a6", "Ba4", "Nf6", "O-O", "Be7", "Re1", "b5", "Bb3", "d6",
+			"c3", "O-O", "h3", "Nb8", "d4", "Nbd7", "Nbd2", "Bb7", "Bc2",
+			"Re8", "Nf1", "Bf8", "Ng3", "g6", "a4", "c5", "d5", "c4", "Bg5",
+			"h6", "Be3", "Nc5", "Qd2", "h5", "Bg5", "Be7" };
+
+	public static final String[] FENS = {
+			STARTING_POSITION_FEN,
+			"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+			"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+			"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+			"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8" };
+
+	protected static final Variant[] PERFT_VARIANTS = { Variant.classic,
+			Variant.atomic, Variant.crazyhouse, Variant.suicide,
+			Variant.losers, Variant.fischerRandom, Variant.wild };
+
+	protected static long sink;
+
+	public static void main(String args[]) {
+		for (Workload workload : createWorkloads()) {
+			if (isSelected(workload.name, args)) {
+				measure(workload);
+			}
+		}
+		System.err.println("sink " + sink);
+	}
+
+	/**
+	 * Returns every benchmark.
+	 */
+	protected static Workload[] createWorkloads() {
+		List<Workload> result = new ArrayList<Workload>();
+		for (Variant variant : PERFT_VARIANTS) {
+			result.add(createPerftWorkload(variant));
+		}
+
+		// One ply deeper than the other perft benchmarks, across all
+		// processors and with a transposition table.
+		result.add(new Workload("perftParallel.classic") {
+			@Override
+			public long run() {
+				return PerftUtils.parallelPerft(GameFactory
+						.createStartingPosition(Variant.classic),
+						PERFT_DEPTH + 1, 1, new PerftUtils.TranspositionTable(
+								18));
+			}
+		});
+
+		// FENS[1] (Kiwipete) has both castling moves for both sides and is also
+		// a Fischer Random position with the same perft, so these two compare
+		// castling in classic and Fischer Random.
+		for (final Variant variant : new Variant[] { Variant.classic,
+				Variant.fischerRandom }) {
+			result.add(new Workload("perftCastling." + variant) {
+				@Override
+				public long run() {
+					return PerftUtils.perft(GameFactory.createFromFen(FENS[1],
+							variant), PERFT_DEPTH);
+				}
+			});
+		}
+
+		result.add(new Workload("san") {
+			@Override
+			public long run() {
+				Game game = GameFactory.createStartingPosition(Variant.classic);
+				game.addState(Game.UPDATING_SAN_STATE);
+				for (String san : SAN_MOVES) {
+					sink += game.makeSanMove(san).getTo();
+				}
+				return SAN_MOVES.length;
+			}
+		});
+
+		result.add(new Workload("sanMoves") {
+			@Override
+			public long run() {
+				Game game = GameFactory.createStartingPosition(Variant.classic);
+				game.addState(Game.UPDATING_SAN_STATE);
+				sink += game.makeSanMoves(SAN_MOVES, 0, SAN_MOVES.length);
+				return SAN_MOVES.length;
+			}
+		});
+
+		final int[] packedMoves = getPackedMoves(SAN_MOVES);
+
+		// sanList.eager generates each san as the move is made, which is what
+		// forceMove used to do. sanList.lazy never asks for the san.
+		result.add(new Workload("sanList.eager") {
+			@Override
+			public long run() {
+				Game game = GameFactory.createStartingPosition(Variant.classic);
+				game.addState(Game.UPDATING_SAN_STATE);
+				for (int move : packedMoves) {
+					game.move(move);
+					sink += game.getLastMove().getSan().length();
+				}
+				return packedMoves.length;
+			}
+		});
+
+		result.add(new Workload("sanList.batch") {
+			@Override
+			public long run() {
+				Game game = replay(packedMoves);
+				SanUtils.updateSan(game.getMoveList());
+				sink += game.getLastMove().getSan().length();
+				return packedMoves.length;
+			}
+		});
+
+		result.add(new Workload("sanList.lazy") {
+			@Override
+			public long run() {
+				sink += replay(packedMoves).getZobristGameHash();
+				return packedMoves.length;
+			}
+		});
+
+		result.add(new Workload("fen") {
+			@Override
+			public long run() {
+				for (String fen : FENS) {
+					sink += GameFactory.createFromFen(fen, Variant.classic)
+							.getZobristPositionHash();
+				}
+				return FENS.length;
+			}
+		});
+
+		// fen.reuse and toFen.builder use the FenUtils calls which don't
+		// allocate a Game or a String per FEN.
+		final Game reusedGame = GameFactory
+				.createStartingPosition(Variant.classic);
+		result.add(new Workload("fen.reuse") {
+			@Override
+			public long run() {
+				for (String fen : FENS) {
+					FenUtils.setFen(reusedGame, fen);
+					sink += reusedGame.getZobristPositionHash();
+				}
+				return FENS.length;
+			}
+		});
+
+		final Game[] games = new Game[FENS.length];
+		for (int i = 0; i < games.length; i++) {
+			games[i] = GameFactory.createFromFen(FENS[i], Variant.classic);
+		}
+
+		result.add(new Workload("toFen") {
+			@Override
+			public long run() {
+				for (Game game : games) {
+					sink += game.toFen().length();
+				}
+				return games.length;
+			}
+		});
+
+		final StringBuilder builder = new StringBuilder(FenUtils.MAX_FEN_LENGTH);
+		result.add(new Workload("toFen.builder") {
+			@Override
+			public long run() {
+				for (Game game : games) {
+					builder.setLength(0);
+					FenUtils.appendFen(game, builder, false);
+					sink += builder.length();
+				}
+				return games.length;
+			}
+		});
+
+		result.add(new Workload("deepCopy") {
+			@Override
+			public long run() {
+				for (Game game : games) {
+					sink += game.deepCopy(false).getOccupiedBB();
+				}
+				return games.length;
+			}
+		});
+
+		// pgnTokens.simple and pgnTokens.mapped only count the parser events,
+		// so they measure tokenizing rather than replaying the moves.
+		result.add(new Workload("pgnTokens.simple") {
+			@Override
+			public long run() {
+				try {
+					StreamingPgnParser parser = new StreamingPgnParser(
+							new File(PGN_FILE), Integer.MAX_VALUE);
+					CountingPgnParserListener listener = new CountingPgnParserListener();
+					parser.addPgnParserListener(listener);
+					parser.parse();
+					parser.close();
+					return listener.events;
+				} catch (IOException ioe) {
+					throw new RuntimeException(ioe);
+				}
+			}
+		});
+
+		result.add(new Workload("pgnTokens.mapped") {
+			@Override
+			public long run() {
+				try {
+					MappedPgnParser parser = new MappedPgnParser(new File(
+							PGN_FILE));
+					CountingPgnParserListener listener = new CountingPgnParserListener();
+					parser.addPgnParserListener(listener);
+					parser.parse();
+					parser.close();
+					return listener.events;
+				} catch (IOException ioe) {
+					throw new RuntimeException(ioe);
+				}
+			}
+		});
+		return result.toArray(new Workload[result.size()]);
+	}
+
+	/**
+	 * Returns the packed moves of the specified san moves played from the
+	 * starting position.
+	 */
+	protected static int[] getPackedMoves(String[] sanMoves) {
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		int[] result = new int[sanMoves.length];
+		int[] legals = new int[MAX_LEGAL_MOVES];
+		for (int i = 0; i < sanMoves.length; i++) {
+			Move move = game.makeSanMove(sanMoves[i]);
+			game.rollback();
+			int count = game.getLegalMoves(legals);
+			for (int j = 0; j < count; j++) {
+				if (PackedMoveUtils.getFrom(legals[j]) == move.getFrom()
+						&& PackedMoveUtils.getTo(legals[j]) == move.getTo()) {
+					result[i] = legals[j];
+					break;
+				}
+			}
+			game.move(result[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new game, with san updating on, with the packed moves made.
+	 */
+	protected static Game replay(int[] packedMoves) {
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		for (int move : packedMoves) {
+			game.move(move);
+		}
+		return game;
+	}
+
+	/**
+	 * Returns a workload which runs perft to PERFT_DEPTH from the starting
+	 * position of variant. Its operations are leaf nodes.
+	 */
+	protected static Workload createPerftWorkload(final Variant variant) {
+		final String fen = variant == Variant.suicide ? STARTING_SUICIDE_POSITION_FEN
+				: STARTING_POSITION_FEN;
+		return new Workload("perft." + variant) {
+			@Override
+			public long run() {
+				return PerftUtils.perft(GameFactory.createFromFen(fen, variant),
+						PERFT_DEPTH);
+			}
+		};
+	}
+
+	/**
+	 * Returns true if name was asked for. A benchmark is asked for if there
+	 * are no arguments or if one of the arguments is a prefix of its name.
+	 */
+	protected static boolean isSelected(String name, String[] args) {
+		if (args.length == 0) {
+			return true;
+		}
+		for (String arg : args) {
+			if (name.startsWith(arg)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs workload for the warmup and measurement iterations and prints the
+	 * mean and standard deviation of the operations per second. Each
+	 * iteration repeats the workload until it has run for at least 100
+	 * milliseconds.
+	 */
+	protected static void measure(Workload workload) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			runIteration(workload);
+		}
+
+		long[] trials = new long[MEASUREMENT_ITERATIONS];
+		for (int i = 0; i < trials.length; i++) {
+			trials[i] = runIteration(workload);
+		}
+
+		System.err.println(workload.name + ": mean(ops/s): "
+				+ Benchmark.mean(trials) + " stdv " + Benchmark.stdv(trials));
+	}
+
+	/**
+	 * Returns the operations per second of one iteration of workload.
+	 */
+	protected static long runIteration(Workload workload) {
+		long operations = 0;
+		long startTime = System.nanoTime();
+		long elapsed;
+		do {
+			operations += workload.run();
+			elapsed = System.nanoTime() - startTime;
+		} while (elapsed < 100000000L);
+		return (long) (operations / (elapsed / 1000000000.0));
+	}
+}
@@ -16,6 +16,7 @@ package raptor.alias;
 import raptor.Raptor;
 import raptor.RaptorWindowItem;
 import raptor.chess.Game;
+import raptor.chess.util.FenUtils;
 import raptor.swt.chat.ChatConsoleController;
 import raptor.swt.chess.ChessBoardWindowItem;
 
@@ -40,7 +41,9 @@ public class ShowFenAlias extends RaptorAlias {
 				for (RaptorWindowItem item : windowItems) {
 					Game game = ((ChessBoardWindowItem) item).getController()
 							.getGame();
-                    text.append("Game ").append(game.getId()).append("    ").append(game.toFen()).append("\n");
+                    text.append("Game ").append(game.getId()).append("    ");
+                    FenUtils.appendFen(game, text, false);
+                    text.append("\n");
 				}
 			} else {
 				text.append("There are no open boards to display FEN for.");
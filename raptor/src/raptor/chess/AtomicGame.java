@@ -15,27 +15,32 @@ package raptor.chess;
 
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
-import static raptor.chess.util.GameUtils.diagonalMove;
 import static raptor.chess.util.GameUtils.getBitboard;
 import static raptor.chess.util.GameUtils.getOppositeColor;
 import static raptor.chess.util.GameUtils.kingMove;
 import static raptor.chess.util.GameUtils.knightMove;
 import static raptor.chess.util.GameUtils.moveOne;
-import static raptor.chess.util.GameUtils.orthogonalMove;
 import static raptor.chess.util.GameUtils.pawnCapture;
-import static raptor.chess.util.GameUtils.pawnEpCapture;
-
-import java.util.ArrayList;
-import java.util.List;
+import static raptor.chess.util.MagicBitboardUtils.bishopAttacks;
+import static raptor.chess.util.MagicBitboardUtils.rookAttacks;
+import static raptor.chess.util.PackedMoveUtils.createMove;
+import static raptor.chess.util.ZobristUtils.zobrist;
 
 import raptor.chess.pgn.PgnHeader;
-import raptor.chess.util.GameUtils;
+import raptor.chess.util.PackedMoveUtils;
 
 /**
  * A chess game which follows FICS atomic rules. Type help atomic on fics for
  * the rules.
  */
 public class AtomicGame extends ClassicGame {
+	/**
+	 * The number of bits each piece takes in the packed pieces of an
+	 * explosion.
+	 * 
+	 * @see #getExplodedPiece(long, int)
+	 */
+	public static final int EXPLODED_PIECE_BITS = 5;
 
 	public AtomicGame() {
 		super();
@@ -52,89 +57,6 @@ public class AtomicGame extends ClassicGame {
 		return result;
 	}
 
-	/**
-	 * Overridden to allow for moves which explode the enemy king. If you are in
-	 * check yet you can explode the enemy king, then exploding the enemy king
-	 * is a legal move even if you are in check afterwards. {@inheritDoc}
-	 */
-	@Override
-	public PriorityMoveList getLegalMoves() {
-		PriorityMoveList result = getPseudoLegalMoves();
-
-		for (int i = 0; i < result.getHighPrioritySize(); i++) {
-			Move move = result.getHighPriority(i);
-			forceMove(move);
-
-			if (!isLegalPosition()) {
-				if (move.getAtomicExplosionInfo() != null) {
-					int kingExplosionCount = 0;
-					boolean wasOppositeKingExploded = false;
-					for (AtomicExplosionInfo info : move
-							.getAtomicExplosionInfo()) {
-						if (info.piece == KING) {
-							kingExplosionCount++;
-							if (info.color == getColorToMove()) {
-								wasOppositeKingExploded = true;
-							}
-						}
-					}
-
-					if (kingExplosionCount > 0) {
-						System.err.println("king explosion count = "
-								+ kingExplosionCount + " "
-								+ wasOppositeKingExploded);
-					}
-
-					if (wasOppositeKingExploded && kingExplosionCount == 1) {
-					} else {
-						result.removeHighPriority(i);
-						i--;
-					}
-				} else {
-					result.removeHighPriority(i);
-					i--;
-				}
-			}
-
-			rollback();
-		}
-
-		for (int i = 0; i < result.getLowPrioritySize(); i++) {
-			Move move = result.getLowPriority(i);
-			forceMove(move);
-
-			if (!isLegalPosition()) {
-				if (move.getAtomicExplosionInfo() != null) {
-					int kingExplosionCount = 0;
-					boolean wasOppositeKingExploded = false;
-					for (AtomicExplosionInfo info : move
-							.getAtomicExplosionInfo()) {
-						if (info.piece == KING) {
-							kingExplosionCount++;
-							if (info.color == GameUtils
-									.getOppositeColor(getColorToMove())) {
-								wasOppositeKingExploded = true;
-							}
-						}
-					}
-
-					if (wasOppositeKingExploded && kingExplosionCount == 1) {
-					} else {
-						result.removeLowPriority(i);
-						i--;
-					}
-				} else {
-					result.removeLowPriority(i);
-					i--;
-				}
-			}
-
-			rollback();
-		}
-
-		return result;
-	}
-
 	/**
 	 * Kings are allowed to touch. {@inheritDoc}
 	 */
@@ -150,24 +72,18 @@ public class AtomicGame extends ClassicGame {
 
 		boolean result = !(pawnCapture(oppositeColor, getPieceBB(oppositeColor,
 				PAWN), kingBB) == 0L
-				&& (orthogonalMove(kingSquare, getEmptyBB(), getOccupiedBB()) & (getPieceBB(
+				&& (rookAttacks(kingSquare, getOccupiedBB()) & (getPieceBB(
 						oppositeColor, ROOK) | getPieceBB(oppositeColor, QUEEN))) == 0L
-				&& (diagonalMove(kingSquare, getEmptyBB(), getOccupiedBB()) & (getPieceBB(
+				&& (bishopAttacks(kingSquare, getOccupiedBB()) & (getPieceBB(
 						oppositeColor, BISHOP) | getPieceBB(oppositeColor,
 						QUEEN))) == 0L && (knightMove(kingSquare) & getPieceBB(
 				oppositeColor, KNIGHT)) == 0L);
 
-		// You are not in check if the move would explode the opponents king.
-		if (result) {
-			// from square,piece,and color are irrelevant since color is -1.
-			AtomicExplosionInfo[] infos = getAtomicExplosionInfo(kingSquare,
-					-1, KING, color);
-			for (AtomicExplosionInfo info : infos) {
-				if (info.piece == KING) {
-					result = false;
-					break;
-				}
-			}
+		// You are not in check if the kings touch, capturing the king would
+		// explode the opponents king.
+		if (result
+				&& (kingMove(kingSquare) & getPieceBB(oppositeColor, KING)) != 0L) {
+			result = false;
 		}
 
 		return result;
@@ -175,374 +91,209 @@ public class AtomicGame extends ClassicGame {
 	}
 
 	/**
-	 * Overridden to allow a checkmate where a king explodes. {@inheritDoc}
+	 * Overridden to test each move against the occupancy it leaves, since
+	 * explosions can remove pinning pieces and checkers. Once a king has
+	 * exploded the game is over and there are no legal moves. {@inheritDoc}
 	 */
 	@Override
-	public boolean isLegalPosition() {
-		return !isInCheck(getOppositeColor(getColorToMove()));
-	}
-
-	/**
-	 * Overridden to allow for moves which explode the enemy king. If you are in
-	 * check yet you can explode the enemy king, then exploding the enemy king
-	 * is a legal move even if you are in check afterwards. {@inheritDoc}
-	 */
-	@Override
-	public boolean move(Move move) {
-		// first make the move.
-		forceMove(move);
-		if (!isLegalPosition()) {
-			if (move.getAtomicExplosionInfo() != null) {
-				int kingExplosionCount = 0;
-				boolean wasOppositeKingExploded = false;
-				for (AtomicExplosionInfo info : move.getAtomicExplosionInfo()) {
-					if (info.piece == KING) {
-						kingExplosionCount++;
-						if (info.color == getColorToMove()) {
-							wasOppositeKingExploded = true;
-						}
-					}
-				}
-
-				if (wasOppositeKingExploded && kingExplosionCount == 1) {
-				} else {
-					rollback();
-					return false;
-				}
-			} else {
-				rollback();
-				return false;
+	public int getLegalMoves(int[] moves) {
+		if (getPieceBB(WHITE, KING) == 0L || getPieceBB(BLACK, KING) == 0L) {
+			return 0;
+		}
+		int count = getPseudoLegalMoves(moves);
+		int kingSquare = bitscanForward(getPieceBB(getColorToMove(), KING));
+		int legalCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (isLegalMove(moves[i], kingSquare)) {
+				moves[legalCount++] = moves[i];
 			}
 		}
-		return true;
+		return legalCount;
 	}
 
 	/**
-	 * Adds the atomic move including the explosion info if its a capture.
+	 * Returns true if the packed pseudo legal move is legal, the same as
+	 * move() would decide, without making it. The occupancy and the opponents
+	 * pieces after the capture and its explosion are computed with masks and
+	 * the king is tested against them. Castling and en-passant moves are rare
+	 * and have special cases, so they are made and rolled back instead.
 	 * 
-	 * @param fromSquare
-	 *            THe from square.
-	 * @param toSquare
-	 *            The top square
-	 * @param colorToMove
-	 *            The color moving.
-	 * @param contents
-	 *            The captured piece.
-	 * @param moves
+	 * @param kingSquare
+	 *            The square of the color to moves king.
 	 */
-	protected void addAtomicMove(int fromSquare, int toSquare, int colorToMove,
-			int contents, PriorityMoveList moves) {
-		if (contents == EMPTY) {
-			addMove(new Move(fromSquare, toSquare,
-					getPieceWithPromoteMask(fromSquare), getColorToMove(),
-					contents), moves);
-		} else {
-			Move move = new Move(fromSquare, toSquare,
-					getPieceWithPromoteMask(fromSquare), getColorToMove(),
-					contents);
-			move.setAtomicExplosionInfo(getAtomicExplosionInfo(toSquare,
-					fromSquare, getPieceWithPromoteMask(fromSquare),
-					getColorToMove()));
-			addMove(move, moves);
+	protected boolean isLegalMove(int move, int kingSquare) {
+		if ((PackedMoveUtils.getMoveCharacteristic(move) & (Move.EN_PASSANT_CHARACTERISTIC
+				| Move.SHORT_CASTLING_CHARACTERISTIC | Move.LONG_CASTLING_CHARACTERISTIC)) != 0) {
+			return isLegalMoveByMakingIt(move);
 		}
-	}
 
-	/**
-	 * Adds the atomic move including the explosion info if its a capture.
-	 * 
-	 * @param fromSquare
-	 *            THe from square.
-	 * @param toSquare
-	 *            The top square
-	 * @param colorToMove
-	 *            The color moving.
-	 * @param contents
-	 *            The captured piece.
-	 * @param moves
-	 */
-	protected void addAtomicPromotionMove(int fromSquare, int toSquare,
-			int colorToMove, int contents, int promotedPiece,
-			PriorityMoveList moves) {
-		if (contents == EMPTY) {
-			addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-					getPieceWithPromoteMask(toSquare), promotedPiece,
-					EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC), moves);
+		int color = getColorToMove();
+		int oppositeColor = getOppositeColor(color);
+		int toSquare = PackedMoveUtils.getTo(move);
+		long fromBB = getBitboard(PackedMoveUtils.getFrom(move));
+		long toBB = getBitboard(toSquare);
+		long occupiedBB = getOccupiedBB();
+
+		// The opponents pieces the move removes, and the occupancy after it.
+		long removedBB = 0L;
+		boolean isOppositeKingExploded = false;
+		if (PackedMoveUtils.isCapture(move)) {
+			long explodedBB = kingMove(toSquare) & occupiedBB
+					& ~getPieceBB(PAWN) & ~fromBB;
+			if ((explodedBB & getPieceBB(color, KING)) != 0L) {
+				return false;
+			}
+			isOppositeKingExploded = (explodedBB & getPieceBB(oppositeColor,
+					KING)) != 0L;
+			removedBB = explodedBB | toBB;
+			occupiedBB &= ~(removedBB | fromBB);
 		} else {
-			Move move = new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-					getPieceWithPromoteMask(toSquare), promotedPiece,
-					EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC);
-			move.setAtomicExplosionInfo(getAtomicExplosionInfo(toSquare,
-					fromSquare, PAWN, getColorToMove()));
-			addMove(move, moves);
+			occupiedBB ^= fromBB | toBB;
+			if (kingSquare == PackedMoveUtils.getFrom(move)) {
+				kingSquare = toSquare;
+			}
+		}
+		if (isOppositeKingExploded) {
+			return true;
 		}
-	}
 
-	/**
-	 * Adds the explosion info for a candidate square if its a valid square and
-	 * contains a piece other than a pawn.
-	 */
-	protected void addExplosionInfo(int rank, int file, int fromSquare,
-			List<AtomicExplosionInfo> explosionInfo) {
-		if (GameUtils.isInBounds(rank, file)) {
-			int square = GameUtils.getSquare(rank, file);
-			if (square != fromSquare && board[square] != EMPTY
-					&& board[square] != PAWN) {
-				AtomicExplosionInfo info = new AtomicExplosionInfo();
-				info.color = (getColorBB(WHITE) & getBitboard(square)) != 0 ? WHITE
-						: BLACK;
-				info.piece = board[square];
-				info.square = square;
-				explosionInfo.add(info);
-			}
+		// Not in check if the kings touch, see isInCheck.
+		long oppositeBB = getColorBB(oppositeColor) & ~removedBB;
+		if ((kingMove(kingSquare) & getPieceBB(oppositeColor, KING) & oppositeBB) != 0L) {
+			return true;
 		}
+		return pawnCapture(oppositeColor, getPieceBB(oppositeColor, PAWN)
+				& oppositeBB, getBitboard(kingSquare)) == 0L
+				&& (knightMove(kingSquare) & getPieceBB(oppositeColor, KNIGHT) & oppositeBB) == 0L
+				&& (rookAttacks(kingSquare, occupiedBB)
+						& (getPieceBB(oppositeColor, ROOK) | getPieceBB(
+								oppositeColor, QUEEN)) & oppositeBB) == 0L
+				&& (bishopAttacks(kingSquare, occupiedBB)
+						& (getPieceBB(oppositeColor, BISHOP) | getPieceBB(
+								oppositeColor, QUEEN)) & oppositeBB) == 0L;
 	}
 
 	/**
-	 * Overridden to handle explosions.
-	 * 
+	 * Overridden to allow a checkmate where a king explodes. A position where
+	 * the side which just moved exploded its own king is not legal.
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected void generatePseudoBishopMoves(PriorityMoveList moves) {
-		long fromBB = getPieceBB(getColorToMove(), BISHOP);
-
-		while (fromBB != 0) {
-			int fromSquare = bitscanForward(fromBB);
-
-			long toBB = diagonalMove(fromSquare, getEmptyBB(), getOccupiedBB())
-					& getNotColorToMoveBB();
-
-			while (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-
-				int contents = getPieceWithPromoteMask(toSquare);
-
-				addAtomicMove(fromSquare, toSquare, getColorToMove(), contents,
-						moves);
-
-				toBB = bitscanClear(toBB);
-			}
-			fromBB = bitscanClear(fromBB);
-		}
+	public boolean isLegalPosition() {
+		int color = getOppositeColor(getColorToMove());
+		return getPieceBB(color, KING) != 0L && !isInCheck(color);
 	}
 
 	/**
-	 * Overridden to handle explosions. {@inheritDoc}
+	 * Overridden to allow for moves which explode the enemy king. If you are in
+	 * check yet you can explode the enemy king, then exploding the enemy king
+	 * is a legal move even if you are in check afterwards. {@inheritDoc}
 	 */
 	@Override
-	protected void generatePseudoKingMoves(PriorityMoveList moves) {
-		long fromBB = getPieceBB(getColorToMove(), KING);
-		int fromSquare = bitscanForward(fromBB);
-		long toBB = kingMove(fromSquare) & getNotColorToMoveBB();
-
-		generatePseudoKingCastlingMoves(fromBB, moves);
-
-		while (toBB != 0) {
-			int toSquare = bitscanForward(toBB);
-
-			int contents = getPieceWithPromoteMask(toSquare);
+	public boolean move(Move move) {
+		// first make the move.
+		forceMove(move);
+		if (!isLegalPosition()) {
+			int kingExplosionCount = 0;
+			boolean wasOppositeKingExploded = false;
+			long explodedPieces = move.getAtomicExplodedPieces();
+			for (long explodedBB = move.getAtomicExplodedBB(); explodedBB != 0L; explodedBB = bitscanClear(explodedBB)) {
+				if (getExplodedPiece(explodedPieces, 0) == KING) {
+					kingExplosionCount++;
+					if (getExplodedColor(explodedPieces, 0) == getColorToMove()) {
+						wasOppositeKingExploded = true;
+					}
+				}
+				explodedPieces >>>= EXPLODED_PIECE_BITS;
+			}
 
-			// Kings cant capture pieces in atomic.
-			if (contents == EMPTY) {
-				addMove(new Move(fromSquare, toSquare, KING, getColorToMove(),
-						contents), moves);
+			if (!wasOppositeKingExploded || kingExplosionCount != 1) {
+				rollback();
+				return false;
 			}
-			toBB = bitscanClear(toBB);
-			toSquare = bitscanForward(toBB);
 		}
+		return true;
 	}
 
 	/**
-	 * Overridden to handle explosions. {@inheritDoc}
+	 * Kings can't capture in atomic. {@inheritDoc}
 	 */
 	@Override
-	protected void generatePseudoKnightMoves(PriorityMoveList moves) {
-
-		long fromBB = getPieceBB(getColorToMove(), KNIGHT);
-
-		while (fromBB != 0) {
-			int fromSquare = bitscanForward(fromBB);
-
-			long toBB = knightMove(fromSquare) & getNotColorToMoveBB();
-
-			while (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-				int contents = getPieceWithPromoteMask(toSquare);
-
-				addAtomicMove(fromSquare, toSquare, getColorToMove(), contents,
-						moves);
-
-				toBB = bitscanClear(toBB);
-				toSquare = bitscanForward(toBB);
-			}
+	protected int generatePseudoKingMoves(int[] moves, int count) {
+		long fromBB = getPieceBB(getColorToMove(), KING);
+		int fromSquare = bitscanForward(fromBB);
+		long toBB = kingMove(fromSquare) & getNotColorToMoveBB();
 
-			fromBB = bitscanClear(fromBB);
-		}
-	}
+		count = generatePseudoKingCastlingMoves(fromBB, moves, count);
 
-	/**
-	 * Overridden to handle explosions. {@inheritDoc}
-	 */
-	@Override
-	protected void generatePseudoPawnCaptures(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
-
-		long toBB = pawnCapture(getColorToMove(), fromBB,
-				getColorBB(oppositeColor));
-
-		while (toBB != 0L) {
-			int toSquare = bitscanForward(toBB);
-			if ((toBB & RANK8_OR_RANK1) != 0L) {
-				addAtomicPromotionMove(fromSquare, toSquare, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), KNIGHT, moves);
-				addAtomicPromotionMove(fromSquare, toSquare, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), BISHOP, moves);
-				addAtomicPromotionMove(fromSquare, toSquare, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), QUEEN, moves);
-				addAtomicPromotionMove(fromSquare, toSquare, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), ROOK, moves);
-			} else {
-				addAtomicMove(fromSquare, toSquare, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), moves);
-			}
+		// Kings cant capture pieces in atomic.
+		toBB &= getEmptyBB();
+		while (toBB != 0) {
+			moves[count++] = createMove(fromSquare, bitscanForward(toBB),
+					KING, EMPTY);
 			toBB = bitscanClear(toBB);
 		}
+		return count;
 	}
 
 	/**
-	 * Overridden to handle explosions. {@inheritDoc}
+	 * Returns the exploded piece, with its promote mask, at index in the
+	 * packed pieces of an explosion. The pieces are packed
+	 * EXPLODED_PIECE_BITS bits each, in ascending square order of the
+	 * exploded squares: the piece in the low 4 bits and the color above it.
 	 */
-	@Override
-	protected void generatePseudoPawnEPCaptures(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
-		if (getEpSquare() != EMPTY) {
-
-			long toBB = pawnEpCapture(getColorToMove(), fromBB, getPieceBB(
-					oppositeColor, PAWN), getBitboard(getEpSquare()));
-
-			if (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-
-				Move move = new Move(fromSquare, toSquare, PAWN,
-						getColorToMove(), PAWN, EMPTY, EMPTY_SQUARE,
-						Move.EN_PASSANT_CHARACTERISTIC);
-				move.setAtomicExplosionInfo(getAtomicExplosionInfo(toSquare,
-						fromSquare, PAWN, getColorToMove()));
-				addMove(move, moves);
-			}
-		}
+	public static int getExplodedPiece(long explodedPieces, int index) {
+		return (int) (explodedPieces >>> index * EXPLODED_PIECE_BITS) & 0xf;
 	}
 
 	/**
-	 * Overridden to handle explosions. {@inheritDoc}
+	 * Returns the color of the exploded piece at index in the packed pieces
+	 * of an explosion.
 	 */
-	@Override
-	protected void generatePseudoQueenMoves(PriorityMoveList moves) {
-		long fromBB = getPieceBB(getColorToMove(), QUEEN);
-
-		while (fromBB != 0) {
-			int fromSquare = bitscanForward(fromBB);
-
-			long toBB = (orthogonalMove(fromSquare, getEmptyBB(),
-					getOccupiedBB()) | diagonalMove(fromSquare, getEmptyBB(),
-					getOccupiedBB()))
-					& getNotColorToMoveBB();
-
-			while (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-
-				int contents = getPieceWithPromoteMask(toSquare);
-				addAtomicMove(fromSquare, toSquare, getColorToMove(), contents,
-						moves);
-
-				toBB = bitscanClear(toBB);
-			}
-
-			fromBB = bitscanClear(fromBB);
-		}
+	public static int getExplodedColor(long explodedPieces, int index) {
+		return (int) (explodedPieces >>> index * EXPLODED_PIECE_BITS + 4) & 1;
 	}
 
 	/**
-	 * Overridden to handle explosions. {@inheritDoc}
+	 * Removes the pieces move explodes from the board, or puts them back if
+	 * isRollback is true. The zobrist position hash is updated as well.
 	 */
-	@Override
-	protected void generatePseudoRookMoves(PriorityMoveList moves) {
-		long fromBB = getPieceBB(getColorToMove(), ROOK);
-
-		while (fromBB != 0) {
-			int fromSquare = bitscanForward(fromBB);
-
-			long toBB = orthogonalMove(fromSquare, getEmptyBB(),
-					getOccupiedBB())
-					& getNotColorToMoveBB();
-
-			while (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-
-				int contents = getPieceWithPromoteMask(toSquare);
-				addAtomicMove(fromSquare, toSquare, getColorToMove(), contents,
-						moves);
-				toBB = bitscanClear(toBB);
+	protected void explode(Move move, boolean isRollback) {
+		long explodedBB = move.getAtomicExplodedBB();
+		long explodedPieces = move.getAtomicExplodedPieces();
+		while (explodedBB != 0L) {
+			int square = bitscanForward(explodedBB);
+			long squareBB = getBitboard(square);
+			int piece = getExplodedPiece(explodedPieces, 0);
+			int color = getExplodedColor(explodedPieces, 0);
+
+			xor(color, piece & NOT_PROMOTED_MASK, squareBB);
+			xor(color, squareBB);
+			zobristPositionHash ^= zobrist(color, piece & NOT_PROMOTED_MASK,
+					square);
+			if (isRollback) {
+				setPiece(square, piece);
+				incrementPieceCount(color, piece);
+				decrementDropCount(color, piece);
+			} else {
+				setPiece(square, EMPTY);
+				decrementPieceCount(color, piece);
+				incrementDropCount(color, piece);
 			}
 
-			fromBB = bitscanClear(fromBB);
+			explodedBB = bitscanClear(explodedBB);
+			explodedPieces >>>= EXPLODED_PIECE_BITS;
 		}
-	}
-
-	/**
-	 * Returns an array of AtomicExplosionInfo for the capture.
-	 * 
-	 * @param toSquare
-	 *            The target capture square.
-	 * @param fromSquare
-	 *            The square the piece moved from. Can be -1 to ignore from
-	 *            square (i.e. when using this method in isInCheck).
-	 * @param pieceMoving
-	 *            THe piece moving
-	 * @param pieceMovingColor
-	 *            THe color of the piece moving.
-	 * @return An array of AtomicExplosionInfo detailing all of the exploded
-	 *         pieces. THe piece being captured isn't exploded, but the piece
-	 *         moving is.
-	 */
-	protected AtomicExplosionInfo[] getAtomicExplosionInfo(int toSquare,
-			int fromSquare, int pieceMoving, int pieceMovingColor) {
-		// This should be rewritten if its ever used for a BOT using a list is
-		// not efficient.
-		List<AtomicExplosionInfo> explosionInfo = new ArrayList<AtomicExplosionInfo>(
-				8);
-
-		// Check all 8 squares around to square.
-		// If the piece is not a pawn explode it.
-		int toSquareRank = GameUtils.getRank(toSquare);
-		int toSquareFile = GameUtils.getFile(toSquare);
-
-		addExplosionInfo(toSquareRank, toSquareFile - 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank, toSquareFile + 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + 1, toSquareFile - 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + 1, toSquareFile + 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + 1, toSquareFile, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + -1, toSquareFile - 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + -1, toSquareFile + 1, fromSquare,
-				explosionInfo);
-		addExplosionInfo(toSquareRank + -1, toSquareFile, fromSquare,
-				explosionInfo);
-
-		if (fromSquare != -1) {
-			// Explode the piece moving.
-			AtomicExplosionInfo info = new AtomicExplosionInfo();
-			info.color = pieceMovingColor;
-			info.square = toSquare;
-			info.piece = pieceMoving;
-			explosionInfo.add(info);
+		setOccupiedBB(getOccupiedBB() ^ move.getAtomicExplodedBB());
+		setEmptyBB(getEmptyBB() ^ move.getAtomicExplodedBB());
+
+		if (move.isPromotion() && move.isCapture()) {
+			// The capture hashed the exploded pawn as the piece it promoted
+			// to.
+			zobristPositionHash ^= zobrist(move.getColor(), PAWN, move.getTo())
+					^ zobrist(move.getColor(), move.getPiecePromotedTo()
+							& NOT_PROMOTED_MASK, move.getTo());
 		}
-		return explosionInfo.toArray(new AtomicExplosionInfo[0]);
 	}
 
 	/**
@@ -574,20 +325,7 @@ public class AtomicGame extends ClassicGame {
 
 		// Don't decrement/increment for piece captured. That will be done in
 		// forceMove.
-		if (move.getAtomicExplosionInfo() != null) {
-			for (AtomicExplosionInfo info : move.getAtomicExplosionInfo()) {
-				long squareBB = getBitboard(info.square);
-				xor(info.color, info.piece & NOT_PROMOTED_MASK,
-						getBitboard(info.square));
-				xor(info.color, squareBB);
-				setPiece(info.square, EMPTY);
-				decrementPieceCount(info.color, info.piece);
-				incrementDropCount(info.color, info.piece);
-
-				setOccupiedBB(getOccupiedBB() ^ squareBB);
-				setEmptyBB(getEmptyBB() ^ squareBB);
-			}
-		}
+		explode(move, false);
 
 		updateZobristEP(move, captureSquare);
 		setEpSquare(EMPTY_SQUARE);
@@ -618,22 +356,8 @@ public class AtomicGame extends ClassicGame {
 			setPiece(move.getFrom(), EMPTY);
 
 			// Don't decrement/increment for piece captured. That will be done
-			// in
-			// forceMove.
-			if (move.getAtomicExplosionInfo() != null) {
-				for (AtomicExplosionInfo info : move.getAtomicExplosionInfo()) {
-					long squareBB = getBitboard(info.square);
-					xor(info.color, info.piece & NOT_PROMOTED_MASK,
-							getBitboard(info.square));
-					xor(info.color, squareBB);
-					setPiece(info.square, EMPTY);
-					decrementPieceCount(info.color, info.piece);
-					incrementDropCount(info.color, info.piece);
-
-					setOccupiedBB(getOccupiedBB() ^ squareBB);
-					setEmptyBB(getEmptyBB() ^ squareBB);
-				}
-			}
+			// in forceMove.
+			explode(move, false);
 
 		} else {
 			setOccupiedBB(getOccupiedBB() ^ fromToBB);
@@ -642,9 +366,7 @@ public class AtomicGame extends ClassicGame {
 		}
 
 		if (move.isPromotion() && !move.isCapture()) {
-			if (move.isCapture()) {
-				xor(move.getColor(), move.getPiece(), fromBB);
-			}
+			xor(move.getColor(), move.getPiece(), fromBB);
 
 			xor(move.getColor(), move.getPiecePromotedTo() & NOT_PROMOTED_MASK,
 					toBB);
@@ -692,6 +414,53 @@ public class AtomicGame extends ClassicGame {
 		setEpSquare(move.getEpSquare());
 	}
 
+	/**
+	 * Kings can't capture in atomic. {@inheritDoc}
+	 */
+	@Override
+	protected int sanToPackedMove(String san) {
+		int result = super.sanToPackedMove(san);
+		return result != 0
+				&& PackedMoveUtils.getPieceWithPromoteMask(result) == KING
+				&& PackedMoveUtils.isCapture(result) ? 0 : result;
+	}
+
+	/**
+	 * Overridden to add the explosion to captures. The capturing piece and
+	 * every piece but a pawn on the squares around the to square explode.
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Move unpackMove(int move, Move result) {
+		result = super.unpackMove(move, result);
+		if (result.isCapture()) {
+			int toSquare = result.getTo();
+			long explodedBB = kingMove(toSquare) & getOccupiedBB()
+					& ~getPieceBB(PAWN) & ~getBitboard(result.getFrom())
+					| getBitboard(toSquare);
+
+			long explodedPieces = 0L;
+			int index = 0;
+			for (long squaresBB = explodedBB; squaresBB != 0L; squaresBB = bitscanClear(squaresBB)) {
+				int square = bitscanForward(squaresBB);
+				int piece;
+				int color;
+				if (square == toSquare) {
+					piece = result.getPieceWithPromoteMask();
+					color = getColorToMove();
+				} else {
+					piece = board[square];
+					color = (getColorBB(WHITE) & getBitboard(square)) != 0L ? WHITE
+							: BLACK;
+				}
+				explodedPieces |= (long) (piece | color << 4) << index++
+						* EXPLODED_PIECE_BITS;
+			}
+			result.setAtomicExplosion(explodedBB, explodedPieces);
+		}
+		return result;
+	}
+
 	/**
 	 * Overridden to handle rolling back explosions. {@inheritDoc}
 	 */
@@ -704,20 +473,7 @@ public class AtomicGame extends ClassicGame {
 
 		// Don't decrement/increment for piece captured. That will be done in
 		// forceMove.
-		if (move.getAtomicExplosionInfo() != null) {
-			for (AtomicExplosionInfo info : move.getAtomicExplosionInfo()) {
-				long squareBB = getBitboard(info.square);
-				xor(info.color, info.piece & NOT_PROMOTED_MASK,
-						getBitboard(info.square));
-				xor(info.color, squareBB);
-				setPiece(info.square, info.piece);
-				incrementPieceCount(info.color, info.piece);
-				decrementDropCount(info.color, info.piece);
-
-				setOccupiedBB(getOccupiedBB() ^ squareBB);
-				setEmptyBB(getEmptyBB() ^ squareBB);
-			}
-		}
+		explode(move, true);
 
 		long captureBB = oppositeColor == WHITE ? moveOne(SOUTH, toBB)
 				: moveOne(NORTH, toBB);
@@ -753,19 +509,7 @@ public class AtomicGame extends ClassicGame {
 
 		// Don't decrement/increment for piece captured. That will be done in
 		// forceMove.
-		if (move.getAtomicExplosionInfo() != null) {
-			for (AtomicExplosionInfo info : move.getAtomicExplosionInfo()) {
-				long squareBB = getBitboard(info.square);
-				xor(info.color, info.piece & NOT_PROMOTED_MASK,
-						getBitboard(info.square));
-				xor(info.color, squareBB);
-				setPiece(info.square, info.piece);
-				incrementPieceCount(info.color, info.piece);
-				decrementDropCount(info.color, info.piece);
-				setOccupiedBB(getOccupiedBB() ^ squareBB);
-				setEmptyBB(getEmptyBB() ^ squareBB);
-			}
-		}
+		explode(move, true);
 
 		xor(move.getColor(), fromToBB);
 
@@ -785,7 +529,7 @@ public class AtomicGame extends ClassicGame {
 			updateZobristPONoCapture(move, oppositeColor);
 		}
 
-		if (move.isPromotion()) {
+		if (move.isPromotion() && !move.isCapture()) {
 			xor(move.getColor(), move.getPiece(), fromBB);
 			xor(move.getColor(), move.getPiecePromotedTo() & NOT_PROMOTED_MASK,
 					toBB);
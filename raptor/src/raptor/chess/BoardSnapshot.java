@@ -0,0 +1,95 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess;
+
+import raptor.chess.util.GameUtils;
+
+/**
+ * A reusable copy of the board of a game: the board array, the bitboards, the
+ * drop counts and the color to move. It is filled by Game.getSnapshot in one
+ * call, so code which reads the whole board, e.g. a board refresh, doesn't
+ * need an interface call per square. Unlike Position it is mutable and is
+ * meant to be owned by one caller and refilled.
+ */
+public final class BoardSnapshot implements GameConstants {
+	private final int[] board = new int[64];
+	private final long[] colorBB = new long[2];
+	private int colorToMove;
+	private final int[][] dropCounts = new int[2][KING + 1];
+	private long occupiedBB;
+	private final long[][] pieceBB = new long[2][KING + 1];
+
+	/**
+	 * Copies the state of a game into this snapshot. Used by the Game
+	 * implementations.
+	 */
+	public void set(int[] board, long[] colorBB, long[][] pieceBB,
+			int[][] dropCounts, long occupiedBB, int colorToMove) {
+		System.arraycopy(board, 0, this.board, 0, this.board.length);
+		System.arraycopy(colorBB, 0, this.colorBB, 0, this.colorBB.length);
+		for (int color = WHITE; color <= BLACK; color++) {
+			System.arraycopy(pieceBB[color], 0, this.pieceBB[color], 0,
+					this.pieceBB[color].length);
+			System.arraycopy(dropCounts[color], 0, this.dropCounts[color], 0,
+					this.dropCounts[color].length);
+		}
+		this.occupiedBB = occupiedBB;
+		this.colorToMove = colorToMove;
+	}
+
+	public long getColorBB(int color) {
+		return colorBB[color];
+	}
+
+	/**
+	 * Returns the colored piece constant (WP, BN, ...) on square, EMPTY if
+	 * there isn't one.
+	 */
+	public int getColoredPiece(int square) {
+		int piece = getPiece(square);
+		return piece == EMPTY ? EMPTY : GameUtils.getColoredPiece(piece,
+				(colorBB[WHITE] & GameUtils.getBitboard(square)) != 0L ? WHITE
+						: BLACK);
+	}
+
+	public int getColorToMove() {
+		return colorToMove;
+	}
+
+	public int getDropCount(int color, int piece) {
+		return dropCounts[color][piece];
+	}
+
+	public long getOccupiedBB() {
+		return occupiedBB;
+	}
+
+	/**
+	 * Returns the piece on square with its promotion mask removed.
+	 */
+	public int getPiece(int square) {
+		return board[square] & NOT_PROMOTED_MASK;
+	}
+
+	public long getPieceBB(int color, int piece) {
+		return pieceBB[color][piece];
+	}
+
+	/**
+	 * Returns the piece on square with its promotion mask.
+	 */
+	public int getPieceWithPromoteMask(int square) {
+		return board[square];
+	}
+}
@@ -15,7 +15,6 @@ package raptor.chess;
 
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
-import static raptor.chess.util.GameUtils.diagonalMove;
 import static raptor.chess.util.GameUtils.getBitboard;
 import static raptor.chess.util.GameUtils.getFile;
 import static raptor.chess.util.GameUtils.getOppositeColor;
@@ -25,12 +24,17 @@ import static raptor.chess.util.GameUtils.getSquare;
 import static raptor.chess.util.GameUtils.getString;
 import static raptor.chess.util.GameUtils.kingMove;
 import static raptor.chess.util.GameUtils.knightMove;
+import static raptor.chess.util.GameUtils.lineThrough;
 import static raptor.chess.util.GameUtils.moveOne;
-import static raptor.chess.util.GameUtils.orthogonalMove;
 import static raptor.chess.util.GameUtils.pawnCapture;
 import static raptor.chess.util.GameUtils.pawnDoublePush;
 import static raptor.chess.util.GameUtils.pawnEpCapture;
 import static raptor.chess.util.GameUtils.pawnSinglePush;
+import static raptor.chess.util.GameUtils.squaresBetween;
+import static raptor.chess.util.MagicBitboardUtils.bishopAttacks;
+import static raptor.chess.util.MagicBitboardUtils.queenAttacks;
+import static raptor.chess.util.MagicBitboardUtils.rookAttacks;
+import static raptor.chess.util.PackedMoveUtils.createMove;
 import static raptor.chess.util.ZobristUtils.zobrist;
 
 import java.util.ArrayList;
@@ -46,7 +50,9 @@ import org.apache.commons.lang.WordUtils;
 
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.pgn.PgnUtils;
+import raptor.chess.util.FenUtils;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.PackedMoveUtils;
 import raptor.chess.util.SanUtils;
 import raptor.chess.util.SanUtils.SanValidations;
 import raptor.service.EcoService;
@@ -69,13 +75,25 @@ public class ClassicGame implements Game {
 	protected int halfMoveCount;
 	protected String id;
 	protected int initialEpSquare = EMPTY_SQUARE;
-	protected int[] moveRepHash = new int[MOVE_REP_CACHE_SIZE];
 	protected MoveList moves = new MoveList();
+	/**
+	 * Move instances reused by the packed move methods, indexed by the size
+	 * of the move list when the move is made. Entries are cleared when the
+	 * move list is copied. Allocated when the first packed move is made, so
+	 * games only built from SAN don't carry it.
+	 */
+	protected Move[] movePool;
 	//protected long notColorToMoveBB;
 	protected long occupiedBB;
 	protected Map<PgnHeader, String> pgnHeaderMap = new HashMap<PgnHeader, String>();
 	protected long[][] pieceBB = new long[2][7];
 	protected int[][] pieceCounts = new int[2][7];
+	/**
+	 * The Zobrist game hashes of the positions passed to incrementRepCount, the
+	 * most recent last. Grows as needed.
+	 */
+	protected long[] repHistory = new long[REP_HISTORY_INITIAL_SIZE];
+	protected int repHistorySize;
 	protected int state;
 	protected long zobristGameHash;
 	protected long zobristPositionHash;
@@ -143,7 +161,8 @@ public class ClassicGame implements Game {
 		initialEpSquare = EMPTY_SQUARE;
 		zobristGameHash = 0L;
 		zobristPositionHash = 0L;
-		moveRepHash = new int[MOVE_REP_CACHE_SIZE];
+		repHistory = new long[REP_HISTORY_INITIAL_SIZE];
+		repHistorySize = 0;
 		//notColorToMoveBB = 0L;
 		occupiedBB = 0L;
 		pieceBB = new long[2][7];
@@ -226,6 +245,13 @@ public class ClassicGame implements Game {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public void forceMove(int move) {
+		forceMove(unpackPooledMove(move));
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -296,15 +322,7 @@ public class ClassicGame implements Game {
 	}
 
 	public String getFenCastle() {
-		String whiteCastlingFen = getCastling(WHITE) == CASTLE_NONE ? ""
-				: getCastling(WHITE) == CASTLE_BOTH ? "KQ"
-						: getCastling(WHITE) == CASTLE_SHORT ? "K" : "Q";
-		String blackCastlingFen = getCastling(BLACK) == CASTLE_NONE ? ""
-				: getCastling(BLACK) == CASTLE_BOTH ? "kq"
-						: getCastling(BLACK) == CASTLE_SHORT ? "k" : "q";
-
-		return StringUtils.isBlank(whiteCastlingFen) && StringUtils.isBlank(blackCastlingFen) ? "-"
-				: whiteCastlingFen + blackCastlingFen;
+		return FenUtils.toFenCastle(this);
 	}
 
 	/**
@@ -364,32 +382,51 @@ public class ClassicGame implements Game {
 	 * {@inheritDoc}
 	 */
 	public PriorityMoveList getLegalMoves() {
-		PriorityMoveList result = getPseudoLegalMoves();
-
-		for (int i = 0; i < result.getHighPrioritySize(); i++) {
-			Move move = result.getHighPriority(i);
-			forceMove(move);
-			if (!isLegalPosition()) {
-				result.removeHighPriority(i);
-				i--;
-			}
+		int[] packedMoves = new int[MAX_LEGAL_MOVES];
+		int count = getLegalMoves(packedMoves);
 
-			rollback();
+		PriorityMoveList result = new PriorityMoveList();
+		for (int i = 0; i < count; i++) {
+			Move move = unpackMove(packedMoves[i], null);
+			setSan(move);
+			addMove(move, result);
 		}
+		return result;
+	}
 
-		for (int i = 0; i < result.getLowPrioritySize(); i++) {
-			Move move = result.getLowPriority(i);
-			forceMove(move);
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getLegalMoves(int[] moves) {
+		int oppositeColor = getOppositeColor(colorToMove);
+		long kingBB = getPieceBB(colorToMove, KING);
+		if (kingBB == 0L || bitscanClear(kingBB) != 0L
+				|| getPieceBB(oppositeColor, KING) == 0L) {
+			// Not a normal position, fall back to making every move.
+			return removeIllegalMovesByMakingThem(moves,
+					getPseudoLegalMoves(moves));
+		}
+		int count = generatePseudoBoardMoves(moves, 0);
 
-			if (!isLegalPosition()) {
-				result.removeLowPriority(i);
-				i--;
-			}
+		int kingSquare = bitscanForward(kingBB);
+		long checkersBB = getAttackers(kingSquare, oppositeColor, occupiedBB);
 
-			rollback();
+		// The squares a non king move has to end on to get out of check. In
+		// double check only the king can move.
+		long evasionBB = -1L;
+		if (checkersBB != 0L) {
+			evasionBB = bitscanClear(checkersBB) != 0L ? 0L : checkersBB
+					| squaresBetween(kingSquare, bitscanForward(checkersBB));
 		}
+		long pinnedBB = getPinned(kingSquare, colorToMove);
 
-		return result;
+		int legalCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (isLegalMove(moves[i], kingSquare, evasionBB, pinnedBB)) {
+				moves[legalCount++] = moves[i];
+			}
+		}
+		return generateLegalDropMoves(moves, legalCount, evasionBB);
 	}
 
 	/**
@@ -505,28 +542,44 @@ public class ClassicGame implements Game {
 	 * {@inheritDoc}
 	 */
 	public PriorityMoveList getPseudoLegalMoves() {
+		int[] packedMoves = new int[MAX_LEGAL_MOVES];
+		int count = getPseudoLegalMoves(packedMoves);
+
 		PriorityMoveList result = new PriorityMoveList();
-		generatePseudoQueenMoves(result);
-		generatePseudoKnightMoves(result);
-		generatePseudoBishopMoves(result);
-		generatePseudoRookMoves(result);
-		generatePseudoPawnMoves(result);
-		generatePseudoKingMoves(result);
+		for (int i = 0; i < count; i++) {
+			addMove(unpackMove(packedMoves[i], null), result);
+		}
 		return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getPseudoLegalMoves(int[] moves) {
+		return generatePseudoBoardMoves(moves, 0);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public int getRepCount() {
-		return moveRepHash[getRepHash()];
+		// Only positions since the last capture or pawn move can repeat, and
+		// only every other one has the same color to move.
+		int oldest = Math.max(0, repHistorySize - 1 - fiftyMoveCount);
+		int result = 0;
+		for (int i = repHistorySize - 1; i >= oldest; i -= 2) {
+			if (repHistory[i] == zobristGameHash) {
+				result++;
+			}
+		}
+		return result;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public int getRepHash() {
-		return (int) (zobristPositionHash & MOVE_REP_CACHE_SIZE_MINUS_1);
+		return (int) (zobristGameHash ^ zobristGameHash >>> 32);
 	}
 
 	/**
@@ -536,6 +589,15 @@ public class ClassicGame implements Game {
 		return Result.get(getHeader(PgnHeader.Result));
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public BoardSnapshot getSnapshot(BoardSnapshot snapshot) {
+		snapshot.set(board, colorBB, pieceBB, dropCounts, occupiedBB,
+				colorToMove);
+		return snapshot;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -576,7 +638,12 @@ public class ClassicGame implements Game {
 	 * {@inheritDoc}
 	 */
 	public void incrementRepCount() {
-		moveRepHash[getRepHash()]++;
+		if (repHistorySize == repHistory.length) {
+			long[] newRepHistory = new long[repHistory.length * 2];
+			System.arraycopy(repHistory, 0, newRepHistory, 0, repHistorySize);
+			repHistory = newRepHistory;
+		}
+		repHistory[repHistorySize++] = zobristGameHash;
 	}
 
 	/**
@@ -617,9 +684,9 @@ public class ClassicGame implements Game {
 
 		return !(pawnCapture(oppositeColor, getPieceBB(oppositeColor, PAWN),
 				kingBB) == 0L
-				&& (orthogonalMove(kingSquare, emptyBB, occupiedBB) & (getPieceBB(
+				&& (rookAttacks(kingSquare, occupiedBB) & (getPieceBB(
 						oppositeColor, ROOK) | getPieceBB(oppositeColor, QUEEN))) == 0L
-				&& (diagonalMove(kingSquare, emptyBB, occupiedBB) & (getPieceBB(
+				&& (bishopAttacks(kingSquare, occupiedBB) & (getPieceBB(
 						oppositeColor, BISHOP) | getPieceBB(oppositeColor,
 						QUEEN))) == 0L
 				&& (kingMove(kingSquare) & getPieceBB(oppositeColor, KING)) == 0L && (knightMove(kingSquare) & getPieceBB(
@@ -792,6 +859,16 @@ public class ClassicGame implements Game {
 	 */
 	public Move makeSanMove(String shortAlgebraic)
 			throws IllegalArgumentException {
+		int packedMove = sanToPackedMove(shortAlgebraic);
+		if (packedMove != 0) {
+			Move result = unpackMove(packedMove, null);
+			result.setSan(shortAlgebraic);
+			if (move(result)) {
+				return result;
+			}
+			// Fall through so the usual exception is thrown.
+		}
+
 		SanValidations validations = SanUtils.getValidations(shortAlgebraic);
 		Move[] pseudoLegals = getPseudoLegalMoves().asArray();
 		
@@ -994,6 +1071,20 @@ public class ClassicGame implements Game {
 		return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public int makeSanMoves(String[] sans, int start, int end) {
+		for (int i = start; i < end; i++) {
+			try {
+				makeSanMove(sans[i]);
+			} catch (IllegalArgumentException iae) {
+				return i;
+			}
+		}
+		return end;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -1007,6 +1098,13 @@ public class ClassicGame implements Game {
 		return true;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean move(int move) {
+		return move(unpackPooledMove(move));
+	}
+
 	/**
 	 * Copys the information from this game into the passed in game.
 	 */
@@ -1018,6 +1116,12 @@ public class ClassicGame implements Game {
 				pgnHeaderMap);
 
 		gameToOverwrite.moves = moves.deepCopy();
+		// The copy shares the moves in the list, so they can't be reused.
+		if (movePool != null) {
+			for (int i = 0; i < moves.getSize(); i++) {
+				movePool[i] = null;
+			}
+		}
 		gameToOverwrite.halfMoveCount = halfMoveCount;
 		System.arraycopy(colorBB, 0, gameToOverwrite.colorBB, 0,
 				gameToOverwrite.colorBB.length);
@@ -1047,8 +1151,12 @@ public class ClassicGame implements Game {
 		gameToOverwrite.zobristGameHash = zobristGameHash;
 
 		if (!ignoreHashes) {
-			System.arraycopy(moveRepHash, 0, gameToOverwrite.moveRepHash, 0,
-					moveRepHash.length);
+			if (gameToOverwrite.repHistory.length < repHistorySize) {
+				gameToOverwrite.repHistory = new long[repHistory.length];
+			}
+			System.arraycopy(repHistory, 0, gameToOverwrite.repHistory, 0,
+					repHistorySize);
+			gameToOverwrite.repHistorySize = repHistorySize;
 		}
 	}
 
@@ -1246,52 +1354,14 @@ public class ClassicGame implements Game {
 	 * {@inheritDoc}
 	 */
 	public String toFen() {
-		// 
-
-		StringBuilder result = new StringBuilder(77);
-		result.append(toFenPosition());
-
-		result.append(colorToMove == WHITE ? " w" : " b");
-
-        result.append(" ").append(getFenCastle());
-        result.append(" ").append(getSan(epSquare));
-        result.append(" ").append(fiftyMoveCount);
-        result.append(" ").append(getFullMoveCount());
-
-		return result.toString();
+		return FenUtils.toFen(this, false);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public String toFenPosition() {
-		StringBuilder result = new StringBuilder(77);
-		for (int j = 7; j > -1; j--) {
-			int consecutiveEmpty = 0;
-			for (int i = 0; i < 8; i++) {
-				int square = getSquare(j, i);
-				int piece = getPiece(square);
-
-				if (piece == EMPTY) {
-					consecutiveEmpty++;
-				} else {
-					long squareBB = getBitboard(square);
-					int color = (getPieceBB(WHITE, piece) & squareBB) != 0L ? WHITE
-							: BLACK;
-					if (consecutiveEmpty > 0) {
-						result.append(consecutiveEmpty);
-						consecutiveEmpty = 0;
-					}
-					result.append(COLOR_PIECE_TO_CHAR[color].charAt(piece));
-				}
-			}
-			if (j != 0) {
-                result.append(consecutiveEmpty != 0 ? consecutiveEmpty : "").append("/");
-			} else if (j == 0) {
-				result.append(consecutiveEmpty != 0 ? consecutiveEmpty : "");
-			}
-		}
-		return result.toString();
+		return FenUtils.toFenPosition(this);
 	}
 
 	/**
@@ -1474,51 +1544,100 @@ public class ClassicGame implements Game {
 	}
 
 	/**
-	 * Decrements the current positions repetition count.
+	 * Decrements the current positions repetition count by removing the most
+	 * recent position from the repetition history.
 	 */
 	protected void decrementRepCount() {
-		moveRepHash[getRepHash()]--;
+		if (repHistorySize > 0) {
+			repHistorySize--;
+		}
+	}
+
+	/**
+	 * Returns a copy of the repetition history, the oldest position first.
+	 */
+	protected long[] getRepHistory() {
+		long[] result = new long[repHistorySize];
+		System.arraycopy(repHistory, 0, result, 0, repHistorySize);
+		return result;
+	}
+
+	/**
+	 * Adds the legal drop moves in the position to the specified packed move
+	 * buffer. A drop can never expose the king, so a drop is legal if it ends
+	 * on a square in evasionBB. Classic has no drops, variants with drops
+	 * override this.
+	 * 
+	 * @param evasionBB
+	 *            The squares a non king move has to end on to get out of
+	 *            check, all squares if not in check.
+	 * @return The number of moves in the buffer after the drops were added.
+	 */
+	protected int generateLegalDropMoves(int[] moves, int count,
+			long evasionBB) {
+		return count;
+	}
+
+	/**
+	 * Generates all of the pseudo legal moves of the pieces on the board, that
+	 * is every pseudo legal move but drops, and adds them to the specified
+	 * packed move buffer.
+	 */
+	protected int generatePseudoBoardMoves(int[] moves, int count) {
+		count = generatePseudoQueenMoves(moves, count);
+		count = generatePseudoKnightMoves(moves, count);
+		count = generatePseudoBishopMoves(moves, count);
+		count = generatePseudoRookMoves(moves, count);
+		count = generatePseudoPawnMoves(moves, count);
+		return generatePseudoKingMoves(moves, count);
 	}
 
 	/**
 	 * Generates all of the pseudo legal bishop moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the bishop moves were
+	 *         added.
 	 */
-	protected void generatePseudoBishopMoves(PriorityMoveList moves) {
+	protected int generatePseudoBishopMoves(int[] moves, int count) {
 		long fromBB = getPieceBB(colorToMove, BISHOP);
 
 		while (fromBB != 0) {
 			int fromSquare = bitscanForward(fromBB);
 
-			long toBB = diagonalMove(fromSquare, emptyBB, occupiedBB)
+			long toBB = bishopAttacks(fromSquare, occupiedBB)
 					& getNotColorToMoveBB();
 
 			while (toBB != 0) {
 				int toSquare = bitscanForward(toBB);
 
-				int contents = getPieceWithPromoteMask(toSquare);
-
-				addMove(new Move(fromSquare, toSquare,
-						getPieceWithPromoteMask(fromSquare), colorToMove,
-						contents), moves);
+				moves[count++] = createMove(fromSquare, toSquare,
+						getPieceWithPromoteMask(fromSquare),
+						getPieceWithPromoteMask(toSquare));
 				toBB = bitscanClear(toBB);
 			}
 			fromBB = bitscanClear(fromBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal king castling moves in the position and
-	 * adds them to the specified move list.
+	 * adds them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
-	 */
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the castling moves were
+	 *         added.
+	 */
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
 		// The king destination square isnt checked, its checked when legal
 		// getMoves() are checked.
 
@@ -1528,10 +1647,8 @@ public class ClassicGame implements Game {
 				&& GameUtils.isWhitePiece(this, SQUARE_H1)
 				&& getPiece(SQUARE_H1) == ROOK && getPiece(SQUARE_F1) == EMPTY
 				&& !isInCheck(WHITE, E1) && !isInCheck(WHITE, F1)) {
-			moves
-					.appendLowPriority(new Move(SQUARE_E1, SQUARE_G1, KING,
-                            colorToMove, EMPTY,
-							Move.SHORT_CASTLING_CHARACTERISTIC));
+			moves[count++] = createMove(SQUARE_E1, SQUARE_G1, KING, EMPTY,
+					EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 		}
 
 		if (colorToMove == WHITE
@@ -1540,10 +1657,8 @@ public class ClassicGame implements Game {
 				&& getPiece(SQUARE_A1) == ROOK && getPiece(SQUARE_D1) == EMPTY
 				&& getPiece(SQUARE_C1) == EMPTY && getPiece(SQUARE_B1) == EMPTY
 				&& !isInCheck(WHITE, E1) && !isInCheck(WHITE, D1)) {
-			moves
-					.appendLowPriority(new Move(SQUARE_E1, SQUARE_C1, KING,
-                            colorToMove, EMPTY,
-							Move.LONG_CASTLING_CHARACTERISTIC));
+			moves[count++] = createMove(SQUARE_E1, SQUARE_C1, KING, EMPTY,
+					EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 		}
 
 		if (colorToMove == BLACK
@@ -1552,11 +1667,8 @@ public class ClassicGame implements Game {
 				&& getPiece(SQUARE_H8) == ROOK && getPiece(SQUARE_G8) == EMPTY
 				&& getPiece(SQUARE_F8) == EMPTY && !isInCheck(BLACK, E8)
 				&& !isInCheck(BLACK, F8)) {
-			moves
-					.appendLowPriority(new Move(SQUARE_E8, SQUARE_G8, KING,
-                            colorToMove, EMPTY,
-							Move.SHORT_CASTLING_CHARACTERISTIC));
-
+			moves[count++] = createMove(SQUARE_E8, SQUARE_G8, KING, EMPTY,
+					EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 		}
 
 		if (colorToMove == BLACK
@@ -1566,47 +1678,52 @@ public class ClassicGame implements Game {
 				&& getPiece(SQUARE_D8) == EMPTY && getPiece(SQUARE_C8) == EMPTY
 				&& getPiece(SQUARE_B8) == EMPTY && !isInCheck(BLACK, E8)
 				&& !isInCheck(BLACK, D8)) {
-			moves
-					.appendLowPriority(new Move(SQUARE_E8, SQUARE_C8, KING,
-                            colorToMove, EMPTY,
-							Move.LONG_CASTLING_CHARACTERISTIC));
+			moves[count++] = createMove(SQUARE_E8, SQUARE_C8, KING, EMPTY,
+					EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal king moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the king moves were
+	 *         added.
 	 */
-	protected void generatePseudoKingMoves(PriorityMoveList moves) {
+	protected int generatePseudoKingMoves(int[] moves, int count) {
 		long fromBB = getPieceBB(colorToMove, KING);
 		int fromSquare = bitscanForward(fromBB);
 		long toBB = kingMove(fromSquare) & getNotColorToMoveBB();
 
-		generatePseudoKingCastlingMoves(fromBB, moves);
+		count = generatePseudoKingCastlingMoves(fromBB, moves, count);
 
 		while (toBB != 0) {
 			int toSquare = bitscanForward(toBB);
 
-			int contents = getPieceWithPromoteMask(toSquare);
-
-			addMove(new Move(fromSquare, toSquare, KING, colorToMove,
-					contents), moves);
+			moves[count++] = createMove(fromSquare, toSquare, KING,
+					getPieceWithPromoteMask(toSquare));
 			toBB = bitscanClear(toBB);
-			toSquare = bitscanForward(toBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal knight moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the knight moves were
+	 *         added.
 	 */
-	protected void generatePseudoKnightMoves(PriorityMoveList moves) {
+	protected int generatePseudoKnightMoves(int[] moves, int count) {
 
 		long fromBB = getPieceBB(colorToMove, KNIGHT);
 
@@ -1617,29 +1734,30 @@ public class ClassicGame implements Game {
 
 			while (toBB != 0) {
 				int toSquare = bitscanForward(toBB);
-				int contents = getPieceWithPromoteMask(toSquare);
-
-				addMove(new Move(fromSquare, toSquare,
-						getPieceWithPromoteMask(fromSquare), colorToMove,
-						contents), moves);
 
+				moves[count++] = createMove(fromSquare, toSquare,
+						getPieceWithPromoteMask(fromSquare),
+						getPieceWithPromoteMask(toSquare));
 				toBB = bitscanClear(toBB);
-				toSquare = bitscanForward(toBB);
 			}
 
 			fromBB = bitscanClear(fromBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal pawn captures in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the captures were added.
 	 */
-	protected void generatePseudoPawnCaptures(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
+	protected int generatePseudoPawnCaptures(int fromSquare, long fromBB,
+			int oppositeColor, int[] moves, int count) {
 
 		long toBB = pawnCapture(colorToMove, fromBB,
 				getColorBB(oppositeColor));
@@ -1647,116 +1765,137 @@ public class ClassicGame implements Game {
 		while (toBB != 0L) {
 			int toSquare = bitscanForward(toBB);
 			if ((toBB & RANK8_OR_RANK1) != 0L) {
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						getPieceWithPromoteMask(toSquare), KNIGHT,
-						EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						getPieceWithPromoteMask(toSquare), BISHOP,
-						EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						getPieceWithPromoteMask(toSquare), QUEEN, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						getPieceWithPromoteMask(toSquare), ROOK, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
+				count = generatePseudoPawnPromotions(fromSquare, toSquare,
+						getPieceWithPromoteMask(toSquare), moves, count);
 			} else {
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						getPieceWithPromoteMask(toSquare)), moves);
+				moves[count++] = createMove(fromSquare, toSquare, PAWN,
+						getPieceWithPromoteMask(toSquare));
 			}
 			toBB = bitscanClear(toBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal double pawn pushes in the position and
-	 * adds them to the specified move list.
+	 * adds them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the pushes were added.
 	 */
-	protected void generatePseudoPawnDoublePush(int fromSquare, long fromBB,
-			int oppositeColor, int epModifier, PriorityMoveList moves) {
+	protected int generatePseudoPawnDoublePush(int fromSquare, long fromBB,
+			int oppositeColor, int[] moves, int count) {
 
 		long toBB = pawnDoublePush(colorToMove, fromBB, emptyBB);
 
 		while (toBB != 0) {
 			int toSquare = bitscanForward(toBB);
-			addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-					EMPTY, EMPTY, toSquare + epModifier,
-					Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC), moves);
+			moves[count++] = createMove(fromSquare, toSquare, PAWN, EMPTY,
+					EMPTY, Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC);
 			toBB = bitscanClear(toBB);
 		}
-
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo En-Passant moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the captures were added.
 	 */
-	protected void generatePseudoPawnEPCaptures(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
-		if (epSquare != EMPTY) {
+	protected int generatePseudoPawnEPCaptures(int fromSquare, long fromBB,
+			int oppositeColor, int[] moves, int count) {
+		if (epSquare != EMPTY_SQUARE) {
 
 			long toBB = pawnEpCapture(colorToMove, fromBB, getPieceBB(
 					oppositeColor, PAWN), getBitboard(epSquare));
 
 			if (toBB != 0) {
-				int toSquare = bitscanForward(toBB);
-
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						PAWN, EMPTY, EMPTY_SQUARE,
-						Move.EN_PASSANT_CHARACTERISTIC), moves);
+				moves[count++] = createMove(fromSquare, bitscanForward(toBB),
+						PAWN, PAWN, EMPTY, Move.EN_PASSANT_CHARACTERISTIC);
 			}
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal pawn moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the pawn moves were
+	 *         added.
 	 */
-	protected void generatePseudoPawnMoves(PriorityMoveList moves) {
+	protected int generatePseudoPawnMoves(int[] moves, int count) {
 		long pawnsBB = getPieceBB(colorToMove, PAWN);
-		int oppositeColor, epModifier;
-
-		if (colorToMove == WHITE) {
-			oppositeColor = BLACK;
-			epModifier = -8;
-		} else {
-			oppositeColor = WHITE;
-			epModifier = +8;
-		}
+		int oppositeColor = getOppositeColor(colorToMove);
 
 		while (pawnsBB != 0) {
 			int fromSquare = bitscanForward(pawnsBB);
 			long fromBB = getBitboard(fromSquare);
 
-			generatePseudoPawnEPCaptures(fromSquare, fromBB, oppositeColor,
-					moves);
-			generatePseudoPawnCaptures(fromSquare, fromBB, oppositeColor, moves);
-			generatePseudoPawnSinglePush(fromSquare, fromBB, oppositeColor,
-					moves);
-			generatePseudoPawnDoublePush(fromSquare, fromBB, oppositeColor,
-					epModifier, moves);
+			count = generatePseudoPawnEPCaptures(fromSquare, fromBB,
+					oppositeColor, moves, count);
+			count = generatePseudoPawnCaptures(fromSquare, fromBB,
+					oppositeColor, moves, count);
+			count = generatePseudoPawnSinglePush(fromSquare, fromBB,
+					oppositeColor, moves, count);
+			count = generatePseudoPawnDoublePush(fromSquare, fromBB,
+					oppositeColor, moves, count);
 
 			pawnsBB = bitscanClear(pawnsBB);
 		}
+		return count;
+	}
+
+	/**
+	 * Adds a promotion move for each piece a pawn can promote to.
+	 * 
+	 * @param capture
+	 *            The piece captured with its promote mask, EMPTY if the
+	 *            promotion is not a capture.
+	 * @param moves
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the promotions were
+	 *         added.
+	 */
+	protected int generatePseudoPawnPromotions(int fromSquare, int toSquare,
+			int capture, int[] moves, int count) {
+		moves[count++] = createMove(fromSquare, toSquare, PAWN, capture,
+				KNIGHT, Move.PROMOTION_CHARACTERISTIC);
+		moves[count++] = createMove(fromSquare, toSquare, PAWN, capture,
+				BISHOP, Move.PROMOTION_CHARACTERISTIC);
+		moves[count++] = createMove(fromSquare, toSquare, PAWN, capture,
+				QUEEN, Move.PROMOTION_CHARACTERISTIC);
+		moves[count++] = createMove(fromSquare, toSquare, PAWN, capture,
+				ROOK, Move.PROMOTION_CHARACTERISTIC);
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal single push pawn moves in the position
-	 * and adds them to the specified move list.
+	 * and adds them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the pushes were added.
 	 */
-	protected void generatePseudoPawnSinglePush(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
+	protected int generatePseudoPawnSinglePush(int fromSquare, long fromBB,
+			int oppositeColor, int[] moves, int count) {
 
 		long toBB = pawnSinglePush(colorToMove, fromBB, emptyBB);
 
@@ -1764,88 +1903,99 @@ public class ClassicGame implements Game {
 			int toSquare = bitscanForward(toBB);
 
 			if ((toBB & RANK8_OR_RANK1) != 0L) {
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						EMPTY, KNIGHT, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						EMPTY, BISHOP, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						EMPTY, QUEEN, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						EMPTY, ROOK, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
+				count = generatePseudoPawnPromotions(fromSquare, toSquare,
+						EMPTY, moves, count);
 			} else {
-				addMove(new Move(fromSquare, toSquare, PAWN, colorToMove,
-						EMPTY), moves);
+				moves[count++] = createMove(fromSquare, toSquare, PAWN, EMPTY);
 			}
 
 			toBB = bitscanClear(toBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal queen moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the queen moves were
+	 *         added.
 	 */
-	protected void generatePseudoQueenMoves(PriorityMoveList moves) {
+	protected int generatePseudoQueenMoves(int[] moves, int count) {
 		long fromBB = getPieceBB(colorToMove, QUEEN);
 
 		while (fromBB != 0) {
 			int fromSquare = bitscanForward(fromBB);
 
-			long toBB = (orthogonalMove(fromSquare, emptyBB,
-                    occupiedBB) | diagonalMove(fromSquare, emptyBB,
-                    occupiedBB))
+			long toBB = queenAttacks(fromSquare, occupiedBB)
 					& getNotColorToMoveBB();
 
 			while (toBB != 0) {
 				int toSquare = bitscanForward(toBB);
 
-				int contents = getPieceWithPromoteMask(toSquare);
-				addMove(new Move(fromSquare, toSquare,
-						getPieceWithPromoteMask(fromSquare), colorToMove,
-						contents), moves);
+				moves[count++] = createMove(fromSquare, toSquare,
+						getPieceWithPromoteMask(fromSquare),
+						getPieceWithPromoteMask(toSquare));
 				toBB = bitscanClear(toBB);
 			}
 
 			fromBB = bitscanClear(fromBB);
 		}
+		return count;
 	}
 
 	/**
 	 * Generates all of the pseudo legal rook moves in the position and adds
-	 * them to the specified move list.
+	 * them to the specified packed move buffer.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the rook moves were
+	 *         added.
 	 */
-	protected void generatePseudoRookMoves(PriorityMoveList moves) {
+	protected int generatePseudoRookMoves(int[] moves, int count) {
 		long fromBB = getPieceBB(colorToMove, ROOK);
 
 		while (fromBB != 0) {
 			int fromSquare = bitscanForward(fromBB);
 
-			long toBB = orthogonalMove(fromSquare, emptyBB,
-                    occupiedBB)
+			long toBB = rookAttacks(fromSquare, occupiedBB)
 					& getNotColorToMoveBB();
 
 			while (toBB != 0) {
 				int toSquare = bitscanForward(toBB);
 
-				int contents = getPieceWithPromoteMask(toSquare);
-				addMove(new Move(fromSquare, toSquare,
-						getPieceWithPromoteMask(fromSquare), colorToMove,
-						contents), moves);
+				moves[count++] = createMove(fromSquare, toSquare,
+						getPieceWithPromoteMask(fromSquare),
+						getPieceWithPromoteMask(toSquare));
 				toBB = bitscanClear(toBB);
 			}
 
 			fromBB = bitscanClear(fromBB);
 		}
+		return count;
+	}
+
+	/**
+	 * Returns all of the pieces of attackerColor which attack square if the
+	 * board had the specified occupied squares.
+	 */
+	protected long getAttackers(int square, int attackerColor, long occupied) {
+		long[] attackerBB = pieceBB[attackerColor];
+		return pawnCapture(getOppositeColor(attackerColor),
+				getBitboard(square), attackerBB[PAWN])
+				| knightMove(square) & attackerBB[KNIGHT]
+				| kingMove(square) & attackerBB[KING]
+				| bishopAttacks(square, occupied)
+				& (attackerBB[BISHOP] | attackerBB[QUEEN])
+				| rookAttacks(square, occupied)
+				& (attackerBB[ROOK] | attackerBB[QUEEN]);
 	}
 
 	protected String getDropCountsString() {
@@ -1863,6 +2013,35 @@ public class ClassicGame implements Game {
 				+ getDropCount(BLACK, KING) + "]";
 	}
 
+	/**
+	 * Returns the pieces of color which are pinned to the king on kingSquare.
+	 * A pinned piece can only move along the line through it and its king.
+	 */
+	protected long getPinned(int kingSquare, int color) {
+		int oppositeColor = getOppositeColor(color);
+		long[] oppositeBB = pieceBB[oppositeColor];
+		long oppositeColorBB = colorBB[oppositeColor];
+
+		// Sliders which would attack the king if none of colors pieces were
+		// on the board.
+		long snipersBB = bishopAttacks(kingSquare, oppositeColorBB)
+				& (oppositeBB[BISHOP] | oppositeBB[QUEEN])
+				| rookAttacks(kingSquare, oppositeColorBB)
+				& (oppositeBB[ROOK] | oppositeBB[QUEEN]);
+
+		long result = 0L;
+		while (snipersBB != 0L) {
+			long blockersBB = squaresBetween(kingSquare,
+					bitscanForward(snipersBB))
+					& occupiedBB;
+			if (blockersBB != 0L && bitscanClear(blockersBB) == 0L) {
+				result |= blockersBB & colorBB[color];
+			}
+			snipersBB = bitscanClear(snipersBB);
+		}
+		return result;
+	}
+
 	protected String getPieceCountsString() {
 		return "Piece counts [WP=" + getPieceCount(WHITE, PAWN) + " WN="
 				+ getPieceCount(WHITE, KNIGHT) + " WB="
@@ -1878,6 +2057,20 @@ public class ClassicGame implements Game {
 				+ getPieceCount(BLACK, KING) + "]";
 	}
 
+	/**
+	 * Returns the square named by the file and rank chars at index in san,
+	 * EMPTY_SQUARE if they don't name one.
+	 */
+	protected int getSanSquare(String san, int index) {
+		if (index < 0) {
+			return EMPTY_SQUARE;
+		}
+		int file = san.charAt(index) - 'a';
+		int rank = san.charAt(index + 1) - '1';
+		return file < 0 || file > 7 || rank < 0 || rank > 7 ? EMPTY_SQUARE
+				: getSquare(rank, file);
+	}
+
 	/**
 	 * Returns true if the specified color has at least one drop piece.
 	 * 
@@ -1928,6 +2121,62 @@ public class ClassicGame implements Game {
 		pieceCounts[color][piece]++;
 	}
 
+	/**
+	 * Returns true if the packed pseudo legal move does not leave the king in
+	 * check. Castling and en-passant moves are rare and have special cases, so
+	 * they are made and rolled back instead.
+	 * 
+	 * @param kingSquare
+	 *            The square of the color to moves king.
+	 * @param evasionBB
+	 *            The squares a non king move must end on, -1 if not in check.
+	 * @param pinnedBB
+	 *            The color to moves pinned pieces.
+	 */
+	protected boolean isLegalMove(int move, int kingSquare, long evasionBB,
+			long pinnedBB) {
+		if ((PackedMoveUtils.getMoveCharacteristic(move) & (Move.EN_PASSANT_CHARACTERISTIC
+				| Move.SHORT_CASTLING_CHARACTERISTIC | Move.LONG_CASTLING_CHARACTERISTIC)) != 0) {
+			return isLegalMoveByMakingIt(move);
+		}
+		if ((PackedMoveUtils.getCaptureWithPromoteMask(move) & NOT_PROMOTED_MASK) == KING) {
+			return false;
+		}
+
+		long toBB = getBitboard(PackedMoveUtils.getTo(move));
+		if (PackedMoveUtils.isDrop(move)) {
+			return (evasionBB & toBB) != 0L;
+		}
+
+		int fromSquare = PackedMoveUtils.getFrom(move);
+		if (fromSquare == kingSquare) {
+			return getAttackers(PackedMoveUtils.getTo(move),
+					getOppositeColor(colorToMove), occupiedBB
+							^ getBitboard(kingSquare)) == 0L;
+		}
+		return (evasionBB & toBB) != 0L
+				&& ((pinnedBB & getBitboard(fromSquare)) == 0L || (lineThrough(
+						kingSquare, fromSquare) & toBB) != 0L);
+	}
+
+	/**
+	 * Makes the packed move, tests isLegalPosition(), and rolls it back. San
+	 * and eco headers are not updated.
+	 */
+	protected boolean isLegalMoveByMakingIt(int move) {
+		int previousState = state;
+		state &= ~(UPDATING_SAN_STATE | UPDATING_ECO_HEADERS_STATE);
+		try {
+			if (move(move)) {
+				rollback();
+				return true;
+			}
+			return false;
+		} finally {
+			state = previousState;
+		}
+	}
+
 	protected void makeCastlingMove(Move move) {
 		long kingFromBB, kingToBB, rookFromBB, rookToBB;
 
@@ -2089,6 +2338,189 @@ public class ClassicGame implements Game {
 		return null;
 	}
 
+	/**
+	 * Returns the packed move for the SAN of a pawn or piece move, or 0 if it
+	 * isn't decoded here. The from square is found by looking up which of the
+	 * color to moves pieces attack the to square, instead of generating every
+	 * pseudo legal move. Castling, drops, lenient notations and moves with no
+	 * or several candidates return 0, and makeSanMove then falls back to
+	 * matching the pseudo legal moves. The move returned may still leave the
+	 * king in check.
+	 */
+	protected int sanToPackedMove(String san) {
+		int length = san.length();
+		while (length > 0
+				&& (san.charAt(length - 1) == '+' || san.charAt(length - 1) == '#')) {
+			length--;
+		}
+		if (length < 2) {
+			return 0;
+		}
+
+		char firstChar = san.charAt(0);
+		if (firstChar >= 'a' && firstChar <= 'h') {
+			return sanToPackedPawnMove(san, length);
+		}
+
+		int piece = PIECE_TO_SAN.indexOf(firstChar);
+		int toSquare = getSanSquare(san, length - 2);
+		if (piece <= PAWN || toSquare == EMPTY_SQUARE
+				|| (getColorBB(colorToMove) & getBitboard(toSquare)) != 0L) {
+			return 0;
+		}
+
+		// An optional from file, from rank and x, in that order.
+		long fromBB = getPieceBB(colorToMove, piece);
+		int index = 1;
+		if (index < length - 2 && san.charAt(index) >= 'a'
+				&& san.charAt(index) <= 'h') {
+			fromBB &= AFILE << san.charAt(index++) - 'a';
+		}
+		if (index < length - 2 && san.charAt(index) >= '1'
+				&& san.charAt(index) <= '8') {
+			fromBB &= RANK1 << 8 * (san.charAt(index++) - '1');
+		}
+		if (index < length - 2 && san.charAt(index) == 'x') {
+			index++;
+		}
+		if (index != length - 2) {
+			return 0;
+		}
+
+		switch (piece) {
+		case KNIGHT:
+			fromBB &= knightMove(toSquare);
+			break;
+		case BISHOP:
+			fromBB &= bishopAttacks(toSquare, occupiedBB);
+			break;
+		case ROOK:
+			fromBB &= rookAttacks(toSquare, occupiedBB);
+			break;
+		case QUEEN:
+			fromBB &= queenAttacks(toSquare, occupiedBB);
+			break;
+		default:
+			fromBB &= kingMove(toSquare);
+			break;
+		}
+
+		if (fromBB == 0L) {
+			return 0;
+		}
+		if ((fromBB & fromBB - 1) == 0L) {
+			int fromSquare = bitscanForward(fromBB);
+			return createMove(fromSquare, toSquare,
+					getPieceWithPromoteMask(fromSquare),
+					getPieceWithPromoteMask(toSquare));
+		}
+
+		// More than one piece attacks the square, keep the only one which
+		// doesn't leave the king in check.
+		int result = 0;
+		for (; fromBB != 0L; fromBB = bitscanClear(fromBB)) {
+			int fromSquare = bitscanForward(fromBB);
+			int move = createMove(fromSquare, toSquare,
+					getPieceWithPromoteMask(fromSquare),
+					getPieceWithPromoteMask(toSquare));
+			if (isLegalMoveByMakingIt(move)) {
+				if (result != 0) {
+					return 0;
+				}
+				result = move;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the packed move for the SAN of a pawn push or capture, or 0 if
+	 * it isn't decoded here. See sanToPackedMove.
+	 * 
+	 * @param length
+	 *            The length of san without check and annotation suffixes.
+	 */
+	protected int sanToPackedPawnMove(String san, int length) {
+		int promotion = EMPTY;
+		char lastChar = san.charAt(length - 1);
+		if (lastChar == 'N' || lastChar == 'B' || lastChar == 'R'
+				|| lastChar == 'Q') {
+			promotion = PIECE_TO_SAN.indexOf(lastChar);
+			length--;
+			if (length > 0 && san.charAt(length - 1) == '=') {
+				length--;
+			}
+		}
+
+		int toSquare = getSanSquare(san, length - 2);
+		if (toSquare == EMPTY_SQUARE) {
+			return 0;
+		}
+		long toBB = getBitboard(toSquare);
+		if ((toBB & RANK8_OR_RANK1) != 0L != (promotion != EMPTY)) {
+			return 0;
+		}
+		int characteristic = promotion == EMPTY ? 0
+				: Move.PROMOTION_CHARACTERISTIC;
+		long pawnsBB = getPieceBB(colorToMove, PAWN);
+		int forward = colorToMove == WHITE ? 8 : -8;
+
+		if (length == 2) {
+			int fromSquare = toSquare - forward;
+			if ((toBB & emptyBB) == 0L || fromSquare < 0 || fromSquare > 63) {
+				return 0;
+			}
+			if ((pawnsBB & getBitboard(fromSquare)) != 0L) {
+				return createMove(fromSquare, toSquare, PAWN, EMPTY, promotion,
+						characteristic);
+			}
+			int startSquare = fromSquare - forward;
+			if (getRank(toSquare) == (colorToMove == WHITE ? 3 : 4)
+					&& (emptyBB & getBitboard(fromSquare)) != 0L
+					&& (pawnsBB & getBitboard(startSquare)) != 0L) {
+				return createMove(startSquare, toSquare, PAWN, EMPTY, EMPTY,
+						Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC);
+			}
+		} else if (length == 4 && san.charAt(1) == 'x') {
+			int fromFile = san.charAt(0) - 'a';
+			int fromRank = getRank(toSquare) - (colorToMove == WHITE ? 1 : -1);
+			if (Math.abs(fromFile - getFile(toSquare)) != 1 || fromRank < 0
+					|| fromRank > 7) {
+				return 0;
+			}
+			int fromSquare = getSquare(fromRank, fromFile);
+			if ((pawnsBB & getBitboard(fromSquare)) == 0L) {
+				return 0;
+			}
+			if ((getColorBB(getOppositeColor(colorToMove)) & toBB) != 0L) {
+				return createMove(fromSquare, toSquare, PAWN,
+						getPieceWithPromoteMask(toSquare), promotion,
+						characteristic);
+			}
+			if (toSquare == epSquare) {
+				return createMove(fromSquare, toSquare, PAWN, PAWN, EMPTY,
+						Move.EN_PASSANT_CHARACTERISTIC);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Removes the illegal moves from the first count packed moves by making
+	 * and rolling back each one. Used by variants whose legality rules can't
+	 * be expressed with pins and check evasions. Returns the number of legal
+	 * moves.
+	 */
+	protected int removeIllegalMovesByMakingThem(int[] moves, int count) {
+		int legalCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (isLegalMoveByMakingIt(moves[i])) {
+				moves[legalCount++] = moves[i];
+			}
+		}
+		return legalCount;
+	}
+
 	protected void rollbackCastlingMove(Move move) {
 		long kingFromBB, kingToBB, rookFromBB, rookToBB;
 
@@ -2256,160 +2688,37 @@ public class ClassicGame implements Game {
 	}
 
 	/**
-	 * Should be called before the move is made to update the san field.
+	 * Should be called before the move is made to update the san field. Only
+	 * the bitboards needed to generate the san are recorded, the san itself is
+	 * generated the first time Move.getSan() is invoked.
+	 * 
+	 * @see SanUtils#updateSan(MoveList)
 	 */
+	/**
+	 * Replaces the repetition history with a copy of history, the oldest
+	 * position first.
+	 */
+	protected void setRepHistory(long[] history) {
+		if (repHistory.length < history.length) {
+			repHistory = new long[history.length * 2];
+		}
+		System.arraycopy(history, 0, repHistory, 0, history.length);
+		repHistorySize = history.length;
+	}
+
 	protected void setSan(Move move) {
 		if (isSettingMoveSan() && move.getSan() == null) {
-			// TO DO: possible add + or ++ for check/checkmate
-			String shortAlgebraic = null;
-
-			if (move.isDrop()) {
-				move.setSan(PIECE_TO_SAN.charAt(move.getPiece()) + "@"
-						+ getSan(move.getTo()));
-			} else if (move.isCastleShort()) {
-				shortAlgebraic = "O-O";
-			} else if (move.isCastleLong()) {
-				shortAlgebraic = "O-O-O";
-			} else if (move.getPiece() == PAWN
-					&& (move.getMoveCharacteristic() & Move.EN_PASSANT_CHARACTERISTIC) != 0) // e.p.
-			// is
-			// optional but
-			// the x is
-			// required.
-			// (pawn eps
-			// are never
-			// unambiguous)
-			{
-				shortAlgebraic = SanUtils.squareToFileSan(move.getFrom()) + "x"
-						+ SanUtils.squareToSan(move.getTo());
-			} else if (move.getPiece() == PAWN && move.isCapture()) // Possible
-			// formats ed
-			// ed5 edQ
-			// (pawn captures
-			// can be
-			// ambiguous)
-			{
-				int oppositeColorToMove = GameUtils
-						.getOppositeColor(colorToMove);
-				long fromBB = getPieceBB(colorToMove, PAWN);
-				int movesFound = 0;
-				while (fromBB != 0) {
-					int fromSquare = bitscanForward(fromBB);
-
-					long allPawnCapturesBB = pawnCapture(colorToMove,
-							getBitboard(fromSquare),
-							getColorBB(oppositeColorToMove));
-
-					while (allPawnCapturesBB != 0) {
-						int toSquare = bitscanForward(allPawnCapturesBB);
-						if (getFile(toSquare) == GameUtils
-								.getFile(move.getTo())) {
-							movesFound++;
-						}
-						allPawnCapturesBB = bitscanClear(allPawnCapturesBB);
-					}
-					fromBB = bitscanClear(fromBB);
-				}
-
-				if (movesFound > 1) {
-					shortAlgebraic = SanUtils.squareToFileSan(move.getFrom())
-							+ "x"
-							+ SanUtils.squareToSan(move.getTo())
-							+ (move.isPromotion() ? "="
-									+ PIECE_TO_SAN.charAt(move
-											.getPiecePromotedTo()) : "");
-				} else {
-					shortAlgebraic = SanUtils.squareToFileSan(move.getFrom())
-							+ "x"
-							+ SanUtils.squareToFileSan(move.getTo())
-							+ (move.isPromotion() ? "="
-									+ PIECE_TO_SAN.charAt(move
-											.getPiecePromotedTo()) : "");
-				}
-			} else if (move.getPiece() == PAWN) // e4 (pawn moves
-			// are never
-			// ambiguous)
-			{
-				shortAlgebraic = SanUtils.squareToSan(move.getTo())
-						+ (move.isPromotion() ? "="
-								+ PIECE_TO_SAN
-										.charAt(move.getPiecePromotedTo()) : "");
+			if (move.getPiece() == PAWN && move.isCapture()
+					&& !move.isEnPassant()) {
+				move.setSanContext(getPieceBB(colorToMove, PAWN),
+						getColorBB(getOppositeColor(colorToMove)));
+			} else if (move.isDrop() || move.getPiece() == PAWN
+					|| move.getPiece() == KING) {
+				move.setSanContext(0L, 0L);
 			} else {
-				long fromBB = getPieceBB(colorToMove, move.getPiece());
-				long toBB = getBitboard(move.getTo());
-
-				int sameFilesFound = 0;
-				int sameRanksFound = 0;
-				int matchesFound = 0;
-
-				if (move.getPiece() != KING) {
-					while (fromBB != 0) {
-						int fromSquare = bitscanForward(fromBB);
-						long resultBB = 0;
-
-						switch (move.getPiece()) {
-						case KNIGHT:
-							resultBB = knightMove(fromSquare) & toBB;
-							break;
-						case BISHOP:
-							resultBB = diagonalMove(fromSquare, emptyBB,
-                                    occupiedBB)
-									& getNotColorToMoveBB() & toBB;
-							break;
-						case ROOK:
-							resultBB = orthogonalMove(fromSquare, emptyBB,
-                                    occupiedBB)
-									& getNotColorToMoveBB() & toBB;
-							break;
-						case QUEEN:
-							resultBB = orthogonalMove(fromSquare, emptyBB,
-                                    occupiedBB)
-									& getNotColorToMoveBB()
-									& toBB
-									| diagonalMove(fromSquare, emptyBB,
-                                    occupiedBB)
-									& getNotColorToMoveBB() & toBB;
-							break;
-						}
-
-						if (resultBB != 0) {
-							int toSquare = bitscanForward(resultBB);
-
-							if (toSquare == move.getTo()) {
-								matchesFound++;
-								if (getFile(fromSquare) == GameUtils
-										.getFile(move.getFrom())) {
-									sameFilesFound++;
-								}
-								if (getRank(fromSquare) == GameUtils
-										.getRank(move.getFrom())) {
-									sameRanksFound++;
-								}
-							}
-						}
-						fromBB = bitscanClear(fromBB);
-					}
-				}
-
-				shortAlgebraic = String.valueOf(PIECE_TO_SAN.charAt(move.getPiece()));
-				boolean hasHandledAmbiguity = false;
-				if (sameRanksFound > 1) {
-					shortAlgebraic += SanUtils.squareToFileSan(move.getFrom());
-					hasHandledAmbiguity = true;
-				}
-				if (sameFilesFound > 1) {
-					shortAlgebraic += SanUtils.squareToRankSan(move.getFrom());
-					hasHandledAmbiguity = true;
-				}
-				if (matchesFound > 1 && !hasHandledAmbiguity) {
-					shortAlgebraic += SanUtils.squareToFileSan(move.getFrom());
-				}
-
-				shortAlgebraic += (move.isCapture() ? "x" : "")
-						+ SanUtils.squareToSan(move.getTo());
+				move.setSanContext(getPieceBB(colorToMove, move.getPiece()),
+						occupiedBB);
 			}
-
-			move.setSan(shortAlgebraic);
 		}
 	}
 
@@ -2483,6 +2792,27 @@ public class ClassicGame implements Game {
 		return result;
 	}
 
+	/**
+	 * Unpacks a packed move generated in the current position into result.
+	 * If result is null a new Move is created. Subclasses which store extra
+	 * information in a Move should override this method to add it.
+	 */
+	protected Move unpackMove(int move, Move result) {
+		return PackedMoveUtils.toMove(move, colorToMove, result);
+	}
+
+	/**
+	 * Unpacks a packed move into the pooled Move for the current ply. The
+	 * pooled move is reused the next time a packed move is made at this ply.
+	 */
+	protected Move unpackPooledMove(int move) {
+		if (movePool == null) {
+			movePool = new Move[MAX_HALF_MOVES_IN_GAME];
+		}
+		int ply = moves.getSize();
+		return movePool[ply] = unpackMove(move, movePool[ply]);
+	}
+
 	/**
 	 * Provided so it can be easily implemented for Fischer Random type of
 	 * games.
@@ -2519,14 +2849,14 @@ public class ClassicGame implements Game {
 			move.setPreviousEcoHeader(getHeader(PgnHeader.ECO));
 			move.setPreviousOpeningHeader(getHeader(PgnHeader.Opening));
 
-			String ecoCode = EcoService.getInstance().getEco(this);
-			String description = EcoService.getInstance().getLongDescription(
-					this);
-			if (StringUtils.isNotBlank(ecoCode)) {
-				setHeader(PgnHeader.ECO, ecoCode);
-			}
-			if (StringUtils.isNotBlank(description)) {
-				setHeader(PgnHeader.Opening, description);
+			EcoInfo info = EcoService.getInstance().getEcoInfo(this);
+			if (info != null) {
+				if (StringUtils.isNotBlank(info.getEcoCode())) {
+					setHeader(PgnHeader.ECO, info.getEcoCode());
+				}
+				if (StringUtils.isNotBlank(info.getOpening())) {
+					setHeader(PgnHeader.Opening, info.getOpening());
+				}
 			}
 
 		}
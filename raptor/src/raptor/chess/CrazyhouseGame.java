@@ -15,6 +15,7 @@ package raptor.chess;
 
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
+import static raptor.chess.util.PackedMoveUtils.createDropMove;
 
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.util.GameUtils;
@@ -28,6 +29,11 @@ import raptor.chess.util.SanUtils.SanValidations;
  * on that for a computer program.
  */
 public class CrazyhouseGame extends ClassicGame {
+	/**
+	 * The squares pawns can be dropped on.
+	 */
+	public static final long PAWN_DROP_MASK = NOT_RANK1 & NOT_RANK8;
+
 	public CrazyhouseGame() {
 		setHeader(PgnHeader.Variant, Variant.crazyhouse.name());
 		addState(Game.DROPPABLE_STATE);
@@ -44,16 +50,15 @@ public class CrazyhouseGame extends ClassicGame {
 	}
 
 	/**
-	 * Overridden to invoke genDropMoves as well as super.getPseudoLegalMoves.
+	 * Overridden to invoke generatePseudoDropMoves as well as
+	 * super.getPseudoLegalMoves.
 	 * 
 	 * 
 	 * {@inheritDoc}
 	 */
 	@Override
-	public PriorityMoveList getPseudoLegalMoves() {
-		PriorityMoveList result = super.getPseudoLegalMoves();
-		generatePseudoDropMoves(result);
-		return result;
+	public int getPseudoLegalMoves(int[] moves) {
+		return generatePseudoDropMoves(moves, super.getPseudoLegalMoves(moves));
 	}
 
 	/**
@@ -65,68 +70,70 @@ public class CrazyhouseGame extends ClassicGame {
 	}
 
 	/**
-	 * Generates all of the pseudo legal drop moves in the position and adds
-	 * them to the specified move list.
+	 * Adds a drop of every piece the side to move has in hand to every square
+	 * in toBB to the specified packed move buffer. Pawns are never dropped on
+	 * the first or last rank.
 	 * 
 	 * @param moves
-	 *            A move list.
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the drops were added.
 	 */
-	protected void generatePseudoDropMoves(PriorityMoveList moves) {
-
-		if (getDropCount(getColorToMove(), PAWN) > 0) {
-
-			long emptyBB = getEmptyBB() & NOT_RANK1 & NOT_RANK8;
-			while (emptyBB != 0) {
-				int toSquare = bitscanForward(emptyBB);
-
-				addMove(new Move(toSquare, PAWN, getColorToMove()), moves);
-				emptyBB = bitscanClear(emptyBB);
-			}
+	protected int generateDropMoves(int[] moves, int count, long toBB) {
+		if (toBB == 0L) {
+			return count;
 		}
-
-		if (getDropCount(getColorToMove(), KNIGHT) > 0) {
-
-			long emptyBB = getEmptyBB();
-			while (emptyBB != 0) {
-				int toSquare = bitscanForward(emptyBB);
-
-				addMove(new Move(toSquare, KNIGHT, getColorToMove()), moves);
-				emptyBB = bitscanClear(emptyBB);
-			}
+		int[] colorDropCounts = dropCounts[colorToMove];
+		if (colorDropCounts[PAWN] > 0) {
+			count = generateDropMoves(PAWN, toBB & PAWN_DROP_MASK, moves,
+					count);
 		}
-
-		if (getDropCount(getColorToMove(), BISHOP) > 0) {
-
-			long emptyBB = getEmptyBB();
-			while (emptyBB != 0) {
-				int toSquare = bitscanForward(emptyBB);
-
-				addMove(new Move(toSquare, BISHOP, getColorToMove()), moves);
-				emptyBB = bitscanClear(emptyBB);
+		for (int piece = BISHOP; piece <= QUEEN; piece++) {
+			if (colorDropCounts[piece] > 0) {
+				count = generateDropMoves(piece, toBB, moves, count);
 			}
 		}
+		return count;
+	}
 
-		if (getDropCount(getColorToMove(), ROOK) > 0) {
-
-			long emptyBB = getEmptyBB();
-			while (emptyBB != 0) {
-				int toSquare = bitscanForward(emptyBB);
-
-				addMove(new Move(toSquare, ROOK, getColorToMove()), moves);
-				emptyBB = bitscanClear(emptyBB);
-			}
+	/**
+	 * Adds a drop of piece to every square in toBB to the specified packed
+	 * move buffer.
+	 */
+	protected int generateDropMoves(int piece, long toBB, int[] moves,
+			int count) {
+		while (toBB != 0) {
+			moves[count++] = createDropMove(bitscanForward(toBB), piece);
+			toBB = bitscanClear(toBB);
 		}
+		return count;
+	}
 
-		if (getDropCount(getColorToMove(), QUEEN) > 0) {
-
-			long emptyBB = getEmptyBB();
-			while (emptyBB != 0) {
-				int toSquare = bitscanForward(emptyBB);
+	/**
+	 * Generates drops only to the empty squares in evasionBB, so in check only
+	 * the blocking drops are generated and in double check none are.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected int generateLegalDropMoves(int[] moves, int count,
+			long evasionBB) {
+		return generateDropMoves(moves, count, emptyBB & evasionBB);
+	}
 
-				addMove(new Move(toSquare, QUEEN, getColorToMove()), moves);
-				emptyBB = bitscanClear(emptyBB);
-			}
-		}
+	/**
+	 * Generates all of the pseudo legal drop moves in the position and adds
+	 * them to the specified packed move buffer.
+	 * 
+	 * @param moves
+	 *            A packed move buffer.
+	 * @param count
+	 *            The number of moves already in the buffer.
+	 * @return The number of moves in the buffer after the drops were added.
+	 */
+	protected int generatePseudoDropMoves(int[] moves, int count) {
+		return generateDropMoves(moves, count, emptyBB);
 	}
 
 	/**
@@ -22,11 +22,14 @@ import raptor.chess.pgn.PgnHeader;
 /**
  * Fischer Random Bughouse Game.
  * 
- * NOTE: the xoring for the zobrist is broken. It would need to be fixed to rely
- * on that for a computer program. Also this wont work for bgpn without some
- * changes.
+ * NOTE: this wont work for bgpn without some changes.
  */
 public class FischerRandomBughouseGame extends BughouseGame {
+	/**
+	 * The castling masks of the initial king and rook files.
+	 */
+	protected FischerRandomCastling castlingMasks = FischerRandomCastling
+			.getInstance(4, 7, 0);
 	protected int initialLongRookFile;
 	protected int initialShortRookFile;
 	protected int initialKingFile;
@@ -46,6 +49,7 @@ public class FischerRandomBughouseGame extends BughouseGame {
 		result.initialLongRookFile = initialLongRookFile;
 		result.initialShortRookFile = initialShortRookFile;
 		result.initialKingFile = initialKingFile;
+		result.castlingMasks = castlingMasks;
 		overwrite(result, ignoreHashes);
 		return result;
 	}
@@ -67,16 +71,18 @@ public class FischerRandomBughouseGame extends BughouseGame {
 			initialLongRookFile = secondRook;
 			initialShortRookFile = firstRook;
 		}
+		castlingMasks = FischerRandomCastling.getInstance(initialKingFile & 7,
+				initialShortRookFile & 7, initialLongRookFile & 7);
 	}
 
 	/**
 	 * Overridden to handle special FR castling rules.
 	 */
 	@Override
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
-		FischerRandomUtils.generatePseudoKingCastlingMoves(this, fromBB, moves,
-				initialKingFile, initialShortRookFile, initialLongRookFile);
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
+		return FischerRandomUtils.generatePseudoKingCastlingMoves(this,
+				fromBB, moves, count, castlingMasks);
 	}
 
 	/**
@@ -84,8 +90,7 @@ public class FischerRandomBughouseGame extends BughouseGame {
 	 */
 	@Override
 	protected void makeCastlingMove(Move move) {
-		FischerRandomUtils.makeCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.makeCastlingMove(this, move, castlingMasks);
 	}
 
 	/**
@@ -93,8 +98,7 @@ public class FischerRandomBughouseGame extends BughouseGame {
 	 */
 	@Override
 	protected void rollbackCastlingMove(Move move) {
-		FischerRandomUtils.rollbackCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.rollbackCastlingMove(this, move, castlingMasks);
 	}
 
 	/**
@@ -103,6 +107,6 @@ public class FischerRandomBughouseGame extends BughouseGame {
 	@Override
 	protected void updateCastlingRightsForNonEpNonCastlingMove(Move move) {
 		FischerRandomUtils.updateCastlingRightsForNonEpNonCastlingMove(this,
-				move, initialShortRookFile, initialLongRookFile);
+				move, castlingMasks);
 	}
 }
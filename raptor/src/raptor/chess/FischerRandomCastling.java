@@ -0,0 +1,179 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess;
+
+import static raptor.chess.util.GameUtils.getBitboard;
+import static raptor.chess.util.GameUtils.getSquare;
+import static raptor.chess.util.ZobristUtils.zobrist;
+
+/**
+ * The castling squares of a Fischer Random start position compiled into
+ * bitboards, so castling can be generated, made and rolled back with mask
+ * operations the way classic castling uses fixed squares. Instances are
+ * immutable and shared by every game with the same king and rook files; use
+ * getInstance to get one.
+ * 
+ * The per side arrays are indexed by color and then by CASTLE_SHORT or
+ * CASTLE_LONG.
+ */
+public final class FischerRandomCastling implements GameConstants {
+	private static final FischerRandomCastling[] INSTANCES = new FischerRandomCastling[8 * 8 * 8];
+
+	/**
+	 * The squares which must be safe for the king to castle: its start square
+	 * and the squares it passes. The destination is checked when the move is
+	 * checked for legality.
+	 */
+	private final long[][] attackBB = new long[2][3];
+	/**
+	 * The squares other than the king and rook start squares which must be
+	 * empty to castle.
+	 */
+	private final long[][] emptyBB = new long[2][3];
+	private final long[] kingFromBB = new long[2];
+	private final int[] kingFromSquare = new int[2];
+	private final long[][] kingFromToBB = new long[2][3];
+	private final int[][] kingToSquare = new int[2][3];
+	/**
+	 * The squares whose occupancy changes when castling.
+	 */
+	private final long[][] occupiedChangeBB = new long[2][3];
+	private final long[][] rookFromBB = new long[2][3];
+	private final int[][] rookFromSquare = new int[2][3];
+	private final long[][] rookFromToBB = new long[2][3];
+	private final int[][] rookToSquare = new int[2][3];
+	private final long[][] zobristChange = new long[2][3];
+
+	private FischerRandomCastling(int kingFile, int shortRookFile,
+			int longRookFile) {
+		for (int color = WHITE; color <= BLACK; color++) {
+			int rank = color == WHITE ? 0 : 7;
+			kingFromSquare[color] = getSquare(rank, kingFile);
+			kingFromBB[color] = getBitboard(kingFromSquare[color]);
+			init(color, CASTLE_SHORT, getSquare(rank, shortRookFile),
+					getSquare(rank, 6), getSquare(rank, 5));
+			init(color, CASTLE_LONG, getSquare(rank, longRookFile), getSquare(
+					rank, 2), getSquare(rank, 3));
+		}
+	}
+
+	/**
+	 * Returns the castling masks for a king starting on kingFile and rooks
+	 * starting on shortRookFile and longRookFile.
+	 */
+	public static FischerRandomCastling getInstance(int kingFile,
+			int shortRookFile, int longRookFile) {
+		int index = kingFile << 6 | shortRookFile << 3 | longRookFile;
+		FischerRandomCastling result = INSTANCES[index];
+		if (result == null) {
+			result = INSTANCES[index] = new FischerRandomCastling(kingFile,
+					shortRookFile, longRookFile);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if color may castle to side in game as far as the squares
+	 * are concerned: the rook is on its start square, the squares between are
+	 * empty and the king doesn't start on or pass an attacked square. The
+	 * castling rights aren't checked.
+	 */
+	public boolean canCastle(ClassicGame game, int color, int side) {
+		if ((game.getOccupiedBB() & emptyBB[color][side]) != 0L
+				|| (game.getPieceBB(color, ROOK) & rookFromBB[color][side]) == 0L) {
+			return false;
+		}
+		for (long squares = attackBB[color][side]; squares != 0L; squares &= squares - 1) {
+			if (game.isInCheck(color, squares & -squares)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getKingFromBB(int color) {
+		return kingFromBB[color];
+	}
+
+	public int getKingFromSquare(int color) {
+		return kingFromSquare[color];
+	}
+
+	public long getKingFromToBB(int color, int side) {
+		return kingFromToBB[color][side];
+	}
+
+	public int getKingToSquare(int color, int side) {
+		return kingToSquare[color][side];
+	}
+
+	public long getOccupiedChangeBB(int color, int side) {
+		return occupiedChangeBB[color][side];
+	}
+
+	public int getRookFromSquare(int color, int side) {
+		return rookFromSquare[color][side];
+	}
+
+	public long getRookFromToBB(int color, int side) {
+		return rookFromToBB[color][side];
+	}
+
+	public int getRookToSquare(int color, int side) {
+		return rookToSquare[color][side];
+	}
+
+	/**
+	 * Returns the change to the Zobrist position hash of castling.
+	 */
+	public long getZobristChange(int color, int side) {
+		return zobristChange[color][side];
+	}
+
+	/**
+	 * Returns all squares from square1 to square2 on the same rank, including
+	 * both.
+	 */
+	private static long getRankSpan(int square1, int square2) {
+		long result = 0L;
+		for (int square = Math.min(square1, square2); square <= Math.max(
+				square1, square2); square++) {
+			result |= getBitboard(square);
+		}
+		return result;
+	}
+
+	private void init(int color, int side, int rookFrom, int kingTo, int rookTo) {
+		int kingFrom = kingFromSquare[color];
+		long kingToBB = getBitboard(kingTo);
+		long rookToBB = getBitboard(rookTo);
+
+		kingToSquare[color][side] = kingTo;
+		rookFromSquare[color][side] = rookFrom;
+		rookToSquare[color][side] = rookTo;
+		rookFromBB[color][side] = getBitboard(rookFrom);
+		kingFromToBB[color][side] = kingFromBB[color] ^ kingToBB;
+		rookFromToBB[color][side] = rookFromBB[color][side] ^ rookToBB;
+		occupiedChangeBB[color][side] = (kingFromBB[color] | rookFromBB[color][side])
+				^ (kingToBB | rookToBB);
+		emptyBB[color][side] = (getRankSpan(kingFrom, kingTo) | getRankSpan(
+				rookFrom, rookTo))
+				& ~kingFromBB[color] & ~rookFromBB[color][side];
+		attackBB[color][side] = kingFrom == kingTo ? kingFromBB[color]
+				: getRankSpan(kingFrom, kingTo) & ~kingToBB;
+		zobristChange[color][side] = zobrist(color, KING, kingFrom)
+				^ zobrist(color, KING, kingTo) ^ zobrist(color, ROOK, rookFrom)
+				^ zobrist(color, ROOK, rookTo);
+	}
+}
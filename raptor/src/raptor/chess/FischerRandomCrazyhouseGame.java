@@ -21,10 +21,13 @@ import raptor.chess.pgn.PgnHeader;
 
 /*
  * Fischer Random Crazyhouse Game.
- * NOTE: the xoring for the zobrist is broken. It would need to be fixed to rely
- * on that for a computer program.
  */
 public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
+	/**
+	 * The castling masks of the initial king and rook files.
+	 */
+	protected FischerRandomCastling castlingMasks = FischerRandomCastling
+			.getInstance(4, 7, 0);
 	protected int initialLongRookFile;
 	protected int initialShortRookFile;
 	protected int initialKingFile;
@@ -44,6 +47,7 @@ public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
 		result.initialLongRookFile = initialLongRookFile;
 		result.initialShortRookFile = initialShortRookFile;
 		result.initialKingFile = initialKingFile;
+		result.castlingMasks = castlingMasks;
 		overwrite(result, ignoreHashes);
 		return result;
 	}
@@ -65,16 +69,18 @@ public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
 			initialLongRookFile = secondRook;
 			initialShortRookFile = firstRook;
 		}
+		castlingMasks = FischerRandomCastling.getInstance(initialKingFile & 7,
+				initialShortRookFile & 7, initialLongRookFile & 7);
 	}
 
 	/**
 	 * Overridden to handle special FR castling rules.
 	 */
 	@Override
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
-		FischerRandomUtils.generatePseudoKingCastlingMoves(this, fromBB, moves,
-				initialKingFile, initialShortRookFile, initialLongRookFile);
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
+		return FischerRandomUtils.generatePseudoKingCastlingMoves(this,
+				fromBB, moves, count, castlingMasks);
 	}
 
 	/**
@@ -82,8 +88,7 @@ public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
 	 */
 	@Override
 	protected void makeCastlingMove(Move move) {
-		FischerRandomUtils.makeCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.makeCastlingMove(this, move, castlingMasks);
 	}
 
 	/**
@@ -91,8 +96,7 @@ public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
 	 */
 	@Override
 	protected void rollbackCastlingMove(Move move) {
-		FischerRandomUtils.rollbackCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.rollbackCastlingMove(this, move, castlingMasks);
 	}
 
 	/**
@@ -101,6 +105,6 @@ public class FischerRandomCrazyhouseGame extends CrazyhouseGame {
 	@Override
 	protected void updateCastlingRightsForNonEpNonCastlingMove(Move move) {
 		FischerRandomUtils.updateCastlingRightsForNonEpNonCastlingMove(this,
-				move, initialShortRookFile, initialLongRookFile);
+				move, castlingMasks);
 	}
 }
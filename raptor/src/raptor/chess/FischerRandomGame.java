@@ -22,12 +22,14 @@ import raptor.chess.pgn.PgnHeader;
 
 /**
  * Fischer Random Chess game.
- * 
- * NOTE: the xoring for the zobrist is broken. It would need to be fixed to rely
- * on that for a computer program.
  */
 public class FischerRandomGame extends ClassicGame {
 
+	/**
+	 * The castling masks of the initial king and rook files.
+	 */
+	protected FischerRandomCastling castlingMasks = FischerRandomCastling
+			.getInstance(4, 7, 0);
 	protected int initialLongRookFile;
 	protected int initialShortRookFile;
 	protected int initialKingFile;
@@ -46,6 +48,7 @@ public class FischerRandomGame extends ClassicGame {
 		result.initialLongRookFile = initialLongRookFile;
 		result.initialShortRookFile = initialShortRookFile;
 		result.initialKingFile = initialKingFile;
+		result.castlingMasks = castlingMasks;
 		overwrite(result, ignoreHashes);
 		return result;
 	}
@@ -77,16 +80,18 @@ public class FischerRandomGame extends ClassicGame {
 			initialLongRookFile = secondRook;
 			initialShortRookFile = firstRook;
 		}
+		castlingMasks = FischerRandomCastling.getInstance(initialKingFile & 7,
+				initialShortRookFile & 7, initialLongRookFile & 7);
 	}
 
 	/**
 	 * Overridden to handle special FR castling rules.
 	 */
 	@Override
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
-		FischerRandomUtils.generatePseudoKingCastlingMoves(this, fromBB, moves,
-				initialKingFile, initialShortRookFile, initialLongRookFile);
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
+		return FischerRandomUtils.generatePseudoKingCastlingMoves(this,
+				fromBB, moves, count, castlingMasks);
 	}
 
 	/**
@@ -94,8 +99,7 @@ public class FischerRandomGame extends ClassicGame {
 	 */
 	@Override
 	protected void makeCastlingMove(Move move) {
-		FischerRandomUtils.makeCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.makeCastlingMove(this, move, castlingMasks);
 	}
 	
 	/**
@@ -133,8 +137,7 @@ public class FischerRandomGame extends ClassicGame {
 	 */
 	@Override
 	protected void rollbackCastlingMove(Move move) {
-		FischerRandomUtils.rollbackCastlingMove(this, move, initialKingFile,
-				initialShortRookFile, initialLongRookFile);
+		FischerRandomUtils.rollbackCastlingMove(this, move, castlingMasks);
 	}
 
 	/**
@@ -143,7 +146,7 @@ public class FischerRandomGame extends ClassicGame {
 	@Override
 	protected void updateCastlingRightsForNonEpNonCastlingMove(Move move) {
 		FischerRandomUtils.updateCastlingRightsForNonEpNonCastlingMove(this,
-				move, initialShortRookFile, initialLongRookFile);
+				move, castlingMasks);
 	}
 
 }
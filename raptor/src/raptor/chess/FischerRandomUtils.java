@@ -13,9 +13,10 @@
  */
 package raptor.chess;
 
-import static raptor.chess.util.GameUtils.bitscanForward;
 import static raptor.chess.util.GameUtils.getBitboard;
+import static raptor.chess.util.GameUtils.getOppositeColor;
 import static raptor.chess.util.GameUtils.getSquare;
+import static raptor.chess.util.PackedMoveUtils.createMove;
 import static raptor.chess.util.ZobristUtils.zobrist;
 
 import raptor.chess.util.GameUtils;
@@ -23,9 +24,6 @@ import raptor.chess.util.GameUtils;
 /**
  * Contains utility methods for fischer random chess. Since java doesnt allow
  * multiple inheritance this is used to avoid duplicate code.
- * 
- * NOTE: the xoring for the zobrist is broken. It would need to be fixed to rely
- * on that for a computer program.
  */
 public class FischerRandomUtils implements GameConstants {
 
@@ -48,70 +46,27 @@ public class FischerRandomUtils implements GameConstants {
 	/**
 	 * Overridden to handle special FR castling rules.
 	 */
-	public static void generatePseudoKingCastlingMoves(ClassicGame game,
-			long fromBB, PriorityMoveList moves, int initialKingFile,
-			int initialShortRookFile, int initialLongRookFile) {
-		int kingSquare = game.getColorToMove() == WHITE ? getSquare(0,
-				initialKingFile) : getSquare(7, initialKingFile);
-		long kingSquareBB = getBitboard(kingSquare);
-
-		if (game.getColorToMove() == WHITE
-				&& (game.getCastling(game.getColorToMove()) & CASTLE_SHORT) != 0
-				&& fromBB == kingSquareBB
-				&& emptyBetweenFiles(game, 0, initialKingFile,
-						initialShortRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_F1, WHITE,
-						initialShortRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_G1, WHITE,
-						initialShortRookFile)
-				&& !isCastlePathInCheck(game, kingSquare, SQUARE_G1, WHITE)) {
-
-			moves.appendLowPriority(new Move(kingSquare, SQUARE_G1, KING,
-					WHITE, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
-		}
-
-		if (game.getColorToMove() == BLACK
-				&& (game.getCastling(game.getColorToMove()) & CASTLE_SHORT) != 0
-				&& fromBB == kingSquareBB
-				&& emptyBetweenFiles(game, 7, initialKingFile,
-						initialShortRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_F8, BLACK,
-						initialShortRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_G8, BLACK,
-						initialShortRookFile)
-				&& !isCastlePathInCheck(game, kingSquare, SQUARE_G8, BLACK)) {
-
-			moves.appendLowPriority(new Move(kingSquare, SQUARE_G8, KING,
-					BLACK, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
+	public static int generatePseudoKingCastlingMoves(ClassicGame game,
+			long fromBB, int[] moves, int count, FischerRandomCastling castling) {
+		int color = game.getColorToMove();
+		int rights = game.getCastling(color);
+		if (rights == CASTLE_NONE || fromBB != castling.getKingFromBB(color)) {
+			return count;
 		}
 
-		if (game.getColorToMove() == WHITE
-				&& (game.getCastling(game.getColorToMove()) & CASTLE_LONG) != 0
-				&& fromBB == kingSquareBB
-				&& emptyBetweenFiles(game, 0, initialLongRookFile,
-						initialKingFile)
-				&& isKingEmptyOrRook(game, SQUARE_D1, WHITE,
-						initialLongRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_C1, WHITE,
-						initialLongRookFile)
-				&& !isCastlePathInCheck(game, kingSquare, SQUARE_C1, WHITE)) {
-			moves.appendLowPriority(new Move(kingSquare, SQUARE_C1, KING,
-					WHITE, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+		if ((rights & CASTLE_SHORT) != 0
+				&& castling.canCastle(game, color, CASTLE_SHORT)) {
+			moves[count++] = createMove(castling.getKingFromSquare(color),
+					castling.getKingToSquare(color, CASTLE_SHORT), KING, EMPTY,
+					EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 		}
-
-		if (game.getColorToMove() == BLACK
-				&& (game.getCastling(game.getColorToMove()) & CASTLE_LONG) != 0
-				&& fromBB == kingSquareBB
-				&& emptyBetweenFiles(game, 7, initialLongRookFile,
-						initialKingFile)
-				&& isKingEmptyOrRook(game, SQUARE_D8, BLACK,
-						initialLongRookFile)
-				&& isKingEmptyOrRook(game, SQUARE_C8, BLACK,
-						initialLongRookFile)
-				&& !isCastlePathInCheck(game, kingSquare, SQUARE_C8, BLACK)) {
-			moves.appendLowPriority(new Move(kingSquare, SQUARE_C8, KING,
-					BLACK, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+		if ((rights & CASTLE_LONG) != 0
+				&& castling.canCastle(game, color, CASTLE_LONG)) {
+			moves[count++] = createMove(castling.getKingFromSquare(color),
+					castling.getKingToSquare(color, CASTLE_LONG), KING, EMPTY,
+					EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 		}
+		return count;
 	}
 
 	/**
@@ -151,73 +106,17 @@ public class FischerRandomUtils implements GameConstants {
 	 * Overridden to handle special FR castling rules.
 	 */
 	public static void makeCastlingMove(ClassicGame game, Move move,
-			int initialKingFile, int initialShortRookFile,
-			int initialLongRookFile) {
+			FischerRandomCastling castling) {
+		int color = move.getColor();
+		int side = move.isCastleShort() ? CASTLE_SHORT : CASTLE_LONG;
 
-		int kingFromSquare = move.getColor() == WHITE ? getSquare(0,
-				initialKingFile) : getSquare(7, initialKingFile);
-		long kingFromBB = getBitboard(kingFromSquare);
-		long kingToBB, rookFromBB, rookToBB;
-		int rookFromSquare;
+		game.setPiece(castling.getKingFromSquare(color), EMPTY);
+		game.setPiece(castling.getRookFromSquare(color, side), EMPTY);
+		game.setPiece(castling.getKingToSquare(color, side), KING);
+		game.setPiece(castling.getRookToSquare(color, side), ROOK);
+		xorCastlingMasks(game, color, side, castling);
 
-		if (move.getColor() == WHITE) {
-			if (move.getMoveCharacteristic() == Move.SHORT_CASTLING_CHARACTERISTIC) {
-				rookFromSquare = getSquare(0, initialShortRookFile);
-				kingToBB = G1;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = F1;
-				updateZobristCastle(game, WHITE, kingFromSquare,
-						rookFromSquare, SQUARE_G1, SQUARE_F1);
-			} else {
-				rookFromSquare = getSquare(0, initialLongRookFile);
-				kingToBB = C1;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = D1;
-				updateZobristCastle(game, WHITE, kingFromSquare,
-						rookFromSquare, SQUARE_C1, SQUARE_D1);
-			}
-		} else {
-			if (move.getMoveCharacteristic() == Move.SHORT_CASTLING_CHARACTERISTIC) {
-				rookFromSquare = getSquare(7, initialShortRookFile);
-				kingToBB = G8;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = F8;
-				updateZobristCastle(game, BLACK, kingFromSquare,
-						rookFromSquare, SQUARE_G8, SQUARE_F8);
-			} else {
-				rookFromSquare = getSquare(7, initialLongRookFile);
-				kingToBB = C8;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = D8;
-				updateZobristCastle(game, BLACK, kingFromSquare,
-						rookFromSquare, SQUARE_C8, SQUARE_D8);
-			}
-		}
-
-		if (kingToBB != kingFromBB) {
-			long kingFromTo = kingToBB | kingFromBB;
-			game.setPiece(bitscanForward(kingToBB), KING);
-			game.setPiece(kingFromSquare, EMPTY);
-			game.xor(move.getColor(), KING, kingFromTo);
-			game.xor(move.getColor(), kingFromTo);
-			game.setOccupiedBB(game.getOccupiedBB() ^ kingFromTo);
-			game.setEmptyBB(game.getEmptyBB() ^ kingFromTo);
-		}
-
-		if (rookFromBB != rookToBB) {
-			long rookFromTo = rookToBB | rookFromBB;
-			game.setPiece(bitscanForward(rookToBB), ROOK);
-			if (rookFromBB != kingToBB) {
-				game.setPiece(rookFromSquare, EMPTY);
-			}
-			game.xor(move.getColor(), ROOK, rookFromTo);
-
-			game.xor(move.getColor(), rookFromTo);
-			game.setOccupiedBB(game.getOccupiedBB() ^ rookFromTo);
-			game.setEmptyBB(game.getEmptyBB() ^ rookFromTo);
-		}
-
-		game.setCastling(game.getColorToMove(), CASTLE_NONE);
+		game.setCastling(color, CASTLE_NONE);
 		game.setEpSquare(EMPTY_SQUARE);
 	}
 
@@ -225,69 +124,15 @@ public class FischerRandomUtils implements GameConstants {
 	 * Overridden to handle special FR castling rules.
 	 */
 	public static void rollbackCastlingMove(ClassicGame game, Move move,
-			int initialKingFile, int initialShortRookFile,
-			int initialLongRookFile) {
-		int kingFromSquare = move.getColor() == WHITE ? getSquare(0,
-				initialKingFile) : getSquare(7, initialKingFile);
-		long kingFromBB = getBitboard(kingFromSquare);
-		long kingToBB, rookFromBB, rookToBB;
-		int rookFromSquare;
-
-		if (move.getColor() == WHITE) {
-			if (move.getMoveCharacteristic() == Move.SHORT_CASTLING_CHARACTERISTIC) {
-				rookFromSquare = getSquare(0, initialShortRookFile);
-				kingToBB = G1;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = F1;
-				updateZobristCastle(game, WHITE, kingFromSquare,
-						rookFromSquare, SQUARE_G1, SQUARE_F1);
-			} else {
-				rookFromSquare = getSquare(0, initialLongRookFile);
-				kingToBB = C1;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = D1;
-				updateZobristCastle(game, WHITE, kingFromSquare,
-						rookFromSquare, SQUARE_C1, SQUARE_D1);
-			}
-		} else {
-			if (move.getMoveCharacteristic() == Move.SHORT_CASTLING_CHARACTERISTIC) {
-				rookFromSquare = getSquare(7, initialShortRookFile);
-				kingToBB = G8;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = F8;
-				updateZobristCastle(game, BLACK, kingFromSquare,
-						rookFromSquare, SQUARE_G8, SQUARE_F8);
-			} else {
-				rookFromSquare = getSquare(7, initialLongRookFile);
-				kingToBB = C8;
-				rookFromBB = getBitboard(rookFromSquare);
-				rookToBB = D8;
-				updateZobristCastle(game, BLACK, kingFromSquare,
-						rookFromSquare, SQUARE_C8, SQUARE_D8);
-			}
-		}
-
-		if (rookFromBB != rookToBB) {
-			long rookFromTo = rookToBB | rookFromBB;
-			game.setPiece(bitscanForward(rookToBB), EMPTY);
-			game.setPiece(rookFromSquare, ROOK);
-			game.xor(move.getColor(), ROOK, rookFromTo);
-			game.xor(move.getColor(), rookFromTo);
-			game.setOccupiedBB(game.getOccupiedBB() ^ rookFromTo);
-			game.setEmptyBB(game.getEmptyBB() ^ rookFromTo);
-		}
+			FischerRandomCastling castling) {
+		int color = move.getColor();
+		int side = move.isCastleShort() ? CASTLE_SHORT : CASTLE_LONG;
 
-		if (kingToBB != kingFromBB) {
-			long kingFromTo = kingToBB | kingFromBB;
-			if (kingToBB != rookFromBB) {
-				game.setPiece(bitscanForward(kingToBB), EMPTY);
-			}
-			game.setPiece(kingFromSquare, KING);
-			game.xor(move.getColor(), KING, kingFromTo);
-			game.xor(move.getColor(), kingFromTo);
-			game.setOccupiedBB(game.getOccupiedBB() ^ kingFromTo);
-			game.setEmptyBB(game.getEmptyBB() ^ kingFromTo);
-		}
+		game.setPiece(castling.getKingToSquare(color, side), EMPTY);
+		game.setPiece(castling.getRookToSquare(color, side), EMPTY);
+		game.setPiece(castling.getKingFromSquare(color), KING);
+		game.setPiece(castling.getRookFromSquare(color, side), ROOK);
+		xorCastlingMasks(game, color, side, castling);
 
 		game.setEpSquareFromPreviousMove();
 	}
@@ -296,48 +141,16 @@ public class FischerRandomUtils implements GameConstants {
 	 * Overridden to handle special FR castling rules.
 	 */
 	public static void updateCastlingRightsForNonEpNonCastlingMove(
-			ClassicGame game, Move move, int initialShortRookFile,
-			int initialLongRookFile) {
-		
-		int shortRookSquare = game.getColorToMove() == BLACK ? getSquare(0,
-				initialShortRookFile) : getSquare(7, initialShortRookFile);
-		int longRookSquare = game.getColorToMove() == BLACK ? getSquare(0,
-				initialLongRookFile) : getSquare(7, initialLongRookFile);
-		
-		switch (move.getPiece()) {
-		case KING:
-			game.setCastling(game.getColorToMove(), CASTLE_NONE);
-			break;
-		default:
-			if (move.getPiece() == ROOK && move.getFrom() == longRookSquare
-					&& game.getColorToMove() == WHITE
-					|| move.getCapture() == ROOK
-					&& move.getTo() == longRookSquare
-					&& game.getColorToMove() == BLACK) {
-				game.setCastling(WHITE, game.getCastling(WHITE) & CASTLE_SHORT);
-			} else if (move.getPiece() == ROOK
-					&& move.getFrom() == shortRookSquare
-					&& game.getColorToMove() == WHITE
-					|| move.getCapture() == ROOK
-					&& move.getTo() == shortRookSquare
-					&& game.getColorToMove() == BLACK) {
-				game.setCastling(WHITE, game.getCastling(WHITE) & CASTLE_LONG);
-			} else if (move.getPiece() == ROOK
-					&& move.getFrom() == longRookSquare
-					&& game.getColorToMove() == BLACK
-					|| move.getCapture() == ROOK
-					&& move.getTo() == longRookSquare
-					&& game.getColorToMove() == WHITE) {				
-				game.setCastling(BLACK, game.getCastling(BLACK) & CASTLE_SHORT);
-			} else if (move.getPiece() == ROOK
-					&& move.getFrom() == shortRookSquare
-					&& game.getColorToMove() == BLACK
-					|| move.getCapture() == ROOK
-					&& move.getTo() == shortRookSquare
-					&& game.getColorToMove() == WHITE) {
-				game.setCastling(BLACK, game.getCastling(BLACK) & CASTLE_LONG);
-			}
-			break;
+			ClassicGame game, Move move, FischerRandomCastling castling) {
+		int color = game.getColorToMove();
+		if (move.getPiece() == KING) {
+			game.setCastling(color, CASTLE_NONE);
+		} else if (move.getPiece() == ROOK) {
+			removeCastlingRight(game, color, move.getFrom(), castling);
+		}
+		if (move.getCapture() == ROOK) {
+			removeCastlingRight(game, getOppositeColor(color), move.getTo(),
+					castling);
 		}
 	}
 
@@ -348,8 +161,37 @@ public class FischerRandomUtils implements GameConstants {
 			int kingStartSquare, int rookStartSquare, int kingEndSquare,
 			int rookEndSquare) {
 		game.zobristPositionHash ^= zobrist(color, KING, kingStartSquare)
-				^ zobrist(color, KING, kingStartSquare)
+				^ zobrist(color, KING, kingEndSquare)
 				^ zobrist(color, ROOK, rookStartSquare)
 				^ zobrist(color, ROOK, rookEndSquare);
 	}
+
+	/**
+	 * Removes the castling right of color whose rook starts on square, if
+	 * there is one.
+	 */
+	private static void removeCastlingRight(ClassicGame game, int color,
+			int square, FischerRandomCastling castling) {
+		if (square == castling.getRookFromSquare(color, CASTLE_SHORT)) {
+			game.setCastling(color, game.getCastling(color) & CASTLE_LONG);
+		} else if (square == castling.getRookFromSquare(color, CASTLE_LONG)) {
+			game.setCastling(color, game.getCastling(color) & CASTLE_SHORT);
+		}
+	}
+
+	/**
+	 * Moves the king and rook bits and the Zobrist position hash between
+	 * their start and castled squares. Used for both making and rolling back
+	 * a castling move.
+	 */
+	private static void xorCastlingMasks(ClassicGame game, int color,
+			int side, FischerRandomCastling castling) {
+		long occupiedChange = castling.getOccupiedChangeBB(color, side);
+		game.xor(color, KING, castling.getKingFromToBB(color, side));
+		game.xor(color, ROOK, castling.getRookFromToBB(color, side));
+		game.xor(color, occupiedChange);
+		game.setOccupiedBB(game.getOccupiedBB() ^ occupiedChange);
+		game.setEmptyBB(game.getEmptyBB() ^ occupiedChange);
+		game.zobristPositionHash ^= castling.getZobristChange(color, side);
+	}
 }
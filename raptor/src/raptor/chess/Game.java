@@ -141,6 +141,17 @@ public interface Game extends GameConstants {
 	 */
 	public void forceMove(Move move);
 
+	/**
+	 * Makes a packed move with out any legality checking. The packed move must
+	 * have been generated in the current position, e.g. by
+	 * getPseudoLegalMoves(int[]). The Move added to the move list is reused the
+	 * next time a packed move is made at the same half move, so callers which
+	 * need to hold on to it should use forceMove(Move) instead.
+	 * 
+	 * @see raptor.chess.util.PackedMoveUtils
+	 */
+	public void forceMove(int move);
+
 	/**
 	 * Returns an array of all of the pgn headers set for this game.
 	 */
@@ -249,6 +260,16 @@ public interface Game extends GameConstants {
 	 */
 	public PriorityMoveList getLegalMoves();
 
+	/**
+	 * Writes all legal moves in the games current position into moves as
+	 * packed moves and returns the number of moves written. Unlike
+	 * getLegalMoves() no objects are created, so this should be used for move
+	 * walks. The buffer must be at least MAX_LEGAL_MOVES long.
+	 * 
+	 * @see raptor.chess.util.PackedMoveUtils
+	 */
+	public int getLegalMoves(int[] moves);
+
 	/**
 	 * Returns a move list of the moves that have been made in the position.
 	 * 
@@ -324,13 +345,23 @@ public interface Game extends GameConstants {
 	public PriorityMoveList getPseudoLegalMoves();
 
 	/**
-	 * Returns the number of times this position has occured.
+	 * Writes all pseudo legal moves in the games current position into moves
+	 * as packed moves and returns the number of moves written. The buffer must
+	 * be at least MAX_LEGAL_MOVES long.
+	 * 
+	 * @see raptor.chess.util.PackedMoveUtils
+	 */
+	public int getPseudoLegalMoves(int[] moves);
+
+	/**
+	 * Returns the number of times this position has occured. Positions are
+	 * compared by their full Zobrist game hash, so the color to move, castling
+	 * and ep square must match as well.
 	 */
 	public int getRepCount();
 
 	/**
-	 * Returns a hash that can be used to reference moveRepHash. The hash is
-	 * created using the zobrist position hash.
+	 * Returns the Zobrist game hash folded into an int.
 	 * 
 	 * @return The hash.
 	 */
@@ -341,6 +372,17 @@ public interface Game extends GameConstants {
 	 */
 	public Result getResult();
 
+	/**
+	 * Copies the board, bitboards, drop counts and color to move of the
+	 * current position into snapshot and returns it. Use this instead of a
+	 * getPiece call per square when reading the whole board.
+	 * 
+	 * @param snapshot
+	 *            The snapshot to fill, owned by the caller.
+	 * @return snapshot
+	 */
+	public BoardSnapshot getSnapshot(BoardSnapshot snapshot);
+
 	/**
 	 * Returns an integer with 1s in all of the states the game has set.
 	 * 
@@ -525,6 +567,17 @@ public interface Game extends GameConstants {
 	public Move makeSanMove(String shortAlgebraic)
 			throws IllegalArgumentException;
 
+	/**
+	 * Makes the moves sans[start] to sans[end - 1], given in SAN, in order.
+	 * Each move is made as makeSanMove makes it, so it can be used to replay
+	 * a whole game.
+	 * 
+	 * @return The index of the first move which was invalid or illegal, end
+	 *         if all of the moves were made. The moves before it are left
+	 *         made.
+	 */
+	public int makeSanMoves(String[] sans, int start, int end);
+
 	/**
 	 * Makes a move. If the move is illegal false is returned.
 	 * 
@@ -534,6 +587,16 @@ public interface Game extends GameConstants {
 	 */
 	public boolean move(Move move);
 
+	/**
+	 * Makes a packed move generated in the current position. If the move is
+	 * illegal false is returned. The same reuse rules as forceMove(int) apply.
+	 * 
+	 * @param move
+	 *            The packed move to make.
+	 * @return true if the move was legal, false otherwise.
+	 */
+	public boolean move(int move);
+
 	/**
 	 * Copys the information from this game into the passed in game.
 	 */
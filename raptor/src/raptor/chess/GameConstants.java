@@ -14,8 +14,7 @@
 package raptor.chess;
 
 public interface GameConstants {
-	public static final int MOVE_REP_CACHE_SIZE = 1 << 12;
-	public static final int MOVE_REP_CACHE_SIZE_MINUS_1 = MOVE_REP_CACHE_SIZE - 1;
+	public static final int REP_HISTORY_INITIAL_SIZE = 32;
 
 	public static final int MAX_HALF_MOVES_IN_GAME = 600;
 	public static final int MAX_LEGAL_MOVES = 600;
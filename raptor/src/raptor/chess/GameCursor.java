@@ -13,6 +13,8 @@
  */
 package raptor.chess;
 
+import org.apache.commons.lang.StringUtils;
+
 import raptor.chess.pgn.PgnHeader;
 import raptor.util.RaptorLogger;
 
@@ -37,6 +39,13 @@ import raptor.util.RaptorLogger;
  * <p>
  * Cursor position 1 is the position after the first move is made.
  * </p>
+ * <p>
+ * When the cursor is not on the last move of the master it is a working copy
+ * of the master. Moving the cursor steps the working copy forward or back one
+ * move at a time. A checkpoint of the position is kept every
+ * CHECKPOINT_INTERVAL half moves, so a jump only has to replay the moves from
+ * the nearest checkpoint.
+ * </p>
  */
 public class GameCursor implements Game {
 
@@ -63,8 +72,77 @@ public class GameCursor implements Game {
 		MakeMovesOnMasterSetCursorToLast
 	}
 
+	/**
+	 * The state of a position at a half move index, including the repetition
+	 * history. Everything but the move list, which is rebuilt from the master
+	 * game.
+	 */
+	protected static class Checkpoint {
+		protected String ecoHeader;
+		/**
+		 * The masters move the checkpoint was taken after, null for the
+		 * starting position. The checkpoint is only valid while the master
+		 * still has the same move at the same index, see isSameMove.
+		 */
+		protected Move lastMove;
+		protected String openingHeader;
+		protected Position position;
+		/**
+		 * The repetition history of a ClassicGame, null for other games.
+		 */
+		protected long[] repHistory;
+
+		public Checkpoint(Game game) {
+			ecoHeader = game.getHeader(PgnHeader.ECO);
+			lastMove = game.getMoveList().getSize() == 0 ? null : game
+					.getLastMove();
+			openingHeader = game.getHeader(PgnHeader.Opening);
+			position = new Position(game);
+			if (game instanceof ClassicGame) {
+				repHistory = ((ClassicGame) game).getRepHistory();
+			}
+		}
+
+		/**
+		 * Sets the position of game to this checkpoint. The move list is left
+		 * alone.
+		 */
+		public void apply(Game game) {
+			position.apply(game);
+			if (repHistory != null && game instanceof ClassicGame) {
+				((ClassicGame) game).setRepHistory(repHistory);
+			}
+			if (StringUtils.isNotBlank(ecoHeader)) {
+				game.setHeader(PgnHeader.ECO, ecoHeader);
+			} else {
+				game.removeHeader(PgnHeader.ECO);
+			}
+			if (StringUtils.isNotBlank(openingHeader)) {
+				game.setHeader(PgnHeader.Opening, openingHeader);
+			} else {
+				game.removeHeader(PgnHeader.Opening);
+			}
+		}
+	}
+
+	/**
+	 * The number of half moves between checkpoints.
+	 */
+	public static final int CHECKPOINT_INTERVAL = 16;
+
 	static final RaptorLogger LOG = RaptorLogger.getLog(GameCursor.class);
 
+	/**
+	 * The checkpoint at half move index i * CHECKPOINT_INTERVAL is at index i.
+	 * They are taken as the working copy passes them and belong to
+	 * checkpointsMaster and its move list checkpointsMoveList. Checkpoint 0 is
+	 * the masters starting position.
+	 */
+	protected Checkpoint[] checkpoints = new Checkpoint[GameConstants.MAX_HALF_MOVES_IN_GAME
+			/ CHECKPOINT_INTERVAL + 1];
+	protected Game checkpointsMaster;
+	protected MoveList checkpointsMoveList;
+
 	protected Game cursor;
 	protected int cursorPosition;
 	protected int cursorPositionBeforeCursorMoves;
@@ -162,6 +240,22 @@ public class GameCursor implements Game {
 		}
 	}
 
+	public void forceMove(int move) {
+		switch (mode) {
+		case MakeMovesOnMaster:
+			master.forceMove(move);
+			break;
+		case MakeMovesOnMasterSetCursorToLast:
+			master.forceMove(move);
+			setCursorMasterLast();
+			break;
+		case MakeMovesOnCursor:
+			cursor.forceMove(move);
+			adjustToCursorMove();
+			break;
+		}
+	}
+
 	public PgnHeader[] getAllHeaders() {
 		return master.getAllHeaders();
 	}
@@ -207,7 +301,7 @@ public class GameCursor implements Game {
 	}
 
 	public String getFenCastle() {
-		return cursor.toFenPosition();
+		return cursor.getFenCastle();
 	}
 
 	public int getFiftyMoveCount() {
@@ -242,6 +336,10 @@ public class GameCursor implements Game {
 		return cursor.getLegalMoves();
 	}
 
+	public int getLegalMoves(int[] moves) {
+		return cursor.getLegalMoves(moves);
+	}
+
 	public Game getMasterGame() {
 		return master;
 	}
@@ -294,6 +392,10 @@ public class GameCursor implements Game {
 		return cursor.getPseudoLegalMoves();
 	}
 
+	public int getPseudoLegalMoves(int[] moves) {
+		return cursor.getPseudoLegalMoves(moves);
+	}
+
 	public int getRepCount() {
 		return cursor.getRepCount();
 	}
@@ -306,6 +408,10 @@ public class GameCursor implements Game {
 		return master.getResult();
 	}
 
+	public BoardSnapshot getSnapshot(BoardSnapshot snapshot) {
+		return cursor.getSnapshot(snapshot);
+	}
+
 	public int getState() {
 		return master.getState();
 	}
@@ -479,6 +585,23 @@ public class GameCursor implements Game {
 			throw new IllegalStateException("Invalid mode: " + mode);
 		}
 	}
+	public int makeSanMoves(String[] sans, int start, int end) {
+		switch (mode) {
+		case MakeMovesOnMaster:
+			return master.makeSanMoves(sans, start, end);
+		case MakeMovesOnMasterSetCursorToLast:
+			int result = master.makeSanMoves(sans, start, end);
+			setCursorMasterLast();
+			return result;
+		case MakeMovesOnCursor:
+			int cursorResult = cursor.makeSanMoves(sans, start, end);
+			adjustToCursorMove();
+			return cursorResult;
+		default:
+			throw new IllegalStateException("Invalid mode: " + mode);
+		}
+	}
+
 
 	public boolean move(Move move) {
 		switch (mode) {
@@ -497,6 +620,23 @@ public class GameCursor implements Game {
 		}
 	}
 
+	public boolean move(int move) {
+		switch (mode) {
+		case MakeMovesOnMaster:
+			return master.move(move);
+		case MakeMovesOnMasterSetCursorToLast:
+			boolean result = master.move(move);
+			setCursorMasterLast();
+			return result;
+		case MakeMovesOnCursor:
+			boolean cursorResult = cursor.move(move);
+			adjustToCursorMove();
+			return cursorResult;
+		default:
+			throw new IllegalStateException("Invalid mode: " + mode);
+		}
+	}
+
 	public void overwrite(Game game, boolean ignoreHashes) {
 		throw new UnsupportedOperationException(
 				"This operation is not supported in GameCursor");
@@ -591,11 +731,14 @@ public class GameCursor implements Game {
 			halfMoveIndex = getMoveList().getSize();
 		}
 
-		if (cursorPosition != halfMoveIndex) {
-			cursor = master.deepCopy(true);
-			while (cursor.getMoveList().getSize() > halfMoveIndex) {
-				cursor.rollback();
+		boolean isWorkingCopyValid = validateCheckpoints()
+				&& isWorkingCopyValid();
+		if (cursorPosition != halfMoveIndex || cursor != master
+				&& !isWorkingCopyValid) {
+			if (!isWorkingCopyValid) {
+				cursor = master.deepCopy(false);
 			}
+			moveWorkingCopy(halfMoveIndex);
 		}
 		cursorPosition = halfMoveIndex;
 
@@ -731,6 +874,134 @@ public class GameCursor implements Game {
 		return master.toPgn();
 	}
 
+	/**
+	 * Returns the half move index of the valid checkpoint closest to and
+	 * before halfMoveIndex, -1 if there isn't one.
+	 */
+	protected int getCheckpointIndex(int halfMoveIndex) {
+		MoveList moveList = getMoveList();
+		for (int i = halfMoveIndex / CHECKPOINT_INTERVAL; i >= 0; i--) {
+			Checkpoint checkpoint = checkpoints[i];
+			int checkpointIndex = i * CHECKPOINT_INTERVAL;
+			if (checkpoint != null
+					&& (checkpointIndex == 0 || checkpointIndex <= moveList
+							.getSize()
+							&& isSameMove(moveList.get(checkpointIndex - 1),
+									checkpoint.lastMove))) {
+				return checkpointIndex;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if cursor is a working copy whose move list is the start of
+	 * the masters move list. The checkpoints must have been validated first,
+	 * the working copy has the same starting position as checkpoint 0.
+	 */
+	protected boolean isWorkingCopyValid() {
+		if (cursor == master || checkpointsMaster != master) {
+			return false;
+		}
+		int size = cursor.getMoveList().getSize();
+		return size == 0 || size <= getMoveList().getSize()
+				&& isSameMove(cursor.getLastMove(), getMoveList().get(size - 1));
+	}
+
+	/**
+	 * Returns true if the two moves are the same move made from the same
+	 * position state. Moves are compared by content rather than identity,
+	 * since a compact MoveList returns a new Move from every get.
+	 */
+	protected boolean isSameMove(Move move1, Move move2) {
+		return move1 == move2 || move1 != null && move2 != null
+				&& move1.getFrom() == move2.getFrom()
+				&& move1.getTo() == move2.getTo()
+				&& move1.getPiece() == move2.getPiece()
+				&& move1.getColor() == move2.getColor()
+				&& move1.getCapture() == move2.getCapture()
+				&& move1.getPiecePromotedTo() == move2.getPiecePromotedTo()
+				&& move1.getMoveCharacteristic() == move2.getMoveCharacteristic()
+				&& move1.getEpSquare() == move2.getEpSquare()
+				&& move1.getLastWhiteCastlingState() == move2.getLastWhiteCastlingState()
+				&& move1.getLastBlackCastlingState() == move2.getLastBlackCastlingState()
+				&& move1.getPrevious50MoveCount() == move2.getPrevious50MoveCount()
+				&& move1.getHalfMoveCount() == move2.getHalfMoveCount();
+	}
+
+	/**
+	 * Moves the working copy in cursor to halfMoveIndex. If a checkpoint is
+	 * closer than the working copies position, it is restored and the moves
+	 * after it are replayed.
+	 */
+	protected void moveWorkingCopy(int halfMoveIndex) {
+		MoveList masterMoves = getMoveList();
+		MoveList cursorMoves = cursor.getMoveList();
+		int checkpointIndex = getCheckpointIndex(halfMoveIndex);
+		if (checkpointIndex != -1
+				&& halfMoveIndex - checkpointIndex < Math.abs(cursorMoves
+						.getSize()
+						- halfMoveIndex)) {
+			checkpoints[checkpointIndex / CHECKPOINT_INTERVAL].apply(cursor);
+			while (cursorMoves.getSize() > checkpointIndex) {
+				cursorMoves.removeLast();
+			}
+			while (cursorMoves.getSize() < checkpointIndex) {
+				cursorMoves.append(masterMoves.get(cursorMoves.getSize()));
+			}
+		}
+
+		while (cursorMoves.getSize() > halfMoveIndex) {
+			cursor.rollback();
+			updateCheckpoint();
+		}
+		while (cursorMoves.getSize() < halfMoveIndex) {
+			cursor.forceMove(masterMoves.get(cursorMoves.getSize()));
+			updateCheckpoint();
+		}
+	}
+
+	/**
+	 * Takes a checkpoint of the working copy if it is on a checkpoint index
+	 * which doesn't have a valid one.
+	 */
+	protected void updateCheckpoint() {
+		int size = cursor.getMoveList().getSize();
+		if (size % CHECKPOINT_INTERVAL == 0) {
+			Checkpoint checkpoint = checkpoints[size / CHECKPOINT_INTERVAL];
+			if (checkpoint == null
+					|| size > 0
+					&& !isSameMove(checkpoint.lastMove, cursor.getLastMove())) {
+				checkpoints[size / CHECKPOINT_INTERVAL] = new Checkpoint(
+						cursor);
+			}
+		}
+	}
+
+	/**
+	 * Drops all of the checkpoints if the master no longer has the starting
+	 * position they were taken from. Clearing a game, which is how a game is
+	 * reset to a new position, gives it a new move list. A master without
+	 * moves is also compared against checkpoint 0, since it may have been
+	 * reset in place. Returns false if the checkpoints were dropped, in which
+	 * case the working copy is stale as well.
+	 */
+	protected boolean validateCheckpoints() {
+		MoveList moveList = getMoveList();
+		if (checkpointsMaster == master
+				&& checkpointsMoveList == moveList
+				&& (moveList.getSize() > 0 || checkpoints[0] == null || checkpoints[0].position
+						.equals(new Position(master)))) {
+			return true;
+		}
+		checkpointsMaster = master;
+		checkpointsMoveList = moveList;
+		for (int i = 0; i < checkpoints.length; i++) {
+			checkpoints[i] = null;
+		}
+		return false;
+	}
+
 	protected void adjustToCursorMove() {
 		if (!isInCursorSubline) {
 			masterBackup = master;
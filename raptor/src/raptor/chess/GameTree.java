@@ -0,0 +1,513 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnUtils;
+import raptor.chess.pgn.SublineNode;
+import raptor.chess.util.ZobristUtils;
+
+/**
+ * <p>
+ * The moves of a game and all of its variations as a graph of positions.
+ * Nodes are keyed by the Zobrist game hash (and the drop counts in droppable
+ * variants) together with the number of half moves made, so a transposition
+ * reached in the same number of half moves shares one node with all of its
+ * variations. A repetition is always reached later than the position it
+ * repeats, so it gets a node of its own and the graph stays acyclic.
+ * </p>
+ * <p>
+ * The tree owns a working game which is positioned at the current node.
+ * forward, back, addMove, addSanMove and mergeLine make or roll back one move
+ * per node and look up the next node in a hash map, so they cost the same no
+ * matter how large the tree is. Moves should only be made on the working game
+ * through the tree.
+ * </p>
+ * <p>
+ * Child 0 of a node is its main line, the others are variations. toPgn writes
+ * the variations as nested sublines. PGN has no way to share a line, so a
+ * transposition is written once for every line that reaches it.
+ * </p>
+ */
+public class GameTree implements GameConstants {
+
+	/**
+	 * A position in the tree. The moves leading out of it and the nodes they
+	 * lead to are kept in two parallel arrays.
+	 */
+	public static class Node {
+		protected int childCount;
+		protected Node[] children;
+		protected int halfMoveIndex;
+		protected long key;
+		protected Move[] moves;
+		protected Node nextWithSameKey;
+		protected int parentCount;
+
+		public Node(long key, int halfMoveIndex) {
+			this.key = key;
+			this.halfMoveIndex = halfMoveIndex;
+		}
+
+		public Node getChild(int index) {
+			return children[index];
+		}
+
+		public int getChildCount() {
+			return childCount;
+		}
+
+		/**
+		 * Returns the number of half moves made in the game to reach this
+		 * node.
+		 */
+		public int getHalfMoveIndex() {
+			return halfMoveIndex;
+		}
+
+		public long getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the move leading to child index.
+		 */
+		public Move getMove(int index) {
+			return moves[index];
+		}
+
+		/**
+		 * Returns the number of moves leading to this node, more than one if
+		 * it is a transposition.
+		 */
+		public int getParentCount() {
+			return parentCount;
+		}
+
+		/**
+		 * Returns the index of the child reached by the move from, to, -1 if
+		 * there isn't one. promotedPiece is only compared if it isn't EMPTY.
+		 */
+		public int indexOf(int from, int to, int promotedPiece) {
+			for (int i = 0; i < childCount; i++) {
+				if (moves[i].getFrom() == from
+						&& moves[i].getTo() == to
+						&& (promotedPiece == EMPTY || (moves[i]
+								.getPiecePromotedTo() & NOT_PROMOTED_MASK) == promotedPiece)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		public boolean isTransposition() {
+			return parentCount > 1;
+		}
+
+		protected int addChild(Move move, Node child) {
+			if (moves == null) {
+				moves = new Move[1];
+				children = new Node[1];
+			} else if (childCount == moves.length) {
+				Move[] newMoves = new Move[childCount * 2];
+				Node[] newChildren = new Node[childCount * 2];
+				System.arraycopy(moves, 0, newMoves, 0, childCount);
+				System.arraycopy(children, 0, newChildren, 0, childCount);
+				moves = newMoves;
+				children = newChildren;
+			}
+			moves[childCount] = move;
+			children[childCount] = child;
+			child.parentCount++;
+			return childCount++;
+		}
+	}
+
+	protected Node current;
+	protected Game game;
+	protected Map<Long, Node> nodes = new HashMap<Long, Node>();
+	/**
+	 * The nodes from the root to the parent of current.
+	 */
+	protected List<Node> path = new ArrayList<Node>();
+	protected Node root;
+	protected int size;
+
+	/**
+	 * Creates a tree whose root is the current position of game. The tree
+	 * takes over game as its working game.
+	 */
+	public GameTree(Game game) {
+		this.game = game;
+		root = current = getOrCreateNode();
+	}
+
+	/**
+	 * Creates a tree from the moves of game and the sublines annotated on
+	 * them. The root is the starting position of game and the tree is left
+	 * there. game itself is not changed.
+	 */
+	public static GameTree fromGame(Game game) {
+		Game copy = game.deepCopy(false);
+		copy.getMoveList().expand();
+		Move[] moves = copy.getMoveList().asArray();
+		while (copy.getMoveList().getSize() > 0) {
+			copy.rollback();
+		}
+
+		GameTree result = new GameTree(copy);
+		int depth = 0;
+		while (depth < moves.length && result.addWithSublines(moves[depth])) {
+			depth++;
+		}
+		result.backToRoot();
+		return result;
+	}
+
+	/**
+	 * Makes the move from, to on the working game and moves to the node it
+	 * leads to, adding it if it isn't in the tree. promotedPiece is EMPTY if
+	 * the move isn't a promotion.
+	 * 
+	 * @return The new current node.
+	 * @throws IllegalArgumentException
+	 *             If the move is illegal.
+	 */
+	public Node addMove(int from, int to, int promotedPiece)
+			throws IllegalArgumentException {
+		int index = current.indexOf(from, to, promotedPiece);
+		if (index != -1) {
+			return forward(index);
+		}
+		if (promotedPiece == EMPTY) {
+			game.makeMove(from, to);
+		} else {
+			game.makeMove(from, to, promotedPiece);
+		}
+		link();
+		return current;
+	}
+
+	/**
+	 * Makes the move san on the working game and moves to the node it leads
+	 * to, adding it if it isn't in the tree.
+	 * 
+	 * @return The new current node.
+	 * @throws IllegalArgumentException
+	 *             If the move is illegal.
+	 */
+	public Node addSanMove(String san) throws IllegalArgumentException {
+		String strippedSan = stripSan(san);
+		for (int i = 0; i < current.childCount; i++) {
+			if (strippedSan.equals(current.moves[i].getSan())) {
+				return forward(i);
+			}
+		}
+		game.makeSanMove(strippedSan);
+		link();
+		return current;
+	}
+
+	/**
+	 * Moves to the parent of the current node along the path it was reached
+	 * by. Returns false if the current node is the root.
+	 */
+	public boolean back() {
+		if (path.isEmpty()) {
+			return false;
+		}
+		game.rollback();
+		current = path.remove(path.size() - 1);
+		return true;
+	}
+
+	public void backToRoot() {
+		while (back()) {
+		}
+	}
+
+	/**
+	 * Moves to child index of the current node.
+	 * 
+	 * @return The new current node.
+	 */
+	public Node forward(int index) {
+		if (index < 0 || index >= current.childCount) {
+			throw new IllegalArgumentException("Invalid child index " + index
+					+ ", the node has " + current.childCount + " children.");
+		}
+		game.forceMove(current.moves[index]);
+		path.add(current);
+		current = current.children[index];
+		return current;
+	}
+
+	public Node getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Returns the number of half moves from the root to the current node.
+	 */
+	public int getDepth() {
+		return path.size();
+	}
+
+	/**
+	 * Returns the working game, which is positioned at the current node.
+	 */
+	public Game getGame() {
+		return game;
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Adds the moves in sans, e.g. an engines principal variation, starting
+	 * at the current node. Moves already in the tree are followed, the rest
+	 * are added as variations. The current node is left unchanged. Adding
+	 * stops at the first illegal move.
+	 * 
+	 * @return The number of moves merged.
+	 */
+	public int mergeLine(String[] sans) {
+		int result = 0;
+		try {
+			for (; result < sans.length; result++) {
+				addSanMove(sans[result]);
+			}
+		} catch (IllegalArgumentException iae) {
+			// Merge the legal part of the line.
+		}
+		for (int i = 0; i < result; i++) {
+			back();
+		}
+		return result;
+	}
+
+	/**
+	 * Makes child index of the current node its main line.
+	 */
+	public void promote(int index) {
+		Move move = current.moves[index];
+		Node child = current.children[index];
+		System.arraycopy(current.moves, 0, current.moves, 1, index);
+		System.arraycopy(current.children, 0, current.children, 1, index);
+		current.moves[0] = move;
+		current.children[0] = child;
+	}
+
+	/**
+	 * Returns the PGN of the tree: the headers of the working game, the main
+	 * line from the root with all variations and the result. Missing required
+	 * headers are set to PgnHeader.UNKNOWN_VALUE.
+	 */
+	public String toPgn() {
+		StringBuilder builder = new StringBuilder(2500);
+
+		for (PgnHeader requiredHeader : PgnHeader.REQUIRED_HEADERS) {
+			if (StringUtils.isBlank(game.getHeader(requiredHeader))) {
+				game.setHeader(requiredHeader, PgnHeader.UNKNOWN_VALUE);
+			}
+		}
+
+		List<PgnHeader> pgnHeaders = new ArrayList<PgnHeader>();
+		Collections.addAll(pgnHeaders, game.getAllHeaders());
+		Collections.sort(pgnHeaders);
+		for (PgnHeader header : pgnHeaders) {
+			PgnUtils.getHeaderLine(builder, header.name(), game
+					.getHeader(header));
+			builder.append("\n");
+		}
+		builder.append("\n");
+
+		int moveTextStart = builder.length();
+		if (root.childCount > 0) {
+			appendLine(builder, root, true);
+			builder.append(" ");
+		}
+		builder.append(game.getResult().getDescription());
+		wrap(builder, moveTextStart);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the main line starting at node, and the variations of each node
+	 * along it, to builder.
+	 */
+	protected void appendLine(StringBuilder builder, Node node,
+			boolean forceMoveNumber) {
+		boolean isFirstMove = true;
+		while (node.childCount > 0) {
+			if (!isFirstMove) {
+				builder.append(" ");
+			}
+			isFirstMove = false;
+			appendMove(builder, node.moves[0], forceMoveNumber);
+			forceMoveNumber = false;
+
+			for (int i = 1; i < node.childCount; i++) {
+				builder.append(" (");
+				appendMove(builder, node.moves[i], true);
+				if (node.children[i].childCount > 0) {
+					builder.append(" ");
+					appendLine(builder, node.children[i], false);
+				}
+				builder.append(")");
+				forceMoveNumber = true;
+			}
+			node = node.children[0];
+		}
+	}
+
+	protected void appendMove(StringBuilder builder, Move move,
+			boolean forceMoveNumber) {
+		if (forceMoveNumber || move.isWhitesMove()) {
+			builder.append(move.getFullMoveCount()).append(
+					move.isWhitesMove() ? ". " : "... ");
+		}
+		builder.append(move.toString());
+		PgnUtils.getAnnotations(builder, move);
+	}
+
+	/**
+	 * Makes move and adds it, its sublines and the sublines of their replies
+	 * to the tree. The tree is left on the node move leads to. Returns false
+	 * without changing the tree if move is illegal.
+	 */
+	protected boolean addWithSublines(Move move) {
+		if (!game.move(move)) {
+			return false;
+		}
+		int index = link();
+
+		SublineNode[] sublines = move.getSublines();
+		if (sublines.length > 0) {
+			back();
+			for (SublineNode subline : sublines) {
+				int depth = 0;
+				for (SublineNode node = subline; node != null
+						&& addWithSublines(node.getMove()); node = node
+						.getReply()) {
+					depth++;
+				}
+				for (int i = 0; i < depth; i++) {
+					back();
+				}
+			}
+			forward(index);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the key of the working games position.
+	 */
+	protected long getKey() {
+		return ZobristUtils.zobristPositionKey(game);
+	}
+
+	/**
+	 * Returns the node of the working games position, adding it if it isn't
+	 * in the tree.
+	 */
+	protected Node getOrCreateNode() {
+		long key = getKey();
+		int halfMoveIndex = game.getMoveList().getSize();
+		Node first = nodes.get(key);
+		for (Node node = first; node != null; node = node.nextWithSameKey) {
+			if (node.halfMoveIndex == halfMoveIndex) {
+				return node;
+			}
+		}
+		Node result = new Node(key, halfMoveIndex);
+		result.nextWithSameKey = first;
+		nodes.put(key, result);
+		size++;
+		return result;
+	}
+
+	/**
+	 * Links the move just made on the working game to the current node and
+	 * makes the node it leads to current. If the current node already has the
+	 * move, its Move replaces the one just made so the tree keeps one Move
+	 * per edge.
+	 * 
+	 * @return The index of the child.
+	 */
+	protected int link() {
+		Move move = game.getLastMove();
+		int index = current.indexOf(move.getFrom(), move.getTo(), move
+				.getPiecePromotedTo()
+				& NOT_PROMOTED_MASK);
+		if (index != -1) {
+			game.rollback();
+			forward(index);
+			return index;
+		}
+
+		Node child = getOrCreateNode();
+		index = current.addChild(move, child);
+		path.add(current);
+		current = child;
+		return index;
+	}
+
+	/**
+	 * Removes check, mate and annotation symbols from the end of san.
+	 */
+	protected String stripSan(String san) {
+		int end = san.length();
+		while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) != -1) {
+			end--;
+		}
+		return san.substring(0, end);
+	}
+
+	/**
+	 * Breaks the text starting at start into lines of at most 80 characters
+	 * where it can.
+	 */
+	protected void wrap(StringBuilder builder, int start) {
+		int lineStart = start;
+		int lastSpace = -1;
+		for (int i = start; i < builder.length(); i++) {
+			if (builder.charAt(i) == ' ') {
+				lastSpace = i;
+			}
+			if (i - lineStart >= 79 && lastSpace > lineStart) {
+				builder.setCharAt(lastSpace, '\n');
+				lineStart = lastSpace + 1;
+				lastSpace = -1;
+			}
+		}
+	}
+}
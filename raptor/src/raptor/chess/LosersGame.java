@@ -14,6 +14,7 @@
 package raptor.chess;
 
 import raptor.chess.pgn.PgnHeader;
+import raptor.chess.util.PackedMoveUtils;
 import raptor.util.RaptorLogger;
 
 /**
@@ -46,41 +47,8 @@ public class LosersGame extends ClassicGame {
 	 * 
 	 */
 	@Override
-	public PriorityMoveList getLegalMoves() {
-		PriorityMoveList result = super.getLegalMoves();
-		boolean hasCapture = false;
-		for (int i = 0; i < result.getHighPrioritySize(); i++) {
-			setSan(result.getHighPriority(i));
-			if (result.getHighPriority(i).isCapture()) {
-				hasCapture = true;
-				break;
-			}
-		}
-		if (!hasCapture) {
-			for (int i = 0; i < result.getLowPrioritySize(); i++) {
-				setSan(result.getLowPriority(i));
-				if (result.getLowPriority(i).isCapture()) {
-					hasCapture = true;
-					break;
-				}
-			}
-		}
-
-		if (hasCapture) {
-			PriorityMoveList onlyCaptures = new PriorityMoveList();
-			for (int i = 0; i < result.getHighPrioritySize(); i++) {
-				if (result.getHighPriority(i).isCapture()) {
-					onlyCaptures.appendHighPriority(result.getHighPriority(i));
-				}
-			}
-			for (int i = 0; i < result.getLowPrioritySize(); i++) {
-				if (result.getLowPriority(i).isCapture()) {
-					onlyCaptures.appendHighPriority(result.getHighPriority(i));
-				}
-			}
-			return onlyCaptures;
-		} else {
-			return result;
-		}
+	public int getLegalMoves(int[] moves) {
+		return PackedMoveUtils.filterCapturesIfAny(moves, super
+				.getLegalMoves(moves));
 	}
 }
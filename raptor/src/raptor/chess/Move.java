@@ -23,6 +23,7 @@ import raptor.chess.pgn.Nag;
 import raptor.chess.pgn.SublineNode;
 import raptor.chess.pgn.TimeTakenForMove;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.SanUtils;
 
 public class Move implements GameConstants {
 	public static final int DOUBLE_PAWN_PUSH_CHARACTERISTIC = 4;
@@ -66,6 +67,14 @@ public class Move implements GameConstants {
 	 */
 	protected String san;
 
+	/**
+	 * The bitboards recorded by setSanContext. The SAN is generated from them
+	 * the first time getSan is invoked.
+	 */
+	protected boolean isSanPending;
+	protected long sanPieceBB;
+	protected long sanTargetBB;
+
 	protected byte to = EMPTY_SQUARE;
 
 	/**
@@ -79,11 +88,18 @@ public class Move implements GameConstants {
 	protected String previousOpeningHeader;
 
 	/**
-	 * Used only for atomic.
+	 * Used only for atomic. The squares of the pieces a capture explodes,
+	 * including the capturing piece on the to square but not the captured
+	 * piece.
+	 */
+	protected long atomicExplodedBB;
+
+	/**
+	 * Used only for atomic. The pieces on the atomicExplodedBB squares.
 	 * 
-	 * @see AtomicExplosionInfo For more details.
+	 * @see AtomicGame#getExplodedPiece(long, int) For the packing.
 	 */
-	protected AtomicExplosionInfo[] atomicExplosionInfo = null;
+	protected long atomicExplodedPieces;
 
 	/**
 	 * Constructor for drop moves. From square will be set to the drop square
@@ -158,12 +174,21 @@ public class Move implements GameConstants {
 	}
 
 	/**
-	 * Used only for atomic.
+	 * Used only for atomic. Returns the squares of the pieces the move
+	 * explodes, 0 if it isn't a capture.
+	 */
+	public long getAtomicExplodedBB() {
+		return atomicExplodedBB;
+	}
+
+	/**
+	 * Used only for atomic. Returns the packed pieces on the
+	 * getAtomicExplodedBB() squares.
 	 * 
-	 * @see AtomicExplosionInfo For more details.
+	 * @see AtomicGame#getExplodedPiece(long, int)
 	 */
-	public AtomicExplosionInfo[] getAtomicExplosionInfo() {
-		return atomicExplosionInfo;
+	public long getAtomicExplodedPieces() {
+		return atomicExplodedPieces;
 	}
 
 	/**
@@ -324,10 +349,34 @@ public class Move implements GameConstants {
 		return previousOpeningHeader;
 	}
 
+	/**
+	 * Returns the SAN of this move. If a SAN context was set it is generated
+	 * now.
+	 */
 	public String getSan() {
+		if (isSanPending) {
+			setSan(SanUtils.toSan(this, sanPieceBB, sanTargetBB,
+					new StringBuilder(8)));
+		}
 		return san;
 	}
 
+	/**
+	 * Returns the movers pieces of the type moving before the move was made.
+	 * Only valid while isSanPending.
+	 */
+	public long getSanPieceBB() {
+		return sanPieceBB;
+	}
+
+	/**
+	 * Returns the occupied squares, or for pawn captures the opponents
+	 * pieces, before the move was made. Only valid while isSanPending.
+	 */
+	public long getSanTargetBB() {
+		return sanTargetBB;
+	}
+
 	public SublineNode[] getSublines() {
 		if (annotations == null) {
 			return new SublineNode[0];
@@ -410,6 +459,14 @@ public class Move implements GameConstants {
 		return (moveCharacteristic & EN_PASSANT_CHARACTERISTIC) != 0;
 	}
 
+	/**
+	 * Returns true if a SAN context was set and the SAN has not been
+	 * generated yet.
+	 */
+	public boolean isSanPending() {
+		return isSanPending;
+	}
+
 	public boolean isPromotion() {
 		return piecePromotedTo != GameConstants.EMPTY;
 	}
@@ -425,13 +482,44 @@ public class Move implements GameConstants {
 		annotations.remove(annotation);
 	}
 
+	/**
+	 * Reinitializes this move so the instance can be reused for another move.
+	 * All state set while making the move (san, annotations, rollback
+	 * information) is cleared.
+	 */
+	public void reset(int from, int to, int piece, int color, int capture,
+			int piecePromotedTo, int epSquare, int moveCharacteristic) {
+		this.piece = (byte) piece;
+		this.color = (byte) color;
+		this.capture = (byte) capture;
+		this.from = (byte) from;
+		this.to = (byte) to;
+		this.piecePromotedTo = (byte) piecePromotedTo;
+		this.epSquare = (byte) epSquare;
+		this.moveCharacteristic = (byte) moveCharacteristic;
+		castlingType = CASTLE_NONE;
+		lastWhiteCastlingState = CASTLE_NONE;
+		lastBlackCastlingState = CASTLE_NONE;
+		previous50MoveCount = 0;
+		fullMoveCount = 0;
+		halfMoveCount = 0;
+		san = null;
+		isSanPending = false;
+		previousEcoHeader = null;
+		previousOpeningHeader = null;
+		annotations = null;
+		atomicExplodedBB = 0L;
+		atomicExplodedPieces = 0L;
+	}
+
 	/**
 	 * Used only for atomic.
 	 * 
-	 * @see AtomicExplosionInfo For more details.
+	 * @see AtomicGame#getExplodedPiece(long, int)
 	 */
-	public void setAtomicExplosionInfo(AtomicExplosionInfo[] atomicExplosionInfo) {
-		this.atomicExplosionInfo = atomicExplosionInfo;
+	public void setAtomicExplosion(long explodedBB, long explodedPieces) {
+		atomicExplodedBB = explodedBB;
+		atomicExplodedPieces = explodedPieces;
 	}
 
 	public void setCapture(int capture) {
@@ -502,6 +590,27 @@ public class Move implements GameConstants {
 
 	public void setSan(String san) {
 		this.san = san;
+		isSanPending = false;
+	}
+
+	/**
+	 * Records what is needed to generate the SAN of this move later, so the
+	 * disambiguation scan is only done if the SAN is ever requested. Must be
+	 * invoked before the move is made. Ignored if the SAN is already set.
+	 * 
+	 * @param pieceBB
+	 *            The movers pieces of the type moving.
+	 * @param targetBB
+	 *            The occupied squares, or for pawn captures the opponents
+	 *            pieces.
+	 * @see SanUtils#toSan(Move, long, long, StringBuilder)
+	 */
+	public void setSanContext(long pieceBB, long targetBB) {
+		if (san == null) {
+			sanPieceBB = pieceBB;
+			sanTargetBB = targetBB;
+			isSanPending = true;
+		}
 	}
 
 	public void setTo(int to) {
@@ -510,6 +619,7 @@ public class Move implements GameConstants {
 
 	@Override
 	public String toString() {
-		return san != null ? san : getLan();
+		String result = getSan();
+		return result != null ? result : getLan();
 	}
 }
@@ -13,15 +13,65 @@
  */
 package raptor.chess;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import raptor.chess.pgn.MoveAnnotation;
+
+/**
+ * The moves made in a game.
+ * 
+ * A MoveList can be compacted to hold games which are no longer being played
+ * with far less heap, e.g. the games of a PGN database. A compact list stores
+ * each move as a long, the SAN as an interned String, and annotations,
+ * previous ECO headers and atomic explosions in side tables which are only
+ * allocated if a move has them. Moves returned from a compact list are views
+ * materialized on demand, so changes made to them are not stored. Invoke
+ * expand() before editing the moves.
+ * 
+ * A list may be compacted while other threads read it. Any other change
+ * needs the same synchronization as changing a list which isn't compact.
+ */
 public final class MoveList implements GameConstants {
+	// The layout of a compact move.
+	private static final int FROM_SHIFT = 0;
+	private static final int TO_SHIFT = 7;
+	private static final int PIECE_SHIFT = 14;
+	private static final int CAPTURE_SHIFT = 18;
+	private static final int PROMOTED_TO_SHIFT = 22;
+	private static final int COLOR_SHIFT = 25;
+	private static final int CASTLING_TYPE_SHIFT = 26;
+	private static final int EP_SQUARE_SHIFT = 28;
+	private static final int CHARACTERISTIC_SHIFT = 35;
+	private static final int LAST_WHITE_CASTLING_SHIFT = 41;
+	private static final int LAST_BLACK_CASTLING_SHIFT = 43;
+	private static final int PREVIOUS_50_SHIFT = 45;
+	private static final int HALF_MOVE_COUNT_SHIFT = 53;
+
+	/**
+	 * Stored in the half move count bits of a compact move whose move counts
+	 * are in the moveCounts side table.
+	 */
+	private static final int HALF_MOVE_COUNT_IN_SIDE_TABLE = 0x7ff;
+
 	private int maxSize;
-	private Move[] moves;
+	/**
+	 * Null while compact. Volatile and switched to null last in compact(), so
+	 * a thread which sees null also sees the compact arrays.
+	 */
+	private volatile Move[] moves;
 	private int size = 0;
 
+	// Only used while compact.
+	private long[] compactMoves;
+	private String[] sans;
+	private MoveAnnotation[][] annotations;
+	private String[] previousHeaders;
+	private long[] atomicExplosions;
+	private int[] moveCounts;
+
 	public MoveList() {
 		this(MAX_HALF_MOVES_IN_GAME);
 	}
@@ -32,16 +82,32 @@ public final class MoveList implements GameConstants {
 	}
 
 	public void append(Move move) {
-		moves[size++] = move;
+		if (moves != null) {
+			moves[size++] = move;
+		} else {
+			ensureCompactCapacity(size + 1, 0);
+			pack(size++, move);
+		}
 	}
 
 	public Move[] asArray() {
+		Move[] moves = this.moves;
 		Move[] result = new Move[size];
-		System.arraycopy(moves, 0, result, 0, size);
+		if (moves != null) {
+			System.arraycopy(moves, 0, result, 0, size);
+		} else {
+			for (int i = 0; i < size; i++) {
+				result[i] = unpack(i);
+			}
+		}
 		return result;
 	}
 
 	public List<Move> asList() {
+		Move[] moves = this.moves;
+		if (moves == null) {
+			return new ArrayList<Move>(Arrays.asList(asArray()));
+		}
 		List<Move> result = new ArrayList<Move>(size);
         result.addAll(Arrays.asList(moves).subList(0, size));
 		return result;
@@ -49,31 +115,111 @@ public final class MoveList implements GameConstants {
 
 	public void clear() {
 		size = 0;
+		if (moves == null) {
+			annotations = null;
+			previousHeaders = null;
+			atomicExplosions = null;
+			moveCounts = null;
+		}
+	}
+
+	/**
+	 * Switches this list to the compact representation. Pending SANs are
+	 * generated first. Does nothing if the list is already compact.
+	 */
+	public void compact() {
+		if (moves == null) {
+			return;
+		}
+		compactMoves = new long[size];
+		sans = new String[size];
+		for (int i = 0; i < size; i++) {
+			pack(i, moves[i]);
+		}
+		// Switched last so readers see one complete representation.
+		moves = null;
 	}
 
 	public MoveList deepCopy() {
+		Move[] moves = this.moves;
+		if (moves == null) {
+			MoveList result = new MoveList(0);
+			result.maxSize = maxSize;
+			result.moves = null;
+			result.compactMoves = compactMoves.clone();
+			result.sans = sans.clone();
+			result.annotations = annotations == null ? null : annotations
+					.clone();
+			result.previousHeaders = previousHeaders == null ? null
+					: previousHeaders.clone();
+			result.atomicExplosions = atomicExplosions == null ? null
+					: atomicExplosions.clone();
+			result.moveCounts = moveCounts == null ? null : moveCounts.clone();
+			result.size = size;
+			return result;
+		}
 		MoveList result = new MoveList();
         System.arraycopy(moves, 0, result.moves, 0, moves.length);
 		result.size = size;
 		return result;
 	}
 
+	/**
+	 * Switches this list back to a Move per entry. The moves are materialized
+	 * once, so changes made to them from then on are kept. Does nothing if the
+	 * list isn't compact.
+	 */
+	public void expand() {
+		if (moves != null) {
+			return;
+		}
+		Move[] expandedMoves = new Move[Math.max(maxSize, size)];
+		for (int i = 0; i < size; i++) {
+			expandedMoves[i] = unpack(i);
+		}
+		moves = expandedMoves;
+		compactMoves = null;
+		sans = null;
+		annotations = null;
+		previousHeaders = null;
+		atomicExplosions = null;
+		moveCounts = null;
+	}
+
 	public Move get(int index) {
-		return moves[index];
+		Move[] moves = this.moves;
+		return moves != null ? moves[index] : unpack(index);
 	}
 
 	public Move getLast() {
-		return moves[size - 1];
+		return get(size - 1);
 	}
 
 	public int getSize() {
 		return size;
 	}
 
+	/**
+	 * Returns true if this list is using the compact representation.
+	 */
+	public boolean isCompact() {
+		return moves == null;
+	}
+
 	/**
 	 * Prepends the moves to the beginning of this list.
 	 */
 	public void prepend(Move[] movesToPrepend) {
+		if (moves == null) {
+			ensureCompactCapacity(size + movesToPrepend.length,
+					movesToPrepend.length);
+			for (int i = 0; i < movesToPrepend.length; i++) {
+				pack(i, movesToPrepend[i]);
+			}
+			size += movesToPrepend.length;
+			return;
+		}
+
 		Move[] newMoves = new Move[maxSize];
 
 		// Add all of the moves to prepend.
@@ -91,11 +237,185 @@ public final class MoveList implements GameConstants {
 	}
 
 	public Move removeLast() {
-		return moves[--size];
+		if (moves != null) {
+			return moves[--size];
+		}
+		Move result = unpack(--size);
+		sans[size] = null;
+		if (annotations != null) {
+			annotations[size] = null;
+		}
+		if (previousHeaders != null) {
+			previousHeaders[size * 2] = null;
+			previousHeaders[size * 2 + 1] = null;
+		}
+		return result;
 	}
 
 	@Override
 	public String toString() {
 		return asList().toString();
 	}
+
+	/**
+	 * Grows the compact arrays to hold at least capacity moves, shifting the
+	 * existing moves shift places towards the end.
+	 */
+	private void ensureCompactCapacity(int capacity, int shift) {
+		if (shift == 0 && capacity <= compactMoves.length) {
+			return;
+		}
+		int length = Math.max(capacity, shift == 0 ? compactMoves.length * 3
+				/ 2 + 1 : capacity);
+		compactMoves = (long[]) resize(compactMoves, 1, length, shift);
+		sans = (String[]) resize(sans, 1, length, shift);
+		annotations = (MoveAnnotation[][]) resize(annotations, 1, length,
+				shift);
+		previousHeaders = (String[]) resize(previousHeaders, 2, length, shift);
+		atomicExplosions = (long[]) resize(atomicExplosions, 2, length, shift);
+		moveCounts = (int[]) resize(moveCounts, 2, length, shift);
+	}
+
+	/**
+	 * Stores move at index in the compact arrays, which must be large enough.
+	 */
+	private void pack(int index, Move move) {
+		int halfMoveCount = move.getHalfMoveCount();
+		boolean isMoveCountPackable = halfMoveCount >= 0
+				&& halfMoveCount < HALF_MOVE_COUNT_IN_SIDE_TABLE
+				&& move.getFullMoveCount() == toFullMoveCount(halfMoveCount);
+
+		compactMoves[index] = (long) (move.from & 0x7f) << FROM_SHIFT
+				| (long) (move.to & 0x7f) << TO_SHIFT
+				| (long) (move.piece & 0xf) << PIECE_SHIFT
+				| (long) (move.capture & 0xf) << CAPTURE_SHIFT
+				| (long) (move.piecePromotedTo & 0x7) << PROMOTED_TO_SHIFT
+				| (long) (move.color & 0x1) << COLOR_SHIFT
+				| (long) (move.castlingType & 0x3) << CASTLING_TYPE_SHIFT
+				| (long) (move.epSquare & 0x7f) << EP_SQUARE_SHIFT
+				| (long) (move.moveCharacteristic & 0x3f) << CHARACTERISTIC_SHIFT
+				| (long) (move.lastWhiteCastlingState & 0x3) << LAST_WHITE_CASTLING_SHIFT
+				| (long) (move.lastBlackCastlingState & 0x3) << LAST_BLACK_CASTLING_SHIFT
+				| (long) (move.previous50MoveCount & 0xff) << PREVIOUS_50_SHIFT
+				| (long) (isMoveCountPackable ? halfMoveCount
+						: HALF_MOVE_COUNT_IN_SIDE_TABLE) << HALF_MOVE_COUNT_SHIFT;
+
+		String san = move.getSan();
+		sans[index] = san == null ? null : san.intern();
+
+		if (move.annotations != null && !move.annotations.isEmpty()) {
+			if (annotations == null) {
+				annotations = new MoveAnnotation[compactMoves.length][];
+			}
+			annotations[index] = move.annotations
+					.toArray(new MoveAnnotation[move.annotations.size()]);
+		} else if (annotations != null) {
+			annotations[index] = null;
+		}
+
+		if (move.previousEcoHeader != null
+				|| move.previousOpeningHeader != null) {
+			if (previousHeaders == null) {
+				previousHeaders = new String[compactMoves.length * 2];
+			}
+			previousHeaders[index * 2] = move.previousEcoHeader;
+			previousHeaders[index * 2 + 1] = move.previousOpeningHeader;
+		} else if (previousHeaders != null) {
+			previousHeaders[index * 2] = null;
+			previousHeaders[index * 2 + 1] = null;
+		}
+
+		if (move.atomicExplodedBB != 0L) {
+			if (atomicExplosions == null) {
+				atomicExplosions = new long[compactMoves.length * 2];
+			}
+			atomicExplosions[index * 2] = move.atomicExplodedBB;
+			atomicExplosions[index * 2 + 1] = move.atomicExplodedPieces;
+		} else if (atomicExplosions != null) {
+			atomicExplosions[index * 2] = 0L;
+			atomicExplosions[index * 2 + 1] = 0L;
+		}
+
+		if (!isMoveCountPackable) {
+			if (moveCounts == null) {
+				moveCounts = new int[compactMoves.length * 2];
+			}
+			moveCounts[index * 2] = halfMoveCount;
+			moveCounts[index * 2 + 1] = move.getFullMoveCount();
+		}
+	}
+
+	/**
+	 * Materializes the move at index from the compact arrays.
+	 */
+	private Move unpack(int index) {
+		long compactMove = compactMoves[index];
+		Move result = new Move(field(compactMove, FROM_SHIFT, 0x7f), field(
+				compactMove, TO_SHIFT, 0x7f), field(compactMove, PIECE_SHIFT,
+				0xf), field(compactMove, COLOR_SHIFT, 0x1), field(compactMove,
+				CAPTURE_SHIFT, 0xf), field(compactMove, PROMOTED_TO_SHIFT, 0x7),
+				field(compactMove, EP_SQUARE_SHIFT, 0x7f), field(compactMove,
+						CHARACTERISTIC_SHIFT, 0x3f));
+		result.castlingType = (byte) field(compactMove, CASTLING_TYPE_SHIFT,
+				0x3);
+		result.lastWhiteCastlingState = (byte) field(compactMove,
+				LAST_WHITE_CASTLING_SHIFT, 0x3);
+		result.lastBlackCastlingState = (byte) field(compactMove,
+				LAST_BLACK_CASTLING_SHIFT, 0x3);
+		result.previous50MoveCount = (byte) field(compactMove,
+				PREVIOUS_50_SHIFT, 0xff);
+
+		int halfMoveCount = field(compactMove, HALF_MOVE_COUNT_SHIFT, 0x7ff);
+		if (halfMoveCount == HALF_MOVE_COUNT_IN_SIDE_TABLE) {
+			result.halfMoveCount = moveCounts[index * 2];
+			result.fullMoveCount = moveCounts[index * 2 + 1];
+		} else {
+			result.halfMoveCount = halfMoveCount;
+			result.fullMoveCount = toFullMoveCount(halfMoveCount);
+		}
+
+		result.san = sans[index];
+		if (annotations != null && annotations[index] != null) {
+			result.annotations = new ArrayList<MoveAnnotation>(Arrays
+					.asList(annotations[index]));
+		}
+		if (previousHeaders != null) {
+			result.previousEcoHeader = previousHeaders[index * 2];
+			result.previousOpeningHeader = previousHeaders[index * 2 + 1];
+		}
+		if (atomicExplosions != null) {
+			result.atomicExplodedBB = atomicExplosions[index * 2];
+			result.atomicExplodedPieces = atomicExplosions[index * 2 + 1];
+		}
+		return result;
+	}
+
+	private static int field(long compactMove, int shift, int mask) {
+		return (int) (compactMove >>> shift) & mask;
+	}
+
+	/**
+	 * Returns a copy of array, which holds stride entries per move, with
+	 * room for capacity moves and the existing moves moved shift places
+	 * towards the end. Returns null if array is null.
+	 */
+	private static Object resize(Object array, int stride, int capacity,
+			int shift) {
+		if (array == null) {
+			return null;
+		}
+		Object result = Array.newInstance(array.getClass().getComponentType(),
+				capacity * stride);
+		System.arraycopy(array, 0, result, shift * stride, Math.min(Array
+				.getLength(array), (capacity - shift) * stride));
+		return result;
+	}
+
+	/**
+	 * Returns the full move count ClassicGame records for a move made at
+	 * halfMoveCount.
+	 */
+	private static int toFullMoveCount(int halfMoveCount) {
+		return halfMoveCount == 0 ? 0 : (halfMoveCount - 1) / 2 + 1;
+	}
 }
@@ -0,0 +1,235 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess;
+
+import java.util.Arrays;
+
+import raptor.chess.util.GameUtils;
+
+/**
+ * An immutable snapshot of the position of a game. It is a handful of
+ * bitboards, the drop counts packed into a long and the rest of the state
+ * (color to move, castling, ep square, fifty move count) packed into an int.
+ * Creating one from a game and applying one to a game take constant time and
+ * don't touch the move list or headers.
+ * 
+ * Two positions are equal if their pieces, color to move, castling rights, ep
+ * square and drop counts are the same. The fifty move and half move counts
+ * are not compared. hashCode is derived from the Zobrist game hash.
+ */
+public final class Position implements GameConstants {
+	private static final int CASTLING_MASK = 3;
+	private static final int BLACK_CASTLING_SHIFT = 3;
+	private static final int COLOR_TO_MOVE_MASK = 1;
+	private static final int DROP_COUNT_BITS = 6;
+	private static final int DROP_COUNT_MASK = 0x3f;
+	private static final int EP_SQUARE_MASK = 0x7f;
+	private static final int EP_SQUARE_SHIFT = 5;
+	private static final int FIFTY_MOVE_COUNT_SHIFT = 12;
+	/**
+	 * The bits of state compared by equals.
+	 */
+	private static final int POSITION_STATE_MASK = (1 << FIFTY_MOVE_COUNT_SHIFT) - 1;
+	private static final int WHITE_CASTLING_SHIFT = 1;
+
+	private final long dropCounts;
+	private final int halfMoveCount;
+	/**
+	 * pieceBB[piece] has the squares of both colors pieces, index 0 has the
+	 * promoted pieces.
+	 */
+	private final long[] pieceBB = new long[KING + 1];
+	private final int state;
+	private final long whiteBB;
+	private final long zobristGameHash;
+	private final long zobristPositionHash;
+
+	/**
+	 * Creates a snapshot of the current position of game.
+	 */
+	public Position(Game game) {
+		long promotedBB = 0L;
+		for (int piece = PAWN; piece <= KING; piece++) {
+			pieceBB[piece] = game.getPieceBB(WHITE, piece)
+					| game.getPieceBB(BLACK, piece);
+		}
+		int[] board = game.getBoard();
+		long occupiedBB = game.getOccupiedBB();
+		while (occupiedBB != 0L) {
+			int square = GameUtils.bitscanForward(occupiedBB);
+			if ((board[square] & PROMOTED_MASK) != 0) {
+				promotedBB |= GameUtils.getBitboard(square);
+			}
+			occupiedBB = GameUtils.bitscanClear(occupiedBB);
+		}
+		pieceBB[EMPTY] = promotedBB;
+		whiteBB = game.getColorBB(WHITE);
+
+		long packedDropCounts = 0L;
+		for (int piece = PAWN; piece <= QUEEN; piece++) {
+			packedDropCounts |= (long) (game.getDropCount(WHITE, piece) & DROP_COUNT_MASK) << getDropCountShift(
+					WHITE, piece)
+					| (long) (game.getDropCount(BLACK, piece) & DROP_COUNT_MASK) << getDropCountShift(
+							BLACK, piece);
+		}
+		dropCounts = packedDropCounts;
+
+		state = game.getColorToMove()
+				| game.getCastling(WHITE) << WHITE_CASTLING_SHIFT
+				| game.getCastling(BLACK) << BLACK_CASTLING_SHIFT
+				| game.getEpSquare() << EP_SQUARE_SHIFT
+				| game.getFiftyMoveCount() << FIFTY_MOVE_COUNT_SHIFT;
+		halfMoveCount = game.getHalfMoveCount();
+		zobristGameHash = game.getZobristGameHash();
+		zobristPositionHash = game.getZobristPositionHash();
+	}
+
+	private static int getDropCountShift(int color, int piece) {
+		return (color * QUEEN + piece - PAWN) * DROP_COUNT_BITS;
+	}
+
+	/**
+	 * Sets the position of game to this position. The move list, headers and
+	 * repetition counts of game are left alone.
+	 */
+	public void apply(Game game) {
+		int[] board = game.getBoard();
+		Arrays.fill(board, EMPTY);
+		long blackBB = getOccupiedBB() & ~whiteBB;
+		for (int piece = PAWN; piece <= KING; piece++) {
+			long whitePieceBB = pieceBB[piece] & whiteBB;
+			long blackPieceBB = pieceBB[piece] & blackBB;
+			game.setPieceBB(WHITE, piece, whitePieceBB);
+			game.setPieceBB(BLACK, piece, blackPieceBB);
+			game.setPieceCount(WHITE, piece, Long.bitCount(whitePieceBB));
+			game.setPieceCount(BLACK, piece, Long.bitCount(blackPieceBB));
+
+			long current = pieceBB[piece];
+			while (current != 0L) {
+				int square = GameUtils.bitscanForward(current);
+				board[square] = (pieceBB[EMPTY] & GameUtils.getBitboard(square)) != 0L ? piece
+						| PROMOTED_MASK
+						: piece;
+				current = GameUtils.bitscanClear(current);
+			}
+		}
+		for (int piece = PAWN; piece <= QUEEN; piece++) {
+			game.setDropCount(WHITE, piece, getDropCount(WHITE, piece));
+			game.setDropCount(BLACK, piece, getDropCount(BLACK, piece));
+		}
+
+		game.setColorBB(WHITE, whiteBB);
+		game.setColorBB(BLACK, blackBB);
+		game.setOccupiedBB(getOccupiedBB());
+		game.setEmptyBB(~getOccupiedBB());
+		game.setColorToMove(getColorToMove());
+		game.setNotColorToMoveBB(~getColorBB(getColorToMove()));
+		game.setCastling(WHITE, getCastling(WHITE));
+		game.setCastling(BLACK, getCastling(BLACK));
+		game.setEpSquare(getEpSquare());
+		game.setFiftyMoveCount(getFiftyMoveCount());
+		game.setHalfMoveCount(halfMoveCount);
+		game.setZobristGameHash(zobristGameHash);
+		game.setZobristPositionHash(zobristPositionHash);
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof Position)) {
+			return false;
+		}
+		Position position = (Position) object;
+		return zobristGameHash == position.zobristGameHash
+				&& whiteBB == position.whiteBB
+				&& dropCounts == position.dropCounts
+				&& (state & POSITION_STATE_MASK) == (position.state & POSITION_STATE_MASK)
+				&& Arrays.equals(pieceBB, position.pieceBB);
+	}
+
+	public int getCastling(int color) {
+		return state
+				>> (color == WHITE ? WHITE_CASTLING_SHIFT
+						: BLACK_CASTLING_SHIFT) & CASTLING_MASK;
+	}
+
+	public long getColorBB(int color) {
+		return color == WHITE ? whiteBB : getOccupiedBB() & ~whiteBB;
+	}
+
+	public int getColorToMove() {
+		return state & COLOR_TO_MOVE_MASK;
+	}
+
+	public int getDropCount(int color, int piece) {
+		return (int) (dropCounts >>> getDropCountShift(color, piece) & DROP_COUNT_MASK);
+	}
+
+	public int getEpSquare() {
+		return state >> EP_SQUARE_SHIFT & EP_SQUARE_MASK;
+	}
+
+	public int getFiftyMoveCount() {
+		return state >>> FIFTY_MOVE_COUNT_SHIFT;
+	}
+
+	public int getHalfMoveCount() {
+		return halfMoveCount;
+	}
+
+	public long getOccupiedBB() {
+		return pieceBB[PAWN] | pieceBB[KNIGHT] | pieceBB[BISHOP]
+				| pieceBB[ROOK] | pieceBB[QUEEN] | pieceBB[KING];
+	}
+
+	/**
+	 * Returns the piece on square without the promote mask, EMPTY if there
+	 * isn't one.
+	 */
+	public int getPiece(int square) {
+		long squareBB = GameUtils.getBitboard(square);
+		for (int piece = PAWN; piece <= KING; piece++) {
+			if ((pieceBB[piece] & squareBB) != 0L) {
+				return piece;
+			}
+		}
+		return EMPTY;
+	}
+
+	public long getPieceBB(int color, int piece) {
+		return pieceBB[piece] & getColorBB(color);
+	}
+
+	/**
+	 * Returns the squares of the promoted pieces of both colors.
+	 */
+	public long getPromotedBB() {
+		return pieceBB[EMPTY];
+	}
+
+	public long getZobristGameHash() {
+		return zobristGameHash;
+	}
+
+	public long getZobristPositionHash() {
+		return zobristPositionHash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (zobristGameHash ^ zobristGameHash >>> 32);
+	}
+}
@@ -31,6 +31,19 @@ public class SetupGame extends ClassicGame {
 		return result;
 	}
 
+	/**
+	 * Overridden to make and rollback each move while in setup state, since
+	 * isLegalPosition() is relaxed there. {@inheritDoc}
+	 */
+	@Override
+	public int getLegalMoves(int[] moves) {
+		if (isInState(Game.SETUP_STATE)) {
+			return removeIllegalMovesByMakingThem(moves,
+					getPseudoLegalMoves(moves));
+		}
+		return super.getLegalMoves(moves);
+	}
+
 	/**
 	 * Overridden to always return true.
 	 * 
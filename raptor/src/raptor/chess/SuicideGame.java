@@ -16,11 +16,11 @@ package raptor.chess;
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
 import static raptor.chess.util.GameUtils.kingMove;
-import static raptor.chess.util.GameUtils.pawnCapture;
-import static raptor.chess.util.GameUtils.pawnSinglePush;
+import static raptor.chess.util.PackedMoveUtils.createMove;
 
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.PackedMoveUtils;
 import raptor.chess.util.SanUtils;
 import raptor.chess.util.SanUtils.SanValidations;
 import raptor.util.RaptorLogger;
@@ -53,121 +53,26 @@ public class SuicideGame extends ClassicGame {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void generatePseudoPawnCaptures(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
-
-		long toBB = pawnCapture(getColorToMove(), fromBB,
-				getColorBB(oppositeColor));
-
-		while (toBB != 0L) {
-			int toSquare = bitscanForward(toBB);
-			if ((toBB & RANK8_OR_RANK1) != 0L) {
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), KNIGHT,
-						EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), BISHOP,
-						EMPTY_SQUARE, Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), QUEEN, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), ROOK, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare), KING, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-			} else {
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						getPieceWithPromoteMask(toSquare)), moves);
-			}
-			toBB = bitscanClear(toBB);
-		}
-	}
-
-	/**
-	 * Pawns can promote to a king in suicide. This method is overridden to
-	 * supply that functionality.
-	 * 
-	 * {@inheritDoc}
-	 */
-	@Override
-	public void generatePseudoPawnSinglePush(int fromSquare, long fromBB,
-			int oppositeColor, PriorityMoveList moves) {
-
-		long toBB = pawnSinglePush(getColorToMove(), fromBB, getEmptyBB());
-
-		while (toBB != 0) {
-			int toSquare = bitscanForward(toBB);
-
-			if ((toBB & RANK8_OR_RANK1) != 0L) {
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY, KNIGHT, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY, BISHOP, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY, QUEEN, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY, ROOK, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY, KING, EMPTY_SQUARE,
-						Move.PROMOTION_CHARACTERISTIC), moves);
-
-			} else {
-				addMove(new Move(fromSquare, toSquare, PAWN, getColorToMove(),
-						EMPTY), moves);
-			}
-			toBB = bitscanClear(toBB);
-		}
+	protected int generatePseudoPawnPromotions(int fromSquare, int toSquare,
+			int capture, int[] moves, int count) {
+		count = super.generatePseudoPawnPromotions(fromSquare, toSquare,
+				capture, moves, count);
+		moves[count++] = createMove(fromSquare, toSquare, PAWN, capture, KING,
+				Move.PROMOTION_CHARACTERISTIC);
+		return count;
 	}
 
 	/**
 	 * In suicide you must make a capture if its possible. This method narrows
-	 * down the list to only captures if there is one possible.
+	 * down the list to only captures if there is one possible. Since all
+	 * positions are legal the moves are not made to test them.
 	 * 
 	 * {@inheritDoc}
 	 */
 	@Override
-	public PriorityMoveList getLegalMoves() {
-		PriorityMoveList result = getPseudoLegalMoves();
-		boolean hasCapture = false;
-		for (int i = 0; i < result.getHighPrioritySize(); i++) {
-			setSan(result.getHighPriority(i));
-			if (result.getHighPriority(i).isCapture()) {
-				hasCapture = true;
-				break;
-			}
-		}
-		if (!hasCapture) {
-			for (int i = 0; i < result.getLowPrioritySize(); i++) {
-				setSan(result.getLowPriority(i));
-				if (result.getLowPriority(i).isCapture()) {
-					hasCapture = true;
-					break;
-				}
-			}
-		}
-
-		if (hasCapture) {
-			PriorityMoveList onlyCaptures = new PriorityMoveList();
-			for (int i = 0; i < result.getHighPrioritySize(); i++) {
-				if (result.getHighPriority(i).isCapture()) {
-					onlyCaptures.appendHighPriority(result.getHighPriority(i));
-				}
-			}
-			for (int i = 0; i < result.getLowPrioritySize(); i++) {
-				if (result.getLowPriority(i).isCapture()) {
-					onlyCaptures.appendHighPriority(result.getHighPriority(i));
-				}
-			}
-			return onlyCaptures;
-		} else {
-			return result;
-		}
+	public int getLegalMoves(int[] moves) {
+		return PackedMoveUtils.filterCapturesIfAny(moves,
+				getPseudoLegalMoves(moves));
 	}
 
 	/**
@@ -250,8 +155,9 @@ public class SuicideGame extends ClassicGame {
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
+		return count;
 	}
 
 	/**
@@ -261,26 +167,22 @@ public class SuicideGame extends ClassicGame {
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected void generatePseudoKingMoves(PriorityMoveList moves) {
+	protected int generatePseudoKingMoves(int[] moves, int count) {
 		long fromBB = getPieceBB(getColorToMove(), KING);
 		while (fromBB != 0) {
 			int fromSquare = bitscanForward(fromBB);
 			long toBB = kingMove(fromSquare) & getNotColorToMoveBB();
 
-			generatePseudoKingCastlingMoves(fromBB, moves);
-
 			while (toBB != 0) {
 				int toSquare = bitscanForward(toBB);
 
-				int contents = getPieceWithPromoteMask(toSquare);
-
-				addMove(new Move(fromSquare, toSquare, KING, getColorToMove(),
-						contents), moves);
+				moves[count++] = createMove(fromSquare, toSquare, KING,
+						getPieceWithPromoteMask(toSquare));
 				toBB = bitscanClear(toBB);
-				toSquare = bitscanForward(toBB);
 			}
 			fromBB = bitscanClear(fromBB);
 		}
+		return count;
 	}
 
 	/**
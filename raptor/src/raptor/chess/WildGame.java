@@ -5,6 +5,7 @@ import static raptor.chess.util.GameUtils.bitscanForward;
 import static raptor.chess.util.GameUtils.getBitboard;
 import static raptor.chess.util.GameUtils.getFile;
 import static raptor.chess.util.GameUtils.getSquare;
+import static raptor.chess.util.PackedMoveUtils.createMove;
 
 import raptor.chess.pgn.PgnHeader;
 
@@ -69,8 +70,8 @@ public class WildGame extends ClassicGame {
 		}
 	}
 	
-	protected void generatePseudoKingCastlingMoves(long fromBB,
-			PriorityMoveList moves) {
+	protected int generatePseudoKingCastlingMoves(long fromBB, int[] moves,
+			int count) {
 		
 		int kingSquare = getColorToMove() == WHITE ? getSquare(0,
 				whiteKingFile) : getSquare(7, blackKingFile);
@@ -89,8 +90,8 @@ public class WildGame extends ClassicGame {
 							whiteShortRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this, kingSquare,
 							SQUARE_G1, WHITE)) {				
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_G1, KING,
-						WHITE, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_G1, KING, EMPTY,
+						EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 				
 			}
 			else if (FischerRandomUtils.emptyBetweenFiles(this, 0, whiteShortRookFile,
@@ -101,8 +102,8 @@ public class WildGame extends ClassicGame {
 							whiteShortRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this, kingSquare,
 							SQUARE_C1, WHITE)) {								
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_B1, KING,
-						WHITE, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_B1, KING, EMPTY,
+						EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 			}
 			
 		}
@@ -120,8 +121,8 @@ public class WildGame extends ClassicGame {
 							whiteLongRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this, kingSquare,
 							SQUARE_C1, WHITE)) {
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_C1, KING,
-						WHITE, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_C1, KING, EMPTY,
+						EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 				
 			}
 			else if (FischerRandomUtils.emptyBetweenFiles(this, 0, whiteKingFile,
@@ -132,8 +133,8 @@ public class WildGame extends ClassicGame {
 							whiteLongRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this, kingSquare,
 							SQUARE_F1, WHITE)) {
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_F1, KING,
-						WHITE, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_F1, KING, EMPTY,
+						EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 			}
 		}	
 		
@@ -150,8 +151,8 @@ public class WildGame extends ClassicGame {
 							BLACK, blackShortRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this,
 							kingSquare, SQUARE_G8, BLACK)) {
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_G8, KING,
-						BLACK, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_G8, KING, EMPTY,
+						EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 				
 			}
 			else if (FischerRandomUtils.emptyBetweenFiles(this, 7,
@@ -162,8 +163,8 @@ public class WildGame extends ClassicGame {
 							BLACK, blackShortRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this,
 							kingSquare, SQUARE_B8, BLACK)) {								
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_B8, KING,
-						BLACK, EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_B8, KING, EMPTY,
+						EMPTY, Move.SHORT_CASTLING_CHARACTERISTIC);
 			}
 		}
 		if (getColorToMove() == BLACK
@@ -179,8 +180,8 @@ public class WildGame extends ClassicGame {
 							BLACK, blackLongRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this,
 							kingSquare, SQUARE_C8, BLACK)) {
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_C8, KING,
-						BLACK, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_C8, KING, EMPTY,
+						EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 			}
 			else if (FischerRandomUtils.emptyBetweenFiles(this, 7,
 					        blackKingFile, blackLongRookFile)
@@ -190,11 +191,11 @@ public class WildGame extends ClassicGame {
 							BLACK, blackLongRookFile)
 					&& !FischerRandomUtils.isCastlePathInCheck(this,
 							kingSquare, SQUARE_F8, BLACK)) {
-				moves.appendLowPriority(new Move(kingSquare, SQUARE_F8, KING,
-						BLACK, EMPTY, Move.LONG_CASTLING_CHARACTERISTIC));
+				moves[count++] = createMove(kingSquare, SQUARE_F8, KING, EMPTY,
+						EMPTY, Move.LONG_CASTLING_CHARACTERISTIC);
 			}
 		}
-		
+		return count;
 	}
 	
 	public void makeCastlingMove(Move move) {
@@ -33,6 +33,8 @@ public class ListMaintainingPgnParserListener extends LenientPgnParserListener {
 
 	@Override
 	public boolean gameParsed(Game game, int lineNumber) {
+		// The parsed games are only read from here on, so keep them compact.
+		game.getMoveList().compact();
 		games.add(game);
 		return false;
 	}
@@ -0,0 +1,111 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A PGN parser which reads tokens from a {@link PgnLexer} rather than lines of
+ * text. It fires the same events as {@link SimplePgnParser}, but move words
+ * and header names are shared String instances from the lexer's cache, and
+ * move numbers and NAGs are never turned into Strings. Only header values and
+ * comments are copied out of the buffer.
+ */
+public class MappedPgnParser extends AbstractPgnParser {
+	protected PgnLexer lexer;
+
+	/**
+	 * Creates a parser over the bytes between the buffer's position and
+	 * limit.
+	 */
+	public MappedPgnParser(ByteBuffer buffer) {
+		this(new PgnLexer(buffer, 1));
+	}
+
+	/**
+	 * Creates a parser which memory maps the file. {@link #close()} must be
+	 * invoked when it is no longer needed.
+	 */
+	public MappedPgnParser(File file) throws IOException {
+		this(new PgnLexer(file));
+	}
+
+	/**
+	 * Creates a parser which reads from the lexer's current position.
+	 */
+	public MappedPgnParser(PgnLexer lexer) {
+		this.lexer = lexer;
+	}
+
+	public void close() {
+		lexer.close();
+	}
+
+	public int getLineNumber() {
+		return lexer.getLineNumber();
+	}
+
+	public void parse() {
+		try {
+			int token;
+			while ((token = lexer.nextToken()) != PgnLexer.END) {
+				switch (token) {
+				case PgnLexer.HEADER:
+					String name = lexer.getSymbol();
+					if (name.equals("Event")) {
+						fireGameStart();
+					}
+					fireHeader(name, lexer.getHeaderValue());
+					break;
+				case PgnLexer.COMMENT:
+					fireAnnotation(lexer.getText());
+					break;
+				case PgnLexer.MOVE_NUMBER:
+					fireMoveNumber(lexer.getNumber());
+					break;
+				case PgnLexer.NAG:
+					Nag nag = lexer.getNag();
+					if (nag == null) {
+						fireUnknown(lexer.getText());
+					} else {
+						fireMoveNag(nag);
+					}
+					break;
+				case PgnLexer.RESULT:
+					fireGameEnd(lexer.getResult());
+					if (isParseCancelled()) {
+						return;
+					}
+					break;
+				case PgnLexer.SUBLINE_START:
+					fireSublineStart();
+					break;
+				case PgnLexer.SUBLINE_END:
+					fireSublineEnd();
+					break;
+				case PgnLexer.SYMBOL:
+					fireMoveWord(lexer.getSymbol());
+					break;
+				default:
+					fireUnknown(lexer.getText());
+					break;
+				}
+			}
+		} catch (IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+	}
+}
@@ -0,0 +1,587 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.Result;
+import raptor.chess.Variant;
+import raptor.chess.util.ZobristUtils;
+import raptor.util.RaptorLogger;
+
+/**
+ * The user's results from the opening positions of their games: for every
+ * position, the moves played from it and how the games continuing with each
+ * move ended from the user's point of view.
+ * 
+ * The statistics are kept in memory in an open addressing table keyed by the
+ * Zobrist game hash of the position and the move. All of the moves of a
+ * position are probed from the same slot, so the results of a position are a
+ * single scan of the table. Positions are counted separately for the games
+ * the user played as white and as black.
+ * 
+ * Every game added is appended to a journal file next to the PGN file, so
+ * adding a game never rewrites the file and loading it replays the journal.
+ * Each journal record also holds the length of the PGN file after the game,
+ * so callers can tell which games have already been added. Only the first
+ * {@link #MAX_PLIES} half moves of each game are kept.
+ */
+public class MoveStatisticsTree implements GameConstants {
+
+	/**
+	 * The user's results in the games which played a move.
+	 */
+	public static class MoveResults {
+		protected int draws;
+		protected int losses;
+		protected int moveCode;
+		protected int ratedGames;
+		protected long ratingSum;
+		protected String san;
+		protected int wins;
+
+		/**
+		 * Returns the average rating of the user's opponents, or -1 if none
+		 * of the games had one.
+		 */
+		public int getAverageOpponentRating() {
+			return ratedGames == 0 ? -1 : (int) Math.round((double) ratingSum / ratedGames);
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getGameCount() {
+			return wins + draws + losses;
+		}
+
+		public int getLosses() {
+			return losses;
+		}
+
+		/**
+		 * Returns the move in SAN, or null for the games which ended in the
+		 * position.
+		 */
+		public String getSan() {
+			return san;
+		}
+
+		/**
+		 * Returns the user's score in percent, or -1 if there are no games.
+		 */
+		public double getScore() {
+			int gameCount = getGameCount();
+			return gameCount == 0 ? -1.0 : (wins + draws / 2.0) * 100.0 / gameCount;
+		}
+
+		public int getWins() {
+			return wins;
+		}
+
+		protected void add(MoveResults results) {
+			wins += results.wins;
+			draws += results.draws;
+			losses += results.losses;
+			ratingSum += results.ratingSum;
+			ratedGames += results.ratedGames;
+		}
+	}
+
+	/**
+	 * The user's results from a position: the totals over all of the games
+	 * which reached it and the moves played from it.
+	 */
+	public static class PositionResults extends MoveResults {
+		protected List<MoveResults> moves = new ArrayList<MoveResults>();
+
+		/**
+		 * Returns the moves played from the position, the most popular first.
+		 * Games which ended in the position have a move with a null SAN.
+		 */
+		public List<MoveResults> getMoves() {
+			return moves;
+		}
+	}
+
+	public static final String FILE_EXTENSION = ".stats";
+
+	/**
+	 * The number of half moves of each game which are kept.
+	 */
+	public static final int MAX_PLIES = 30;
+
+	protected static final int DRAW_CODE = 3;
+
+	protected static final int LOSS_CODE = 2;
+
+	protected static final int WIN_CODE = 1;
+
+	/**
+	 * Xored into the keys of the games the user played as black.
+	 */
+	private static final long BLACK_KEY = 0x6a09e667f3bcc908L;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int HEADER_BYTES = 8;
+
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	private static final RaptorLogger LOG = RaptorLogger.getLog(MoveStatisticsTree.class);
+
+	private static final int MAGIC = 0x5250534d;
+
+	private static final int POSITION_BYTES = 10;
+
+	private static final int RECORD_HEADER_BYTES = 13;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Returns the journal file used for the specified PGN file.
+	 */
+	public static File getStatisticsFile(File pgnFile) {
+		return PgnIndex.getSidecarFile(pgnFile, FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the rating in a WhiteElo or BlackElo header, or -1 if it isn't
+	 * a number. Estimated and provisional ratings are used as is.
+	 */
+	protected static int getRating(String rating) {
+		rating = StringUtils.remove(StringUtils.remove(rating, 'E'), 'P');
+		return NumberUtils.isDigits(rating) ? Math.min(Short.MAX_VALUE, NumberUtils.toInt(rating, -1)) : -1;
+	}
+
+	/**
+	 * Returns the result of the game from the user's point of view, or 0 if
+	 * the game has no result.
+	 */
+	protected static int getResultCode(Result result, boolean isUserWhite) {
+		if (result == null) {
+			return 0;
+		}
+		switch (result) {
+		case WHITE_WON:
+			return isUserWhite ? WIN_CODE : LOSS_CODE;
+		case BLACK_WON:
+			return isUserWhite ? LOSS_CODE : WIN_CODE;
+		case DRAW:
+			return DRAW_CODE;
+		default:
+			return 0;
+		}
+	}
+
+	protected int[] draws = new int[INITIAL_CAPACITY];
+
+	protected File file;
+
+	protected int gameCount;
+
+	protected long[] keys = new long[INITIAL_CAPACITY];
+
+	protected int[] losses = new int[INITIAL_CAPACITY];
+
+	protected int[] moves = new int[INITIAL_CAPACITY];
+
+	protected long pgnLength;
+
+	protected int[] ratedGames = new int[INITIAL_CAPACITY];
+
+	protected long[] ratingSums = new long[INITIAL_CAPACITY];
+
+	protected int size;
+
+	protected int[] wins = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Creates an empty tree which journals to the specified file. Call
+	 * {@link #load()} to read the games already in the file.
+	 */
+	public MoveStatisticsTree(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds the game to the tree and the journal, and records pgnLength as the
+	 * length of the PGN file after the game. Games which aren't classic chess
+	 * or have no result are not counted. The game is not modified.
+	 */
+	public synchronized void addGame(Game game, boolean isUserWhite, long pgnLength) throws IOException {
+		int resultCode = getResultCode(game.getResult(), isUserWhite);
+		if (resultCode == 0 || !Variant.isClassic(game.getVariant())) {
+			setPgnLength(pgnLength);
+			return;
+		}
+
+		int plies = game.getMoveList().getSize();
+		long[] gameKeys = new long[plies + 1];
+		int[] gameMoves = new int[plies + 1];
+		PositionIndex.rollbackPositions(game.deepCopy(false), gameKeys, gameMoves);
+
+		long keyMask = isUserWhite ? 0L : BLACK_KEY;
+		int rating = getRating(game.getHeader(isUserWhite ? PgnHeader.BlackElo : PgnHeader.WhiteElo));
+		// The repetition check reads earlier plies of gameKeys, so the
+		// positions to count are written to separate arrays.
+		long[] positionKeys = new long[plies + 1];
+		int[] positionMoves = new int[plies + 1];
+		int count = 0;
+		for (int ply = 0; ply <= plies && ply <= MAX_PLIES; ply++) {
+			if (!PositionIndex.isRepeated(gameKeys, ply)) {
+				positionKeys[count] = gameKeys[ply] ^ keyMask;
+				positionMoves[count] = gameMoves[ply];
+				count++;
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_BYTES + count * POSITION_BYTES);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(resultCode);
+		out.writeShort(rating);
+		out.writeLong(pgnLength);
+		out.writeShort(count);
+		for (int i = 0; i < count; i++) {
+			out.writeLong(positionKeys[i]);
+			out.writeShort(positionMoves[i]);
+		}
+		append(bytes.toByteArray());
+		addRecord(positionKeys, positionMoves, count, resultCode, rating);
+		this.pgnLength = pgnLength;
+	}
+
+	/**
+	 * Removes every game from the tree and truncates the journal.
+	 */
+	public synchronized void clear() throws IOException {
+		clearTable();
+		FileOutputStream out = new FileOutputStream(file, false);
+		try {
+			out.write(getFileHeader());
+		} finally {
+			out.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of games counted in the tree.
+	 */
+	public synchronized int getGameCount() {
+		return gameCount;
+	}
+
+	/**
+	 * Returns the length of the PGN file after the last game added.
+	 */
+	public synchronized long getPgnLength() {
+		return pgnLength;
+	}
+
+	/**
+	 * Returns the user's results from the game's current position when they
+	 * played the specified side, or null if none of their games reached it.
+	 * The game is not modified.
+	 */
+	public synchronized PositionResults getResults(Game game, boolean isUserWhite) {
+		if (!Variant.isClassic(game.getVariant())) {
+			return null;
+		}
+
+		long key = ZobristUtils.zobristPositionKey(game) ^ (isUserWhite ? 0L : BLACK_KEY);
+		PositionResults result = null;
+		int mask = keys.length - 1;
+		for (int slot = getSlot(key); !isEmpty(slot); slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				if (result == null) {
+					result = new PositionResults();
+				}
+				MoveResults move = new MoveResults();
+				move.moveCode = moves[slot];
+				move.wins = wins[slot];
+				move.draws = draws[slot];
+				move.losses = losses[slot];
+				move.ratingSum = ratingSums[slot];
+				move.ratedGames = ratedGames[slot];
+				result.moves.add(move);
+			}
+		}
+		if (result == null) {
+			return null;
+		}
+
+		int[] moveCodes = new int[result.moves.size()];
+		for (int i = 0; i < moveCodes.length; i++) {
+			moveCodes[i] = result.moves.get(i).moveCode;
+		}
+		String[] sans = PositionIndex.getSans(game, moveCodes);
+		for (int i = moveCodes.length - 1; i >= 0; i--) {
+			// A move which isn't legal belongs to a position whose hash
+			// collides with this one.
+			if (sans[i] == null && moveCodes[i] != 0) {
+				result.moves.remove(i);
+			} else {
+				result.moves.get(i).san = sans[i];
+				result.add(result.moves.get(i));
+			}
+		}
+		if (result.moves.isEmpty()) {
+			return null;
+		}
+		Collections.sort(result.moves, new Comparator<MoveResults>() {
+			public int compare(MoveResults results1, MoveResults results2) {
+				return results2.getGameCount() - results1.getGameCount();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Replaces the contents of the tree with the games in the journal. An
+	 * incomplete record at the end of the journal, left by a crash while it
+	 * was appended, is truncated. A journal which can't be read is cleared.
+	 */
+	public synchronized void load() throws IOException {
+		long startTime = System.currentTimeMillis();
+		clearTable();
+		if (!file.exists()) {
+			return;
+		}
+
+		long validLength = 0L;
+		long[] gameKeys = new long[MAX_PLIES + 1];
+		int[] gameMoves = new int[MAX_PLIES + 1];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (file.length() >= HEADER_BYTES && in.readInt() == MAGIC && in.readInt() == VERSION) {
+				validLength = HEADER_BYTES;
+				int resultCode;
+				while ((resultCode = in.read()) != -1) {
+					try {
+						int rating = in.readShort();
+						long recordPgnLength = in.readLong();
+						int count = in.readUnsignedShort();
+						if (count > gameKeys.length) {
+							break;
+						}
+						for (int i = 0; i < count; i++) {
+							gameKeys[i] = in.readLong();
+							gameMoves[i] = in.readUnsignedShort();
+						}
+						if (resultCode != 0) {
+							addRecord(gameKeys, gameMoves, count, resultCode, rating);
+						}
+						pgnLength = recordPgnLength;
+						validLength += RECORD_HEADER_BYTES + count * POSITION_BYTES;
+					} catch (EOFException eofe) {
+						break;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		if (validLength == 0L) {
+			LOG.warn("Invalid move statistics " + file.getAbsolutePath() + ". It will be rebuilt.");
+			clear();
+		} else if (validLength < file.length()) {
+			LOG.warn("Truncating an incomplete record at the end of " + file.getAbsolutePath());
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(validLength);
+			} finally {
+				out.close();
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Loaded " + gameCount + " games into " + size + " moves from " + file.getAbsolutePath()
+					+ " in " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+	}
+
+	/**
+	 * Records pgnLength as the length of the PGN file read, without adding a
+	 * game. Used after skipping games which shouldn't be counted.
+	 */
+	public synchronized void setPgnLength(long pgnLength) throws IOException {
+		if (pgnLength == this.pgnLength) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_BYTES);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(0);
+		out.writeShort(-1);
+		out.writeLong(pgnLength);
+		out.writeShort(0);
+		append(bytes.toByteArray());
+		this.pgnLength = pgnLength;
+	}
+
+	/**
+	 * Adds one game's positions to the table.
+	 */
+	protected void addRecord(long[] gameKeys, int[] gameMoves, int count, int resultCode, int rating) {
+		for (int i = 0; i < count; i++) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+			}
+			int slot = getSlot(gameKeys[i], gameMoves[i]);
+			if (isEmpty(slot)) {
+				keys[slot] = gameKeys[i];
+				moves[slot] = gameMoves[i];
+				size++;
+			}
+			switch (resultCode) {
+			case WIN_CODE:
+				wins[slot]++;
+				break;
+			case LOSS_CODE:
+				losses[slot]++;
+				break;
+			default:
+				draws[slot]++;
+				break;
+			}
+			if (rating >= 0) {
+				ratingSums[slot] += rating;
+				ratedGames[slot]++;
+			}
+		}
+		gameCount++;
+	}
+
+	/**
+	 * Appends a record to the journal in a single write, starting a new
+	 * journal if there isn't one.
+	 */
+	protected void append(byte[] record) throws IOException {
+		boolean isNew = !file.exists() || file.length() == 0L;
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			if (isNew) {
+				byte[] header = getFileHeader();
+				byte[] bytes = new byte[header.length + record.length];
+				System.arraycopy(header, 0, bytes, 0, header.length);
+				System.arraycopy(record, 0, bytes, header.length, record.length);
+				record = bytes;
+			}
+			out.write(record);
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void clearTable() {
+		keys = new long[INITIAL_CAPACITY];
+		moves = new int[INITIAL_CAPACITY];
+		wins = new int[INITIAL_CAPACITY];
+		draws = new int[INITIAL_CAPACITY];
+		losses = new int[INITIAL_CAPACITY];
+		ratingSums = new long[INITIAL_CAPACITY];
+		ratedGames = new int[INITIAL_CAPACITY];
+		size = 0;
+		gameCount = 0;
+		pgnLength = 0L;
+	}
+
+	protected byte[] getFileHeader() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the first slot probed for the position's moves.
+	 */
+	protected int getSlot(long key) {
+		return (int) (key ^ key >>> 32) & (keys.length - 1);
+	}
+
+	/**
+	 * Returns the slot holding the position's move, or the empty slot it
+	 * should be added to.
+	 */
+	protected int getSlot(long key, int moveCode) {
+		int mask = keys.length - 1;
+		int slot = getSlot(key);
+		while (!isEmpty(slot) && (keys[slot] != key || moves[slot] != moveCode)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles the size of the table.
+	 */
+	protected void grow() {
+		long[] oldKeys = keys;
+		int[] oldMoves = moves;
+		int[] oldWins = wins;
+		int[] oldDraws = draws;
+		int[] oldLosses = losses;
+		long[] oldRatingSums = ratingSums;
+		int[] oldRatedGames = ratedGames;
+
+		int capacity = oldKeys.length * 2;
+		keys = new long[capacity];
+		moves = new int[capacity];
+		wins = new int[capacity];
+		draws = new int[capacity];
+		losses = new int[capacity];
+		ratingSums = new long[capacity];
+		ratedGames = new int[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldWins[i] + oldDraws[i] + oldLosses[i] > 0) {
+				int slot = getSlot(oldKeys[i], oldMoves[i]);
+				keys[slot] = oldKeys[i];
+				moves[slot] = oldMoves[i];
+				wins[slot] = oldWins[i];
+				draws[slot] = oldDraws[i];
+				losses[slot] = oldLosses[i];
+				ratingSums[slot] = oldRatingSums[i];
+				ratedGames[slot] = oldRatedGames[i];
+			}
+		}
+	}
+
+	protected boolean isEmpty(int slot) {
+		return wins[slot] + draws[slot] + losses[slot] == 0;
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import raptor.chess.Game;
+import raptor.chess.pgn.PgnIndex.Entry;
+import raptor.util.RaptorLogger;
+
+/**
+ * Parses every game in a PGN file on a pool of worker threads. The game
+ * boundaries come from a {@link PgnIndex}. Consecutive games are handed to
+ * the workers in chunks, and each worker parses them with its own
+ * {@link MappedPgnParser} and {@link LenientPgnParserListener}.
+ * 
+ * The parsed games and errors are passed to the listener on the thread that
+ * invoked {@link #parse(LenientPgnParserListener)}, in the order they appear
+ * in the file. Only a few chunks per thread are in flight at any time, so
+ * memory use does not grow with the size of the file.
+ */
+public class ParallelPgnParser {
+
+	/**
+	 * The games and errors parsed from one chunk of the file.
+	 */
+	protected static class Chunk {
+		protected List<List<PgnParserError>> errors;
+		protected Game[] games;
+		protected int[] lineNumbers;
+	}
+
+	public static final int DEFAULT_GAMES_PER_CHUNK = 64;
+
+	private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+	private static final RaptorLogger LOG = RaptorLogger.getLog(ParallelPgnParser.class);
+
+	protected int gamesPerChunk;
+
+	protected PgnIndex index;
+
+	protected int threads;
+
+	/**
+	 * Creates a parser which uses one thread per available processor.
+	 */
+	public ParallelPgnParser(PgnIndex index) {
+		this(index, Runtime.getRuntime().availableProcessors(), DEFAULT_GAMES_PER_CHUNK);
+	}
+
+	public ParallelPgnParser(PgnIndex index, int threads, int gamesPerChunk) {
+		if (threads < 1 || gamesPerChunk < 1) {
+			throw new IllegalArgumentException("threads and gamesPerChunk must be positive.");
+		}
+		this.index = index;
+		this.threads = threads;
+		this.gamesPerChunk = gamesPerChunk;
+	}
+
+	public int getGamesPerChunk() {
+		return gamesPerChunk;
+	}
+
+	public PgnIndex getIndex() {
+		return index;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Parses every game in the index. For each game, in file order, the
+	 * listener's errorEncountered is invoked for each error and then
+	 * gameParsed is invoked if the game could be parsed. Parsing stops if
+	 * gameParsed returns true.
+	 */
+	public void parse(LenientPgnParserListener listener) throws IOException {
+		long startTime = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "ParallelPgnParser");
+				result.setDaemon(true);
+				return result;
+			}
+		});
+
+		try {
+			LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+			int nextChunkStart = 0;
+			int gameCount = index.getGameCount();
+			int maxInFlight = threads * CHUNKS_IN_FLIGHT_PER_THREAD;
+
+			while (nextChunkStart < gameCount || !inFlight.isEmpty()) {
+				while (nextChunkStart < gameCount && inFlight.size() < maxInFlight) {
+					inFlight.add(executor.submit(newChunkTask(nextChunkStart)));
+					nextChunkStart += gamesPerChunk;
+				}
+
+				Chunk chunk = inFlight.removeFirst().get();
+				for (int i = 0; i < chunk.games.length; i++) {
+					for (PgnParserError error : chunk.errors.get(i)) {
+						listener.errorEncountered(error);
+					}
+					if (chunk.games[i] != null && listener.gameParsed(chunk.games[i], chunk.lineNumbers[i])) {
+						return;
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) {
+				throw (IOException) ee.getCause();
+			}
+			throw new RuntimeException(ee.getCause());
+		} finally {
+			executor.shutdownNow();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Parsed " + index.getGameCount() + " games on " + threads + " threads in "
+						+ (System.currentTimeMillis() - startTime) + "ms");
+			}
+		}
+	}
+
+	/**
+	 * Returns a task which reads and parses the chunk of games starting at
+	 * the specified index.
+	 */
+	protected Callable<Chunk> newChunkTask(final int start) {
+		return new Callable<Chunk>() {
+			public Chunk call() throws Exception {
+				List<Entry> entries = index.getEntries(start, gamesPerChunk);
+				ByteBuffer bytes = index.getBytes(entries);
+				long chunkOffset = entries.isEmpty() ? 0L : entries.get(0).getOffset();
+
+				// One lexer per chunk, so its symbol cache is shared by the
+				// chunk's games.
+				PgnLexer lexer = new PgnLexer(bytes, 1);
+				Chunk result = new Chunk();
+				result.games = new Game[entries.size()];
+				result.lineNumbers = new int[entries.size()];
+				result.errors = new ArrayList<List<PgnParserError>>(entries.size());
+				for (int i = 0; i < entries.size(); i++) {
+					Entry entry = entries.get(i);
+					ByteBuffer game = bytes.duplicate();
+					int gameStart = (int) (entry.getOffset() - chunkOffset);
+					game.limit(Math.min(bytes.limit(), gameStart + entry.getLength()));
+					game.position(Math.min(gameStart, game.limit()));
+					lexer.reset(game, entry.getLineNumber());
+
+					List<PgnParserError> errors = new ArrayList<PgnParserError>(0);
+					result.lineNumbers[i] = entry.getLineNumber();
+					result.games[i] = PgnIndex.parseGame(lexer, errors);
+					result.errors.add(errors);
+				}
+				return result;
+			}
+		};
+	}
+}
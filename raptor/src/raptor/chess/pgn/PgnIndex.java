@@ -0,0 +1,796 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import raptor.chess.Game;
+import raptor.chess.Result;
+import raptor.util.RaptorLogger;
+
+/**
+ * A random access index over a PGN file. The index is built in one pass over
+ * the file and stored in a sidecar file next to it (or in the temp directory
+ * if the PGN directory is not writable). The sidecar holds the byte offset,
+ * length, line number and summary headers of every game. It is reused as long
+ * as the PGN file's size and last modified time are unchanged.
+ * 
+ * Only a small page table is held in memory, one offset per
+ * {@link #PAGE_SIZE} games. Entries are paged in from the sidecar on demand,
+ * and {@link #loadGame(int)} reads and parses only the requested game. This
+ * keeps the heap used by a PGN file constant regardless of its size.
+ */
+public class PgnIndex {
+
+	/**
+	 * A summary of one game in the index.
+	 */
+	public static class Entry {
+		protected String[] headers = new String[SUMMARY_HEADERS.length];
+		protected int index;
+		protected int length;
+		protected int lineNumber;
+		protected long offset;
+
+		/**
+		 * Returns the value of the specified summary header, or "?" if it was
+		 * not in the game or is not one of the {@link #SUMMARY_HEADERS}.
+		 */
+		public String getHeader(PgnHeader header) {
+			for (int i = 0; i < SUMMARY_HEADERS.length; i++) {
+				if (SUMMARY_HEADERS[i] == header) {
+					return headers[i].length() == 0 ? PgnHeader.UNKNOWN_VALUE : headers[i];
+				}
+			}
+			return PgnHeader.UNKNOWN_VALUE;
+		}
+
+		/**
+		 * Returns the zero based index of this game in the file.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the length of the game's text in bytes.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the line number the game's headers start on.
+		 */
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * Returns the byte offset the game's headers start at.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the result from the game's Result header.
+		 */
+		public Result getResult() {
+			return PgnIndex.getResult(getHeader(PgnHeader.Result));
+		}
+	}
+
+	/**
+	 * Receives progress notifications while an index is built.
+	 */
+	public static interface PgnIndexListener {
+		/**
+		 * Invoked periodically while the PGN file is scanned. Return true to
+		 * cancel the build.
+		 */
+		public boolean onProgress(int gamesIndexed, long bytesRead, long totalBytes);
+	}
+
+	/**
+	 * Finds the start of each game while the PGN file is read a byte at a
+	 * time. A game starts at the first header line after movetext, or at a
+	 * second Event header. Lines inside {} comments, ; comments and % escape
+	 * lines are never treated as headers or movetext.
+	 */
+	private class GameScanner {
+		private int firstChar = -1;
+		private DataOutputStream out;
+		private FileOutputStream fileOut;
+		private int gameLineNumber;
+		private long gameOffset = -1;
+		private boolean hasEvent;
+		private String[] headers = new String[SUMMARY_HEADERS.length];
+		private boolean isInComment;
+		private boolean isInHeaders;
+		private boolean isLineComment;
+		private boolean isLineInComment;
+		private boolean isPreviousCr;
+		private byte[] line = new byte[MAX_HEADER_LINE_BYTES];
+		private int lineLength;
+		private int lineNumber = 1;
+		private long lineOffset;
+		private PgnIndexListener listener;
+		private long offset;
+
+		public GameScanner(DataOutputStream out, FileOutputStream fileOut, PgnIndexListener listener) {
+			this.out = out;
+			this.fileOut = fileOut;
+			this.listener = listener;
+		}
+
+		/**
+		 * Writes the last game. Must be invoked after every byte was scanned.
+		 */
+		public void finish() throws IOException {
+			if (firstChar != -1) {
+				endLine();
+			}
+			if (gameOffset != -1) {
+				addEntry(pgnFileLength);
+			}
+		}
+
+		/**
+		 * Scans the next byte of the file. Returns true if the build was
+		 * cancelled.
+		 */
+		public boolean scan(byte b) throws IOException {
+			boolean result = false;
+			if (b == '\n' && isPreviousCr) {
+				lineOffset = offset + 1;
+				isPreviousCr = false;
+			} else if (b == '\n' || b == '\r') {
+				result = endLine();
+				lineOffset = offset + 1;
+				isPreviousCr = b == '\r';
+			} else {
+				isPreviousCr = false;
+				if (lineLength < line.length) {
+					line[lineLength++] = b;
+				}
+				if (firstChar == -1 && b != ' ' && b != '\t') {
+					firstChar = b;
+				}
+				if (isInComment) {
+					if (b == '}') {
+						isInComment = false;
+					}
+				} else if ((firstChar != '[' || isLineInComment) && !isLineComment) {
+					if (b == '{') {
+						isInComment = true;
+					} else if (b == ';') {
+						isLineComment = true;
+					}
+				}
+			}
+			offset++;
+			return result;
+		}
+
+		private boolean addEntry(long gameEnd) throws IOException {
+			if (gameCount % PAGE_SIZE == 0) {
+				int page = gameCount / PAGE_SIZE;
+				if (page == pageOffsets.length) {
+					long[] newPageOffsets = new long[pageOffsets.length * 2];
+					System.arraycopy(pageOffsets, 0, newPageOffsets, 0, pageOffsets.length);
+					pageOffsets = newPageOffsets;
+				}
+				out.flush();
+				pageOffsets[page] = fileOut.getChannel().position();
+			}
+
+			out.writeLong(gameOffset);
+			out.writeInt((int) (gameEnd - gameOffset));
+			out.writeInt(gameLineNumber);
+			for (String header : headers) {
+				out.writeUTF(header);
+			}
+			gameCount++;
+
+			switch (getResult(headers[RESULT_HEADER_INDEX])) {
+			case WHITE_WON:
+				whiteWins++;
+				break;
+			case BLACK_WON:
+				blackWins++;
+				break;
+			case DRAW:
+				draws++;
+				break;
+			default:
+				break;
+			}
+
+			return listener != null && gameCount % PROGRESS_INTERVAL == 0
+					&& listener.onProgress(gameCount, offset, pgnFileLength);
+		}
+
+		private boolean endLine() throws IOException {
+			boolean result = false;
+			if (firstChar == '[' && !isLineInComment) {
+				String text = new String(line, 0, lineLength, Charset.defaultCharset());
+				boolean isEvent = text.indexOf("[Event ") != -1;
+				if (!isInHeaders || (isEvent && hasEvent)) {
+					if (gameOffset != -1) {
+						result = addEntry(lineOffset);
+					}
+					gameOffset = lineOffset;
+					gameLineNumber = lineNumber;
+					hasEvent = false;
+					for (int i = 0; i < headers.length; i++) {
+						headers[i] = "";
+					}
+				}
+				hasEvent |= isEvent;
+				isInHeaders = true;
+				parseHeaders(text, headers);
+			} else if (firstChar != -1 && firstChar != '%' && !isLineInComment) {
+				isInHeaders = false;
+			}
+
+			lineNumber++;
+			lineLength = 0;
+			firstChar = -1;
+			isLineComment = false;
+			isLineInComment = isInComment;
+			return result;
+		}
+	}
+
+	public static final String INDEX_FILE_EXTENSION = ".idx";
+
+	public static final int PAGE_SIZE = 256;
+
+	/**
+	 * The headers stored in each {@link Entry}.
+	 */
+	public static final PgnHeader[] SUMMARY_HEADERS = { PgnHeader.Event, PgnHeader.Date, PgnHeader.White,
+			PgnHeader.WhiteElo, PgnHeader.Black, PgnHeader.BlackElo, PgnHeader.Result, PgnHeader.ECO,
+			PgnHeader.Opening, PgnHeader.Variant };
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int HEADER_BYTES = 48;
+
+	private static final RaptorLogger LOG = RaptorLogger.getLog(PgnIndex.class);
+
+	private static final int MAGIC = 0x52504749;
+
+	private static final int MAX_HEADER_LINE_BYTES = 1024;
+
+	private static final int MAX_HEADER_VALUE_LENGTH = 255;
+
+	private static final int PAGE_BUFFER_SIZE = 1 << 13;
+
+	private static final int PROGRESS_INTERVAL = 500;
+
+	private static final int RESULT_HEADER_INDEX = 6;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Returns the sidecar index file used for the specified PGN file.
+	 */
+	public static File getIndexFile(File pgnFile) {
+		return getSidecarFile(pgnFile, INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the index for the specified PGN file, building it if there is
+	 * no valid sidecar index. Returns null if the listener cancelled the
+	 * build. The listener may be null.
+	 */
+	public static PgnIndex open(File pgnFile, PgnIndexListener listener) throws IOException {
+		File indexFile = getIndexFile(pgnFile);
+		PgnIndex result = new PgnIndex(pgnFile, indexFile);
+		if (indexFile.exists() && result.read()) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Reusing index " + indexFile.getAbsolutePath());
+			}
+			return result;
+		}
+		return result.build(listener) ? result : null;
+	}
+
+	protected static Result getResult(String description) {
+		Result result = Result.get(description);
+		return result == null ? Result.UNDETERMINED : result;
+	}
+
+	/**
+	 * Returns the file with the specified extension which is kept next to the
+	 * PGN file, or in the temp directory if the PGN directory is not
+	 * writable.
+	 */
+	protected static File getSidecarFile(File pgnFile, String extension) {
+		File directory = pgnFile.getAbsoluteFile().getParentFile();
+		if (directory != null && directory.canWrite()) {
+			return new File(pgnFile.getAbsolutePath() + extension);
+		} else {
+			return new File(System.getProperty("java.io.tmpdir"), pgnFile.getName() + "-"
+					+ Integer.toHexString(pgnFile.getAbsolutePath().hashCode()) + extension);
+		}
+	}
+
+	/**
+	 * Parses the game the lexer was reset to. The lexer's line numbers should
+	 * be those of the file, so errors added to the list point at the file
+	 * rather than the game. Returns null if the game could not be parsed.
+	 */
+	protected static Game parseGame(PgnLexer lexer, final List<PgnParserError> errors) {
+		final Game[] result = new Game[1];
+		MappedPgnParser parser = new MappedPgnParser(lexer);
+		parser.addPgnParserListener(new LenientPgnParserListener() {
+			@Override
+			public void errorEncountered(PgnParserError error) {
+				errors.add(error);
+			}
+
+			@Override
+			public boolean gameParsed(Game game, int gameLineNumber) {
+				result[0] = game;
+				return true;
+			}
+		});
+		parser.parse();
+		return result[0];
+	}
+
+	protected int blackWins;
+
+	protected int draws;
+
+	protected int gameCount;
+
+	protected File indexFile;
+
+	protected long[] pageOffsets = new long[16];
+
+	protected long pgnFileLength;
+
+	protected long pgnFileLastModified;
+
+	protected File pgnFile;
+
+	protected int whiteWins;
+
+	protected PgnIndex(File pgnFile, File indexFile) {
+		this.pgnFile = pgnFile;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Returns the number of games whose Result header is 0-1.
+	 */
+	public int getBlackWins() {
+		return blackWins;
+	}
+
+	/**
+	 * Returns the bytes of the games the entries describe, from the start of
+	 * the first entry to the end of the last, read from the PGN file in a
+	 * single read. The entries must be in file order, as returned by
+	 * {@link #getEntries(int, int)}. Each game starts at its offset minus the
+	 * first entry's offset.
+	 */
+	public ByteBuffer getBytes(List<Entry> entries) throws IOException {
+		if (entries.isEmpty()) {
+			return ByteBuffer.allocate(0);
+		}
+
+		checkPgnFileUnchanged();
+		Entry first = entries.get(0);
+		Entry last = entries.get(entries.size() - 1);
+		FileInputStream fileIn = new FileInputStream(pgnFile);
+		try {
+			FileChannel channel = fileIn.getChannel();
+			ByteBuffer result = ByteBuffer.allocate((int) (last.offset + last.length - first.offset));
+			long position = first.offset;
+			while (result.hasRemaining()) {
+				int read = channel.read(result, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+			}
+			result.flip();
+			return result;
+		} finally {
+			fileIn.close();
+		}
+	}
+
+	/**
+	 * Returns the number of games whose Result header is 1/2-1/2.
+	 */
+	public int getDraws() {
+		return draws;
+	}
+
+	/**
+	 * Returns up to count entries starting at the game with the specified
+	 * index. Only the page containing start and the entries that follow it
+	 * are read from the sidecar.
+	 */
+	public List<Entry> getEntries(int start, int count) throws IOException {
+		if (start < 0 || start > gameCount) {
+			throw new IllegalArgumentException("Invalid start " + start + ". Index contains " + gameCount + " games.");
+		}
+		count = Math.min(count, gameCount - start);
+		List<Entry> result = new ArrayList<Entry>(Math.max(count, 0));
+		if (count <= 0) {
+			return result;
+		}
+
+		FileInputStream fileIn = new FileInputStream(indexFile);
+		try {
+			fileIn.getChannel().position(pageOffsets[start / PAGE_SIZE]);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+			Entry entry = new Entry();
+			for (int i = start - start % PAGE_SIZE; i < start; i++) {
+				readEntry(in, entry);
+			}
+			for (int i = start; i < start + count; i++) {
+				entry = new Entry();
+				readEntry(in, entry);
+				entry.index = i;
+				result.add(entry);
+			}
+		} finally {
+			fileIn.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the entries of the games whose indexes are in
+	 * indexes[start..start + count). The indexes must be ascending. Each page
+	 * of the index is read at most once, so this is much faster than invoking
+	 * {@link #getEntry(int)} for games which are close together.
+	 */
+	public List<Entry> getEntries(int[] indexes, int start, int count) throws IOException {
+		int end = Math.min(indexes.length, start + count);
+		List<Entry> result = new ArrayList<Entry>(Math.max(end - start, 0));
+		if (start >= end) {
+			return result;
+		}
+
+		FileInputStream fileIn = new FileInputStream(indexFile);
+		try {
+			DataInputStream in = null;
+			Entry skipped = new Entry();
+			int next = 0;
+			for (int i = start; i < end; i++) {
+				int index = indexes[i];
+				if (index < 0 || index >= gameCount) {
+					throw new IllegalArgumentException("Invalid index " + index + ". Index contains " + gameCount
+							+ " games.");
+				}
+				if (in == null || index < next || index / PAGE_SIZE != next / PAGE_SIZE) {
+					fileIn.getChannel().position(pageOffsets[index / PAGE_SIZE]);
+					in = new DataInputStream(new BufferedInputStream(fileIn, PAGE_BUFFER_SIZE));
+					next = index - index % PAGE_SIZE;
+				}
+				for (; next < index; next++) {
+					readEntry(in, skipped);
+				}
+				Entry entry = new Entry();
+				readEntry(in, entry);
+				entry.index = index;
+				result.add(entry);
+				next++;
+			}
+		} finally {
+			fileIn.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the entry for the game with the specified index.
+	 */
+	public Entry getEntry(int index) throws IOException {
+		if (index < 0 || index >= gameCount) {
+			throw new IllegalArgumentException("Invalid index " + index + ". Index contains " + gameCount + " games.");
+		}
+		return getEntries(index, 1).get(0);
+	}
+
+	/**
+	 * Returns the number of games in the PGN file.
+	 */
+	public int getGameCount() {
+		return gameCount;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Returns the text of the game with the specified index. Only that game's
+	 * bytes are read from the PGN file.
+	 */
+	public String getPgn(int index) throws IOException {
+		return getPgn(getEntry(index));
+	}
+
+	/**
+	 * Returns the text of the game the entry describes.
+	 */
+	public String getPgn(Entry entry) throws IOException {
+		ByteBuffer bytes = getBytes(Collections.singletonList(entry));
+		return new String(bytes.array(), 0, bytes.limit(), Charset.defaultCharset());
+	}
+
+	public File getPgnFile() {
+		return pgnFile;
+	}
+
+	/**
+	 * Returns the number of games whose Result header is 1-0.
+	 */
+	public int getWhiteWins() {
+		return whiteWins;
+	}
+
+	/**
+	 * Parses and returns the game with the specified index, or null if the
+	 * game could not be parsed. Errors found while parsing are added to
+	 * errors, with the line numbers of the PGN file.
+	 */
+	public Game loadGame(int index, List<PgnParserError> errors) throws IOException {
+		Entry entry = getEntry(index);
+		PgnLexer lexer = new PgnLexer(getBytes(Collections.singletonList(entry)), entry.lineNumber);
+		return parseGame(lexer, errors);
+	}
+
+	/**
+	 * Writes every game whose index is not set in excluded to the specified
+	 * file, copying the original bytes of each game. Returns the number of
+	 * games written.
+	 */
+	public int writeGames(File file, BitSet excluded) throws IOException {
+		checkPgnFileUnchanged();
+		int result = 0;
+		FileInputStream pgnIn = new FileInputStream(pgnFile);
+		FileOutputStream out = new FileOutputStream(file, false);
+		try {
+			FileChannel source = pgnIn.getChannel();
+			FileChannel target = out.getChannel();
+			for (int start = 0; start < gameCount; start += PAGE_SIZE) {
+				for (Entry entry : getEntries(start, PAGE_SIZE)) {
+					if (excluded != null && excluded.get(entry.index)) {
+						continue;
+					}
+					long position = entry.offset;
+					long end = entry.offset + entry.length;
+					while (position < end) {
+						position += source.transferTo(position, end - position, target);
+					}
+					result++;
+				}
+			}
+		} finally {
+			try {
+				out.close();
+			} finally {
+				pgnIn.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scans the PGN file and writes the sidecar index. Returns false if the
+	 * listener cancelled the build.
+	 */
+	protected boolean build(PgnIndexListener listener) throws IOException {
+		long startTime = System.currentTimeMillis();
+		pgnFileLength = pgnFile.length();
+		pgnFileLastModified = pgnFile.lastModified();
+		gameCount = 0;
+		whiteWins = 0;
+		blackWins = 0;
+		draws = 0;
+
+		boolean isCancelled = false;
+		InputStream in = new FileInputStream(pgnFile);
+		FileOutputStream fileOut = new FileOutputStream(indexFile, false);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+		try {
+			// The header is rewritten once the scan completes. Until then the
+			// page table offset is 0, which marks the index as incomplete.
+			writeHeader(out, 0L);
+
+			GameScanner scanner = new GameScanner(out, fileOut, listener);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while (!isCancelled && (read = in.read(buffer)) != -1) {
+				for (int i = 0; i < read && !isCancelled; i++) {
+					isCancelled = scanner.scan(buffer[i]);
+				}
+			}
+
+			if (!isCancelled) {
+				scanner.finish();
+
+				out.flush();
+				long pageTableOffset = fileOut.getChannel().position();
+				int pages = getPageCount();
+				for (int i = 0; i < pages; i++) {
+					out.writeLong(pageOffsets[i]);
+				}
+				out.flush();
+				fileOut.close();
+
+				RandomAccessFile header = new RandomAccessFile(indexFile, "rw");
+				try {
+					writeHeader(header, pageTableOffset);
+				} finally {
+					header.close();
+				}
+			}
+		} finally {
+			try {
+				out.close();
+			} finally {
+				in.close();
+			}
+			if (isCancelled && !indexFile.delete()) {
+				indexFile.deleteOnExit();
+			}
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Indexed " + gameCount + " games in " + pgnFile.getName() + " in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
+		return !isCancelled;
+	}
+
+	/**
+	 * Throws an IOException if the PGN file was modified after it was
+	 * indexed.
+	 */
+	protected void checkPgnFileUnchanged() throws IOException {
+		if (pgnFile.length() != pgnFileLength || pgnFile.lastModified() != pgnFileLastModified) {
+			throw new IOException(pgnFile.getAbsolutePath() + " was modified after it was indexed.");
+		}
+	}
+
+	protected int getPageCount() {
+		return (gameCount + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+
+	/**
+	 * Parses all of the [Name "Value"] pairs on the line, storing the values
+	 * of the summary headers.
+	 */
+	protected void parseHeaders(String line, String[] headers) {
+		int start = line.indexOf('[');
+		while (start != -1) {
+			int space = line.indexOf(' ', start);
+			int openQuote = line.indexOf('"', start);
+			if (space == -1 || openQuote == -1 || space > openQuote) {
+				return;
+			}
+			int closeQuote = line.indexOf('"', openQuote + 1);
+			if (closeQuote == -1) {
+				return;
+			}
+			String name = line.substring(start + 1, space);
+			for (int i = 0; i < SUMMARY_HEADERS.length; i++) {
+				if (SUMMARY_HEADERS[i].name().equals(name)) {
+					String value = line.substring(openQuote + 1, closeQuote).trim();
+					headers[i] = value.length() > MAX_HEADER_VALUE_LENGTH ? value.substring(0,
+							MAX_HEADER_VALUE_LENGTH) : value;
+					break;
+				}
+			}
+			start = line.indexOf('[', closeQuote);
+		}
+	}
+
+	/**
+	 * Reads the sidecar header and page table. Returns false if the sidecar
+	 * is incomplete, from another version, or was built for a different
+	 * version of the PGN file.
+	 */
+	protected boolean read() {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+					BUFFER_SIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					return false;
+				}
+				pgnFileLength = in.readLong();
+				pgnFileLastModified = in.readLong();
+				gameCount = in.readInt();
+				whiteWins = in.readInt();
+				blackWins = in.readInt();
+				draws = in.readInt();
+				long pageTableOffset = in.readLong();
+				if (pageTableOffset == 0L || pgnFileLength != pgnFile.length()
+						|| pgnFileLastModified != pgnFile.lastModified()) {
+					return false;
+				}
+
+				long skip = pageTableOffset - HEADER_BYTES;
+				while (skip > 0) {
+					long skipped = in.skip(skip);
+					if (skipped <= 0) {
+						return false;
+					}
+					skip -= skipped;
+				}
+				pageOffsets = new long[getPageCount()];
+				for (int i = 0; i < pageOffsets.length; i++) {
+					pageOffsets[i] = in.readLong();
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException ioe) {
+			LOG.warn("Error reading pgn index " + indexFile.getAbsolutePath() + ". It will be rebuilt.", ioe);
+			return false;
+		}
+	}
+
+	private void readEntry(DataInputStream in, Entry entry) throws IOException {
+		entry.offset = in.readLong();
+		entry.length = in.readInt();
+		entry.lineNumber = in.readInt();
+		for (int i = 0; i < entry.headers.length; i++) {
+			entry.headers[i] = in.readUTF();
+		}
+	}
+
+	private void writeHeader(DataOutput out, long pageTableOffset) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(pgnFileLength);
+		out.writeLong(pgnFileLastModified);
+		out.writeInt(gameCount);
+		out.writeInt(whiteWins);
+		out.writeInt(blackWins);
+		out.writeInt(draws);
+		out.writeLong(pageTableOffset);
+	}
+}
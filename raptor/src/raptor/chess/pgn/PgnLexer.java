@@ -0,0 +1,535 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import raptor.chess.Result;
+
+/**
+ * A PGN lexer which works directly on the bytes of a ByteBuffer. Files are
+ * memory mapped a window at a time, so files larger than 2GB can be read.
+ * 
+ * Tokens are reported as an offset and a length into the buffer. No String is
+ * created unless one is asked for: {@link #getText()} and
+ * {@link #getHeaderValue()} create a new String, and {@link #getSymbol()}
+ * returns a cached String for move words and header names, which come from a
+ * small vocabulary. Move numbers and NAGs are parsed from the bytes.
+ */
+public class PgnLexer {
+	/**
+	 * A {...} or ; comment, or a (...) comment which is not a subline. The
+	 * token is the text of the comment without its delimiters.
+	 */
+	public static final int COMMENT = 1;
+
+	/**
+	 * The end of the buffer.
+	 */
+	public static final int END = 0;
+
+	/**
+	 * A [Name "Value"] header. The token is the name, the value is available
+	 * from {@link #getHeaderValue()}.
+	 */
+	public static final int HEADER = 2;
+
+	/**
+	 * A move number. The dots which follow it are skipped.
+	 */
+	public static final int MOVE_NUMBER = 3;
+
+	/**
+	 * A $ followed by digits.
+	 */
+	public static final int NAG = 4;
+
+	/**
+	 * A game termination marker: 1-0, 0-1, 1/2-1/2 or *.
+	 */
+	public static final int RESULT = 5;
+
+	public static final int SUBLINE_END = 6;
+
+	public static final int SUBLINE_START = 7;
+
+	/**
+	 * Anything else, e.g. a move.
+	 */
+	public static final int SYMBOL = 8;
+
+	/**
+	 * A malformed header or an unterminated comment.
+	 */
+	public static final int UNKNOWN = 9;
+
+	private static final Nag[] NAGS = new Nag[256];
+
+	private static final int REMAP_THRESHOLD = 1 << 20;
+
+	private static final int SYMBOL_CACHE_SIZE = 4096;
+
+	private static final int WINDOW_SIZE = 1 << 26;
+
+	static {
+		for (Nag nag : Nag.values()) {
+			int number = Integer.parseInt(nag.getNagString().substring(1));
+			if (number < NAGS.length) {
+				NAGS[number] = nag;
+			}
+		}
+	}
+
+	protected ByteBuffer buffer;
+
+	protected long bufferStart;
+
+	protected FileChannel channel;
+
+	protected Charset charset = Charset.defaultCharset();
+
+	protected long fileLength;
+
+	protected FileInputStream fileIn;
+
+	protected boolean isAtLineStart = true;
+
+	protected int limit;
+
+	protected int lineNumber;
+
+	protected int position;
+
+	protected byte[][] symbolBytes = new byte[SYMBOL_CACHE_SIZE][];
+
+	protected String[] symbols = new String[SYMBOL_CACHE_SIZE];
+
+	protected int tokenLength;
+
+	protected int tokenLineNumber;
+
+	protected int tokenOffset;
+
+	protected int tokenType;
+
+	protected int valueLength;
+
+	protected int valueOffset;
+
+	/**
+	 * Creates a lexer over the bytes between the buffer's position and limit.
+	 * lineNumber is the line the first byte is on.
+	 */
+	public PgnLexer(ByteBuffer buffer, int lineNumber) {
+		reset(buffer, lineNumber);
+	}
+
+	/**
+	 * Creates a lexer which memory maps the file. {@link #close()} must be
+	 * invoked when it is no longer needed.
+	 */
+	public PgnLexer(File file) throws IOException {
+		fileIn = new FileInputStream(file);
+		channel = fileIn.getChannel();
+		fileLength = channel.size();
+		lineNumber = 1;
+		map(0L);
+	}
+
+	public void close() {
+		if (fileIn != null) {
+			try {
+				fileIn.close();
+			} catch (IOException ioe) {
+			}
+			fileIn = null;
+			channel = null;
+		}
+		buffer = null;
+	}
+
+	/**
+	 * Returns the value of the current HEADER token with \" and \\ escapes
+	 * removed.
+	 */
+	public String getHeaderValue() {
+		String result = new String(getBytes(valueOffset, valueLength), charset);
+		return result.indexOf('\\') == -1 ? result : result.replace("\\\"", "\"").replace("\\\\", "\\");
+	}
+
+	/**
+	 * Returns the line number the current token starts on.
+	 */
+	public int getLineNumber() {
+		return tokenLineNumber;
+	}
+
+	/**
+	 * Returns the Nag of the current NAG token, or null if it is not one of
+	 * the supported NAGs.
+	 */
+	public Nag getNag() {
+		int number = getNumber();
+		return number >= 0 && number < NAGS.length ? NAGS[number] : null;
+	}
+
+	/**
+	 * Returns the value of the current MOVE_NUMBER or NAG token, or -1 if it
+	 * does not fit in an int.
+	 */
+	public int getNumber() {
+		int result = 0;
+		int start = tokenType == NAG ? tokenOffset + 1 : tokenOffset;
+		for (int i = start; i < tokenOffset + tokenLength; i++) {
+			if (result > (Integer.MAX_VALUE - 9) / 10) {
+				return -1;
+			}
+			result = result * 10 + buffer.get(i) - '0';
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the Result of the current RESULT token.
+	 */
+	public Result getResult() {
+		switch (tokenLength) {
+		case 1:
+			return Result.ON_GOING;
+		case 3:
+			return buffer.get(tokenOffset) == '1' ? Result.WHITE_WON : Result.BLACK_WON;
+		default:
+			return Result.DRAW;
+		}
+	}
+
+	/**
+	 * Returns the current token as a String. Identical tokens return the same
+	 * String instance while they stay in the lexer's cache, so this should be
+	 * used for move words and header names rather than free text.
+	 */
+	public String getSymbol() {
+		int hash = 0;
+		for (int i = tokenOffset; i < tokenOffset + tokenLength; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		int slot = (hash ^ hash >>> 12) & SYMBOL_CACHE_SIZE - 1;
+
+		byte[] cached = symbolBytes[slot];
+		if (cached != null && cached.length == tokenLength) {
+			int i = 0;
+			while (i < tokenLength && cached[i] == buffer.get(tokenOffset + i)) {
+				i++;
+			}
+			if (i == tokenLength) {
+				return symbols[slot];
+			}
+		}
+
+		byte[] bytes = getBytes(tokenOffset, tokenLength);
+		symbolBytes[slot] = bytes;
+		return symbols[slot] = new String(bytes, charset);
+	}
+
+	/**
+	 * Returns the current token as a new String. Line breaks in comments are
+	 * replaced with spaces.
+	 */
+	public String getText() {
+		String result = new String(getBytes(tokenOffset, tokenLength), charset).trim();
+		return result.indexOf('\n') == -1 && result.indexOf('\r') == -1 ? result : result.replace("\r\n", " ")
+				.replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Returns the length of the current token in bytes.
+	 */
+	public int getTokenLength() {
+		return tokenLength;
+	}
+
+	/**
+	 * Returns the offset of the current token from the start of the file or
+	 * buffer.
+	 */
+	public long getTokenOffset() {
+		return bufferStart + tokenOffset;
+	}
+
+	public int getTokenType() {
+		return tokenType;
+	}
+
+	/**
+	 * Advances to the next token and returns its type.
+	 */
+	public int nextToken() throws IOException {
+		if (channel != null && limit - position < REMAP_THRESHOLD && bufferStart + limit < fileLength) {
+			map(bufferStart + position);
+		}
+
+		skipWhitespaceAndEscapes();
+		tokenLineNumber = lineNumber;
+		tokenOffset = position;
+		tokenLength = 0;
+		if (position >= limit) {
+			return tokenType = END;
+		}
+
+		byte b = buffer.get(position);
+		switch (b) {
+		case '[':
+			return tokenType = readHeader();
+		case '{':
+			return tokenType = readDelimited('}');
+		case ';':
+			position++;
+			tokenOffset = position;
+			while (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+				position++;
+			}
+			tokenLength = position - tokenOffset;
+			return tokenType = COMMENT;
+		case '(':
+			// A ( followed by a move number, comment or subline starts a
+			// subline. Anything else is treated as a comment, as
+			// SimplePgnParser does.
+			int next = position + 1;
+			while (next < limit && isWhitespace(buffer.get(next))) {
+				next++;
+			}
+			if (next < limit && isSublineStart(buffer.get(next))) {
+				position++;
+				return tokenType = SUBLINE_START;
+			}
+			return tokenType = readDelimited(')');
+		case ')':
+			position++;
+			return tokenType = SUBLINE_END;
+		case '*':
+			position++;
+			tokenLength = 1;
+			return tokenType = RESULT;
+		case '$':
+			position++;
+			while (position < limit && isDigit(buffer.get(position))) {
+				position++;
+			}
+			tokenLength = position - tokenOffset;
+			if (tokenLength > 1) {
+				return tokenType = NAG;
+			}
+			return tokenType = readSymbol();
+		default:
+			if (isDigit(b)) {
+				if (matches("1/2-1/2") || matches("1-0") || matches("0-1")) {
+					return tokenType = RESULT;
+				}
+				int end = position;
+				while (end < limit && isDigit(buffer.get(end))) {
+					end++;
+				}
+				if (end < limit && buffer.get(end) == '.') {
+					tokenLength = end - position;
+					position = end;
+					while (position < limit && buffer.get(position) == '.') {
+						position++;
+					}
+					return tokenType = MOVE_NUMBER;
+				}
+			}
+			return tokenType = readSymbol();
+		}
+	}
+
+	/**
+	 * Starts lexing the bytes between the buffer's position and limit.
+	 * lineNumber is the line the first byte is on. The symbol cache is kept,
+	 * so a lexer can be reused for many games.
+	 */
+	public void reset(ByteBuffer buffer, int lineNumber) {
+		this.buffer = buffer;
+		this.bufferStart = 0L;
+		this.position = buffer.position();
+		this.limit = buffer.limit();
+		this.lineNumber = lineNumber;
+		isAtLineStart = true;
+		tokenType = END;
+		tokenLength = 0;
+	}
+
+	protected byte[] getBytes(int offset, int length) {
+		byte[] result = new byte[length];
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, result, 0, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				result[i] = buffer.get(offset + i);
+			}
+		}
+		return result;
+	}
+
+	protected boolean isDelimiter(byte b) {
+		return isWhitespace(b) || b == '{' || b == '}' || b == '(' || b == ')' || b == '[' || b == ']' || b == ';';
+	}
+
+	protected boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	protected boolean isSublineStart(byte b) {
+		return b == '{' || b == '(' || isDigit(b);
+	}
+
+	protected boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+	}
+
+	/**
+	 * Maps the window of the file starting at the specified offset.
+	 */
+	protected void map(long offset) throws IOException {
+		bufferStart = offset;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, fileLength - offset));
+		position = 0;
+		limit = buffer.limit();
+	}
+
+	/**
+	 * Returns true and consumes the string if the bytes at the current
+	 * position match it.
+	 */
+	protected boolean matches(String string) {
+		if (limit - position < string.length()) {
+			return false;
+		}
+		for (int i = 0; i < string.length(); i++) {
+			if (buffer.get(position + i) != string.charAt(i)) {
+				return false;
+			}
+		}
+		tokenLength = string.length();
+		position += tokenLength;
+		return true;
+	}
+
+	/**
+	 * Reads a comment which ends with the specified byte. The token is the
+	 * text between the delimiters.
+	 */
+	protected int readDelimited(char end) {
+		position++;
+		tokenOffset = position;
+		while (position < limit && buffer.get(position) != end) {
+			if (buffer.get(position) == '\n') {
+				lineNumber++;
+			}
+			position++;
+		}
+		tokenLength = position - tokenOffset;
+		if (position >= limit) {
+			return UNKNOWN;
+		}
+		position++;
+		return COMMENT;
+	}
+
+	/**
+	 * Reads a [Name "Value"] header. If the header is malformed the rest of
+	 * the line is returned as an UNKNOWN token.
+	 */
+	protected int readHeader() {
+		int nameStart = position + 1;
+		int index = nameStart;
+		while (index < limit && !isWhitespace(buffer.get(index)) && buffer.get(index) != '"'
+				&& buffer.get(index) != ']') {
+			index++;
+		}
+		int nameEnd = index;
+		while (index < limit && (buffer.get(index) == ' ' || buffer.get(index) == '\t')) {
+			index++;
+		}
+
+		if (nameEnd > nameStart && index < limit && buffer.get(index) == '"') {
+			int quoteStart = ++index;
+			while (index < limit && buffer.get(index) != '"' && buffer.get(index) != '\n') {
+				if (buffer.get(index) == '\\' && index + 1 < limit) {
+					index++;
+				}
+				index++;
+			}
+			if (index < limit && buffer.get(index) == '"') {
+				int quoteEnd = index++;
+				while (index < limit && (buffer.get(index) == ' ' || buffer.get(index) == '\t')) {
+					index++;
+				}
+				if (index < limit && buffer.get(index) == ']') {
+					tokenOffset = nameStart;
+					tokenLength = nameEnd - nameStart;
+					valueOffset = quoteStart;
+					valueLength = quoteEnd - quoteStart;
+					position = index + 1;
+					return HEADER;
+				}
+			}
+		}
+
+		while (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+			position++;
+		}
+		tokenLength = position - tokenOffset;
+		return UNKNOWN;
+	}
+
+	protected int readSymbol() {
+		while (position < limit && !isDelimiter(buffer.get(position))) {
+			position++;
+		}
+		if (position == tokenOffset) {
+			// A lone } or ] which does not close anything.
+			position++;
+		}
+		tokenLength = position - tokenOffset;
+		return SYMBOL;
+	}
+
+	/**
+	 * Skips whitespace and % escape lines, counting lines as it goes.
+	 */
+	protected void skipWhitespaceAndEscapes() {
+		while (position < limit) {
+			byte b = buffer.get(position);
+			if (b == '\n') {
+				lineNumber++;
+				isAtLineStart = true;
+				position++;
+			} else if (isWhitespace(b)) {
+				position++;
+			} else if (b == '%' && isAtLineStart) {
+				while (position < limit && buffer.get(position) != '\n') {
+					position++;
+				}
+			} else {
+				isAtLineStart = false;
+				break;
+			}
+		}
+	}
+}
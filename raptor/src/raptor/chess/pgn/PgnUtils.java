@@ -33,6 +33,7 @@ import raptor.chess.GameCursor;
 import raptor.chess.Move;
 import raptor.chess.Variant;
 import raptor.pref.PreferenceKeys;
+import raptor.service.OpeningStatisticsService;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorStringUtils;
 
@@ -53,9 +54,10 @@ public class PgnUtils {
 	private static final Object PGN_APPEND_SYNCH = new Object();
 
 	/**
-	 * Prepends the game to the users game pgn file.
+	 * Prepends the game to the users game pgn file, and adds it to the user's
+	 * opening statistics.
 	 */
-	public static void appendGameToFile(Game game) {
+	public static void appendGameToFile(Game game, boolean isUserWhite) {
 		if (Variant.isBughouse(game.getVariant())) {
 			return;
 		}
@@ -66,6 +68,11 @@ public class PgnUtils {
 		String pgnFilePath = Raptor.getInstance().getPreferences().getString(
 				PreferenceKeys.APP_PGN_FILE);
 		if (StringUtils.isNotEmpty(pgnFilePath)) {
+			File file = new File(pgnFilePath);
+			long pgnLength = -1;
+			long newPgnLength = -1;
+			boolean isAppended = false;
+
 			// synchronized on PGN_APPEND_SYNCH so just one thread at a time
 			// writes to the file.
 			synchronized (PGN_APPEND_SYNCH) {
@@ -90,12 +97,15 @@ public class PgnUtils {
 				}
 
 				String pgn = game.toPgn();
-				File file = new File(pgnFilePath);
+				pgnLength = file.length();
 				FileWriter fileWriter = null;
 				try {
 					fileWriter = new FileWriter(file, true);
                     fileWriter.append(pgn).append("\n\n");
-					fileWriter.flush();
+					fileWriter.close();
+					fileWriter = null;
+					newPgnLength = file.length();
+					isAppended = true;
 				} catch (IOException ioe) {
 					LOG.error("Error saving game", ioe);
 				} finally {
@@ -107,6 +117,32 @@ public class PgnUtils {
 					}
 				}
 			}
+
+			// Outside of the lock, since the statistics may have to be
+			// loaded from the whole file first.
+			if (isAppended) {
+				OpeningStatisticsService.getInstance().gameAppended(file, game, isUserWhite, pgnLength,
+						newPgnLength);
+			}
+		}
+	}
+
+	/**
+	 * Appends the comments, nags and time taken of move, the annotations
+	 * getMove writes after the sublines.
+	 */
+	public static void getAnnotations(StringBuilder builder, Move move) {
+		for (Comment comment : move.getComments()) {
+            builder.append(" {").append(comment.getText()).append("}");
+		}
+
+		for (Nag nag : move.getNags()) {
+            builder.append(" ").append(nag.getNagString());
+		}
+
+		for (TimeTakenForMove timeTaken : move.getTimeTakenForMove()) {
+            builder.append(" {").append(timeTaken.getText()).append("}");
+			break;
 		}
 	}
 
@@ -167,19 +203,7 @@ public class PgnUtils {
 			builder.append(")");
 		}
 
-		for (Comment comment : move.getComments()) {
-            builder.append(" {").append(comment.getText()).append("}");
-		}
-
-		for (Nag nag : move.getNags()) {
-            builder.append(" ").append(nag.getNagString());
-		}
-
-		for (TimeTakenForMove timeTaken : move.getTimeTakenForMove()) {
-            builder.append(" {").append(timeTaken.getText()).append("}");
-			break;
-		}
-
+		getAnnotations(builder, move);
 		return result;
 	}
 
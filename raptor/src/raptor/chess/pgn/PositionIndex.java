@@ -0,0 +1,888 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.pgn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.Move;
+import raptor.chess.Result;
+import raptor.chess.pgn.PgnIndex.Entry;
+import raptor.chess.util.PackedMoveUtils;
+import raptor.chess.util.ZobristUtils;
+import raptor.util.RaptorLogger;
+
+/**
+ * An index of the positions reached in the games of a {@link PgnIndex}. It
+ * answers "which games reached this position, and what was played next"
+ * without parsing the PGN file again.
+ * 
+ * The index is a sidecar file next to the PGN file holding one 16 byte
+ * posting for every position of every game: the key of the position from
+ * {@link ZobristUtils#zobristPositionKey(Game)}, followed by the game's index, its result and the move played
+ * from the position packed into a long. The postings are sorted by hash, so
+ * all of the postings of a position are contiguous. The first hash of every
+ * {@link #BLOCK_SIZE} postings is held in memory, so a search binary searches
+ * those and then reads the position's postings sequentially.
+ * 
+ * The postings are sorted in runs of {@link #RUN_SIZE} in memory and the runs
+ * are merged, so building the index uses a constant amount of heap no matter
+ * how large the PGN file is. Like {@link PgnIndex} the sidecar is reused as
+ * long as the PGN file's size and last modified time are unchanged.
+ */
+public class PositionIndex implements GameConstants {
+
+	/**
+	 * The games which reached a move's position, and how they ended.
+	 */
+	public static class MoveStats {
+		protected int blackWins;
+		protected int draws;
+		protected int from;
+		protected int gameCount;
+		protected int promotedPiece;
+		protected String san;
+		protected int to;
+		protected int whiteWins;
+
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		public int getDraws() {
+			return draws;
+		}
+
+		public int getFrom() {
+			return from;
+		}
+
+		public int getGameCount() {
+			return gameCount;
+		}
+
+		/**
+		 * Returns the piece promoted to, or EMPTY if the move isn't a
+		 * promotion.
+		 */
+		public int getPromotedPiece() {
+			return promotedPiece;
+		}
+
+		/**
+		 * Returns the move in SAN, or null for the games which ended in the
+		 * position.
+		 */
+		public String getSan() {
+			return san;
+		}
+
+		/**
+		 * Returns white's score in percent over the games with a result, or
+		 * -1 if none of them have one.
+		 */
+		public double getScore() {
+			int finished = whiteWins + blackWins + draws;
+			return finished == 0 ? -1.0 : (whiteWins + draws / 2.0) * 100.0 / finished;
+		}
+
+		public int getTo() {
+			return to;
+		}
+
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+
+		protected void add(int resultCode) {
+			gameCount++;
+			switch (resultCode) {
+			case WHITE_WON_CODE:
+				whiteWins++;
+				break;
+			case BLACK_WON_CODE:
+				blackWins++;
+				break;
+			case DRAW_CODE:
+				draws++;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reports the progress of building the index. Return true to cancel.
+	 */
+	public static interface PositionIndexListener {
+		public boolean onProgress(int gamesIndexed, int gameCount);
+	}
+
+	/**
+	 * The result of a search: the totals over all of the games which reached
+	 * the position, the moves played from it and the indexes of the games.
+	 */
+	public static class SearchResult extends MoveStats {
+		protected int[] games;
+		protected List<MoveStats> moves;
+
+		/**
+		 * Returns the ascending indexes in the {@link PgnIndex} of the games
+		 * which reached the position, at most the maximum passed to
+		 * {@link PositionIndex#search(Game, int)}. getGameCount() is the total
+		 * number of games.
+		 */
+		public int[] getGames() {
+			return games;
+		}
+
+		/**
+		 * Returns the moves played from the position, the most popular first.
+		 * Games which ended in the position have a move with a null SAN.
+		 */
+		public List<MoveStats> getMoves() {
+			return moves;
+		}
+	}
+
+	/**
+	 * A sorted run of postings in a temp file, read back during the merge.
+	 */
+	protected static class Run {
+		protected DataInputStream in;
+		protected long key;
+		protected long remaining;
+		protected long value;
+
+		public Run(File file, long size) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			remaining = size;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Reads the next posting. Returns false if the run is exhausted.
+		 */
+		public boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			key = in.readLong();
+			value = in.readLong();
+			return true;
+		}
+	}
+
+	/**
+	 * Collects postings in memory, spills them to sorted runs and merges the
+	 * runs into the index file.
+	 */
+	protected class PostingWriter {
+		protected long[] gameKeys = new long[256];
+		protected int[] gameMoves = new int[256];
+		protected long[] keys = new long[INITIAL_RUN_SIZE];
+		protected DataOutputStream out;
+		protected List<File> runFiles = new ArrayList<File>();
+		protected List<Long> runSizes = new ArrayList<Long>();
+		protected int size;
+		protected long[] values = new long[INITIAL_RUN_SIZE];
+
+		public void add(long key, long value) throws IOException {
+			if (size == keys.length) {
+				if (size >= runSize) {
+					writeRun();
+				} else {
+					long[] newKeys = new long[Math.min(runSize, size * 2)];
+					System.arraycopy(keys, 0, newKeys, 0, size);
+					keys = newKeys;
+					long[] newValues = new long[newKeys.length];
+					System.arraycopy(values, 0, newValues, 0, size);
+					values = newValues;
+				}
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+		}
+
+		public void close() {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ioe) {
+					LOG.warn("Error closing " + indexFile.getAbsolutePath(), ioe);
+				}
+				out = null;
+			}
+		}
+
+		public void deleteRuns() {
+			for (File file : runFiles) {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+			runFiles.clear();
+		}
+
+		/**
+		 * Writes the index file. If everything fit in one run it is written
+		 * straight from memory, otherwise the runs are merged.
+		 */
+		public void finish() throws IOException {
+			FileOutputStream fileOut = new FileOutputStream(indexFile, false);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+			try {
+				// The header is rewritten at the end. Until then the block
+				// table offset is 0, which marks the index as incomplete.
+				postingCount = 0;
+				writeHeader(out, 0L);
+
+				if (runFiles.isEmpty()) {
+					sort(keys, values, 0, size);
+					for (int i = 0; i < size; i++) {
+						writePosting(keys[i], values[i]);
+					}
+				} else {
+					writeRun();
+					merge();
+				}
+
+				long blockTableOffset = HEADER_BYTES + postingCount * POSTING_BYTES;
+				for (int i = 0; i < getBlockCount(); i++) {
+					out.writeLong(blockKeys[i]);
+				}
+				out.flush();
+				close();
+
+				RandomAccessFile header = new RandomAccessFile(indexFile, "rw");
+				try {
+					writeHeader(header, blockTableOffset);
+				} finally {
+					header.close();
+				}
+			} finally {
+				close();
+			}
+		}
+
+		protected void merge() throws IOException {
+			PriorityQueue<Run> queue = new PriorityQueue<Run>(runFiles.size(), new Comparator<Run>() {
+				public int compare(Run run1, Run run2) {
+					return PositionIndex.compare(run1.key, run1.value, run2.key, run2.value);
+				}
+			});
+			List<Run> runs = new ArrayList<Run>(runFiles.size());
+			try {
+				for (int i = 0; i < runFiles.size(); i++) {
+					Run run = new Run(runFiles.get(i), runSizes.get(i));
+					runs.add(run);
+					if (run.next()) {
+						queue.add(run);
+					}
+				}
+
+				while (!queue.isEmpty()) {
+					Run run = queue.poll();
+					writePosting(run.key, run.value);
+					if (run.next()) {
+						queue.add(run);
+					}
+				}
+			} finally {
+				for (Run run : runs) {
+					run.close();
+				}
+			}
+		}
+
+		protected void writePosting(long key, long value) throws IOException {
+			if (postingCount % BLOCK_SIZE == 0) {
+				int block = (int) (postingCount / BLOCK_SIZE);
+				if (block == blockKeys.length) {
+					long[] newBlockKeys = new long[blockKeys.length * 2];
+					System.arraycopy(blockKeys, 0, newBlockKeys, 0, blockKeys.length);
+					blockKeys = newBlockKeys;
+				}
+				blockKeys[block] = key;
+			}
+			out.writeLong(key);
+			out.writeLong(value);
+			postingCount++;
+		}
+
+		protected void writeRun() throws IOException {
+			sort(keys, values, 0, size);
+			File file = File.createTempFile("positions", ".run");
+			runFiles.add(file);
+			runSizes.add((long) size);
+			DataOutputStream runOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+					BUFFER_SIZE));
+			try {
+				for (int i = 0; i < size; i++) {
+					runOut.writeLong(keys[i]);
+					runOut.writeLong(values[i]);
+				}
+			} finally {
+				runOut.close();
+			}
+			size = 0;
+		}
+	}
+
+	/**
+	 * The number of postings per in memory block key.
+	 */
+	public static final int BLOCK_SIZE = 256;
+
+	public static final String INDEX_FILE_EXTENSION = ".pos";
+
+	/**
+	 * The default number of postings sorted in memory at a time while
+	 * building, 8MB worth.
+	 */
+	public static final int RUN_SIZE = 1 << 19;
+
+	protected static final int BLACK_WON_CODE = 2;
+
+	protected static final int DRAW_CODE = 3;
+
+	protected static final int WHITE_WON_CODE = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int HEADER_BYTES = 40;
+
+	private static final int INITIAL_RUN_SIZE = 1 << 12;
+
+	private static final RaptorLogger LOG = RaptorLogger.getLog(PositionIndex.class);
+
+	private static final int MAGIC = 0x52505049;
+
+	private static final int POSTING_BYTES = 16;
+
+	private static final int PROGRESS_INTERVAL = 500;
+
+	private static final int VERSION = 2;
+
+	/**
+	 * Returns the sidecar position index file used for the specified PGN file.
+	 */
+	public static File getIndexFile(File pgnFile) {
+		return PgnIndex.getSidecarFile(pgnFile, INDEX_FILE_EXTENSION);
+	}
+
+	/**
+	 * Opens the position index of the games in the PGN index, building it if
+	 * it doesn't exist or is out of date. Returns null if the listener
+	 * cancelled the build.
+	 */
+	public static PositionIndex open(PgnIndex pgnIndex, PositionIndexListener listener) throws IOException {
+		PositionIndex result = new PositionIndex(pgnIndex, getIndexFile(pgnIndex.getPgnFile()));
+		if (result.indexFile.exists() && result.read()) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Reusing position index " + result.indexFile.getAbsolutePath());
+			}
+			return result;
+		}
+		return result.build(listener) ? result : null;
+	}
+
+	/**
+	 * Returns the from, to and promoted piece of the move packed into the low
+	 * 24 bits of a posting, or 0 if move is null. from is 7 bits wide so the
+	 * drop from squares fit.
+	 */
+	protected static int getMoveCode(Move move) {
+		if (move == null) {
+			return 0;
+		}
+		int promotedPiece = move.isPromotion() ? move.getPiecePromotedTo() & NOT_PROMOTED_MASK : EMPTY;
+		return promotedPiece << 13 | (move.getFrom() & 0x7f) << 6 | move.getTo();
+	}
+
+	protected static int getResultCode(Result result) {
+		switch (result) {
+		case WHITE_WON:
+			return WHITE_WON_CODE;
+		case BLACK_WON:
+			return BLACK_WON_CODE;
+		case DRAW:
+			return DRAW_CODE;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the SAN of each move code, see {@link #getMoveCode(Move)}, in
+	 * the game's position. The SAN is null for 0 and for codes which aren't a
+	 * legal move in the position. The game is not modified.
+	 */
+	protected static String[] getSans(Game game, int[] moveCodes) {
+		String[] result = new String[moveCodes.length];
+		Game copy = null;
+		int[] legalMoves = null;
+		int legalMoveCount = 0;
+		Move move = new Move(0, 0, EMPTY, WHITE, EMPTY);
+		for (int i = 0; i < moveCodes.length; i++) {
+			if (moveCodes[i] == 0) {
+				continue;
+			}
+
+			if (copy == null) {
+				copy = game.deepCopy(true);
+				copy.addState(Game.UPDATING_SAN_STATE);
+				legalMoves = new int[MAX_LEGAL_MOVES];
+				legalMoveCount = copy.getLegalMoves(legalMoves);
+			}
+
+			for (int j = 0; j < legalMoveCount && result[i] == null; j++) {
+				PackedMoveUtils.toMove(legalMoves[j], copy.getColorToMove(), move);
+				if (getMoveCode(move) == moveCodes[i]) {
+					copy.forceMove(legalMoves[j]);
+					result[i] = copy.getLastMove().getSan();
+					copy.rollback();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the position at ply was reached earlier in the game. A
+	 * game which repeats a position is only counted once for it, with the
+	 * move it played the first time.
+	 */
+	protected static boolean isRepeated(long[] keys, int ply) {
+		for (int i = ply - 2; i >= 0; i -= 2) {
+			if (keys[i] == keys[ply]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rolls the game back to its first position. The key of the position
+	 * after ply half moves is stored in keys[ply] and the code of the move
+	 * played from it in moves[ply], 0 for the final position. The arrays must
+	 * be longer than the number of half moves.
+	 */
+	protected static void rollbackPositions(Game game, long[] keys, int[] moves) {
+		Move next = null;
+		for (int ply = game.getMoveList().getSize(); ply >= 0; ply--) {
+			keys[ply] = ZobristUtils.zobristPositionKey(game);
+			moves[ply] = getMoveCode(next);
+			if (ply > 0) {
+				next = game.getLastMove();
+				game.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Sorts the postings between from inclusive and to exclusive by key, then
+	 * by value.
+	 */
+	protected static void sort(long[] keys, long[] values, int from, int to) {
+		while (to - from > 16) {
+			int middle = from + (to - from) / 2;
+			long pivotKey = keys[middle];
+			long pivotValue = values[middle];
+			int i = from;
+			int j = to - 1;
+			while (i <= j) {
+				while (compare(keys[i], values[i], pivotKey, pivotValue) < 0) {
+					i++;
+				}
+				while (compare(keys[j], values[j], pivotKey, pivotValue) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+
+			// Recurse into the smaller half so the stack stays shallow.
+			if (j - from < to - i) {
+				sort(keys, values, from, j + 1);
+				from = i;
+			} else {
+				sort(keys, values, i, to);
+				to = j + 1;
+			}
+		}
+
+		for (int i = from + 1; i < to; i++) {
+			for (int j = i; j > from && compare(keys[j - 1], values[j - 1], keys[j], values[j]) > 0; j--) {
+				swap(keys, values, j - 1, j);
+			}
+		}
+	}
+
+	private static int compare(long key1, long value1, long key2, long value2) {
+		if (key1 != key2) {
+			return key1 < key2 ? -1 : 1;
+		}
+		return value1 < value2 ? -1 : value1 == value2 ? 0 : 1;
+	}
+
+	private static void swap(long[] keys, long[] values, int i, int j) {
+		long key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		long value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	protected long[] blockKeys = new long[16];
+
+	protected File indexFile;
+
+	protected PgnIndex pgnIndex;
+
+	protected long pgnFileLastModified;
+
+	protected long pgnFileLength;
+
+	protected long postingCount;
+
+	/**
+	 * The number of postings sorted in memory at a time while building.
+	 */
+	protected int runSize = RUN_SIZE;
+
+	protected PositionIndex(PgnIndex pgnIndex, File indexFile) {
+		this.pgnIndex = pgnIndex;
+		this.indexFile = indexFile;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	public PgnIndex getPgnIndex() {
+		return pgnIndex;
+	}
+
+	/**
+	 * Returns the number of positions in the index, counting a position once
+	 * for every game which reached it.
+	 */
+	public long getPostingCount() {
+		return postingCount;
+	}
+
+	/**
+	 * Returns the games which reached the game's current position and the
+	 * moves played from it. Positions are matched by Zobrist game hash, so
+	 * the color to move, castling rights and ep square must match as well,
+	 * and so must the pieces in hand in variants with drops. The game is not modified. At most maxGames game indexes are returned,
+	 * but the totals and move statistics cover all of the games.
+	 */
+	public SearchResult search(Game game, int maxGames) throws IOException {
+		long key = ZobristUtils.zobristPositionKey(game);
+		SearchResult result = new SearchResult();
+		Map<Integer, MoveStats> moves = new HashMap<Integer, MoveStats>();
+		int[] games = new int[Math.min(Math.max(maxGames, 0), 1024)];
+		int gameCount = 0;
+
+		int block = findFirstBlock(key);
+		if (block != -1) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+					BUFFER_SIZE));
+			try {
+				skipFully(in, HEADER_BYTES + (long) block * BLOCK_SIZE * POSTING_BYTES);
+				for (long i = (long) block * BLOCK_SIZE; i < postingCount; i++) {
+					long postingKey = in.readLong();
+					long value = in.readLong();
+					if (postingKey > key) {
+						break;
+					} else if (postingKey < key) {
+						continue;
+					}
+
+					int resultCode = (int) (value >>> 24) & 0x3;
+					int moveCode = (int) value & 0xffffff;
+					result.add(resultCode);
+					MoveStats stats = moves.get(moveCode);
+					if (stats == null) {
+						stats = new MoveStats();
+						stats.to = moveCode & 0x3f;
+						stats.from = (moveCode >>> 6) & 0x7f;
+						stats.promotedPiece = moveCode >>> 13;
+						moves.put(moveCode, stats);
+					}
+					stats.add(resultCode);
+
+					if (gameCount < maxGames) {
+						if (gameCount == games.length) {
+							int[] newGames = new int[Math.min(games.length * 2, maxGames)];
+							System.arraycopy(games, 0, newGames, 0, games.length);
+							games = newGames;
+						}
+						games[gameCount++] = (int) (value >>> 32);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		// Postings with the same key are sorted by value, whose high bits are
+		// the game index, so the games are already ascending.
+		result.games = new int[gameCount];
+		System.arraycopy(games, 0, result.games, 0, gameCount);
+		result.moves = new ArrayList<MoveStats>(moves.values());
+		setSans(game, result.moves);
+		Collections.sort(result.moves, new Comparator<MoveStats>() {
+			public int compare(MoveStats stats1, MoveStats stats2) {
+				return stats2.gameCount - stats1.gameCount;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Adds the postings of every position in the game to the writer.
+	 */
+	protected void addPostings(Game game, int gameIndex, PostingWriter writer) throws IOException {
+		long value = (long) gameIndex << 32 | (long) getResultCode(game.getResult()) << 24;
+		int plies = game.getMoveList().getSize();
+		if (writer.gameKeys.length <= plies) {
+			writer.gameKeys = new long[plies * 2 + 1];
+			writer.gameMoves = new int[plies * 2 + 1];
+		}
+		long[] keys = writer.gameKeys;
+		int[] moves = writer.gameMoves;
+
+		// The game is only used for this, so it doesn't matter that its moves
+		// are rolled back.
+		rollbackPositions(game, keys, moves);
+		for (int ply = 0; ply <= plies; ply++) {
+			if (!isRepeated(keys, ply)) {
+				writer.add(keys[ply], value | moves[ply]);
+			}
+		}
+	}
+
+	/**
+	 * Parses every game in the PGN index and writes the sorted postings to
+	 * the index file. Returns false if the listener cancelled the build.
+	 */
+	protected boolean build(final PositionIndexListener listener) throws IOException {
+		long startTime = System.currentTimeMillis();
+		pgnFileLength = pgnIndex.getPgnFile().length();
+		pgnFileLastModified = pgnIndex.getPgnFile().lastModified();
+
+		final PostingWriter writer = new PostingWriter();
+		final boolean[] isCancelled = new boolean[1];
+		final IOException[] writeError = new IOException[1];
+		try {
+			new ParallelPgnParser(pgnIndex).parse(new LenientPgnParserListener() {
+				List<Entry> entries = Collections.emptyList();
+				int entriesStart;
+				int gamesIndexed;
+				int nextGame;
+
+				@Override
+				public void errorEncountered(PgnParserError error) {
+				}
+
+				@Override
+				public boolean gameParsed(Game game, int lineNumber) {
+					try {
+						// Games arrive in file order, but ones which could
+						// not be parsed are skipped, so the game's index is
+						// found by its line number.
+						int gameIndex = -1;
+						while (gameIndex == -1 && nextGame < pgnIndex.getGameCount()) {
+							if (nextGame - entriesStart >= entries.size()) {
+								entriesStart = nextGame;
+								entries = pgnIndex.getEntries(entriesStart, PgnIndex.PAGE_SIZE);
+							}
+							if (entries.get(nextGame - entriesStart).getLineNumber() == lineNumber) {
+								gameIndex = nextGame;
+							}
+							nextGame++;
+						}
+
+						if (gameIndex != -1) {
+							try {
+								addPostings(game, gameIndex, writer);
+							} catch (RuntimeException re) {
+								LOG.warn("Error indexing the positions of game " + (gameIndex + 1) + " in "
+										+ pgnIndex.getPgnFile(), re);
+							}
+						}
+					} catch (IOException ioe) {
+						writeError[0] = ioe;
+						return true;
+					}
+
+					gamesIndexed++;
+					if (listener != null && gamesIndexed % PROGRESS_INTERVAL == 0
+							&& listener.onProgress(gamesIndexed, pgnIndex.getGameCount())) {
+						isCancelled[0] = true;
+					}
+					return isCancelled[0];
+				}
+			});
+			if (writeError[0] != null) {
+				throw writeError[0];
+			}
+
+			if (!isCancelled[0]) {
+				writer.finish();
+			}
+		} finally {
+			writer.deleteRuns();
+			if (isCancelled[0] || writeError[0] != null) {
+				writer.close();
+				if (!indexFile.delete()) {
+					indexFile.deleteOnExit();
+				}
+			}
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Indexed " + postingCount + " positions in " + pgnIndex.getPgnFile().getName() + " in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
+		return !isCancelled[0];
+	}
+
+	/**
+	 * Returns the first block which may contain the key, or -1 if no block
+	 * does.
+	 */
+	protected int findFirstBlock(long key) {
+		int blocks = getBlockCount();
+		if (blocks == 0) {
+			return -1;
+		}
+
+		// Find the first block whose first key is >= key. The postings of key
+		// may start in the block before it.
+		int low = 0;
+		int high = blocks;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (blockKeys[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low == 0 ? (blockKeys[0] == key ? 0 : -1) : low - 1;
+	}
+
+	protected int getBlockCount() {
+		return (int) ((postingCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+	}
+
+	protected boolean read() {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+					BUFFER_SIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					return false;
+				}
+				pgnFileLength = in.readLong();
+				pgnFileLastModified = in.readLong();
+				postingCount = in.readLong();
+				long blockTableOffset = in.readLong();
+				if (blockTableOffset == 0L || pgnFileLength != pgnIndex.getPgnFile().length()
+						|| pgnFileLastModified != pgnIndex.getPgnFile().lastModified()) {
+					return false;
+				}
+
+				skipFully(in, blockTableOffset - HEADER_BYTES);
+				blockKeys = new long[getBlockCount()];
+				for (int i = 0; i < blockKeys.length; i++) {
+					blockKeys[i] = in.readLong();
+				}
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException ioe) {
+			LOG.warn("Error reading position index " + indexFile.getAbsolutePath() + ". It will be rebuilt.", ioe);
+			return false;
+		}
+	}
+
+	/**
+	 * Sets the SAN of each move. Moves which aren't legal in the game are
+	 * removed; they can only come from a hash collision.
+	 */
+	protected void setSans(Game game, List<MoveStats> moves) {
+		int[] moveCodes = new int[moves.size()];
+		for (int i = 0; i < moveCodes.length; i++) {
+			MoveStats stats = moves.get(i);
+			moveCodes[i] = stats.promotedPiece << 13 | stats.from << 6 | stats.to;
+		}
+		String[] sans = getSans(game, moveCodes);
+		for (int i = moveCodes.length - 1; i >= 0; i--) {
+			moves.get(i).san = sans[i];
+			if (sans[i] == null && moveCodes[i] != 0) {
+				moves.remove(i);
+			}
+		}
+	}
+
+	private void skipFully(DataInputStream in, long bytes) throws IOException {
+		while (bytes > 0) {
+			int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of " + indexFile.getAbsolutePath());
+			}
+			bytes -= skipped;
+		}
+	}
+
+	private void writeHeader(DataOutput out, long blockTableOffset) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(pgnFileLength);
+		out.writeLong(pgnFileLastModified);
+		out.writeLong(postingCount);
+		out.writeLong(blockTableOffset);
+	}
+}
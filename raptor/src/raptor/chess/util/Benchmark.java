@@ -16,10 +16,10 @@ package raptor.chess.util;
 import static raptor.chess.GameFactory.createFromFen;
 
 import raptor.chess.Game;
-import raptor.chess.Move;
+import raptor.chess.GameConstants;
 import raptor.chess.Variant;
 
-public class Benchmark {
+public class Benchmark implements GameConstants {
 	// manyLegal2MoveTest: mean(nps): 794466 stdv 56010 removing bitboard ops.
 	// moveWalk: mean(nps): 844927 stdv 63506 removing move gen
 	// moveWalk: mean(nps): 850000 stdv 61165
@@ -51,14 +51,25 @@ public class Benchmark {
 	// moveWalk: mean(nps): 889397 stdv 89598 2559200 (ep bug fix).
 	// moveWalk: mean(nps): 1287302 stdv 102786 2623180 (reboot).
 	// moveWalk: mean(nps): 1324255 stdv 40644 2623180 (adding drops).
+	private static final String BENCHMARK_FEN = "rnbqkbnr/p2ppp2/6pp/1pp5/1PP5/6PP/P2PPP2/RNBQKBNR w KQkq - 0 1";
+
 	private static long counter = 0;
 
+	/**
+	 * Runs the moveWalk benchmark. Pass "sliders" as the first argument to
+	 * compare the occluded fill slider attacks in GameUtils with the magic
+	 * bitboard attacks in MagicBitboardUtils on the positions of the same walk
+	 * instead.
+	 */
 	public static void main(String args[]) {
+		if (args.length > 0 && args[0].equals("sliders")) {
+			compareSliderAttacks();
+			return;
+		}
+
 		// Prime:
 		for (int i = 0; i < 5; i++) {
-			Game game = createFromFen(
-					"rnbqkbnr/p2ppp2/6pp/1pp5/1PP5/6PP/P2PPP2/RNBQKBNR w KQkq - 0 1",
-					Variant.classic);
+			Game game = createFromFen(BENCHMARK_FEN, Variant.classic);
 			moveWalk(game);
 		}
 
@@ -67,9 +78,7 @@ public class Benchmark {
 		long[] trials = new long[n];
 
 		for (int i = 0; i < n; i++) {
-			Game game = createFromFen(
-					"rnbqkbnr/p2ppp2/6pp/1pp5/1PP5/6PP/P2PPP2/RNBQKBNR w KQkq - 0 1",
-					Variant.classic);
+			Game game = createFromFen(BENCHMARK_FEN, Variant.classic);
 			long startTime = System.nanoTime();
 			long nodes = moveWalk(game);
 
@@ -81,6 +90,50 @@ public class Benchmark {
 				+ stdv(trials) + " " + counter);
 	}
 
+	/**
+	 * Collects every position of a depth 3 walk from the benchmark position,
+	 * then times the fill based and the magic slider attacks on all of them.
+	 * Prints the positions per second for both and the speedup.
+	 */
+	public static void compareSliderAttacks() {
+		Game game = createFromFen(BENCHMARK_FEN, Variant.classic);
+		long[][] positions = new long[3][1 << 16];
+		int size = collectSliderPositions(game, new int[3][MAX_LEGAL_MOVES],
+				positions, 0, 0, 3);
+
+		long fillResult = sliderAttacks(positions, size, false);
+		long magicResult = sliderAttacks(positions, size, true);
+		if (fillResult != magicResult) {
+			throw new IllegalStateException(
+					"Fill and magic slider attacks differ.");
+		}
+
+		// Prime:
+		for (int i = 0; i < 50; i++) {
+			sliderAttacks(positions, size, false);
+			sliderAttacks(positions, size, true);
+		}
+
+		int n = 200;
+		long[] fillTrials = new long[n];
+		long[] magicTrials = new long[n];
+		for (int i = 0; i < n; i++) {
+			long startTime = System.nanoTime();
+			sliderAttacks(positions, size, false);
+			fillTrials[i] = (long) (size / ((System.nanoTime() - startTime) / 1000000000.0));
+
+			startTime = System.nanoTime();
+			sliderAttacks(positions, size, true);
+			magicTrials[i] = (long) (size / ((System.nanoTime() - startTime) / 1000000000.0));
+		}
+
+		System.err.println("sliders: fill(nps): " + mean(fillTrials)
+				+ " stdv " + stdv(fillTrials) + " magic(nps): "
+				+ mean(magicTrials) + " stdv " + stdv(magicTrials)
+				+ " speedup: " + (double) mean(magicTrials)
+				/ mean(fillTrials) + " " + size);
+	}
+
 	public static long mean(long[] samples) {
 		long total = 0;
 		for (long sample : samples) {
@@ -90,7 +143,7 @@ public class Benchmark {
 	}
 
 	public static long moveWalk(Game game) {
-		return moveWalk(game, 0, 3);
+		return moveWalk(game, new int[3][MAX_LEGAL_MOVES], 0, 3);
 	}
 
 	public static long stdv(long[] samples) {
@@ -105,16 +158,80 @@ public class Benchmark {
 		return (long) Math.sqrt(accum / samples.length);
 	}
 
-	private static long moveWalk(Game game, int depth, int maxDepth) {
+	/**
+	 * Walks the tree storing the occupied squares, the diagonal sliders and
+	 * the orthogonal sliders of every position visited. Returns the new
+	 * number of positions stored.
+	 */
+	private static int collectSliderPositions(Game game, int[][] moves,
+			long[][] positions, int size, int depth, int maxDepth) {
+		if (size < positions[0].length) {
+			positions[0][size] = game.getOccupiedBB();
+			positions[1][size] = game.getPieceBB(BISHOP)
+					| game.getPieceBB(QUEEN);
+			positions[2][size] = game.getPieceBB(ROOK) | game.getPieceBB(QUEEN);
+			size++;
+		}
+
+		if (depth < maxDepth) {
+			int[] plyMoves = moves[depth];
+			int count = game.getPseudoLegalMoves(plyMoves);
+
+			for (int i = 0; i < count; i++) {
+				if (game.move(plyMoves[i])) {
+					size = collectSliderPositions(game, moves, positions,
+							size, depth + 1, maxDepth);
+					game.rollback();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Generates the attacks of every slider in the stored positions and
+	 * returns a checksum of them.
+	 */
+	private static long sliderAttacks(long[][] positions, int size,
+			boolean isUsingMagics) {
+		long result = 0;
+		for (int i = 0; i < size; i++) {
+			long occupied = positions[0][i];
+			long empty = ~occupied;
+
+			long diagonalBB = positions[1][i];
+			while (diagonalBB != 0) {
+				int square = GameUtils.bitscanForward(diagonalBB);
+				result += isUsingMagics ? MagicBitboardUtils.bishopAttacks(
+						square, occupied) : GameUtils.diagonalMove(square,
+						empty, occupied);
+				diagonalBB = GameUtils.bitscanClear(diagonalBB);
+			}
+
+			long orthogonalBB = positions[2][i];
+			while (orthogonalBB != 0) {
+				int square = GameUtils.bitscanForward(orthogonalBB);
+				result += isUsingMagics ? MagicBitboardUtils.rookAttacks(
+						square, occupied) : GameUtils.orthogonalMove(square,
+						empty, occupied);
+				orthogonalBB = GameUtils.bitscanClear(orthogonalBB);
+			}
+		}
+		return result;
+	}
+
+	private static long moveWalk(Game game, int[][] moves, int depth,
+			int maxDepth) {
 		counter++;
 		long result = 1;
 
 		if (depth < maxDepth) {
-			Move[] moves = game.getPseudoLegalMoves().asArray();
+			int[] plyMoves = moves[depth];
+			int count = game.getPseudoLegalMoves(plyMoves);
 
-			for (Move move : moves) {
-				if (game.move(move)) {
-					result += moveWalk(game, depth + 1, maxDepth);
+			for (int i = 0; i < count; i++) {
+				if (game.move(plyMoves[i])) {
+					result += moveWalk(game, moves, depth + 1, maxDepth);
 					game.rollback();
 				}
 			}
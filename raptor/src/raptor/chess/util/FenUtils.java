@@ -0,0 +1,506 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.Variant;
+import raptor.util.RaptorLogger;
+
+/**
+ * Reads and writes Forsyth Edwards Notation (FEN) without building
+ * intermediate Strings. FEN is parsed from any CharSequence straight into an
+ * existing Game, and written into a caller supplied char[] or StringBuilder.
+ * 
+ * <pre>
+ * rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1
+ * </pre>
+ * 
+ * Drop variants can carry the pieces in hand after the board, either in
+ * brackets (.../RNBQKBNR[Qp] w ...) or as a ninth rank (.../RNBQKBNR/Qp w
+ * ...), with promoted pieces on the board marked by a trailing ~. Holdings are
+ * only written when asked for, since servers and most engines don't accept
+ * them.
+ */
+public final class FenUtils implements GameConstants {
+
+	public static final RaptorLogger LOG = RaptorLogger.getLog(FenUtils.class);
+
+	/**
+	 * The most chars writeFen writes, not counting one per piece in hand.
+	 */
+	public static final int MAX_FEN_LENGTH = 128;
+
+	/**
+	 * The number of each piece a side starts with, indexed by piece.
+	 */
+	protected static final int[] STARTING_PIECE_COUNTS = { 0, 8, 2, 2, 2, 1,
+			1 };
+
+	/**
+	 * The buffers the String and StringBuilder methods write into, so they
+	 * don't need one of their own.
+	 */
+	private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[MAX_FEN_LENGTH];
+		}
+	};
+
+	/**
+	 * Appends the FEN of game to builder.
+	 * 
+	 * @param includeHoldings
+	 *            True to write the pieces in hand and promoted pieces of drop
+	 *            variants. Ignored for other variants.
+	 */
+	public static void appendFen(Game game, StringBuilder builder,
+			boolean includeHoldings) {
+		char[] buffer = getBuffer(game, includeHoldings);
+		builder.append(buffer, 0, writeFen(game, buffer, 0, includeHoldings));
+	}
+
+	/**
+	 * Appends the castling field of the FEN of game, e.g. KQkq, to builder.
+	 */
+	public static void appendFenCastle(Game game, StringBuilder builder) {
+		char[] buffer = getBuffer(game, false);
+		builder.append(buffer, 0, writeFenCastle(game, buffer, 0));
+	}
+
+	/**
+	 * Appends the board field of the FEN of game to builder.
+	 */
+	public static void appendFenPosition(Game game, StringBuilder builder) {
+		char[] buffer = getBuffer(game, false);
+		builder.append(buffer, 0, writeFenPosition(game, buffer, 0, false));
+	}
+
+	/**
+	 * Clears game and sets it up from fen. Trailing fields may be left off:
+	 * white is then to move, no one can castle and there is no ep square.
+	 * 
+	 * If fen holds no pieces in hand, the bughouse drop counts are set to the
+	 * opponents pieces which are no longer on the board. FischerRandom games
+	 * still need initialPositionIsSet() called afterwards.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If fen can't be parsed or the position isn't legal.
+	 */
+	public static void setFen(Game game, CharSequence fen) {
+		game.clear();
+		boolean isDropVariant = isDropVariant(game.getVariant());
+		boolean hasHoldings = false;
+		int length = fen.length();
+		int index = skipSpaces(fen, 0);
+		int square = 56;
+
+		for (; index < length; index++) {
+			char c = fen.charAt(index);
+			if (c == ' ') {
+				break;
+			} else if (c == '/') {
+				if (square == 8) {
+					// The pieces in hand as a ninth rank.
+					index = parseHoldings(game, fen, index + 1, ' ',
+							isDropVariant);
+					hasHoldings = true;
+					break;
+				}
+				square -= 16;
+			} else if (c == '[') {
+				index = parseHoldings(game, fen, index + 1, ']', isDropVariant);
+				hasHoldings = true;
+			} else if (c >= '1' && c <= '8') {
+				square += c - '0';
+			} else if (c == '~') {
+				if (isDropVariant && square > 0) {
+					game.setPiece(square - 1, game
+							.getPieceWithPromoteMask(square - 1)
+							| PROMOTED_MASK);
+				}
+			} else {
+				if (square < 0 || square > 63) {
+					throw new IllegalArgumentException(
+							"Too many squares in FEN: " + fen);
+				}
+				int color = Character.isUpperCase(c) ? WHITE : BLACK;
+				int piece = getPiece(c, fen);
+				long squareBB = GameUtils.getBitboard(square);
+
+				game.setPieceCount(color, piece, game
+						.getPieceCount(color, piece) + 1);
+				game.setPiece(square, piece);
+				game.setColorBB(color, game.getColorBB(color) | squareBB);
+				game.setOccupiedBB(game.getOccupiedBB() | squareBB);
+				game.setPieceBB(color, piece, game.getPieceBB(color, piece)
+						| squareBB);
+				square++;
+			}
+		}
+
+		index = skipSpaces(fen, index);
+		int colorToMove = WHITE;
+		if (index < length) {
+			colorToMove = fen.charAt(index) == 'w' ? WHITE : BLACK;
+			index = skipSpaces(fen, skipField(fen, index));
+		}
+		game.setColorToMove(colorToMove);
+
+		int whiteCastling = CASTLE_NONE;
+		int blackCastling = CASTLE_NONE;
+		for (; index < length && fen.charAt(index) != ' '; index++) {
+			switch (fen.charAt(index)) {
+			case 'K':
+				whiteCastling |= CASTLE_SHORT;
+				break;
+			case 'Q':
+				whiteCastling |= CASTLE_LONG;
+				break;
+			case 'k':
+				blackCastling |= CASTLE_SHORT;
+				break;
+			case 'q':
+				blackCastling |= CASTLE_LONG;
+				break;
+			}
+		}
+		game.setCastling(WHITE, whiteCastling);
+		game.setCastling(BLACK, blackCastling);
+
+		index = skipSpaces(fen, index);
+		int epSquare = EMPTY_SQUARE;
+		if (index < length && fen.charAt(index) != '-') {
+			int file = index + 1 < length ? fen.charAt(index) - 'a' : -1;
+			int rank = index + 1 < length ? fen.charAt(index + 1) - '1' : -1;
+			if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+				throw new IllegalArgumentException("Invalid ep square in FEN: "
+						+ fen);
+			}
+			epSquare = GameUtils.getSquare(rank, file);
+		}
+		game.setEpSquare(epSquare);
+		game.setInitialEpSquare(epSquare);
+		index = skipSpaces(fen, skipField(fen, index));
+
+		if (index < length && fen.charAt(index) != '-') {
+			game.setFiftyMoveCount(parseInt(fen, index));
+		}
+		index = skipSpaces(fen, skipField(fen, index));
+
+		if (index < length && fen.charAt(index) != '-') {
+			int fullMoveCount = parseInt(fen, index);
+			game.setHalfMoveCount(colorToMove == BLACK ? fullMoveCount * 2 - 1
+					: fullMoveCount * 2 - 2);
+		}
+
+		game.setEmptyBB(~game.getOccupiedBB());
+		game.setNotColorToMoveBB(~game.getColorBB(colorToMove));
+
+		if (!game.isLegalPosition()) {
+			throw new IllegalArgumentException(
+					"Resulting position was illegal for FEN: " + fen + " "
+							+ game.getVariant());
+		}
+
+		game.setZobristPositionHash(ZobristUtils.zobristHashPositionOnly(game));
+		game.setZobristGameHash(game.getZobristPositionHash()
+				^ ZobristUtils.zobrist(colorToMove, epSquare, whiteCastling,
+						blackCastling));
+		game.incrementRepCount();
+
+		if (!hasHoldings && Variant.isBughouse(game.getVariant())) {
+			setDropCountsFromCaptures(game, fen);
+		}
+	}
+
+	/**
+	 * Returns the FEN of game.
+	 * 
+	 * @param includeHoldings
+	 *            True to write the pieces in hand and promoted pieces of drop
+	 *            variants. Ignored for other variants.
+	 */
+	public static String toFen(Game game, boolean includeHoldings) {
+		char[] buffer = getBuffer(game, includeHoldings);
+		return new String(buffer, 0, writeFen(game, buffer, 0,
+				includeHoldings));
+	}
+
+	/**
+	 * Returns the castling field of the FEN of game, e.g. KQkq.
+	 */
+	public static String toFenCastle(Game game) {
+		char[] buffer = getBuffer(game, false);
+		return new String(buffer, 0, writeFenCastle(game, buffer, 0));
+	}
+
+	/**
+	 * Returns the board field of the FEN of game.
+	 */
+	public static String toFenPosition(Game game) {
+		char[] buffer = getBuffer(game, false);
+		return new String(buffer, 0, writeFenPosition(game, buffer, 0, false));
+	}
+
+	/**
+	 * Writes the FEN of game into buffer starting at offset, and returns the
+	 * offset after the last char written. buffer needs room for
+	 * MAX_FEN_LENGTH chars, plus one for each piece in hand if holdings are
+	 * included.
+	 * 
+	 * @param includeHoldings
+	 *            True to write the pieces in hand and promoted pieces of drop
+	 *            variants. Ignored for other variants.
+	 */
+	public static int writeFen(Game game, char[] buffer, int offset,
+			boolean includeHoldings) {
+		offset = writeFenPosition(game, buffer, offset, includeHoldings
+				&& isDropVariant(game.getVariant()));
+		buffer[offset++] = ' ';
+		buffer[offset++] = game.getColorToMove() == WHITE ? 'w' : 'b';
+		buffer[offset++] = ' ';
+		offset = writeFenCastle(game, buffer, offset);
+		buffer[offset++] = ' ';
+		int epSquare = game.getEpSquare();
+		if (epSquare == EMPTY_SQUARE) {
+			buffer[offset++] = '-';
+		} else {
+			buffer[offset++] = (char) ('a' + GameUtils.getFile(epSquare));
+			buffer[offset++] = (char) ('1' + GameUtils.getRank(epSquare));
+		}
+		buffer[offset++] = ' ';
+		offset = writeInt(game.getFiftyMoveCount(), buffer, offset);
+		buffer[offset++] = ' ';
+		return writeInt(game.getFullMoveCount(), buffer, offset);
+	}
+
+	/**
+	 * Writes the castling field of the FEN of game into buffer starting at
+	 * offset, and returns the offset after the last char written.
+	 */
+	public static int writeFenCastle(Game game, char[] buffer, int offset) {
+		int start = offset;
+		if (game.canWhiteCastleShort()) {
+			buffer[offset++] = 'K';
+		}
+		if (game.canWhiteCastleLong()) {
+			buffer[offset++] = 'Q';
+		}
+		if (game.canBlackCastleShort()) {
+			buffer[offset++] = 'k';
+		}
+		if (game.canBlackCastleLong()) {
+			buffer[offset++] = 'q';
+		}
+		if (offset == start) {
+			buffer[offset++] = '-';
+		}
+		return offset;
+	}
+
+	/**
+	 * Writes the board field of the FEN of game into buffer starting at
+	 * offset, and returns the offset after the last char written.
+	 * 
+	 * @param includeHoldings
+	 *            True to mark promoted pieces and write the pieces in hand in
+	 *            brackets after the board.
+	 */
+	public static int writeFenPosition(Game game, char[] buffer, int offset,
+			boolean includeHoldings) {
+		for (int rank = 7; rank >= 0; rank--) {
+			int consecutiveEmpty = 0;
+			for (int file = 0; file < 8; file++) {
+				int square = GameUtils.getSquare(rank, file);
+				int piece = game.getPiece(square);
+
+				if (piece == EMPTY) {
+					consecutiveEmpty++;
+				} else {
+					if (consecutiveEmpty > 0) {
+						buffer[offset++] = (char) ('0' + consecutiveEmpty);
+						consecutiveEmpty = 0;
+					}
+					int color = (game.getPieceBB(WHITE, piece) & GameUtils
+							.getBitboard(square)) != 0L ? WHITE : BLACK;
+					buffer[offset++] = COLOR_PIECE_TO_CHAR[color].charAt(piece);
+					if (includeHoldings
+							&& (game.getPieceWithPromoteMask(square) & PROMOTED_MASK) != 0) {
+						buffer[offset++] = '~';
+					}
+				}
+			}
+			if (consecutiveEmpty > 0) {
+				buffer[offset++] = (char) ('0' + consecutiveEmpty);
+			}
+			if (rank > 0) {
+				buffer[offset++] = '/';
+			}
+		}
+
+		if (includeHoldings) {
+			buffer[offset++] = '[';
+			for (int color = WHITE; color <= BLACK; color++) {
+				for (int piece = QUEEN; piece >= PAWN; piece--) {
+					char pieceChar = COLOR_PIECE_TO_CHAR[color].charAt(piece);
+					for (int i = game.getDropCount(color, piece); i > 0; i--) {
+						buffer[offset++] = pieceChar;
+					}
+				}
+			}
+			buffer[offset++] = ']';
+		}
+		return offset;
+	}
+
+	/**
+	 * Returns this threads buffer, grown if needed to hold the FEN of game.
+	 */
+	private static char[] getBuffer(Game game, boolean includeHoldings) {
+		char[] result = BUFFERS.get();
+		if (includeHoldings) {
+			int length = MAX_FEN_LENGTH;
+			for (int color = WHITE; color <= BLACK; color++) {
+				for (int piece = PAWN; piece <= QUEEN; piece++) {
+					length += Math.max(0, game.getDropCount(color, piece));
+				}
+			}
+			if (result.length < length) {
+				result = new char[length];
+				BUFFERS.set(result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the piece for the FEN char c, of either color.
+	 */
+	private static int getPiece(char c, CharSequence fen) {
+		int result = PIECE_TO_SAN.indexOf(Character.toUpperCase(c));
+		if (result < PAWN) {
+			throw new IllegalArgumentException("Invalid piece '" + c
+					+ "' in FEN: " + fen);
+		}
+		return result;
+	}
+
+	private static boolean isDropVariant(Variant variant) {
+		return Variant.isBughouse(variant) || Variant.isCrazyhouse(variant);
+	}
+
+	/**
+	 * Adds the pieces in hand starting at index to the drop counts of game,
+	 * and returns the index of terminator or the end of the holdings.
+	 */
+	private static int parseHoldings(Game game, CharSequence fen, int index,
+			char terminator, boolean isDropVariant) {
+		int length = fen.length();
+		for (; index < length; index++) {
+			char c = fen.charAt(index);
+			if (c == terminator || c == ' ') {
+				break;
+			} else if (c != '-') {
+				int color = Character.isUpperCase(c) ? WHITE : BLACK;
+				int piece = getPiece(c, fen);
+				if (isDropVariant) {
+					game.setDropCount(color, piece, game.getDropCount(color,
+							piece) + 1);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Parses the non negative int starting at index.
+	 */
+	private static int parseInt(CharSequence fen, int index) {
+		int length = fen.length();
+		int result = 0;
+		for (; index < length && fen.charAt(index) != ' '; index++) {
+			char c = fen.charAt(index);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("Invalid number in FEN: "
+						+ fen);
+			}
+			result = result * 10 + c - '0';
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the drop counts of each side to the opponents pieces missing from
+	 * the board. This can't account for promotions, since a FEN without
+	 * holdings doesn't mark promoted pieces.
+	 */
+	private static void setDropCountsFromCaptures(Game game, CharSequence fen) {
+		for (int color = WHITE; color <= BLACK; color++) {
+			int oppositeColor = GameUtils.getOppositeColor(color);
+			for (int piece = PAWN; piece <= QUEEN; piece++) {
+				int count = STARTING_PIECE_COUNTS[piece]
+						- game.getPieceCount(oppositeColor, piece);
+				if (count < 0) {
+					count = 0;
+					if (LOG.isWarnEnabled()) {
+						LOG.warn("Set a zh drop value to 0 because it was less "
+								+ "than 0 initially. " + fen);
+					}
+				}
+				game.setDropCount(color, piece, count);
+			}
+		}
+	}
+
+	private static int skipField(CharSequence fen, int index) {
+		int length = fen.length();
+		while (index < length && fen.charAt(index) != ' ') {
+			index++;
+		}
+		return index;
+	}
+
+	private static int skipSpaces(CharSequence fen, int index) {
+		int length = fen.length();
+		while (index < length && fen.charAt(index) == ' ') {
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Writes value in decimal into buffer starting at offset, and returns the
+	 * offset after the last char written.
+	 */
+	private static int writeInt(int value, char[] buffer, int offset) {
+		long remaining = value;
+		if (remaining < 0) {
+			buffer[offset++] = '-';
+			remaining = -remaining;
+		}
+		int start = offset;
+		do {
+			buffer[offset++] = (char) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		for (int i = start, j = offset - 1; i < j; i++, j--) {
+			char swap = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = swap;
+		}
+		return offset;
+	}
+}
@@ -37,6 +37,8 @@ public class GameUtils implements GameConstants {
 
 	private static long[] KING_ATTACKS = new long[64];
 	private static long[] KNIGHT_ATTACKS = new long[64];
+	private static long[][] LINES_THROUGH = new long[64][64];
+	private static long[][] SQUARES_BETWEEN = new long[64][64];
 
 	public static final RaptorLogger LOG = RaptorLogger.getLog(GameUtils.class);
 
@@ -45,6 +47,7 @@ public class GameUtils implements GameConstants {
 	static {
 		initKingAttacks();
 		initKnightAttacks();
+		initRays();
 	}
 
 	/**
@@ -696,6 +699,14 @@ public class GameUtils implements GameConstants {
 		return KNIGHT_ATTACKS[square];
 	}
 
+	/**
+	 * Returns the whole rank, file or diagonal through both squares, including
+	 * the squares themselves. Returns 0 if the squares are not on a line.
+	 */
+	public static final long lineThrough(int square1, int square2) {
+		return LINES_THROUGH[square1][square2];
+	}
+
 	public static final long moveOne(int direction, long bitboard) {
 		switch (direction) {
 		case NORTH:
@@ -804,6 +815,14 @@ public class GameUtils implements GameConstants {
 		return bitboard >>> 8;
 	}
 
+	/**
+	 * Returns the squares strictly between the two squares if they are on the
+	 * same rank, file or diagonal. Returns 0 otherwise.
+	 */
+	public static final long squaresBetween(int square1, int square2) {
+		return SQUARES_BETWEEN[square1][square2];
+	}
+
 	public static final int sparsePopulationCount(long bitboard) {
 		// Faster on sparser BBs <= 8 pieces.
 		int result = 0;
@@ -977,6 +996,40 @@ public class GameUtils implements GameConstants {
 		}
 	}
 
+	private static final void initRays() {
+		int[][] directions = { { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 },
+				{ 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 } };
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				int square = getSquare(i, j);
+				for (int[] direction : directions) {
+					// The full line through square in this direction.
+					long line = getBitboard(square);
+					for (int k = 1; isInBounds(i + k * direction[0], j + k
+							* direction[1]); k++) {
+						line |= getBitboard(getSquare(i + k * direction[0], j
+								+ k * direction[1]));
+					}
+					for (int k = 1; isInBounds(i - k * direction[0], j - k
+							* direction[1]); k++) {
+						line |= getBitboard(getSquare(i - k * direction[0], j
+								- k * direction[1]));
+					}
+
+					long between = 0L;
+					for (int k = 1; isInBounds(i + k * direction[0], j + k
+							* direction[1]); k++) {
+						int toSquare = getSquare(i + k * direction[0], j + k
+								* direction[1]);
+						SQUARES_BETWEEN[square][toSquare] = between;
+						LINES_THROUGH[square][toSquare] = line;
+						between |= getBitboard(toSquare);
+					}
+				}
+			}
+		}
+	}
+
 	public static int getMaterialScore(Game game) {
 		final int WHITE = GameConstants.WHITE;
 		final int BLACK = GameConstants.BLACK;
@@ -0,0 +1,181 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import raptor.chess.GameConstants;
+
+/**
+ * Slider attacks using magic bitboards. The attack sets for every square and
+ * every relevant occupancy are computed once when the class is loaded, after
+ * that a bishop or rook attack is a mask, a multiply, a shift and a table
+ * lookup. The results are identical to GameUtils.diagonalMove and
+ * GameUtils.orthogonalMove, which use occluded fills and are kept as the
+ * reference implementation.
+ * 
+ * The magics were found with a seeded random search and use the plain
+ * (non shared) table layout, 102400 entries for rooks and 5248 for bishops.
+ */
+public final class MagicBitboardUtils implements GameConstants {
+	private static final long[] BISHOP_MAGICS = {
+			0x0c08200404204115L, 0x00201a82084100a0L, 0x9018219922008000L,
+			0x01080e8104081814L, 0x000710418062144bL, 0x0002023004c30602L,
+			0x0024841042901051L, 0x1028402c04024000L, 0x0104048848010401L,
+			0x8005029004088088L, 0x0802320800490900L, 0x0008440506002200L,
+			0x2041011040003280L, 0x0020484802105044L, 0x89080f4930301024L,
+			0x1009090080842000L, 0x2208009282080800L, 0x013060020c0800a0L,
+			0x4302000408020208L, 0x0004026844000901L, 0x2001001890400000L,
+			0xc0020000404220a0L, 0x0144010606070500L, 0x08112022008a0829L,
+			0x0002211408200481L, 0x504104384828280aL, 0x0040500025040080L,
+			0x0220808008020003L, 0x0021010000104000L, 0x1184052001101000L,
+			0x0001210090480806L, 0x8001010206240120L, 0x000802420a080810L,
+			0x2001080920200100L, 0x0010202400080808L, 0x0040400a00082200L,
+			0x8908020400001010L, 0x0020040420190084L, 0x8808023c00004101L,
+			0x8208104040808a00L, 0x40448450c0008900L, 0x0000520220001000L,
+			0x8028210040400801L, 0x1800020104005240L, 0x0000010124000200L,
+			0x0820010a22000020L, 0x44080200aa010c02L, 0x608801105a040080L,
+			0x00050082a0201102L, 0x0000820821244200L, 0x00058084008800a4L,
+			0x0930c10042020006L, 0x100810300a120100L, 0x000122820a020600L,
+			0x0410200294084811L, 0x13109a0084018940L, 0x1012048208110405L,
+			0x00000140c2503009L, 0x001810c042009090L, 0x210040010020a809L,
+			0x0250400212020200L, 0x010023c488900500L, 0x422458a004048220L,
+			0x0210120811002606L };
+
+	private static final long[] ROOK_MAGICS = {
+			0x4080002010400086L, 0x0240002000441000L, 0x2080100408200081L,
+			0x0880100080080104L, 0x0100080003000410L, 0x4180020004008001L,
+			0x3080020021002080L, 0x8200040300423086L, 0x1020802040008002L,
+			0x8005401009200040L, 0x4001802001100080L, 0x0002801002080081L,
+			0x002a0006000830a0L, 0x02ab001401008802L, 0x0011004100042200L,
+			0x8801801480006100L, 0x0200928000400020L, 0x0800424010022000L,
+			0x2600820022004010L, 0x0408008008801000L, 0x8064110005000800L,
+			0x2004008004020080L, 0x2040240088121130L, 0x0082020000a84104L,
+			0x0040882980004006L, 0x0100200040005001L, 0x8800820200102041L,
+			0x0000100280080280L, 0x4060040280080080L, 0x0000040080800200L,
+			0x9402010400080210L, 0x0800010200004084L, 0x2000400020800082L,
+			0x0120100020400048L, 0x0040821002802000L, 0x0000100021000900L,
+			0x0000800802800400L, 0x0440040080800200L, 0x4042000802000401L,
+			0x0000205102000084L, 0x0000400080218000L, 0x2040010080490020L,
+			0x0000100020008080L, 0x1108008010048009L, 0x0824050008010010L,
+			0x0040020004008080L, 0x0443000200010004L, 0xc006040090620001L,
+			0x0000204000801080L, 0x0025082040108100L, 0x0090001080200080L,
+			0x0010001100086300L, 0x0804050008001100L, 0x0014000200048080L,
+			0x4100100142080400L, 0x0000108720440200L, 0x8810120081004022L,
+			0x00008100400011ebL, 0x0140100820420082L, 0x1502890500201001L,
+			0x2001001062080005L, 0x310a000804011002L, 0x601200f002010804L,
+			0x1000010400204082L };
+
+	private static final long[] BISHOP_MASKS = new long[64];
+	private static final int[] BISHOP_OFFSETS = new int[64];
+	private static final int[] BISHOP_SHIFTS = new int[64];
+	private static final long[] BISHOP_ATTACKS;
+
+	private static final long[] ROOK_MASKS = new long[64];
+	private static final int[] ROOK_OFFSETS = new int[64];
+	private static final int[] ROOK_SHIFTS = new int[64];
+	private static final long[] ROOK_ATTACKS;
+
+	private static final int[][] BISHOP_DIRECTIONS = { { 1, 1 }, { 1, -1 },
+			{ -1, 1 }, { -1, -1 } };
+	private static final int[][] ROOK_DIRECTIONS = { { 1, 0 }, { -1, 0 },
+			{ 0, 1 }, { 0, -1 } };
+
+	static {
+		BISHOP_ATTACKS = initAttacks(BISHOP_DIRECTIONS, BISHOP_MAGICS,
+				BISHOP_MASKS, BISHOP_OFFSETS, BISHOP_SHIFTS);
+		ROOK_ATTACKS = initAttacks(ROOK_DIRECTIONS, ROOK_MAGICS, ROOK_MASKS,
+				ROOK_OFFSETS, ROOK_SHIFTS);
+	}
+
+	/**
+	 * Returns the squares a bishop on square attacks. The first occupied
+	 * square in each direction is included regardless of its color.
+	 */
+	public static long bishopAttacks(int square, long occupied) {
+		return BISHOP_ATTACKS[BISHOP_OFFSETS[square]
+				+ (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+	}
+
+	/**
+	 * Returns the squares a queen on square attacks. The first occupied
+	 * square in each direction is included regardless of its color.
+	 */
+	public static long queenAttacks(int square, long occupied) {
+		return bishopAttacks(square, occupied) | rookAttacks(square, occupied);
+	}
+
+	/**
+	 * Returns the squares a rook on square attacks. The first occupied square
+	 * in each direction is included regardless of its color.
+	 */
+	public static long rookAttacks(int square, long occupied) {
+		return ROOK_ATTACKS[ROOK_OFFSETS[square]
+				+ (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+	}
+
+	/**
+	 * Walks the rays from square in each direction stopping at the first
+	 * occupied square. If excludeEdges is true the last square of each ray is
+	 * left out, which gives the relevant occupancy mask.
+	 */
+	private static long slide(int square, long occupied, int[][] directions,
+			boolean excludeEdges) {
+		long result = 0L;
+		int rank = square / 8;
+		int file = square % 8;
+		for (int[] direction : directions) {
+			int toRank = rank + direction[0];
+			int toFile = file + direction[1];
+			while (GameUtils.isInBounds(toRank, toFile)) {
+				if (excludeEdges
+						&& !GameUtils.isInBounds(toRank + direction[0], toFile
+								+ direction[1])) {
+					break;
+				}
+				long toBB = 1L << (toRank * 8 + toFile);
+				result |= toBB;
+				if ((occupied & toBB) != 0) {
+					break;
+				}
+				toRank += direction[0];
+				toFile += direction[1];
+			}
+		}
+		return result;
+	}
+
+	private static long[] initAttacks(int[][] directions, long[] magics,
+			long[] masks, int[] offsets, int[] shifts) {
+		int size = 0;
+		for (int square = 0; square < 64; square++) {
+			masks[square] = slide(square, 0L, directions, true);
+			int bits = Long.bitCount(masks[square]);
+			shifts[square] = 64 - bits;
+			offsets[square] = size;
+			size += 1 << bits;
+		}
+
+		long[] attacks = new long[size];
+		for (int square = 0; square < 64; square++) {
+			// Enumerate every subset of the mask (Carry-Rippler).
+			long occupied = 0L;
+			do {
+				int index = (int) ((occupied * magics[square]) >>> shifts[square]);
+				attacks[offsets[square] + index] = slide(square, occupied,
+						directions, false);
+				occupied = (occupied - masks[square]) & masks[square];
+			} while (occupied != 0L);
+		}
+		return attacks;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import raptor.chess.GameConstants;
+import raptor.chess.Move;
+
+/**
+ * Utility methods for moves packed into an int. Packed moves are used by the
+ * allocation free move generation methods in Game, e.g.
+ * getPseudoLegalMoves(int[]), so move walks do not have to create a Move
+ * object for every move they look at.
+ * 
+ * The layout of a packed move is:
+ * 
+ * <pre>
+ * bits  0-5  from square (0 for drops)
+ * bits  6-11 to square
+ * bits 12-15 piece moving (with promote mask)
+ * bits 16-19 piece captured (with promote mask)
+ * bits 20-23 piece promoted to
+ * bits 24-29 move characteristic (Move.*_CHARACTERISTIC)
+ * </pre>
+ * 
+ * The color moving is not stored, it is always the color to move in the
+ * position the move was generated from. The ep square of a double pawn push
+ * is the square between the from and to squares.
+ */
+public final class PackedMoveUtils implements GameConstants {
+	public static final int NO_MOVE = 0;
+
+	private static final int SQUARE_MASK = 0x3f;
+	private static final int PIECE_MASK = 0xf;
+	private static final int CHARACTERISTIC_MASK = 0x3f;
+
+	private static final int TO_SHIFT = 6;
+	private static final int PIECE_SHIFT = 12;
+	private static final int CAPTURE_SHIFT = 16;
+	private static final int PROMOTION_SHIFT = 20;
+	private static final int CHARACTERISTIC_SHIFT = 24;
+
+	/**
+	 * Returns a packed drop move.
+	 */
+	public static int createDropMove(int to, int piece) {
+		return to << TO_SHIFT | piece << PIECE_SHIFT
+				| Move.DROP_CHARACTERISTIC << CHARACTERISTIC_SHIFT;
+	}
+
+	/**
+	 * Returns a packed move with no promotion and no move characteristic.
+	 */
+	public static int createMove(int from, int to, int piece, int capture) {
+		return from | to << TO_SHIFT | piece << PIECE_SHIFT
+				| capture << CAPTURE_SHIFT;
+	}
+
+	/**
+	 * Returns a packed move.
+	 */
+	public static int createMove(int from, int to, int piece, int capture,
+			int piecePromotedTo, int moveCharacteristic) {
+		return from | to << TO_SHIFT | piece << PIECE_SHIFT
+				| capture << CAPTURE_SHIFT | piecePromotedTo << PROMOTION_SHIFT
+				| moveCharacteristic << CHARACTERISTIC_SHIFT;
+	}
+
+	/**
+	 * Removes all non captures from the first count moves if there is at least
+	 * one capture. Returns the new number of moves. Used by the variants which
+	 * force captures, e.g. suicide and losers.
+	 */
+	public static int filterCapturesIfAny(int[] moves, int count) {
+		int captures = 0;
+		for (int i = 0; i < count; i++) {
+			if (isCapture(moves[i])) {
+				moves[captures++] = moves[i];
+			}
+		}
+		return captures == 0 ? count : captures;
+	}
+
+	/**
+	 * Returns the captured piece with its promote mask, EMPTY if the move is
+	 * not a capture.
+	 */
+	public static int getCaptureWithPromoteMask(int move) {
+		return move >>> CAPTURE_SHIFT & PIECE_MASK;
+	}
+
+	/**
+	 * Returns the from square. Drop moves always return 0.
+	 */
+	public static int getFrom(int move) {
+		return move & SQUARE_MASK;
+	}
+
+	public static int getMoveCharacteristic(int move) {
+		return move >>> CHARACTERISTIC_SHIFT & CHARACTERISTIC_MASK;
+	}
+
+	public static int getPiecePromotedTo(int move) {
+		return move >>> PROMOTION_SHIFT & PIECE_MASK;
+	}
+
+	/**
+	 * Returns the piece moving with its promote mask.
+	 */
+	public static int getPieceWithPromoteMask(int move) {
+		return move >>> PIECE_SHIFT & PIECE_MASK;
+	}
+
+	public static int getTo(int move) {
+		return move >>> TO_SHIFT & SQUARE_MASK;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move >>> CAPTURE_SHIFT & PIECE_MASK) != EMPTY;
+	}
+
+	public static boolean isDrop(int move) {
+		return (getMoveCharacteristic(move) & Move.DROP_CHARACTERISTIC) != 0;
+	}
+
+	public static boolean isPromotion(int move) {
+		return (getMoveCharacteristic(move) & Move.PROMOTION_CHARACTERISTIC) != 0;
+	}
+
+	/**
+	 * Unpacks the move into result. If result is null a new Move is created.
+	 * Any state left over in result from a previous move is cleared.
+	 * 
+	 * @param move
+	 *            The packed move.
+	 * @param color
+	 *            The color making the move.
+	 * @param result
+	 *            The move to fill in, or null.
+	 * @return The unpacked move.
+	 */
+	public static Move toMove(int move, int color, Move result) {
+		if (result == null) {
+			result = new Move(0, 0, EMPTY, color, EMPTY);
+		}
+
+		int characteristic = getMoveCharacteristic(move);
+		int to = getTo(move);
+		int piece = getPieceWithPromoteMask(move);
+
+		if ((characteristic & Move.DROP_CHARACTERISTIC) != 0) {
+			result.reset(GameUtils.getDropSquareFromColoredPiece(GameUtils
+					.getColoredPiece(piece, color)), to, piece, color, EMPTY,
+					EMPTY, EMPTY_SQUARE, characteristic);
+		} else {
+			int from = getFrom(move);
+			result.reset(from, to, piece, color,
+					getCaptureWithPromoteMask(move), getPiecePromotedTo(move),
+					(characteristic & Move.DOUBLE_PAWN_PUSH_CHARACTERISTIC) != 0 ? (from + to) / 2
+							: EMPTY_SQUARE, characteristic);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.chess.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.Variant;
+
+/**
+ * Counts the leaf nodes of the legal move tree of a position (perft). Perft
+ * counts are compared with known values to verify move generation, and the
+ * walk is a convenient fixed work load for benchmarking.
+ * 
+ * parallelPerft splits the top plies of the tree into tasks run on a thread
+ * pool, each with its own deepCopy of the game, and can share a
+ * TranspositionTable between them so transposed subtrees are only counted
+ * once.
+ */
+public final class PerftUtils implements GameConstants {
+
+	/**
+	 * A fixed size lock-free table of subtree leaf counts keyed by position
+	 * and depth. Each entry is two longs: the key xor the data, and the data.
+	 * An entry torn by two threads writing it at once fails the xor check and
+	 * is treated as a miss, so no locking is needed. Entries are always
+	 * replaced.
+	 */
+	public static final class TranspositionTable {
+		/**
+		 * The number of bits of the data used for the depth. The rest is the
+		 * leaf count.
+		 */
+		private static final int DEPTH_BITS = 8;
+		private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+
+		private final AtomicLongArray entries;
+		private final int mask;
+
+		/**
+		 * Creates a table with 2^sizeBits entries. Each entry is 16 bytes.
+		 */
+		public TranspositionTable(int sizeBits) {
+			entries = new AtomicLongArray(2 << sizeBits);
+			mask = (1 << sizeBits) - 1;
+		}
+
+		/**
+		 * Returns the leaf count stored for key at depth, -1 if there isn't
+		 * one.
+		 */
+		public long get(long key, int depth) {
+			int index = ((int) (key ^ key >>> 32) & mask) << 1;
+			long data = entries.get(index + 1);
+			if ((entries.get(index) ^ data) == key
+					&& (data & DEPTH_MASK) == depth) {
+				return data >>> DEPTH_BITS;
+			}
+			return -1;
+		}
+
+		public void put(long key, int depth, long leafCount) {
+			int index = ((int) (key ^ key >>> 32) & mask) << 1;
+			long data = leafCount << DEPTH_BITS | depth;
+			entries.set(index, key ^ data);
+			entries.set(index + 1, data);
+		}
+	}
+
+	/**
+	 * Counts the leaf nodes below a game in a pool thread. The game belongs to
+	 * the task.
+	 */
+	protected static class PerftTask implements Callable<Long> {
+		protected final int depth;
+		protected final Game game;
+		protected final TranspositionTable table;
+
+		public PerftTask(Game game, int depth, TranspositionTable table) {
+			this.game = game;
+			this.depth = depth;
+			this.table = table;
+		}
+
+		public Long call() {
+			return perft(game, depth, table);
+		}
+	}
+
+	/**
+	 * Returns the number of leaf nodes depth plies below the current position
+	 * of game. The game is left in the position it was in.
+	 */
+	public static long perft(Game game, int depth) {
+		return perft(game, depth, null);
+	}
+
+	/**
+	 * Returns the number of leaf nodes depth plies below the current position
+	 * of game, looking up and storing subtree counts in table if it is not
+	 * null. The game is left in the position it was in.
+	 */
+	public static long perft(Game game, int depth, TranspositionTable table) {
+		if (depth <= 0) {
+			return 1;
+		}
+		return perft(game, new int[depth][MAX_LEGAL_MOVES], depth, table,
+				hasDrops(game));
+	}
+
+	/**
+	 * Returns the same count as perft, using every available processor. The
+	 * positions splitPlies plies below game are each counted in their own task
+	 * on a deepCopy of game, so splitPlies 1 splits the root moves. game is
+	 * not modified.
+	 * 
+	 * @param table
+	 *            A table shared by all of the tasks, null to not use one.
+	 */
+	public static long parallelPerft(Game game, int depth, int splitPlies,
+			TranspositionTable table) {
+		if (depth <= 0) {
+			return 1;
+		}
+		List<PerftTask> tasks = new ArrayList<PerftTask>();
+		addTasks(game.deepCopy(true), depth, splitPlies, table, tasks);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		try {
+			long result = 0;
+			for (Future<Long> future : executor.invokeAll(tasks)) {
+				result += future.get();
+			}
+			return result;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		} catch (ExecutionException ee) {
+			throw new RuntimeException(ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds a task to tasks for every position splitPlies plies below game,
+	 * or for game itself if it isn't split any further. game belongs to this
+	 * method.
+	 */
+	private static void addTasks(Game game, int depth, int splitPlies,
+			TranspositionTable table, List<PerftTask> tasks) {
+		if (splitPlies <= 0 || depth <= 1) {
+			tasks.add(new PerftTask(game, depth, table));
+			return;
+		}
+
+		int[] moves = new int[MAX_LEGAL_MOVES];
+		int count = game.getLegalMoves(moves);
+		for (int i = 0; i < count; i++) {
+			Game copy = game.deepCopy(true);
+			copy.forceMove(moves[i]);
+			addTasks(copy, depth - 1, splitPlies - 1, table, tasks);
+		}
+	}
+
+	/**
+	 * Returns the key of the current position of game in a
+	 * TranspositionTable. The Zobrist game hash does not include the pieces
+	 * in hand or which pieces are promoted, so for drop variants they are
+	 * mixed in.
+	 */
+	private static long getTableKey(Game game, boolean hasDrops) {
+		long result = game.getZobristGameHash();
+		if (hasDrops) {
+			long dropCounts = 0L;
+			for (int color = WHITE; color <= BLACK; color++) {
+				for (int piece = PAWN; piece <= QUEEN; piece++) {
+					dropCounts = dropCounts << 6 | game.getDropCount(color,
+							piece) & 0x3f;
+				}
+			}
+
+			long promotedBB = 0L;
+			int[] board = game.getBoard();
+			long occupiedBB = game.getOccupiedBB();
+			while (occupiedBB != 0L) {
+				int square = GameUtils.bitscanForward(occupiedBB);
+				if ((board[square] & PROMOTED_MASK) != 0) {
+					promotedBB |= GameUtils.getBitboard(square);
+				}
+				occupiedBB = GameUtils.bitscanClear(occupiedBB);
+			}
+			result ^= mix(dropCounts) ^ mix(~promotedBB);
+		}
+		return result;
+	}
+
+	private static boolean hasDrops(Game game) {
+		return Variant.isCrazyhouse(game.getVariant())
+				|| Variant.isBughouse(game.getVariant());
+	}
+
+	/**
+	 * The MurmurHash3 64 bit finalizer.
+	 */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		return value ^ value >>> 33;
+	}
+
+	private static long perft(Game game, int[][] moves, int depth,
+			TranspositionTable table, boolean hasDrops) {
+		long key = 0L;
+		if (table != null && depth > 1) {
+			key = getTableKey(game, hasDrops);
+			long result = table.get(key, depth);
+			if (result != -1) {
+				return result;
+			}
+		}
+
+		int[] plyMoves = moves[depth - 1];
+		int count = game.getLegalMoves(plyMoves);
+		if (depth == 1) {
+			return count;
+		}
+
+		long result = 0;
+		for (int i = 0; i < count; i++) {
+			game.forceMove(plyMoves[i]);
+			result += perft(game, moves, depth - 1, table, hasDrops);
+			game.rollback();
+		}
+
+		if (table != null) {
+			table.put(key, depth, result);
+		}
+		return result;
+	}
+}
@@ -16,6 +16,8 @@ package raptor.chess.util;
 import org.apache.commons.lang.StringUtils;
 
 import raptor.chess.GameConstants;
+import raptor.chess.Move;
+import raptor.chess.MoveList;
 
 /**
  * A class containing validation methods for Short Algebraic Notation (SAN).
@@ -533,6 +535,152 @@ public class SanUtils {
 		return String.valueOf(squareToFileSan(square)) + squareToRankSan(square);
 	}
 
+	/**
+	 * Returns the SAN of move. pieceBB and targetBB are the bitboards recorded
+	 * by Move.setSanContext before the move was made: the movers pieces of
+	 * the type moving, and the occupied squares or, for pawn captures, the
+	 * opponents pieces. The result never contains + or #.
+	 * 
+	 * @param buffer
+	 *            A buffer to build the SAN in. It is cleared first so it can
+	 *            be reused across calls.
+	 */
+	public static String toSan(Move move, long pieceBB, long targetBB,
+			StringBuilder buffer) {
+		buffer.setLength(0);
+		if (move.isDrop()) {
+			buffer.append(GameConstants.PIECE_TO_SAN.charAt(move.getPiece()))
+					.append('@');
+			appendSquare(move.getTo(), buffer);
+		} else if (move.isCastleShort()) {
+			buffer.append("O-O");
+		} else if (move.isCastleLong()) {
+			buffer.append("O-O-O");
+		} else if (move.getPiece() == GameConstants.PAWN && move.isEnPassant()) {
+			// e.p. is optional but the x is required. Pawn eps are never
+			// ambiguous.
+			buffer.append(squareToFileSan(move.getFrom())).append('x');
+			appendSquare(move.getTo(), buffer);
+		} else if (move.getPiece() == GameConstants.PAWN && move.isCapture()) {
+			// Possible formats ed ed5 edQ. Pawn captures can be ambiguous.
+			int toFile = GameUtils.getFile(move.getTo());
+			int movesFound = 0;
+			while (pieceBB != 0L) {
+				long capturesBB = GameUtils.pawnCapture(move.getColor(),
+						GameUtils.getBitboard(GameUtils.bitscanForward(pieceBB)),
+						targetBB);
+				while (capturesBB != 0L) {
+					if (GameUtils.getFile(GameUtils.bitscanForward(capturesBB)) == toFile) {
+						movesFound++;
+					}
+					capturesBB = GameUtils.bitscanClear(capturesBB);
+				}
+				pieceBB = GameUtils.bitscanClear(pieceBB);
+			}
+
+			buffer.append(squareToFileSan(move.getFrom())).append('x');
+			if (movesFound > 1) {
+				appendSquare(move.getTo(), buffer);
+			} else {
+				buffer.append(squareToFileSan(move.getTo()));
+			}
+			appendPromotion(move, buffer);
+		} else if (move.getPiece() == GameConstants.PAWN) {
+			// Pawn moves are never ambiguous.
+			appendSquare(move.getTo(), buffer);
+			appendPromotion(move, buffer);
+		} else {
+			int sameFilesFound = 0;
+			int sameRanksFound = 0;
+			int matchesFound = 0;
+
+			if (move.getPiece() != GameConstants.KING) {
+				long toBB = GameUtils.getBitboard(move.getTo());
+				while (pieceBB != 0L) {
+					int fromSquare = GameUtils.bitscanForward(pieceBB);
+					long attacksBB = 0L;
+
+					switch (move.getPiece()) {
+					case GameConstants.KNIGHT:
+						attacksBB = GameUtils.knightMove(fromSquare);
+						break;
+					case GameConstants.BISHOP:
+						attacksBB = MagicBitboardUtils.bishopAttacks(
+								fromSquare, targetBB);
+						break;
+					case GameConstants.ROOK:
+						attacksBB = MagicBitboardUtils.rookAttacks(fromSquare,
+								targetBB);
+						break;
+					case GameConstants.QUEEN:
+						attacksBB = MagicBitboardUtils.queenAttacks(
+								fromSquare, targetBB);
+						break;
+					}
+
+					if ((attacksBB & toBB) != 0L) {
+						matchesFound++;
+						if (GameUtils.getFile(fromSquare) == GameUtils
+								.getFile(move.getFrom())) {
+							sameFilesFound++;
+						}
+						if (GameUtils.getRank(fromSquare) == GameUtils
+								.getRank(move.getFrom())) {
+							sameRanksFound++;
+						}
+					}
+					pieceBB = GameUtils.bitscanClear(pieceBB);
+				}
+			}
+
+			buffer.append(GameConstants.PIECE_TO_SAN.charAt(move.getPiece()));
+			boolean hasHandledAmbiguity = false;
+			if (sameRanksFound > 1) {
+				buffer.append(squareToFileSan(move.getFrom()));
+				hasHandledAmbiguity = true;
+			}
+			if (sameFilesFound > 1) {
+				buffer.append(squareToRankSan(move.getFrom()));
+				hasHandledAmbiguity = true;
+			}
+			if (matchesFound > 1 && !hasHandledAmbiguity) {
+				buffer.append(squareToFileSan(move.getFrom()));
+			}
+			if (move.isCapture()) {
+				buffer.append('x');
+			}
+			appendSquare(move.getTo(), buffer);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Sets the SAN of every move in moves which is still waiting for its SAN
+	 * to be generated. This is faster than calling getSan on each move when a
+	 * whole move list is about to be displayed, since one buffer is shared.
+	 */
+	public static void updateSan(MoveList moves) {
+		StringBuilder buffer = new StringBuilder(8);
+		for (int i = 0; i < moves.getSize(); i++) {
+			Move move = moves.get(i);
+			if (move.isSanPending()) {
+				move.setSan(toSan(move, move.getSanPieceBB(), move
+						.getSanTargetBB(), buffer));
+			}
+		}
+	}
+
+	private static void appendPromotion(Move move, StringBuilder buffer) {
+		if (move.isPromotion()) {
+			buffer.append('=').append(
+					GameConstants.PIECE_TO_SAN.charAt(move.getPiecePromotedTo()));
+		}
+	}
+
+	private static void appendSquare(int square, StringBuilder buffer) {
+		buffer.append(squareToFileSan(square)).append(squareToRankSan(square));
+	}
+
 	/**
 	 * Removes all of the following characters (+,-,=,x,:,"e.p."). Replaces
 	 * (ACDEFGH) with (acdefgh).
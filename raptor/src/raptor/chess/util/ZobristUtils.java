@@ -16,13 +16,17 @@ package raptor.chess.util;
 import static raptor.chess.util.GameUtils.bitscanClear;
 import static raptor.chess.util.GameUtils.bitscanForward;
 
-import java.security.SecureRandom;
 import java.util.Random;
 
 import raptor.chess.Game;
 import raptor.chess.GameConstants;
 
 public final class ZobristUtils implements GameConstants {
+	/**
+	 * The keys are generated from a fixed seed so hashes are the same every
+	 * run and can be stored in files, e.g. the ECO index.
+	 */
+	public static final long ZOBRIST_SEED = 0x5241505430524e44L;
 
 	private static long[][] ZOBRIST_CASTLE = new long[2][4];
 	private static long[][][] ZOBRIST_DROP_COUNT = new long[2][7][18];
@@ -45,26 +49,73 @@ public final class ZobristUtils implements GameConstants {
 				^ ZOBRIST_CASTLE[BLACK][blackCastling];
 	}
 
+	/**
+	 * Returns a hash of the drop counts of both colors. Counts above 17 share
+	 * the key of 17.
+	 */
 	public static long zobristDropPieces(Game game) {
-		return ZOBRIST_DROP_COUNT[WHITE][PAWN][game.getDropCount(WHITE, PAWN)]
-				^ ZOBRIST_DROP_COUNT[WHITE][PAWN][game.getDropCount(WHITE,
-						KNIGHT)]
-				^ ZOBRIST_DROP_COUNT[WHITE][PAWN][game.getDropCount(WHITE,
-						BISHOP)]
-				^ ZOBRIST_DROP_COUNT[WHITE][PAWN][game.getDropCount(WHITE,
-						QUEEN)]
-				^ ZOBRIST_DROP_COUNT[WHITE][PAWN][game
-						.getDropCount(WHITE, ROOK)]
-				^ ZOBRIST_DROP_COUNT[BLACK][PAWN][game
-						.getDropCount(BLACK, PAWN)]
-				^ ZOBRIST_DROP_COUNT[BLACK][PAWN][game.getDropCount(BLACK,
-						KNIGHT)]
-				^ ZOBRIST_DROP_COUNT[BLACK][PAWN][game.getDropCount(BLACK,
-						BISHOP)]
-				^ ZOBRIST_DROP_COUNT[BLACK][PAWN][game.getDropCount(BLACK,
-						QUEEN)]
-				^ ZOBRIST_DROP_COUNT[BLACK][PAWN][game
-						.getDropCount(BLACK, ROOK)];
+		long result = 0L;
+		for (int color = WHITE; color <= BLACK; color++) {
+			for (int piece = PAWN; piece <= QUEEN; piece++) {
+				long[] keys = ZOBRIST_DROP_COUNT[color][piece];
+				result ^= keys[Math.min(game.getDropCount(color, piece),
+						keys.length - 1)];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the game's Zobrist game hash, with the drop counts mixed in if
+	 * pieces can be dropped, so positions which only differ in the pieces in
+	 * hand have different keys.
+	 */
+	public static long zobristPositionKey(Game game) {
+		long result = game.getZobristGameHash();
+		if (game.isInState(Game.DROPPABLE_STATE)) {
+			result ^= zobristDropPieces(game);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the Zobrist game hash of the position in the first four fields
+	 * of fen without creating a Game. It is the same hash
+	 * Game.getZobristGameHash() returns for a classic game created from fen.
+	 */
+	public static long zobristHash(String fen) {
+		long result = 0L;
+		int boardIndex = 56;
+		int i = 0;
+		for (; i < fen.length() && fen.charAt(i) != ' '; i++) {
+			char piece = fen.charAt(i);
+			if (piece == '/') {
+				boardIndex -= 16;
+			} else if (Character.isDigit(piece)) {
+				boardIndex += piece - '0';
+			} else {
+				result ^= zobrist(Character.isUpperCase(piece) ? WHITE : BLACK,
+						PIECE_TO_SAN.indexOf(Character.toUpperCase(piece)),
+						boardIndex++);
+			}
+		}
+
+		String[] fields = fen.substring(Math.min(i + 1, fen.length())).split(
+				" ");
+		int colorToMove = fields.length > 0 && fields[0].equals("b") ? BLACK
+				: WHITE;
+		String castling = fields.length > 1 ? fields[1] : "-";
+		int whiteCastling = (castling.indexOf('K') != -1 ? CASTLE_SHORT
+				: CASTLE_NONE)
+				| (castling.indexOf('Q') != -1 ? CASTLE_LONG : CASTLE_NONE);
+		int blackCastling = (castling.indexOf('k') != -1 ? CASTLE_SHORT
+				: CASTLE_NONE)
+				| (castling.indexOf('q') != -1 ? CASTLE_LONG : CASTLE_NONE);
+		int epSquare = fields.length > 2 && !fields[2].equals("-") ? GameUtils
+				.getSquare(fields[2]) : EMPTY_SQUARE;
+
+		return result
+				^ zobrist(colorToMove, epSquare, whiteCastling, blackCastling);
 	}
 
 	public static long zobristHash(Game game) {
@@ -89,7 +140,7 @@ public final class ZobristUtils implements GameConstants {
 	}
 
 	private static void initZobrist() {
-		Random random = new SecureRandom();
+		Random random = new Random(ZOBRIST_SEED);
 
 		for (int i = 0; i < ZOBRIST_DROP_COUNT.length; i++) {
 			for (int j = 0; j < ZOBRIST_DROP_COUNT[i].length; j++) {
@@ -123,7 +174,7 @@ public final class ZobristUtils implements GameConstants {
 	}
 
 	private static long zobristPiece(int color, int piece, Game game) {
-		int result = 0;
+		long result = 0L;
 		long current = game.getPieceBB(color, piece);
 		while (current != 0L) {
 			result ^= zobrist(color, piece, bitscanForward(current));
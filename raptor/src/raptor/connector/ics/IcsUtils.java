@@ -328,29 +328,7 @@ public class IcsUtils implements GameConstants {
 		result.addState(Game.UPDATING_ECO_HEADERS_STATE);
 		result.setId(movesMessage.gameId);
 
-		for (int i = 0; i < movesMessage.moves.length; i++) {
-			try {
-				if (result.isInState(Game.DROPPABLE_STATE)) {
-					result.setDropCount(WHITE, PAWN, 1);
-					result.setDropCount(WHITE, QUEEN, 1);
-					result.setDropCount(WHITE, ROOK, 1);
-					result.setDropCount(WHITE, KNIGHT, 1);
-					result.setDropCount(WHITE, BISHOP, 1);
-					result.setDropCount(BLACK, PAWN, 1);
-					result.setDropCount(BLACK, QUEEN, 1);
-					result.setDropCount(BLACK, ROOK, 1);
-					result.setDropCount(BLACK, KNIGHT, 1);
-					result.setDropCount(BLACK, BISHOP, 1);
-				}
-				Move move = result.makeSanMove(movesMessage.moves[i]);
-				move.addAnnotation(new TimeTakenForMove(
-						movesMessage.timePerMove[i]));
-			} catch (IllegalArgumentException iae) {
-				LOG.error("Could not parse san", iae);
-				Raptor.getInstance().onError("Error update game with moves",
-						iae);
-			}
-		}
+		makeMoves(result, movesMessage);
 		updateNonPositionFields(result, gameStateStyle12Message);
 		result.setHeader(PgnHeader.Date,
 				PgnUtils.longToPgnDate(System.currentTimeMillis()));
@@ -751,6 +729,45 @@ public class IcsUtils implements GameConstants {
 		return builder.toString();
 	}
 
+	/**
+	 * Makes the moves in the moves message on the game, annotating each one
+	 * with the time taken for it. Moves which can not be made are reported
+	 * and skipped.
+	 */
+	public static void makeMoves(Game game, MovesMessage message) {
+		int index = 0;
+		while (index < message.moves.length) {
+			int end = message.moves.length;
+			if (game.isInState(Game.DROPPABLE_STATE)) {
+				// The moves message has no holdings, so allow every drop.
+				for (int color = WHITE; color <= BLACK; color++) {
+					game.setDropCount(color, PAWN, 1);
+					game.setDropCount(color, QUEEN, 1);
+					game.setDropCount(color, ROOK, 1);
+					game.setDropCount(color, KNIGHT, 1);
+					game.setDropCount(color, BISHOP, 1);
+				}
+				end = index + 1;
+			}
+
+			int ply = game.getMoveList().getSize();
+			int failedIndex = game.makeSanMoves(message.moves, index, end);
+			for (; index < failedIndex; index++) {
+				game.getMoveList().get(ply++).addAnnotation(
+						new TimeTakenForMove(message.timePerMove[index]));
+			}
+
+			if (failedIndex < end) {
+				IllegalArgumentException iae = new IllegalArgumentException(
+						"Could not make move " + message.moves[failedIndex]);
+				LOG.error("Could not parse san", iae);
+				Raptor.getInstance().onError("Error update game with moves",
+						iae);
+				index++;
+			}
+		}
+	}
+
 	/**
 	 * Removes all line breaks and excessive spaces from the specified message.
 	 * 
@@ -913,29 +930,7 @@ public class IcsUtils implements GameConstants {
 			}
 			gameClone.addState(Game.UPDATING_SAN_STATE);
 			gameClone.addState(Game.UPDATING_ECO_HEADERS_STATE);
-			for (int i = 0; i < message.moves.length; i++) {
-				try {
-					if (gameClone.isInState(Game.DROPPABLE_STATE)) {
-						gameClone.setDropCount(WHITE, PAWN, 1);
-						gameClone.setDropCount(WHITE, QUEEN, 1);
-						gameClone.setDropCount(WHITE, ROOK, 1);
-						gameClone.setDropCount(WHITE, KNIGHT, 1);
-						gameClone.setDropCount(WHITE, BISHOP, 1);
-						gameClone.setDropCount(BLACK, PAWN, 1);
-						gameClone.setDropCount(BLACK, QUEEN, 1);
-						gameClone.setDropCount(BLACK, ROOK, 1);
-						gameClone.setDropCount(BLACK, KNIGHT, 1);
-						gameClone.setDropCount(BLACK, BISHOP, 1);
-					}
-					Move move = gameClone.makeSanMove(message.moves[i]);
-					move.addAnnotation(new TimeTakenForMove(
-							message.timePerMove[i]));
-				} catch (IllegalArgumentException iae) {
-					LOG.error("Could not parse san", iae);
-					Raptor.getInstance().onError(
-							"Error update game with moves", iae);
-				}
-			}
+			makeMoves(gameClone, message);
 
 			Move[] moves = gameClone.getMoveList().asArray();
 			game.getMoveList().prepend(moves);
@@ -23,9 +23,10 @@ import raptor.chess.Move;
 import raptor.chess.MoveList;
 import raptor.chess.Variant;
 import raptor.chess.pgn.LenientPgnParserListener;
+import raptor.chess.pgn.ParallelPgnParser;
 import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnIndex;
 import raptor.chess.pgn.PgnParserError;
-import raptor.chess.pgn.StreamingPgnParser;
 import raptor.engine.uci.UCIBestMove;
 import raptor.engine.uci.UCIEngine;
 import raptor.engine.uci.UCIInfo;
@@ -117,7 +118,7 @@ public class ProblemGenerator {
 
 	protected int numGames;
 	protected UCIEngine engine;
-	protected StreamingPgnParser parser;
+	protected ParallelPgnParser parser;
 	protected String outputFile = "/Users/mindspan/problemGeneratorOutput.txt";
 
 	protected LenientPgnParserListener parserLisetener = new LenientPgnParserListener() {
@@ -138,9 +139,8 @@ public class ProblemGenerator {
 
 	public ProblemGenerator(UCIEngine engine, String pgnFile) throws Exception {
 		this.engine = engine;
-		parser = new StreamingPgnParser(new File(pgnFile), Integer.MAX_VALUE);
-		parser.addPgnParserListener(parserLisetener);
-		parser.parse();
+		parser = new ParallelPgnParser(PgnIndex.open(new File(pgnFile), null));
+		parser.parse(parserLisetener);
 	}
 
 	public void checkGameForCandidates(Game game) {
@@ -0,0 +1,312 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import raptor.chess.EcoInfo;
+import raptor.chess.GameConstants;
+import raptor.chess.util.ZobristUtils;
+import raptor.util.LongHashMap;
+import raptor.util.RaptorLogger;
+import raptor.util.RaptorStringTokenizer;
+
+/**
+ * A read only ECO index stored in a binary file which is memory mapped, so
+ * nothing has to be parsed when it is opened. The file is compiled from an ECO
+ * text file (e.g. scidECO.txt) with compile(), either by the ant install
+ * target or the first time EcoService runs.
+ * 
+ * The layout of the file is:
+ * 
+ * <pre>
+ * header  int magic, int version, long zobrist hash of the starting position,
+ *         long length and long last modified time of the source file, int
+ *         record count, int string table offset
+ * records sorted by hash: long zobrist game hash, 4 bytes eco code (padded
+ *         with 0), int offset of the opening name in the string table
+ * strings opening names, unsigned short length followed by the UTF-8 bytes
+ * </pre>
+ * 
+ * Lookups are binary searches over the records. The hash of the starting
+ * position in the header detects files written with different Zobrist keys,
+ * the source length and last modified time detect an edited source file.
+ */
+public class EcoIndex {
+	private static final RaptorLogger LOG = RaptorLogger.getLog(EcoIndex.class);
+
+	public static final int MAGIC = 0x45434f49;
+	public static final int VERSION = 2;
+
+	protected static final int HEADER_SIZE = 40;
+	protected static final int RECORD_SIZE = 16;
+
+	private MappedByteBuffer buffer;
+	private EcoInfo[] infos;
+	private int size;
+	private int stringsOffset;
+
+	/**
+	 * Compiles the ECO text file source into the binary index file index.
+	 * 
+	 * @throws IOException
+	 *             If something goes wrong during reading or writing.
+	 */
+	public static void compile(File source, File index) throws IOException {
+		long startTime = System.currentTimeMillis();
+		LongHashMap<EcoInfo> hashToEco = parse(source);
+
+		long[] hashes = hashToEco.keys();
+		Arrays.sort(hashes);
+
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+		int[] openingOffsets = new int[hashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			String opening = hashToEco.get(hashes[i]).getOpening();
+			Integer offset = stringOffsets.get(opening);
+			if (offset == null) {
+				byte[] bytes = opening.getBytes("UTF-8");
+				offset = strings.size();
+				stringOffsets.put(opening, offset);
+				strings.write(bytes.length >>> 8);
+				strings.write(bytes.length);
+				strings.write(bytes);
+			}
+			openingOffsets[i] = offset;
+		}
+
+		if (index.getParentFile() != null) {
+			index.getParentFile().mkdirs();
+		}
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(index)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(getCheckHash());
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+			out.writeInt(hashes.length);
+			out.writeInt(HEADER_SIZE + hashes.length * RECORD_SIZE);
+
+			for (int i = 0; i < hashes.length; i++) {
+				out.writeLong(hashes[i]);
+				String eco = hashToEco.get(hashes[i]).getEcoCode();
+				for (int j = 0; j < 4; j++) {
+					out.writeByte(j < eco.length() ? eco.charAt(j) : 0);
+				}
+				out.writeInt(openingOffsets[i]);
+			}
+			strings.writeTo(out);
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("compile(" + source.getAbsolutePath() + ") "
+					+ hashes.length + " positions executed in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		}
+	}
+
+	/**
+	 * Returns true if index is an index file in the current format compiled
+	 * from source with the current Zobrist keys, and source hasn't changed
+	 * size or been modified since.
+	 */
+	public static boolean isValid(File index, File source) {
+		if (!index.isFile() || index.length() < HEADER_SIZE) {
+			return false;
+		}
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(index, "r");
+			return file.readInt() == MAGIC && file.readInt() == VERSION
+					&& file.readLong() == getCheckHash()
+					&& file.readLong() == source.length()
+					&& file.readLong() == source.lastModified();
+		} catch (IOException ioe) {
+			return false;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles an index. Arguments are the ECO text file and the index file
+	 * to write.
+	 */
+	public static void main(String args[]) throws IOException {
+		compile(new File(args[0]), new File(args[1]));
+	}
+
+	protected static long getCheckHash() {
+		return ZobristUtils.zobristHash(GameConstants.STARTING_POSITION_FEN);
+	}
+
+	/**
+	 * Parses information from an ECO text file. Each line contains the eco
+	 * code, the description and the FEN of the position. The entries are
+	 * keyed by the Zobrist game hash of the FEN, if a position occurs more
+	 * than once the last line wins.
+	 */
+	protected static LongHashMap<EcoInfo> parse(File file) throws IOException {
+		LongHashMap<EcoInfo> result = new LongHashMap<EcoInfo>(12000);
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			String currentLine = null;
+			StringBuilder fen = new StringBuilder();
+			while ((currentLine = reader.readLine()) != null) {
+				if (StringUtils.isNotBlank(currentLine)) {
+
+					RaptorStringTokenizer tok = new RaptorStringTokenizer(
+							currentLine, " ", true);
+					String eco = tok.nextToken();
+					StringBuilder description = new StringBuilder(tok
+							.nextToken());
+
+					// Descriptions can contain a '/', the board of the fen has
+					// seven.
+					String lastToken = null;
+					while (StringUtils.countMatches(
+							lastToken = tok.nextToken(), "/") != 7) {
+						description.append(" ");
+						description.append(lastToken);
+					}
+					fen.setLength(0);
+					fen.append(lastToken);
+					fen.append(" ");
+					fen.append(tok.nextToken());
+					fen.append(" ");
+					fen.append(tok.nextToken());
+					fen.append(" ");
+					fen.append(tok.nextToken());
+
+					result.put(ZobristUtils.zobristHash(fen.toString()),
+							new EcoInfo(fen.toString(), eco, description
+									.toString()));
+				}
+			}
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ioe) {
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Memory maps the index file. The file must be valid, see isValid().
+	 * 
+	 * @throws IOException
+	 *             If something goes wrong while mapping the file.
+	 */
+	public EcoIndex(File index) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(index, "r");
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					file.length());
+		} finally {
+			file.close();
+		}
+		size = buffer.getInt(32);
+		stringsOffset = buffer.getInt(36);
+		infos = new EcoInfo[size];
+	}
+
+	/**
+	 * Returns the EcoInfo for the Zobrist game hash, null if the position
+	 * isn't in the index. The EcoInfos returned don't contain a fen, since it
+	 * isn't stored in the index.
+	 */
+	public EcoInfo get(long hash) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = low + high >>> 1;
+			long middleHash = buffer.getLong(HEADER_SIZE + middle
+					* RECORD_SIZE);
+			if (middleHash < hash) {
+				low = middle + 1;
+			} else if (middleHash > hash) {
+				high = middle - 1;
+			} else {
+				EcoInfo result = infos[middle];
+				if (result == null) {
+					result = infos[middle] = readInfo(middle);
+				}
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of positions in the index.
+	 */
+	public int size() {
+		return size;
+	}
+
+	protected EcoInfo readInfo(int record) {
+		int position = HEADER_SIZE + record * RECORD_SIZE + 8;
+		StringBuilder eco = new StringBuilder(4);
+		for (int i = 0; i < 4 && buffer.get(position + i) != 0; i++) {
+			eco.append((char) buffer.get(position + i));
+		}
+
+		int stringPosition = stringsOffset + buffer.getInt(position + 4);
+		byte[] bytes = new byte[buffer.getShort(stringPosition) & 0xffff];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(stringPosition + 2 + i);
+		}
+		String opening;
+		try {
+			opening = new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException(uee);
+		}
+		return new EcoInfo(null, eco.toString(), opening);
+	}
+}
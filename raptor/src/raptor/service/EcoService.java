@@ -13,28 +13,25 @@
  */
 package raptor.service;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
-
-import org.apache.commons.lang.StringUtils;
 
+import raptor.Raptor;
 import raptor.chess.EcoInfo;
 import raptor.chess.Game;
-import raptor.chess.GameConstants;
 import raptor.chess.Variant;
-import raptor.chess.util.GameUtils;
 import raptor.util.RaptorLogger;
-import raptor.util.RaptorStringTokenizer;
 
 /**
  * A singleton service which can be used to lookup the opening description and
  * ECO code of the current position in a game.
  * 
+ * Positions are keyed by their Zobrist game hash, which games maintain
+ * incrementally, so a lookup doesn't have to build a FEN string. The positions
+ * are read from a memory mapped EcoIndex.
+ * 
  * Currently this service only supports Classic but hopefully others will
  * contribute files to match other variants (bug,zh,suicide,losers,etc).
  */
@@ -42,19 +39,28 @@ public class EcoService {
 
 	private static final RaptorLogger LOG = RaptorLogger.getLog(EcoService.class);
 
-	private static EcoService singletonInstance;
+	private static volatile EcoService singletonInstance;
 	
 	public static boolean serviceCreated = false;
 
+	/**
+	 * Returns the EcoService, creating it the first time. Games parsed on
+	 * several threads at once can reach this concurrently, so the index is
+	 * only ever opened once.
+	 */
 	public static EcoService getInstance() {
 		if (singletonInstance != null)
 			return singletonInstance;
 
-		singletonInstance = new EcoService();
-		return singletonInstance;
+		synchronized (EcoService.class) {
+			if (singletonInstance == null) {
+				singletonInstance = new EcoService();
+			}
+			return singletonInstance;
+		}
 	}
 
-	private Map<Variant, Map<String, EcoInfo>> typeToFenToEco = new HashMap<Variant, Map<String, EcoInfo>>();
+	private Map<Variant, EcoIndex> typeToIndex = new HashMap<Variant, EcoIndex>();
 
 	private EcoService() {
 		initClassic();
@@ -65,7 +71,7 @@ public class EcoService {
 	 * Disposes the EcoService.
 	 */
 	public void dispose() {
-		typeToFenToEco.clear();
+		typeToIndex.clear();
 	}
 
 	/**
@@ -73,15 +79,19 @@ public class EcoService {
 	 * found.
 	 */
 	public String getEco(Game game) {
+		EcoInfo info = getEcoInfo(game);
+		return info == null ? null : info.getEcoCode();
+	}
+
+	/**
+	 * Returns the EcoInfo containing the ECO code and opening description for
+	 * the specified game, null if one could not be found.
+	 */
+	public EcoInfo getEcoInfo(Game game) {
 		// Don't add debug messages in here. It gets called so often they are
 		// annoying and really slow it down.
-		Map<String, EcoInfo> map = typeToFenToEco.get(getAdjustedVariant(game));
-		if (map == null) {
-			return null;
-		} else {
-			EcoInfo info = map.get(getFenKey(game, true));
-			return info == null ? null : info.getEcoCode();
-		}
+		EcoIndex index = typeToIndex.get(getAdjustedVariant(game));
+		return index == null ? null : index.get(game.getZobristGameHash());
 	}
 
 	/**
@@ -89,15 +99,8 @@ public class EcoService {
 	 * if one could not be found.
 	 */
 	public String getLongDescription(Game game) {
-		// Don't add debug messages in here. It gets called so often they are
-		// annoying and really slow it down.
-		Map<String, EcoInfo> map = typeToFenToEco.get(getAdjustedVariant(game));
-		if (map == null) {
-			return null;
-		} else {
-			EcoInfo info = map.get(getFenKey(game, false));
-			return info == null ? null : info.getOpening();
-		}
+		EcoInfo info = getEcoInfo(game);
+		return info == null ? null : info.getOpening();
 	}
 
 	protected Variant getAdjustedVariant(Game game) {
@@ -108,87 +111,29 @@ public class EcoService {
 		}
 	}
 
-	protected String getFenKey(Game game, boolean includeEP) {
-		return game.toFenPosition()
-				+ " "
-				+ (game.isWhitesMove() ? 'w' : 'b')
-				+ " "
-				+ game.getFenCastle()
-				+ " "
-				+ (includeEP ? game.getEpSquare() == GameConstants.EMPTY_SQUARE ? "-"
-						: GameUtils.getSan(game.getEpSquare())
-						: "-");
-	}
-
-	private void initClassic() {
-		File file = new File(raptor.Raptor.RESOURCES_DIR + "scidECO.txt");
-		typeToFenToEco.put(Variant.classic, parse(file));
-	}
-
 	/**
-	 * Parses information from an idx file. These files contain FEN on one line
-	 * followed by a string on another line. The string can be either eco or
-	 * description.
-	 * 
-	 * @param file
-	 *            File containing the ECO information.
-	 * @throws IOException
-	 *             If something goes wrong during reading.
+	 * Maps the binary index of scidECO.txt. The index built by the install
+	 * target is used if it is up to date, otherwise one is compiled into the
+	 * users raptor directory the first time.
 	 */
-	private Map<String, EcoInfo> parse(File file) {
-		if (LOG.isDebugEnabled()) {
-			LOG.info("parse(" + file.getAbsolutePath() + ")");
-		}
+	private void initClassic() {
 		long startTime = System.currentTimeMillis();
-		Map<String, EcoInfo> result = new TreeMap<String, EcoInfo>();
-
-		BufferedReader reader = null;
-
+		File source = new File(Raptor.RESOURCES_DIR + "scidECO.txt");
+		File index = new File(Raptor.RESOURCES_DIR + "scidECO.idx");
 		try {
-			reader = new BufferedReader(new FileReader(file));
-			String currentLine = null;
-			StringBuilder fen = new StringBuilder();
-			while ((currentLine = reader.readLine()) != null) {
-				if (StringUtils.isNotBlank(currentLine)) {
-
-					RaptorStringTokenizer tok = new RaptorStringTokenizer(
-							currentLine, " ", true);
-					String eco = tok.nextToken();
-					StringBuilder description = new StringBuilder(tok.nextToken());
-
-					String lastToken = null;
-					while (!(lastToken = tok.nextToken()).contains("/")) {
-						description.append(" ");
-						description.append(lastToken);
-					}
-					fen.setLength(0);
-					fen.append(lastToken);
-					fen.append(" ");
-					fen.append(tok.nextToken());
-					fen.append(" ");
-					fen.append(tok.nextToken());
-					fen.append(" ");
-					fen.append(tok.nextToken());
-
-					result.put(fen.toString(), new EcoInfo(fen.toString(), eco, description.toString()));
+			if (!EcoIndex.isValid(index, source)) {
+				index = new File(Raptor.USER_RAPTOR_HOME_PATH + "/scidECO.idx");
+				if (!EcoIndex.isValid(index, source)) {
+					EcoIndex.compile(source, index);
 				}
-
 			}
+			typeToIndex.put(Variant.classic, new EcoIndex(index));
 		} catch (IOException ioe) {
 			throw new RuntimeException(ioe);
-		} finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException ioe) {
-				}
-			}
 		}
 		if (LOG.isDebugEnabled()) {
-			LOG.info("parse( " + file.getAbsolutePath() + ") executed in "
+			LOG.debug("initClassic() executed in "
 					+ (System.currentTimeMillis() - startTime) + "ms");
 		}
-
-		return result;
 	}
 }
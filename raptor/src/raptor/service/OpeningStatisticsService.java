@@ -0,0 +1,241 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import raptor.Raptor;
+import raptor.chess.Game;
+import raptor.chess.pgn.MoveStatisticsTree;
+import raptor.chess.pgn.MoveStatisticsTree.PositionResults;
+import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnIndex;
+import raptor.chess.pgn.PgnIndex.Entry;
+import raptor.chess.pgn.PgnParserError;
+import raptor.pref.PreferenceKeys;
+import raptor.util.RaptorLogger;
+
+/**
+ * A singleton service which keeps the user's results from the opening
+ * positions of the games in the users game pgn file, so a board can show them
+ * without parsing the file.
+ * 
+ * The statistics are a {@link MoveStatisticsTree} which is updated as each
+ * game is appended to the file. Games which were added to the file some other
+ * way are read when the tree is loaded. The user's side in those games is
+ * taken to be the player who appears in the most games of the file.
+ */
+public class OpeningStatisticsService {
+	private static final RaptorLogger LOG = RaptorLogger.getLog(OpeningStatisticsService.class);
+
+	private static final OpeningStatisticsService singletonInstance = new OpeningStatisticsService();
+
+	public static OpeningStatisticsService getInstance() {
+		return singletonInstance;
+	}
+
+	protected volatile boolean isLoading;
+
+	protected volatile MoveStatisticsTree tree;
+
+	protected volatile int version;
+
+	private OpeningStatisticsService() {
+	}
+
+	/**
+	 * Adds a game which was just appended to the pgn file in the background.
+	 * pgnLength and newPgnLength are the lengths of the file before and after
+	 * the game was appended. The game is copied first, so the caller is free
+	 * to change it afterwards.
+	 */
+	public void gameAppended(final File pgnFile, Game game, final boolean isUserWhite, final long pgnLength,
+			final long newPgnLength) {
+		final Game copy = game.deepCopy(false);
+		ThreadService.getInstance().run(new Runnable() {
+			public void run() {
+				addAppendedGame(pgnFile, copy, isUserWhite, pgnLength, newPgnLength);
+			}
+		});
+	}
+
+	/**
+	 * Returns the user's results from the game's current position when they
+	 * played the specified side. Returns null if none of their games reached
+	 * it, or if the statistics are still being loaded. The first call starts
+	 * loading them in the background.
+	 */
+	public PositionResults getResults(Game game, boolean isUserWhite) {
+		File pgnFile = getPgnFile();
+		MoveStatisticsTree current = tree;
+		if (pgnFile == null) {
+			return null;
+		}
+		if (current == null || !current.getFile().equals(MoveStatisticsTree.getStatisticsFile(pgnFile))) {
+			load(pgnFile);
+			return null;
+		}
+		return current.getResults(game, isUserWhite);
+	}
+
+	/**
+	 * Returns a number which changes whenever the statistics change, so
+	 * results can be cached until it does.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Adds a game which was appended to the pgn file. If other games were
+	 * appended in between, the new part of the file is read instead.
+	 */
+	protected synchronized void addAppendedGame(File pgnFile, Game game, boolean isUserWhite, long pgnLength,
+			long newPgnLength) {
+		try {
+			MoveStatisticsTree current = getTree(pgnFile, pgnLength);
+			if (current.getPgnLength() == pgnLength) {
+				current.addGame(game, isUserWhite, newPgnLength);
+			} else {
+				update(current, pgnFile, pgnFile.length());
+			}
+		} catch (IOException ioe) {
+			LOG.error("Error adding game to opening statistics", ioe);
+		}
+		version++;
+	}
+
+	/**
+	 * Returns the users game pgn file, or null if there isn't one.
+	 */
+	protected File getPgnFile() {
+		String pgnFilePath = Raptor.getInstance().getPreferences().getString(PreferenceKeys.APP_PGN_FILE);
+		return StringUtils.isBlank(pgnFilePath) ? null : new File(pgnFilePath);
+	}
+
+	/**
+	 * Returns the tree for the pgn file, loading it if needed, with every
+	 * game before pgnLength added.
+	 */
+	protected synchronized MoveStatisticsTree getTree(File pgnFile, long pgnLength) throws IOException {
+		MoveStatisticsTree current = tree;
+		if (current == null || !current.getFile().equals(MoveStatisticsTree.getStatisticsFile(pgnFile))) {
+			current = new MoveStatisticsTree(MoveStatisticsTree.getStatisticsFile(pgnFile));
+			current.load();
+		}
+		if (current.getPgnLength() > pgnFile.length()) {
+			LOG.info(pgnFile.getAbsolutePath() + " is shorter than when its opening statistics were saved. "
+					+ "They will be rebuilt.");
+			current.clear();
+		}
+		if (current.getPgnLength() < pgnLength) {
+			update(current, pgnFile, pgnLength);
+		}
+		tree = current;
+		version++;
+		return current;
+	}
+
+	/**
+	 * Loads the tree for the pgn file in the background.
+	 */
+	protected void load(final File pgnFile) {
+		if (isLoading) {
+			return;
+		}
+		isLoading = true;
+		ThreadService.getInstance().run(new Runnable() {
+			public void run() {
+				try {
+					getTree(pgnFile, pgnFile.length());
+				} catch (IOException ioe) {
+					LOG.error("Error loading opening statistics for " + pgnFile.getAbsolutePath(), ioe);
+				} finally {
+					isLoading = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the games in the pgn file from the tree's length up to pgnLength.
+	 */
+	protected void update(MoveStatisticsTree current, File pgnFile, long pgnLength) throws IOException {
+		long startTime = System.currentTimeMillis();
+		PgnIndex pgnIndex = PgnIndex.open(pgnFile, null);
+		Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+		for (int start = 0; start < pgnIndex.getGameCount(); start += PgnIndex.PAGE_SIZE) {
+			for (Entry entry : pgnIndex.getEntries(start, PgnIndex.PAGE_SIZE)) {
+				incrementCount(nameCounts, entry.getHeader(PgnHeader.White));
+				incrementCount(nameCounts, entry.getHeader(PgnHeader.Black));
+			}
+		}
+		String userName = getUserName(nameCounts);
+
+		int gamesAdded = 0;
+		List<PgnParserError> errors = new ArrayList<PgnParserError>();
+		for (int start = 0; start < pgnIndex.getGameCount(); start += PgnIndex.PAGE_SIZE) {
+			List<Entry> entries = pgnIndex.getEntries(start, PgnIndex.PAGE_SIZE);
+			for (int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				long end = entry.getOffset() + entry.getLength();
+				if (entry.getOffset() < current.getPgnLength() || end > pgnLength) {
+					continue;
+				}
+				boolean isUserWhite = userName != null && userName.equals(entry.getHeader(PgnHeader.White));
+				boolean isUserBlack = userName != null && userName.equals(entry.getHeader(PgnHeader.Black));
+				Game game = isUserWhite == isUserBlack ? null : pgnIndex.loadGame(entry.getIndex(), errors);
+				if (game != null) {
+					current.addGame(game, isUserWhite, end);
+					gamesAdded++;
+				}
+			}
+		}
+		current.setPgnLength(pgnLength);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Added " + gamesAdded + " games from " + pgnFile.getAbsolutePath() + " to the opening statistics in "
+					+ (System.currentTimeMillis() - startTime) + "ms with " + errors.size() + " parse errors");
+		}
+	}
+
+	private String getUserName(Map<String, Integer> nameCounts) {
+		String result = null;
+		int maxCount = 0;
+		boolean isTied = false;
+		for (Map.Entry<String, Integer> entry : nameCounts.entrySet()) {
+			if (entry.getValue() > maxCount) {
+				result = entry.getKey();
+				maxCount = entry.getValue();
+				isTied = false;
+			} else if (entry.getValue() == maxCount) {
+				isTied = true;
+			}
+		}
+		return isTied ? null : result;
+	}
+
+	private void incrementCount(Map<String, Integer> counts, String name) {
+		if (!PgnHeader.UNKNOWN_VALUE.equals(name)) {
+			Integer count = counts.get(name);
+			counts.put(name, count == null ? 1 : count + 1);
+		}
+	}
+}
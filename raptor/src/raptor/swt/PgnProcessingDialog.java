@@ -14,9 +14,7 @@
 package raptor.swt;
 
 import java.io.File;
-import java.util.ArrayList;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CLabel;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -33,86 +31,15 @@ import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Shell;
 
 import raptor.Raptor;
-import raptor.chess.Game;
-import raptor.chess.pgn.LenientPgnParserListener;
-import raptor.chess.pgn.PgnHeader;
-import raptor.chess.pgn.PgnParserError;
-import raptor.chess.pgn.PgnUtils;
-import raptor.chess.pgn.StreamingPgnParser;
+import raptor.chess.pgn.PgnIndex;
+import raptor.chess.pgn.PgnIndex.PgnIndexListener;
 import raptor.international.L10n;
 import raptor.service.ThreadService;
-import raptor.swt.chess.PgnParseResultsRow;
 import raptor.swt.chess.PgnParseResultsWindowItem;
 import raptor.util.RaptorLogger;
 import raptor.util.RaptorRunnable;
 
 public class PgnProcessingDialog extends Dialog {
-	public class ProfressPgnParserListener extends LenientPgnParserListener {
-		private ArrayList<PgnParserError> errors = new ArrayList<PgnParserError>();
-
-		private ArrayList<PgnParseResultsRow> rows = new ArrayList<PgnParseResultsRow>();
-
-		public ProfressPgnParserListener() {
-			super();
-		}
-
-		@Override
-		public void errorEncountered(PgnParserError error) {
-			if (isClosed) {
-				throw new RuntimeException("Closed");
-			} else {
-
-				errors.add(error);
-			}
-		}
-
-		@Override
-		public boolean gameParsed(Game game, final int lineNumber) {
-			if (isClosed) {
-				throw new RuntimeException("Closed");
-			} else {
-				PgnParseResultsRow row = new PgnParseResultsRow();
-				row.setVariant(StringUtils.defaultString(game.getHeader(PgnHeader.Variant), "?"));
-				row.setDate(StringUtils.defaultString(game.getHeader(PgnHeader.Date), "?"));
-				row.setEvent(StringUtils.defaultString(game.getHeader(PgnHeader.Event), "?"));
-				row.setWhite(StringUtils.defaultString(game.getHeader(PgnHeader.White), "?"));
-				row.setWhiteElo(StringUtils.defaultString(game.getHeader(PgnHeader.WhiteElo), "?"));
-				row.setBlack(StringUtils.defaultString(game.getHeader(PgnHeader.Black), "?"));
-				row.setBlackElo(StringUtils.defaultString(game.getHeader(PgnHeader.BlackElo), "?"));
-				row.setResultDescription(StringUtils.defaultString(game.getHeader(PgnHeader.Result), "?"));
-				row.setEco(StringUtils.defaultString(game.getHeader(PgnHeader.ECO), "?"));
-				row.setOpening(StringUtils.defaultString(game.getHeader(PgnHeader.Opening), "?"));
-				row.setLineNumber(lineNumber);
-				row.setResult(game.getResult());
-				rows.add(row);
-
-				if (rows.size() % 20 == 0) {
-					shell.getDisplay().asyncExec(new RaptorRunnable() {
-						@Override
-						public void execute() {
-							processMessageLabel.setText(L10n.getInstance().getString("pgnParseWI30") + ": " + lineNumber
-									+ " " + L10n.getInstance().getString("pgnParseWI3") + rows.size() + " "
-									+ L10n.getInstance().getString("pgnParseWI27") + errors.size());
-							progressBar.setSelection(rows.size());
-						}
-					});
-				}
-			}
-			return false;
-		}
-
-		public ArrayList<PgnParserError> getErrors() {
-			return errors;
-		}
-
-		public ArrayList<PgnParseResultsRow> getGames() {
-			return rows;
-		}
-
-	}
-
-	public static final int MAX_BYTES_IN_FILE = 1048576 * 15;
-
 	private static final RaptorLogger LOG = RaptorLogger.getLog(PgnProcessingDialog.class);
 
 	private Button cancelButton;
@@ -136,12 +63,6 @@ public class PgnProcessingDialog extends Dialog {
 	public PgnProcessingDialog(Shell parent, String file) {
 		super(parent);
 		this.file = new File(file);
-
-		if (this.file.length() > MAX_BYTES_IN_FILE) {
-			Raptor.getInstance().alert(L10n.getInstance().getString("pgnProcD1").replaceAll("MAX_BYTES_IN_FILE",
-					Integer.toString(MAX_BYTES_IN_FILE)));
-
-		}
 	}
 
 	public void open() {
@@ -151,47 +72,50 @@ public class PgnProcessingDialog extends Dialog {
 
 		ThreadService.getInstance().scheduleOneShot(250, new Runnable() {
 			public void run() {
-				// FileReader reader = null;
-				LenientPgnParserListener listener = null;
-				StreamingPgnParser parser = null;
 				try {
-
-					// start work
-					parser = new StreamingPgnParser(file, MAX_BYTES_IN_FILE);
-					listener = new ProfressPgnParserListener();
-
-					parser.addPgnParserListener(listener);
-
 					long startTime = System.currentTimeMillis();
-					parser.parse();
-
-					if (LOG.isDebugEnabled()) {
-						LOG.debug("Parsed in " + (System.currentTimeMillis() - startTime) + "ms");
-					}
 
-					shell.getDisplay().asyncExec(new RaptorRunnable() {
-						@Override
-						public void execute() {
-							shell.close();
+					// Only the offsets and summary headers of the games are
+					// kept. The games themselves are parsed when opened.
+					PgnIndex index = PgnIndex.open(file, new PgnIndexListener() {
+						public boolean onProgress(final int gamesIndexed, final long bytesRead, final long totalBytes) {
+							if (isClosed) {
+								return true;
+							}
+							shell.getDisplay().asyncExec(new RaptorRunnable() {
+								@Override
+								public void execute() {
+									processMessageLabel.setText(L10n.getInstance().getString("pgnParseWI3")
+											+ gamesIndexed);
+									progressBar.setSelection(totalBytes == 0 ? 0 : (int) (bytesRead * 100 / totalBytes));
+								}
+							});
+							return false;
 						}
 					});
 
-					PgnParseResultsWindowItem windowItem = new PgnParseResultsWindowItem(file.getName(),
-							((ProfressPgnParserListener) listener).getErrors(),
-							((ProfressPgnParserListener) listener).getGames(), file.getAbsolutePath());
-					Raptor.getInstance().getWindow().addRaptorWindowItem(windowItem);
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Indexed in " + (System.currentTimeMillis() - startTime) + "ms");
+					}
 
+					if (index != null) {
+						PgnParseResultsWindowItem windowItem = new PgnParseResultsWindowItem(file.getName(), index);
+						Raptor.getInstance().getWindow().addRaptorWindowItem(windowItem);
+					}
 				} catch (Throwable t) {
 					if (!isClosed) {
 						LOG.error("Error parsing pgn file", t);
 						Raptor.getInstance().onError(L10n.getInstance().getString("pgnProcD2") + file, t);
 					}
 				} finally {
-					try {
-						if (parser != null)
-							parser.close();
-					} catch (Throwable t) {
-					}
+					shell.getDisplay().asyncExec(new RaptorRunnable() {
+						@Override
+						public void execute() {
+							if (!shell.isDisposed()) {
+								shell.close();
+							}
+						}
+					});
 				}
 			}
 		});
@@ -240,7 +164,7 @@ public class PgnProcessingDialog extends Dialog {
 		progressBarComposite.setLayout(new FillLayout());
 
 		progressBar = new ProgressBar(progressBarComposite, processBarStyle);
-		progressBar.setMaximum(PgnUtils.getApproximateGameCount(file.getAbsolutePath()));
+		progressBar.setMaximum(100);
 
 		processMessageLabel = new Label(shell, SWT.NONE);
 		processMessageLabel.setLayoutData(new GridData(GridData.FILL, GridData.CENTER, false, false));
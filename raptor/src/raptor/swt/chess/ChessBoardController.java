@@ -25,18 +25,22 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.ToolItem;
 
 import raptor.Raptor;
+import raptor.chess.BoardSnapshot;
 import raptor.chess.BughouseGame;
 import raptor.chess.Game;
 import raptor.chess.GameConstants;
 import raptor.chess.GameCursor;
 import raptor.chess.Move;
 import raptor.chess.Variant;
+import raptor.chess.pgn.MoveStatisticsTree.MoveResults;
+import raptor.chess.pgn.MoveStatisticsTree.PositionResults;
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.util.GameUtils;
 import raptor.connector.Connector;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
 import raptor.pref.RaptorPreferenceStore;
+import raptor.service.OpeningStatisticsService;
 import raptor.service.SoundService;
 import raptor.swt.ItemChangedListener;
 import raptor.swt.chess.controller.ToolBarItemKey;
@@ -61,8 +65,22 @@ public abstract class ChessBoardController implements BoardConstants,
 	protected Game game;
 	protected List<ItemChangedListener> itemChangedListeners = new ArrayList<ItemChangedListener>(
 			5);
+	/**
+	 * The user's results shown by adjustOpeningDescriptionLabel, and the
+	 * position and statistics version they were looked up for. They are only
+	 * looked up again when one of those changes.
+	 */
+	protected long openingResultsHash;
+	protected boolean openingResultsIsUserWhite;
+	protected PositionResults openingResults;
+	protected int openingResultsVersion = -1;
 	protected boolean storedIsWhiteOnTop;
 	protected boolean storedIsWhitePieceJailOnTop;
+	/**
+	 * Reused by adjustBoard and adjustPieceJail to read the game state in one
+	 * call per refresh.
+	 */
+	protected BoardSnapshot snapshot = new BoardSnapshot();
 	protected Map<ToolBarItemKey, ToolItem> toolItemMap = new HashMap<ToolBarItemKey, ToolItem>();
 	protected ClockLabelUpdater whiteClockUpdater;
 	protected Connector connector;
@@ -875,11 +893,11 @@ public abstract class ChessBoardController implements BoardConstants,
 		if (isDisposed()) {
 			return;
 		}
+		game.getSnapshot(snapshot);
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
 				board.getSquare(i, j).setPiece(
-						GameUtils.getColoredPiece(GameUtils.getSquare(i, j),
-								game));
+						snapshot.getColoredPiece(GameUtils.getSquare(i, j)));
 			}
 		}
 	}
@@ -1007,7 +1025,48 @@ public abstract class ChessBoardController implements BoardConstants,
 
 		String description = StringUtils.isBlank(eco) ? "" : "(" + eco + ") ";  
 		description += StringUtils.isBlank(opening) ? "" : opening; 
+
+		// The user's results from the position, when they are one of the
+		// players. The moves they played are in the tool tip.
+		String toolTip = null;
+		String userName = connector == null ? null : connector.getUserName();
+		boolean isUserWhite = StringUtils.equalsIgnoreCase(getGame().getHeader(PgnHeader.White), userName);
+		boolean isUserBlack = StringUtils.equalsIgnoreCase(getGame().getHeader(PgnHeader.Black), userName);
+		PositionResults results = null;
+		if (userName != null && isUserWhite != isUserBlack) {
+			int version = OpeningStatisticsService.getInstance().getVersion();
+			long hash = getGame().getZobristGameHash();
+			if (version != openingResultsVersion || hash != openingResultsHash
+					|| isUserWhite != openingResultsIsUserWhite) {
+				openingResults = OpeningStatisticsService.getInstance().getResults(getGame(), isUserWhite);
+				openingResultsHash = hash;
+				openingResultsIsUserWhite = isUserWhite;
+				openingResultsVersion = version;
+			}
+			results = openingResults;
+		}
+		if (results != null) {
+			description += (description.length() == 0 ? "" : "  ")
+					+ L10n.getInstance().getString("chessBCont3", String.valueOf(results.getGameCount()),
+							String.valueOf(Math.round(results.getScore())));
+			StringBuilder builder = new StringBuilder();
+			for (MoveResults move : results.getMoves()) {
+				if (builder.length() > 0) {
+					builder.append("\n");
+				}
+				builder.append(move.getSan() == null ? L10n.getInstance().getString("chessBCont5") : move.getSan())
+						.append(": ")
+						.append(L10n.getInstance().getString("chessBCont4", String.valueOf(move.getGameCount()),
+								String.valueOf(Math.round(move.getScore()))));
+				if (move.getAverageOpponentRating() != -1) {
+					builder.append(", ").append(L10n.getInstance().getString("chessBCont6",
+							String.valueOf(move.getAverageOpponentRating())));
+				}
+			}
+			toolTip = builder.toString();
+		}
 		board.getOpeningDescriptionLabel().setText(description);
+		board.getOpeningDescriptionLabel().getLabel().setToolTipText(toolTip);
 	}
 
 	/**
@@ -1022,12 +1081,13 @@ public abstract class ChessBoardController implements BoardConstants,
 			// Droppable piece games like crazyhouse and bughouse flow through
 			// here.
 			// The dropCount is used for the piece count in the jail.
+			getGame().getSnapshot(snapshot);
 			for (int i = 0; i < DROPPABLE_PIECES.length; i++) {
 				int coloredPiece = DROPPABLE_PIECE_COLOR[i];
 				int count = 0;
 				PieceJailChessSquare square = board.pieceJailSquares[DROPPABLE_PIECES[i]];
 
-				count = getGame().getDropCount(
+				count = snapshot.getDropCount(
 						coloredPiece,
 						ChessBoardUtils
 								.pieceFromColoredPiece(DROPPABLE_PIECES[i]));
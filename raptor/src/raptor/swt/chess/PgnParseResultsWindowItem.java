@@ -14,9 +14,11 @@
 package raptor.swt.chess;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -43,22 +45,34 @@ import raptor.Quadrant;
 import raptor.Raptor;
 import raptor.RaptorWindowItem;
 import raptor.chess.Game;
-import raptor.chess.Result;
-import raptor.chess.pgn.LenientPgnParserListener;
 import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnIndex;
+import raptor.chess.pgn.PgnIndex.Entry;
 import raptor.chess.pgn.PgnParserError;
-import raptor.chess.pgn.StreamingPgnParser;
+import raptor.chess.pgn.PositionIndex;
+import raptor.chess.pgn.PositionIndex.MoveStats;
+import raptor.chess.pgn.PositionIndex.PositionIndexListener;
+import raptor.chess.pgn.PositionIndex.SearchResult;
 import raptor.international.L10n;
 import raptor.pref.PreferenceKeys;
+import raptor.service.ThreadService;
 import raptor.swt.ItemChangedListener;
 import raptor.swt.RaptorTable;
 import raptor.swt.RaptorTable.RaptorTableListener;
 import raptor.swt.chess.controller.InactiveController;
 import raptor.util.IntegerComparator;
 import raptor.util.RaptorLogger;
+import raptor.util.RaptorRunnable;
 
 /**
- * A window item that displays a list of games from a PGN file.
+ * A window item that displays a list of games from a PGN file. The games are
+ * read from a {@link PgnIndex} one page at a time, and a game is only parsed
+ * when it is opened. Errors found while parsing the games which were opened
+ * are listed below the games.
+ * 
+ * Search Position lists the games which reached the position on the selected
+ * board and the moves played from it, using a {@link PositionIndex} which is
+ * built the first time it is needed.
  */
 public class PgnParseResultsWindowItem implements RaptorWindowItem {
 	private static final RaptorLogger LOG = RaptorLogger.getLog(PgnParseResultsWindowItem.class);
@@ -66,24 +80,34 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 	public static final Quadrant[] MOVE_TO_QUADRANTS = { Quadrant.I, Quadrant.II, Quadrant.III, Quadrant.IV, Quadrant.V,
 			Quadrant.VI, Quadrant.VII, Quadrant.VIII, Quadrant.IX };
 
+	public static final int ROWS_PER_PAGE = 1000;
+
 	protected Composite composite;
-	protected RaptorTable gamesTable;
+	protected Label errorsLabel;
 	protected RaptorTable errorsTable;
-
-	protected List<PgnParserError> errors;
-	protected List<PgnParseResultsRow> gameRows;
+	protected RaptorTable gamesTable;
+	protected Label gamesTotalLabel;
+	protected Label pageLabel;
+	protected Button previousButton;
+	protected Button nextButton;
+	protected Button searchButton;
+	protected Button showAllButton;
+	protected RaptorTable movesTable;
+
+	protected PgnIndex index;
+	protected PositionIndex positionIndex;
+	protected SearchResult positionResult;
+	protected BitSet deletedGames = new BitSet();
+	protected List<PgnParserError> errors = new ArrayList<PgnParserError>();
+	protected int pageStart;
 	protected String title;
 	protected boolean isPassive;
-	protected String pathToFile;
 
 	protected static L10n local = L10n.getInstance();
 
-	public PgnParseResultsWindowItem(String title, List<PgnParserError> errors, List<PgnParseResultsRow> gameRows,
-			String pathToFile) {
-		this.errors = errors;
-		this.gameRows = gameRows;
+	public PgnParseResultsWindowItem(String title, PgnIndex index) {
+		this.index = index;
 		this.title = title;
-		this.pathToFile = pathToFile;
 	}
 
 	public void addItemChangedListener(ItemChangedListener listener) {
@@ -100,14 +124,11 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 	}
 
 	public void dispose() {
-		if (errors != null) {
-			errors.clear();
-			errors = null;
-		}
-		if (gameRows != null) {
-			gameRows.clear();
-			gameRows = null;
-		}
+		index = null;
+		positionIndex = null;
+		positionResult = null;
+		deletedGames.clear();
+		errors.clear();
 		if (composite != null && !composite.isDisposed()) {
 			composite.dispose();
 		}
@@ -157,50 +178,38 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 		composite = new Composite(parent, SWT.NONE);
 		composite.setLayout(new GridLayout(1, false));
 
-		int finishedGames = 0;
-		int whiteWins = 0;
-		int blackWins = 0;
-		int draws = 0;
-
-		for (PgnParseResultsRow row : gameRows) {
-			if (row.getResult() == Result.WHITE_WON) {
-				whiteWins++;
-				finishedGames++;
-			} else if (row.getResult() == Result.BLACK_WON) {
-				blackWins++;
-				finishedGames++;
-			} else if (row.getResult() == Result.DRAW) {
-				draws++;
-				finishedGames++;
-			}
-		}
-
-		Label gamesTotalLabel = new Label(composite, SWT.LEFT);
-
-		int size = gameRows.size();
-		gamesTotalLabel.setText(local.getString("pgnParseWI3") + size + local.getString("pgnParseWI4")
-				+ getPercentage(whiteWins, finishedGames) + local.getString("pgnParseWI5")
-				+ getPercentage(blackWins, finishedGames) + local.getString("pgnParseWI6")
-				+ getPercentage(draws, finishedGames));
+		gamesTotalLabel = new Label(composite, SWT.LEFT);
 		gamesTotalLabel.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
 
+		movesTable = new RaptorTable(composite,
+				SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION);
+		GridData movesData = new GridData(SWT.FILL, SWT.FILL, true, false);
+		movesData.heightHint = 120;
+		movesData.exclude = true;
+		movesTable.setLayoutData(movesData);
+		movesTable.setVisible(false);
+		movesTable.addColumn(local.getString("pgnParseWI36"), SWT.LEFT, 20, true, null);
+		movesTable.addColumn(local.getString("pgnParseWI37"), SWT.LEFT, 16, true, new IntegerComparator());
+		movesTable.addColumn(local.getString("pgnParseWI38"), SWT.LEFT, 16, true, null);
+		movesTable.addColumn(local.getString("pgnParseWI39"), SWT.LEFT, 16, true, null);
+		movesTable.addColumn(local.getString("pgnParseWI40"), SWT.LEFT, 16, true, null);
+		movesTable.addColumn(local.getString("pgnParseWI41"), SWT.LEFT, 16, true, null);
+
 		gamesTable = new RaptorTable(composite,
 				SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION);
 		gamesTable.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
-		if (gameRows != null) { // used standard SimplePgnParser
-			gamesTable.addColumn(local.getString("pgnParseWI7"), SWT.LEFT, 3, true, new IntegerComparator());
-			gamesTable.addColumn(local.getString("pgnParseWI8"), SWT.LEFT, 5, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI9"), SWT.LEFT, 10, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI10"), SWT.LEFT, 15, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI11"), SWT.LEFT, 15, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI12"), SWT.LEFT, 5, true, new IntegerComparator());
-			gamesTable.addColumn(local.getString("pgnParseWI13"), SWT.LEFT, 15, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI14"), SWT.LEFT, 5, true, new IntegerComparator());
-			gamesTable.addColumn(local.getString("pgnParseWI15"), SWT.LEFT, 3, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI16"), SWT.LEFT, 3, true, null);
-			gamesTable.addColumn(local.getString("pgnParseWI17"), SWT.LEFT, 21, true, null);
-		}
+		gamesTable.addColumn(local.getString("pgnParseWI7"), SWT.LEFT, 3, true, new IntegerComparator());
+		gamesTable.addColumn(local.getString("pgnParseWI8"), SWT.LEFT, 5, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI9"), SWT.LEFT, 10, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI10"), SWT.LEFT, 15, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI11"), SWT.LEFT, 15, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI12"), SWT.LEFT, 5, true, new IntegerComparator());
+		gamesTable.addColumn(local.getString("pgnParseWI13"), SWT.LEFT, 15, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI14"), SWT.LEFT, 5, true, new IntegerComparator());
+		gamesTable.addColumn(local.getString("pgnParseWI15"), SWT.LEFT, 3, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI16"), SWT.LEFT, 3, true, null);
+		gamesTable.addColumn(local.getString("pgnParseWI17"), SWT.LEFT, 21, true, null);
 
 		gamesTable.addRaptorTableListener(new RaptorTableListener() {
 
@@ -229,6 +238,8 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 							}
 						}
 						gamesTable.removeRow(rowId);
+						deletedGames.set(Integer.parseInt(id) - 1);
+						updateGamesTotalLabel();
 					}
 				});
 				menu.setLocation(gamesTable.getTable().toDisplay(event.x, event.y));
@@ -250,10 +261,72 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 			}
 		});
 
-		populateGamesTable();
+		Composite buttonsComposite = new Composite(composite, SWT.NONE);
+		buttonsComposite.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		buttonsComposite.setLayout(new GridLayout(6, false));
+
+		previousButton = new Button(buttonsComposite, SWT.PUSH);
+		previousButton.setText(local.getString("pgnParseWI31"));
+		previousButton.addSelectionListener(new SelectionListener() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+			}
 
-		Button saveButton = new Button(composite, SWT.PUSH);
-		saveButton.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				pageStart = Math.max(0, pageStart - ROWS_PER_PAGE);
+				populateGamesTable();
+			}
+		});
+
+		pageLabel = new Label(buttonsComposite, SWT.CENTER);
+		pageLabel.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false));
+
+		nextButton = new Button(buttonsComposite, SWT.PUSH);
+		nextButton.setText(local.getString("pgnParseWI32"));
+		nextButton.addSelectionListener(new SelectionListener() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+			}
+
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				if (pageStart + ROWS_PER_PAGE < getRowCount()) {
+					pageStart += ROWS_PER_PAGE;
+					populateGamesTable();
+				}
+			}
+		});
+
+		searchButton = new Button(buttonsComposite, SWT.PUSH);
+		searchButton.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, true, false));
+		searchButton.setText(local.getString("pgnParseWI34"));
+		searchButton.addSelectionListener(new SelectionListener() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+			}
+
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				searchPosition();
+			}
+		});
+
+		showAllButton = new Button(buttonsComposite, SWT.PUSH);
+		showAllButton.setText(local.getString("pgnParseWI35"));
+		showAllButton.setEnabled(false);
+		showAllButton.addSelectionListener(new SelectionListener() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+			}
+
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				showPositionResult(null);
+			}
+		});
+
+		Button saveButton = new Button(buttonsComposite, SWT.PUSH);
 		saveButton.setText(local.getString("pgnParseWI19"));
 		saveButton.addSelectionListener(new SelectionListener() {
 			@Override
@@ -262,68 +335,41 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 
 			@Override
 			public void widgetSelected(SelectionEvent e) {
-				if (gameRows.size() == 0) {
+				if (index.getGameCount() == deletedGames.cardinality()) {
 					Raptor.getInstance().alert(local.getString("pgnParseWI20"));
 					return;
 				}
 
 				FileDialog fd = new FileDialog(composite.getShell(), SWT.SAVE);
 				fd.setText(local.getString("pgnParseWI21"));
-				File file = new File(pathToFile);
+				File file = index.getPgnFile().getAbsoluteFile();
 				fd.setFilterPath(file.getParent());
 				fd.setFileName(file.getName());
 				final String selected = fd.open();
 				if (!StringUtils.isBlank(selected)) {
-					pathToFile = selected;
-					FileWriter fileWriter = null;
-					try {
-						fileWriter = new FileWriter(new File(pathToFile), false);
-						for (int i = 0; i < gamesTable.getRowCount(); i++) {
-							int row = Integer.parseInt(gamesTable.getSelectedRowData()[0]);
-							Game game = loadGame(row);
-							if (game != null) {
-								fileWriter.write(game.toPgn() + "\n\n");
-								fileWriter.flush();
-							} else {
-								Raptor.getInstance().onError("Error occurred loading game at linenumber " + row + ".");
-							}
-						}
-						Raptor.getInstance().alert(local.getString("pgnParseWI23") + gamesTable.getRowCount()
-								+ local.getString("pgnParseWI24") + pathToFile + "."); //$NON-NLS-2$
-					} catch (Throwable t) {
-						Raptor.getInstance().onError(local.getString("pgnParseWI26") + pathToFile);
-					} finally {
-						if (fileWriter != null) {
-							try {
-								fileWriter.close();
-							} catch (Throwable t) {
-							}
-						}
-					}
+					saveGames(new File(selected).getAbsoluteFile());
 				}
 			}
 		});
 
-		if (errors != null && !errors.isEmpty()) {
-			Label errorsLabel = new Label(composite, SWT.LEFT);
-			errorsLabel.setText(local.getString("pgnParseWI27") + errors.size());
-			errorsLabel.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false));
-
-			errorsTable = new RaptorTable(composite,
-					SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION);
-			errorsTable.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
-			errorsTable.addColumn(local.getString("pgnParseWI28"), SWT.LEFT, 50, true, null);
-			errorsTable.addColumn(local.getString("pgnParseWI29"), SWT.LEFT, 40, true, null);
-			errorsTable.addColumn(local.getString("pgnParseWI30"), SWT.LEFT, 10, true, new IntegerComparator());
-			String[][] content = new String[errors.size()][3];
-			for (int i = 0; i < errors.size(); i++) {
-				PgnParserError error = errors.get(i);
-				content[i][0] = error.getType().name();
-				content[i][1] = error.getAction().name();
-				content[i][2] = String.valueOf(error.getLineNumber());
-			}
-			errorsTable.refreshTable(content);
-		}
+		errorsLabel = new Label(composite, SWT.LEFT);
+		GridData errorsLabelData = new GridData(SWT.LEFT, SWT.CENTER, false, false);
+		errorsLabelData.exclude = true;
+		errorsLabel.setLayoutData(errorsLabelData);
+		errorsLabel.setVisible(false);
+
+		errorsTable = new RaptorTable(composite,
+				SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL | SWT.SINGLE | SWT.FULL_SELECTION);
+		GridData errorsData = new GridData(SWT.FILL, SWT.FILL, true, false);
+		errorsData.heightHint = 100;
+		errorsData.exclude = true;
+		errorsTable.setLayoutData(errorsData);
+		errorsTable.setVisible(false);
+		errorsTable.addColumn(local.getString("pgnParseWI28"), SWT.LEFT, 50, true, null);
+		errorsTable.addColumn(local.getString("pgnParseWI29"), SWT.LEFT, 40, true, null);
+		errorsTable.addColumn(local.getString("pgnParseWI30"), SWT.LEFT, 10, true, new IntegerComparator());
+
+		populateGamesTable();
 	}
 
 	public void onActivate() {
@@ -349,10 +395,37 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 		}
 	}
 
-	protected void openGame(int index) {
-		int row = Integer.parseInt(gamesTable.getSelectedRowData()[0]);
+	/**
+	 * Returns the ascending indexes of the deleted games which are among the
+	 * rows: the games which reached the searched position, or all of the
+	 * games.
+	 */
+	protected int[] getDeletedRows() {
+		int[] result = new int[deletedGames.cardinality()];
+		int count = 0;
+		for (int i = deletedGames.nextSetBit(0); i >= 0; i = deletedGames.nextSetBit(i + 1)) {
+			if (positionResult == null || Arrays.binarySearch(positionResult.getGames(), i) >= 0) {
+				result[count++] = i;
+			}
+		}
+		if (count != result.length) {
+			int[] newResult = new int[count];
+			System.arraycopy(result, 0, newResult, 0, count);
+			result = newResult;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of rows which can be paged through: the games which
+	 * reached the searched position, or all of the games.
+	 */
+	protected int getRowCount() {
+		return positionResult == null ? index.getGameCount() : positionResult.getGames().length;
+	}
 
-		Game selectedGame = loadGame(row);
+	protected void openGame(int gameIndex) {
+		Game selectedGame = loadGame(gameIndex);
 
 		if (selectedGame != null) {
 			Raptor.getInstance().getWindow()
@@ -360,53 +433,269 @@ public class PgnParseResultsWindowItem implements RaptorWindowItem {
 							selectedGame.getHeader(PgnHeader.White) + " vs " + selectedGame.getHeader(PgnHeader.Black),
 							false)));
 		} else {
-			Raptor.getInstance().onError("Error occurred loading game at line number " + row + ".");
+			Raptor.getInstance().onError("Error occurred loading game " + (gameIndex + 1) + ".");
 		}
 	}
 
-	protected Game loadGame(int lineNumber) {
+	/**
+	 * Parses and returns the game with the specified zero based index, or
+	 * null if it could not be loaded. Only that game is read from the file.
+	 */
+	protected Game loadGame(int gameIndex) {
+		int errorCount = errors.size();
 		try {
-			StreamingPgnParser parser = new StreamingPgnParser(new File(pathToFile), Integer.MAX_VALUE);
-			parser.jumpToLine(lineNumber);
-			final List<Game> gameList = new ArrayList<Game>(1);
-			parser.addPgnParserListener(new LenientPgnParserListener() {
-				@Override
-				public boolean gameParsed(Game game, int lineNumber) {
-					gameList.add(game);
-					return true;
-				}
+			return index.loadGame(gameIndex, errors);
+		} catch (Throwable t) {
+			LOG.error("Error loading game " + gameIndex + " from " + index.getPgnFile(), t);
+		} finally {
+			if (errors.size() != errorCount) {
+				updateErrorsTable();
+			}
+		}
+		return null;
+	}
 
-				@Override
-				public void errorEncountered(PgnParserError error) {
+	/**
+	 * Fills the table with the page of games starting at pageStart, skipping
+	 * deleted games. After a position search only the games which reached
+	 * the position are shown.
+	 */
+	protected void populateGamesTable() {
+		List<Entry> entries;
+		try {
+			entries = positionResult == null ? index.getEntries(pageStart, ROWS_PER_PAGE) : index.getEntries(
+					positionResult.getGames(), pageStart, ROWS_PER_PAGE);
+		} catch (IOException ioe) {
+			Raptor.getInstance().onError("Error reading pgn index " + index.getIndexFile(), ioe);
+			return;
+		}
+
+		int rows = 0;
+		String[][] gamesData = new String[entries.size()][];
+		for (Entry entry : entries) {
+			if (deletedGames.get(entry.getIndex())) {
+				continue;
+			}
+			gamesData[rows++] = new String[] { "" + (entry.getIndex() + 1), entry.getHeader(PgnHeader.Variant),
+					entry.getHeader(PgnHeader.Date), entry.getHeader(PgnHeader.Event),
+					entry.getHeader(PgnHeader.White), entry.getHeader(PgnHeader.WhiteElo),
+					entry.getHeader(PgnHeader.Black), entry.getHeader(PgnHeader.BlackElo),
+					entry.getHeader(PgnHeader.Result), entry.getHeader(PgnHeader.ECO),
+					entry.getHeader(PgnHeader.Opening) };
+		}
+		if (rows != gamesData.length) {
+			String[][] newGamesData = new String[rows][];
+			System.arraycopy(gamesData, 0, newGamesData, 0, rows);
+			gamesData = newGamesData;
+		}
+		gamesTable.refreshTable(gamesData);
+
+		pageLabel.setText(local.getString("pgnParseWI33", String.valueOf(entries.isEmpty() ? 0 : pageStart + 1),
+				String.valueOf(pageStart + entries.size())));
+		previousButton.setEnabled(pageStart > 0);
+		nextButton.setEnabled(pageStart + ROWS_PER_PAGE < getRowCount());
+		updateGamesTotalLabel();
+		composite.layout(true, true);
+	}
+
+	/**
+	 * Copies every game that was not deleted to the specified file. If the
+	 * file is the one being displayed it is reindexed afterwards.
+	 */
+	protected void saveGames(File file) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			int written = index.writeGames(tempFile, deletedGames);
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Could not replace " + file.getAbsolutePath());
+			}
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tempFile.getAbsolutePath());
+			}
+
+			if (file.equals(index.getPgnFile().getAbsoluteFile())) {
+				index = PgnIndex.open(file, null);
+				positionIndex = null;
+				deletedGames.clear();
+				showPositionResult(null);
+			}
+
+			Raptor.getInstance().alert(local.getString("pgnParseWI23") + written + local.getString("pgnParseWI24")
+					+ file.getAbsolutePath() + "."); //$NON-NLS-2$
+		} catch (Throwable t) {
+			LOG.error("Error saving pgn file " + file.getAbsolutePath(), t);
+			Raptor.getInstance().onError(local.getString("pgnParseWI26") + file.getAbsolutePath());
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Searches for the position on the selected board. The position index is
+	 * built on a background thread the first time, with its progress shown in
+	 * the page label.
+	 */
+	protected void searchPosition() {
+		RaptorWindowItem[] items = Raptor.getInstance().getWindow().getSelectedWindowItems(
+				ChessBoardWindowItem.class);
+		if (items.length == 0) {
+			Raptor.getInstance().alert(local.getString("pgnParseWI42"));
+			return;
+		}
+		final Game game = ((ChessBoardWindowItem) items[0]).getController().getGame().deepCopy(true);
+
+		if (positionIndex != null) {
+			searchPosition(game);
+			return;
+		}
+
+		searchButton.setEnabled(false);
+		final PgnIndex pgnIndex = index;
+		ThreadService.getInstance().run(new Runnable() {
+			public void run() {
+				PositionIndex result = null;
+				try {
+					result = PositionIndex.open(pgnIndex, new PositionIndexListener() {
+						public boolean onProgress(final int gamesIndexed, final int gameCount) {
+							if (composite.isDisposed() || index != pgnIndex) {
+								return true;
+							}
+							composite.getDisplay().asyncExec(new RaptorRunnable() {
+								@Override
+								public void execute() {
+									if (!pageLabel.isDisposed()) {
+										pageLabel.setText(local.getString("pgnParseWI43", String.valueOf(gamesIndexed),
+												String.valueOf(gameCount)));
+										composite.layout(true, true);
+									}
+								}
+							});
+							return false;
+						}
+					});
+				} catch (Throwable t) {
+					LOG.error("Error indexing positions in " + pgnIndex.getPgnFile(), t);
+					Raptor.getInstance().onError(local.getString("pgnParseWI45") + pgnIndex.getPgnFile(), t);
 				}
-			});
-			parser.parse();
 
-			return gameList.size() == 0 ? null : gameList.get(0);
+				// The search button is enabled again whether the index was
+				// built, failed or was cancelled.
+				if (composite.isDisposed()) {
+					return;
+				}
+				final PositionIndex finalResult = result;
+				composite.getDisplay().asyncExec(new RaptorRunnable() {
+					@Override
+					public void execute() {
+						if (composite.isDisposed()) {
+							return;
+						}
+						searchButton.setEnabled(true);
+						if (finalResult != null && index == pgnIndex) {
+							positionIndex = finalResult;
+							searchPosition(game);
+						}
+					}
+				});
+			}
+		});
+	}
 
+	protected void searchPosition(Game game) {
+		try {
+			showPositionResult(positionIndex.search(game, Integer.MAX_VALUE));
 		} catch (Throwable t) {
+			LOG.error("Error searching positions in " + index.getPgnFile(), t);
+			Raptor.getInstance().onError(local.getString("pgnParseWI45") + index.getPgnFile(), t);
+		}
+	}
 
+	/**
+	 * Shows the games which reached a searched position and the moves played
+	 * from it, or all of the games again if result is null.
+	 */
+	protected void showPositionResult(SearchResult result) {
+		positionResult = result;
+		pageStart = 0;
+		if (result != null) {
+			List<MoveStats> moves = result.getMoves();
+			String[][] movesData = new String[moves.size()][];
+			for (int i = 0; i < movesData.length; i++) {
+				MoveStats move = moves.get(i);
+				int finished = move.getWhiteWins() + move.getDraws() + move.getBlackWins();
+				movesData[i] = new String[] {
+						move.getSan() == null ? local.getString("pgnParseWI44") : move.getSan(),
+						String.valueOf(move.getGameCount()), getPercentage(move.getWhiteWins(), finished),
+						getPercentage(move.getDraws(), finished), getPercentage(move.getBlackWins(), finished),
+						move.getScore() < 0 ? "" : getPercentage(move.getWhiteWins() * 2 + move.getDraws(),
+								finished * 2) };
+			}
+			movesTable.refreshTable(movesData);
 		}
-		return null;
+		((GridData) movesTable.getLayoutData()).exclude = result == null;
+		movesTable.setVisible(result != null);
+		showAllButton.setEnabled(result != null);
+		populateGamesTable();
 	}
 
-	protected void populateGamesTable() {
-		String[][] gamesData = new String[gameRows.size()][11];
-		for (int i = 0; i < gameRows.size(); i++) {
-			PgnParseResultsRow row = gameRows.get(i);
-			gamesData[i][0] = "" + row.getLineNumber();
-			gamesData[i][1] = StringUtils.defaultString(row.getVariant());
-			gamesData[i][2] = StringUtils.defaultString(row.getDate());
-			gamesData[i][3] = StringUtils.defaultString(row.getEvent());
-			gamesData[i][4] = StringUtils.defaultString(row.getWhite());
-			gamesData[i][5] = StringUtils.defaultString(row.getWhiteElo());
-			gamesData[i][6] = StringUtils.defaultString(row.getBlack());
-			gamesData[i][7] = StringUtils.defaultString(row.getBlackElo());
-			gamesData[i][8] = StringUtils.defaultString(row.getResultDescription());
-			gamesData[i][9] = StringUtils.defaultString(row.getEco());
-			gamesData[i][10] = StringUtils.defaultString(row.getOpening());
+	/**
+	 * Shows the errors found while parsing the games which were opened.
+	 */
+	protected void updateErrorsTable() {
+		String[][] content = new String[errors.size()][3];
+		for (int i = 0; i < errors.size(); i++) {
+			PgnParserError error = errors.get(i);
+			content[i][0] = error.getType().name();
+			content[i][1] = error.getAction().name();
+			content[i][2] = String.valueOf(error.getLineNumber());
 		}
-		gamesTable.refreshTable(gamesData);
+		errorsTable.refreshTable(content);
+		errorsLabel.setText(local.getString("pgnParseWI27") + errors.size());
+
+		boolean hasErrors = !errors.isEmpty();
+		((GridData) errorsLabel.getLayoutData()).exclude = !hasErrors;
+		errorsLabel.setVisible(hasErrors);
+		((GridData) errorsTable.getLayoutData()).exclude = !hasErrors;
+		errorsTable.setVisible(hasErrors);
+		composite.layout(true, true);
+	}
+
+	protected void updateGamesTotalLabel() {
+		int whiteWins = positionResult == null ? index.getWhiteWins() : positionResult.getWhiteWins();
+		int blackWins = positionResult == null ? index.getBlackWins() : positionResult.getBlackWins();
+		int draws = positionResult == null ? index.getDraws() : positionResult.getDraws();
+		int games = positionResult == null ? index.getGameCount() : positionResult.getGameCount();
+
+		// The deleted games are taken out of the totals as well as the count.
+		int[] deletedRows = getDeletedRows();
+		try {
+			for (Entry entry : index.getEntries(deletedRows, 0, deletedRows.length)) {
+				games--;
+				switch (entry.getResult()) {
+				case WHITE_WON:
+					whiteWins--;
+					break;
+				case BLACK_WON:
+					blackWins--;
+					break;
+				case DRAW:
+					draws--;
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (IOException ioe) {
+			LOG.error("Error reading pgn index " + index.getIndexFile(), ioe);
+		}
+		int finishedGames = whiteWins + blackWins + draws;
+
+		gamesTotalLabel.setText(local.getString("pgnParseWI3") + games
+				+ local.getString("pgnParseWI4") + getPercentage(whiteWins, finishedGames)
+				+ local.getString("pgnParseWI5") + getPercentage(blackWins, finishedGames)
+				+ local.getString("pgnParseWI6") + getPercentage(draws, finishedGames));
 	}
 
 }
@@ -43,6 +43,8 @@ import org.eclipse.swt.widgets.MenuItem;
 
 import raptor.Raptor;
 import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameTree;
 import raptor.chess.Move;
 import raptor.chess.Variant;
 import raptor.chess.util.GameUtils;
@@ -71,6 +73,11 @@ import raptor.util.RaptorRunnable;
 
 public class UciAnalysisWidget implements EngineAnalysisWidget {
 	private static final RaptorLogger LOG = RaptorLogger.getLog(UciAnalysisWidget.class);
+	/**
+	 * The number of nodes the principal variation tree can grow to before it
+	 * is started over.
+	 */
+	private static final int MAX_PV_TREE_SIZE = 20000;
 	private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("###,###,###,###,###,###,###,###,###");
 
 	protected ChessBoardController controller;
@@ -90,6 +97,7 @@ public class UciAnalysisWidget implements EngineAnalysisWidget {
 	protected boolean ignoreUciInfo = false;
 	protected static L10n local = L10n.getInstance();
 	protected Object engineLock = new Object();
+	protected GameTree pvTree;
 
 	protected UCIInfoListener listener = new UCIInfoListener() {
 		public void engineSentBestMove(UCIBestMove uciBestMove) {
@@ -139,22 +147,16 @@ public class UciAnalysisWidget implements EngineAnalysisWidget {
 							} else if (info instanceof BestLineFoundInfo) {
 								BestLineFoundInfo bestLineFoundInfo = (BestLineFoundInfo) info;
 								StringBuilder line = new StringBuilder(100);
-								Game gameClone = controller.getGame().deepCopy(true);
-								gameClone.addState(Game.UPDATING_SAN_STATE);
-								gameClone.clearState(Game.UPDATING_ECO_HEADERS_STATE);
+								GameTree tree = getPvTree();
+								Game gameClone = tree.getGame();
 
 								boolean isFirstMove = true;
 
 								for (UCIMove move : bestLineFoundInfo.getMoves()) {
 									try {
-										Move gameMove = null;
-
-										if (move.isPromotion()) {
-											gameMove = gameClone.makeMove(move.getStartSquare(), move.getEndSquare(),
-													move.getPromotedPiece());
-										} else {
-											gameMove = gameClone.makeMove(move.getStartSquare(), move.getEndSquare());
-										}
+										tree.addMove(move.getStartSquare(), move.getEndSquare(),
+												move.isPromotion() ? move.getPromotedPiece() : GameConstants.EMPTY);
+										Move gameMove = gameClone.getLastMove();
 
 										String san = GameUtils.convertSanToUseUnicode(gameMove.getSan(),
 												gameMove.isWhitesMove());
@@ -176,9 +178,15 @@ public class UciAnalysisWidget implements EngineAnalysisWidget {
 															+ "changing when the analysis line was being calculated).",
 													t);
 										}
+										// Start over with a new tree if the line left this one
+										// in an unknown state.
+										pvTree = null;
 										break;
 									}
 								}
+								if (tree == pvTree) {
+									tree.backToRoot();
+								}
 								pv = line.toString();
 							} else if (info instanceof MultiPV) {
 								MultiPV multiPvInfo = (MultiPV) info;
@@ -242,6 +250,25 @@ public class UciAnalysisWidget implements EngineAnalysisWidget {
 		}
 	};
 
+	/**
+	 * Returns the tree the engines principal variations are merged into,
+	 * rooted at the current position of the controllers game. Variations
+	 * share the moves they have in common with earlier ones, so most of an
+	 * updated line is followed rather than made again. The tree is only used
+	 * on the UI thread.
+	 */
+	protected GameTree getPvTree() {
+		Game game = controller.getGame();
+		if (pvTree == null || pvTree.getGame().getZobristGameHash() != game.getZobristGameHash()
+				|| pvTree.getSize() > MAX_PV_TREE_SIZE) {
+			Game copy = game.deepCopy(true);
+			copy.addState(Game.UPDATING_SAN_STATE);
+			copy.clearState(Game.UPDATING_ECO_HEADERS_STATE);
+			pvTree = new GameTree(copy);
+		}
+		return pvTree;
+	}
+
 	public void clear() {
 		Raptor.getInstance().getDisplay().asyncExec(new RaptorRunnable(controller.getConnector()) {
 			@Override
@@ -57,7 +57,8 @@ import raptor.util.RaptorStringUtils;
  * This controller is used when a game is no longer active. It allows the user
  * to play around with the position and traverser the move list. However it is
  * not backed by a connector, so the users actions do not do anything to a
- * connector.
+ * connector. The moves of the game are only read from then on, so its move
+ * list is compacted.
  */
 public class InactiveController extends ChessBoardController implements
 		BoardConstants, GameConstants {
@@ -93,6 +94,7 @@ public class InactiveController extends ChessBoardController implements
 		super(new GameCursor(game, GameCursor.Mode.MakeMovesOnCursor),
 				connector);
 		cursor = (GameCursor) getGame();
+		game.getMoveList().compact();
 		title = "Inactive";
 		canBeTakenOver = Raptor.getInstance().getPreferences().getBoolean(
 				PreferenceKeys.BOARD_TAKEOVER_INACTIVE_GAMES);
@@ -110,6 +112,7 @@ public class InactiveController extends ChessBoardController implements
 	public InactiveController(Game game, String title, boolean canBeTakenOver) {
 		super(new GameCursor(game, GameCursor.Mode.MakeMovesOnCursor));
 		cursor = (GameCursor) getGame();
+		game.getMoveList().compact();
 		this.title = title;
 		this.canBeTakenOver = canBeTakenOver;
 	}
@@ -722,11 +725,11 @@ public class InactiveController extends ChessBoardController implements
 		if (isDisposed()) {
 			return;
 		}
+		getGame().getSnapshot(snapshot);
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
 				board.getSquare(i, j).setPiece(
-						GameUtils.getColoredPiece(GameUtils.getSquare(i, j),
-								getGame()));
+						snapshot.getColoredPiece(GameUtils.getSquare(i, j)));
 			}
 		}
 	}
@@ -161,7 +161,7 @@ public class PlayingController extends ChessBoardController {
 						handleGameStatistics();
 						ThreadService.getInstance().run(new Runnable() {
 							public void run() {
-								PgnUtils.appendGameToFile(getGame());
+								PgnUtils.appendGameToFile(getGame(), isUserWhite);
 							}
 						});
 
@@ -21,6 +21,7 @@ import org.eclipse.swt.widgets.Listener;
 import raptor.Raptor;
 import raptor.chess.Game;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.SanUtils;
 import raptor.pref.PreferenceKeys;
 import raptor.swt.RaptorTable;
 import raptor.swt.RaptorTable.RaptorTableAdapter;
@@ -153,6 +154,7 @@ public class TableMoveList implements ChessBoardMoveList {
 				movesTable.clearTable();
 			} else {
 				int numRows = (moveListSize + 1) / 2;
+				SanUtils.updateSan(game.getMoveList());
 
 				String[][] data = new String[numRows][2];
 
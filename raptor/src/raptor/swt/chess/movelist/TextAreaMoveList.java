@@ -38,6 +38,7 @@ import raptor.chess.pgn.Comment;
 import raptor.chess.pgn.Nag;
 import raptor.chess.pgn.PgnHeader;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.SanUtils;
 import raptor.pref.PreferenceKeys;
 import raptor.swt.chess.ChessBoardController;
 import raptor.swt.chess.ChessBoardMoveList;
@@ -406,6 +407,7 @@ public class TextAreaMoveList implements ChessBoardMoveList {
 					prepareForRepaint();
 				}
 
+				SanUtils.updateSan(game.getMoveList());
 				StringBuffer buff = new StringBuffer();
 				int lastMoveNLength = -1;
 				for (int i = moveNodes.size(); i < moveListSize; i++) {
@@ -0,0 +1,136 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package raptor.util;
+
+/**
+ * A hash map with primitive long keys. Keys are stored in a long array and
+ * collisions are resolved with linear probing, so lookups don't box the key or
+ * follow entry chains. It is intended for keys which are already well
+ * distributed, e.g. Zobrist hashes. Values can't be null, get returns null if
+ * the key isn't in the map.
+ */
+public class LongHashMap<V> {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private int size;
+	private Object[] values;
+
+	public LongHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a map which can hold expectedSize entries without resizing.
+	 */
+	public LongHashMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	public void clear() {
+		keys = new long[DEFAULT_CAPACITY];
+		values = new Object[DEFAULT_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Returns the value for key, null if there isn't one.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int mask = keys.length - 1;
+		int index = indexOf(key, mask);
+		while (values[index] != null) {
+			if (keys[index] == key) {
+				return (V) values[index];
+			}
+			index = index + 1 & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates value with key and returns the previous value, null if there
+	 * wasn't one.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value can not be null.");
+		}
+		int mask = keys.length - 1;
+		int index = indexOf(key, mask);
+		while (values[index] != null) {
+			if (keys[index] == key) {
+				V result = (V) values[index];
+				values[index] = value;
+				return result;
+			}
+			index = index + 1 & mask;
+		}
+
+		keys[index] = key;
+		values[index] = value;
+		if (++size * 2 > keys.length) {
+			resize(keys.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the keys in the map in no particular order.
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int index = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				result[index++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	protected int indexOf(long key, int mask) {
+		return (int) (key ^ key >>> 32) & mask;
+	}
+
+	protected void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int index = indexOf(oldKeys[i], mask);
+				while (values[index] != null) {
+					index = index + 1 & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+}
@@ -13,9 +13,12 @@
  */
 package testcases;
 
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Test;
 
 import raptor.chess.Game;
+import raptor.chess.GameConstants;
 import raptor.chess.GameFactory;
 import raptor.chess.Variant;
 import raptor.chess.pgn.PgnHeader;
@@ -99,4 +102,30 @@ public class TestAtomic {
 		game.getLegalMoves();
 	}
 
+	@Test
+	public void testPromotionRollback() {
+		Game game = GameFactory.createFromFen("2r5/3P2k1/p7/8/4P3/7p/PP6/7K w - - 1 30",
+				Variant.atomic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		long pawnBB = game.getPieceBB(GameConstants.WHITE, GameConstants.PAWN);
+		long hash = game.getZobristPositionHash();
+
+		game.makeSanMove("d8=Q");
+		assertEquals(pawnBB ^ GameConstants.D7, game.getPieceBB(
+				GameConstants.WHITE, GameConstants.PAWN));
+		game.rollback();
+		assertEquals(pawnBB, game.getPieceBB(GameConstants.WHITE,
+				GameConstants.PAWN));
+		assertEquals(hash, game.getZobristPositionHash());
+
+		// The capturing promotion explodes the pawn.
+		game.makeSanMove("dxc8=Q");
+		game.rollback();
+		assertEquals(pawnBB, game.getPieceBB(GameConstants.WHITE,
+				GameConstants.PAWN));
+		assertEquals(0L, game.getPieceBB(GameConstants.WHITE,
+				GameConstants.QUEEN));
+		assertEquals(hash, game.getZobristPositionHash());
+	}
+
 }
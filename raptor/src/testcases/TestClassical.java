@@ -29,7 +29,10 @@ import raptor.chess.Game;
 import raptor.chess.GameConstants;
 import raptor.chess.Move;
 import raptor.chess.Variant;
+import raptor.chess.pgn.PgnHeader;
+import raptor.chess.util.FenUtils;
 import raptor.chess.util.GameUtils;
+import raptor.chess.util.ZobristUtils;
 
 public class TestClassical implements GameConstants {
 
@@ -392,6 +395,59 @@ public class TestClassical implements GameConstants {
 
 	}
 
+	@Test
+	public void testEcoHeaders() {
+		Game game = createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		game.addState(Game.UPDATING_ECO_HEADERS_STATE);
+		game.makeSanMove("h4");
+		assertTrue(game.getHeader(PgnHeader.ECO), "A00C".equals(game
+				.getHeader(PgnHeader.ECO)));
+		assertTrue(game.getHeader(PgnHeader.Opening), "Kadas Opening"
+				.equals(game.getHeader(PgnHeader.Opening)));
+
+		game = createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		game.addState(Game.UPDATING_ECO_HEADERS_STATE);
+		for (String san : new String[] { "e4", "e5", "Nf3", "Nc6", "Bb5" }) {
+			game.makeSanMove(san);
+		}
+		assertTrue(game.getHeader(PgnHeader.ECO), "C60A".equals(game
+				.getHeader(PgnHeader.ECO)));
+		assertTrue(game.getHeader(PgnHeader.Opening), "Spanish (Ruy Lopez)"
+				.equals(game.getHeader(PgnHeader.Opening)));
+	}
+
+	@Test
+	public void testFenIntoExistingGame() {
+		String[] fens = {
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+				"rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b Kq e3 0 3",
+				"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 12 40",
+				STARTING_POSITION_FEN };
+		Game game = createStartingPosition(Variant.classic);
+		game.makeSanMove("e4");
+		char[] buffer = new char[FenUtils.MAX_FEN_LENGTH + 3];
+		for (String fen : fens) {
+			FenUtils.setFen(game, fen);
+			asserts(game.toFen().equals(fen), "Invalid fen " + game.toFen());
+			asserts(game.getMoveList().getSize() == 0
+					&& game.getRepCount() == 1, "State left over from " + fen);
+			asserts(game.getZobristGameHash() == createFromFen(fen,
+					Variant.classic).getZobristGameHash(), "Invalid hash "
+					+ fen);
+
+			int end = FenUtils.writeFen(game, buffer, 3, false);
+			asserts(new String(buffer, 3, end - 3).equals(fen),
+					"Invalid written fen " + new String(buffer, 3, end - 3));
+		}
+
+		// Trailing fields may be left off.
+		FenUtils.setFen(game, "4k3/8/8/8/8/8/8/4K3 b");
+		asserts(game.toFen().equals("4k3/8/8/8/8/8/8/4K3 b - - 0 1"),
+				"Invalid fen " + game.toFen());
+	}
+
 	@Test
 	public void testFromShortAlgebraic() throws Exception {
 		Game game = createStartingPosition(Variant.classic);
@@ -483,6 +539,25 @@ public class TestClassical implements GameConstants {
 		}
 	}
 
+	@Test
+	public void testMakeSanMoves() {
+		// The knight on d2 is pinned, so Ne4 is the knight on f2 and Nb3 is
+		// illegal.
+		Game game = createFromFen("4k3/8/8/8/1b6/8/3N1N2/4K3 w - - 0 1",
+				Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		String[] sans = { "Ne4", "Kd7", "Nb3", "Kc7" };
+
+		asserts(game.makeSanMoves(sans, 0, sans.length) == 2,
+				"makeSanMoves did not stop at Nb3");
+		asserts(game.getMoveList().getSize() == 2,
+				"Moves after the illegal move were made");
+		asserts(game.getMoveList().get(0).getFrom() == SQUARE_F2,
+				"Ne4 was not made from f2");
+		asserts(game.getMoveList().get(0).getSan().equals("Ne4"),
+				"Ne4 has the wrong san");
+	}
+
 	@Test
 	public void testNotCheckmate() {
 		for (String fen : NOT_CHECKMATE_TESTS) {
@@ -758,6 +833,34 @@ public class TestClassical implements GameConstants {
 				+ game.getRepCount());
 	}
 
+	@Test
+	public void testThreeXRepIncludesCastling() {
+		Game game = createStartingPosition(Variant.classic);
+		game.makeLanMove("e2-e4");
+		game.makeLanMove("e7-e5");
+		game.makeLanMove("e1-e2");
+		game.makeLanMove("e8-e7");
+		game.makeLanMove("e2-e1");
+		game.makeLanMove("e7-e8");
+		asserts(game.getRepCount() == 1, "Invalid rep count "
+				+ game.getRepCount());
+		// Black could still castle the first time white played Ke2.
+		game.makeLanMove("e1-e2");
+		asserts(game.getRepCount() == 1, "Invalid rep count "
+				+ game.getRepCount());
+		game.makeLanMove("e8-e7");
+		asserts(game.getRepCount() == 2, "Invalid rep count "
+				+ game.getRepCount());
+		game.rollback();
+		game.makeLanMove("e8-e7");
+		game.makeLanMove("e2-e1");
+		game.makeLanMove("e7-e8");
+		asserts(game.getRepCount() == 2, "Invalid rep count "
+				+ game.getRepCount());
+		asserts(game.deepCopy(false).getRepCount() == 2, "Invalid rep count "
+				+ game.deepCopy(false).getRepCount());
+	}
+
 	// @Test
 	public void testTreeWalk() throws Exception {
 
@@ -946,4 +1049,19 @@ public class TestClassical implements GameConstants {
 		return result;
 
 	}
+
+	@Test
+	public void testZobristHashFromFen() {
+		Game game = createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		for (String san : new String[] { "e4", "c5", "Nf3", "d6", "d4",
+				"cxd4", "Nxd4", "Nf6", "Nc3", "a6", "Be3", "e5", "Nb3", "Be7",
+				"f3", "O-O", "Qd2", "Nbd7", "O-O-O", "b5", "g4", "b4" }) {
+			game.makeSanMove(san);
+			assertTrue(game.toFen(), game.getZobristGameHash() == ZobristUtils
+					.zobristHash(game.toFen()));
+			assertTrue(game.toFen(), game.getZobristGameHash() == createFromFen(
+					game.toFen(), Variant.classic).getZobristGameHash());
+		}
+	}
 }
@@ -21,9 +21,24 @@ import raptor.chess.Game;
 import raptor.chess.GameConstants;
 import raptor.chess.GameFactory;
 import raptor.chess.Move;
+import raptor.chess.Position;
 import raptor.chess.Variant;
+import raptor.chess.util.FenUtils;
 
 public class TestCrazyhouse implements GameConstants {
+	/**
+	 * A game with drops, captures of promoted pieces and a promotion on the
+	 * last move.
+	 */
+	private static final String[] PROMOTION_GAME = { "d4", "e6", "Nf3", "d5",
+			"Bf4", "Nf6", "e3", "Be7", "Bd3", "O-O", "O-O", "Ne4", "Nbd2", "f5",
+			"Ne5", "Nc6", "f3", "Nxe5", "Bxe5", "Nxd2", "Qxd2", "N@g6", "N@f4",
+			"Nxe5", "dxe5", "B@h6", "Rae1", "Bc5", "Kh1", "N@h4", "N@h5", "Qg5",
+			"N@h3", "Qe7", "Bxf5", "exf5", "Qxd5+", "B@e6", "Nxe6", "Bxe6",
+			"Qd2", "Bcxe3", "Rxe3", "N@c4", "P@f6", "Nxd2", "fxe7", "Q@g6",
+			"exf8=Q+", "Rxf8", "R@g3", "Bxe3", "Rxg6", "hxg6", "P@h7+", "Kxh7",
+			"B@f2", "P@e2", "Bxe3", "exf1=Q+" };
+
 
 	@Test
 	public void testDropToAvoidCheck() {
@@ -35,6 +50,37 @@ public class TestCrazyhouse implements GameConstants {
 
 	}
 
+	@Test
+	public void testDropsInCheck() {
+		Game game = GameFactory.createFromFen("4k3/8/8/8/8/8/8/r3K3 w - - 0 1",
+				Variant.crazyhouse);
+		game.setDropCount(WHITE, PAWN, 1);
+		game.setDropCount(WHITE, KNIGHT, 1);
+
+		int drops = 0;
+		for (Move move : game.getLegalMoves().asArray()) {
+			if (move.isDrop()) {
+				drops++;
+				assertTrue("Drop did not block the check: " + move, move
+						.getPiece() == KNIGHT
+						&& (move.getTo() == SQUARE_B1
+								|| move.getTo() == SQUARE_C1 || move.getTo() == SQUARE_D1));
+			}
+		}
+		assertTrue("Expected 3 blocking drops but found " + drops, drops == 3);
+
+		game = GameFactory.createFromFen("4k3/8/8/8/8/8/8/4K3 w - - 0 1",
+				Variant.crazyhouse);
+		game.setDropCount(WHITE, PAWN, 1);
+		drops = 0;
+		for (Move move : game.getLegalMoves().asArray()) {
+			if (move.isDrop()) {
+				drops++;
+			}
+		}
+		assertTrue("Expected 48 pawn drops but found " + drops, drops == 48);
+	}
+
 	@Test
 	public void testInitial() {
 		Game game = GameFactory.createStartingPosition(Variant.crazyhouse);
@@ -101,6 +147,75 @@ public class TestCrazyhouse implements GameConstants {
 		game.makeSanMove("Kxg1");
 	}
 
+	@Test
+	public void testFenHoldingsRoundTrip() {
+		Game game = GameFactory.createStartingPosition(Variant.crazyhouse);
+		game.addState(Game.UPDATING_SAN_STATE);
+		Game target = GameFactory.createStartingPosition(Variant.crazyhouse);
+		for (int i = 0; i < PROMOTION_GAME.length; i++) {
+			game.makeSanMove(PROMOTION_GAME[i]);
+			String fen = FenUtils.toFen(game, true);
+			FenUtils.setFen(target, fen);
+			assertTrue("Snapshot mismatch at " + i + " " + fen, new Position(
+					game).equals(new Position(target)));
+			assertTrue("Fen mismatch at " + i + " " + fen, game.toFen().equals(
+					target.toFen()));
+
+			// The same holdings given as a ninth rank.
+			int holdingsStart = fen.indexOf('[');
+			int holdingsEnd = fen.indexOf(']');
+			FenUtils.setFen(target, fen.substring(0, holdingsStart) + "/"
+					+ fen.substring(holdingsStart + 1, holdingsEnd)
+					+ fen.substring(holdingsEnd + 1));
+			assertTrue("Ninth rank mismatch at " + i + " " + fen, new Position(
+					game).equals(new Position(target)));
+		}
+		assertTrue("Promoted queen was not marked.", FenUtils
+				.toFen(game, true).indexOf("q~") != -1);
+	}
+
+	@Test
+	public void testPositionRoundTrip() {
+		String[] moves = PROMOTION_GAME;
+
+		Game game = GameFactory.createStartingPosition(Variant.crazyhouse);
+		game.addState(Game.UPDATING_SAN_STATE);
+		Position[] positions = new Position[moves.length + 1];
+		String[] fens = new String[moves.length + 1];
+		positions[0] = new Position(game);
+		fens[0] = game.toFen();
+		for (int i = 0; i < moves.length; i++) {
+			game.makeSanMove(moves[i]);
+			positions[i + 1] = new Position(game);
+			fens[i + 1] = game.toFen();
+		}
+
+		Game target = GameFactory.createStartingPosition(Variant.crazyhouse);
+		for (int i = positions.length - 1; i >= 0; i--) {
+			positions[i].apply(target);
+			assertTrue("Fen mismatch at " + i, fens[i].equals(target.toFen()));
+			assertTrue("Snapshot mismatch at " + i, positions[i]
+					.equals(new Position(target)));
+			assertTrue("Hash mismatch at " + i,
+					positions[i].hashCode() == new Position(target).hashCode());
+			for (int color = WHITE; color <= BLACK; color++) {
+				for (int piece = PAWN; piece <= KING; piece++) {
+					assertTrue("Piece count mismatch at " + i, target
+							.getPieceCount(color, piece) == Long
+							.bitCount(target.getPieceBB(color, piece)));
+				}
+			}
+		}
+		assertTrue("F1 contained a promoted piece.", (target
+				.getPieceWithPromoteMask(SQUARE_F1) & PROMOTED_MASK) == 0);
+		positions[positions.length - 1].apply(target);
+		assertTrue("F1 did not contain a promoted queen.", target
+				.getPieceWithPromoteMask(SQUARE_F1) == (QUEEN | PROMOTED_MASK));
+		assertTrue("Last move was not a check.", target.isInCheck(WHITE));
+		assertTrue("Different positions were equal.", !positions[1]
+				.equals(positions[2]));
+	}
+
 	@Test
 	public void testTanBug() {
 		String[] moves = { "Nf3", "d5", "e3", "c5", "c3", "Nc6", "Be2", "Bf5",
@@ -55,6 +55,26 @@ public class TestFr {
 		Assert.assertEquals(fen1, game.toFen());
 	}
 	
+	@Test
+	public void testCastlingPathMustBeEmpty() {
+		String fen = "rkr5/pppppppp/8/8/8/8/PPPPPPPP/RKR1N3 w KQkq - 0 1";
+		FischerRandomGame game = (FischerRandomGame) GameFactory.createFromFen(fen,
+				Variant.fischerRandom);
+		try {
+			game.makeSanMove("O-O");
+			Assert.fail("The king can't castle through the knight on e1.");
+		} catch (IllegalArgumentException iae) {
+		}
+
+		fen = "rkr5/pppppppp/8/8/8/4N3/PPPPPPPP/RKR5 w KQkq - 0 1";
+		game = (FischerRandomGame) GameFactory.createFromFen(fen,
+				Variant.fischerRandom);
+		game.makeSanMove("O-O");
+		Assert.assertEquals("rkr5/pppppppp/8/8/8/4N3/PPPPPPPP/R4RK1 b kq - 1 1", game.toFen());
+		game.rollback();
+		Assert.assertEquals(fen, game.toFen());
+	}
+
 	@Test
 	public void testOtherCastling() {
 		String fen = "rkb1qrnb/ppp1p3/2np4/6pp/4Pp2/2NP3P/PPP2PPB/RK2QRNB w KQkq - 0 9";
@@ -0,0 +1,197 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package testcases;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import raptor.chess.BoardSnapshot;
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameCursor;
+import raptor.chess.GameFactory;
+import raptor.chess.Variant;
+import raptor.chess.util.FenUtils;
+import raptor.chess.util.GameUtils;
+
+public class TestGameCursor implements GameConstants {
+
+	@Test
+	public void testRandomJumps() {
+		Game master = createRandomGame(Variant.classic, 300);
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+		Random random = new Random(7);
+
+		for (int i = 0; i < 200; i++) {
+			int halfMoveIndex = random.nextInt(master.getMoveList().getSize() + 1);
+			cursor.setCursor(halfMoveIndex);
+			assertCursorAt(master, cursor, halfMoveIndex);
+		}
+	}
+
+	@Test
+	public void testStepping() {
+		Game master = createRandomGame(Variant.crazyhouse, 200);
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+
+		while (cursor.hasPrevious()) {
+			cursor.setCursorPrevious();
+			assertCursorAt(master, cursor, cursor.getCursorPosition());
+		}
+		while (cursor.hasNext()) {
+			cursor.setCursorNext();
+			assertCursorAt(master, cursor, cursor.getCursorPosition());
+		}
+	}
+
+	@Test
+	public void testMasterChanges() {
+		Game master = createRandomGame(Variant.classic, 100);
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+		cursor.setCursor(20);
+		cursor.setCursor(70);
+
+		// Replace the moves after 40 with different ones.
+		while (master.getMoveList().getSize() > 40) {
+			master.rollback();
+		}
+		int[] moves = new int[MAX_LEGAL_MOVES];
+		Random random = new Random(11);
+		while (master.getMoveList().getSize() < 100) {
+			int count = master.getLegalMoves(moves);
+			if (count == 0) {
+				break;
+			}
+			master.forceMove(moves[count - 1 - random.nextInt(count)]);
+		}
+
+		for (int halfMoveIndex : new int[] { 70, 50, 33, 90, 0, 64 }) {
+			if (halfMoveIndex <= master.getMoveList().getSize()) {
+				cursor.setCursor(halfMoveIndex);
+				assertCursorAt(master, cursor, halfMoveIndex);
+			}
+		}
+	}
+
+	@Test
+	public void testCompactMaster() {
+		Game master = createRandomGame(Variant.classic, 120);
+		master.getMoveList().compact();
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+		cursor.setCursor(60);
+		Game workingCopy = cursor.getCursorGame();
+
+		// Stepping and jumping reuse the working copy even though every
+		// move from a compact list is a new Move.
+		for (int halfMoveIndex : new int[] { 59, 61, 17, 100, 0, 33 }) {
+			cursor.setCursor(halfMoveIndex);
+			assertCursorAt(master, cursor, halfMoveIndex);
+			Assert.assertSame(workingCopy, cursor.getCursorGame());
+		}
+	}
+
+	@Test
+	public void testRepetitions() {
+		Game master = GameFactory.createStartingPosition(Variant.classic);
+		master.addState(Game.UPDATING_SAN_STATE);
+		for (int i = 0; i < 10; i++) {
+			for (String san : new String[] { "Nf3", "Nf6", "Ng1", "Ng8" }) {
+				master.makeSanMove(san);
+			}
+		}
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+
+		// Jumps restore checkpoints on both sides of the working copy.
+		for (int halfMoveIndex : new int[] { 37, 3, 20, 33, 0, 17, 40, 16 }) {
+			cursor.setCursor(halfMoveIndex);
+			assertCursorAt(master, cursor, halfMoveIndex);
+		}
+	}
+
+	@Test
+	public void testMasterReset() {
+		Game master = GameFactory.createStartingPosition(Variant.classic);
+		master.addState(Game.UPDATING_SAN_STATE);
+		GameCursor cursor = new GameCursor(master,
+				GameCursor.Mode.MakeMovesOnMaster);
+		cursor.setCursor(0);
+		for (String san : new String[] { "e4", "e5", "Nf3", "Nc6" }) {
+			master.makeSanMove(san);
+		}
+		cursor.setCursor(2);
+		cursor.setCursor(0);
+
+		// Reset the master the way a takeback past the start of the moves
+		// does.
+		FenUtils.setFen(master,
+				"rnbqkbnr/pppppppp/8/8/3P4/8/PPP1PPPP/RNBQKBNR b KQkq d3 0 1");
+		for (String san : new String[] { "d5", "c4", "e6" }) {
+			master.makeSanMove(san);
+		}
+		for (int halfMoveIndex : new int[] { 3, 0, 2 }) {
+			cursor.setCursor(halfMoveIndex);
+			assertCursorAt(master, cursor, halfMoveIndex);
+		}
+	}
+
+	private void assertCursorAt(Game master, GameCursor cursor,
+			int halfMoveIndex) {
+		Game expected = master.deepCopy(false);
+		while (expected.getMoveList().getSize() > halfMoveIndex) {
+			expected.rollback();
+		}
+		assertEquals(expected.toFen(), cursor.toFen());
+		assertEquals(expected.getZobristGameHash(), cursor
+				.getZobristGameHash());
+		assertEquals(expected.getRepCount(), cursor.getRepCount());
+		assertEquals(halfMoveIndex, cursor.getCursorGame().getMoveList()
+				.getSize());
+
+		BoardSnapshot snapshot = cursor.getSnapshot(new BoardSnapshot());
+		for (int square = 0; square < 64; square++) {
+			assertEquals(GameUtils.getColoredPiece(square, expected), snapshot
+					.getColoredPiece(square));
+		}
+		for (int piece = PAWN; piece <= QUEEN; piece++) {
+			assertEquals(expected.getDropCount(WHITE, piece), snapshot
+					.getDropCount(WHITE, piece));
+			assertEquals(expected.getDropCount(BLACK, piece), snapshot
+					.getDropCount(BLACK, piece));
+		}
+	}
+
+	private Game createRandomGame(Variant variant, int halfMoves) {
+		Game game = GameFactory.createStartingPosition(variant);
+		game.addState(Game.UPDATING_SAN_STATE);
+		int[] moves = new int[MAX_LEGAL_MOVES];
+		Random random = new Random(halfMoves);
+		for (int i = 0; i < halfMoves; i++) {
+			int count = game.getLegalMoves(moves);
+			if (count == 0) {
+				break;
+			}
+			game.forceMove(moves[random.nextInt(count)]);
+		}
+		return game;
+	}
+}
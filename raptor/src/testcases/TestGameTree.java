@@ -0,0 +1,136 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package testcases;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameFactory;
+import raptor.chess.GameTree;
+import raptor.chess.Variant;
+import raptor.chess.pgn.ListMaintainingPgnParserListener;
+import raptor.chess.pgn.SimplePgnParser;
+import raptor.chess.pgn.SublineNode;
+
+public class TestGameTree implements GameConstants {
+
+	@Test
+	public void testMergeLine() {
+		GameTree tree = createTree();
+		tree.addSanMove("e4");
+		tree.back();
+
+		assertEquals(3, tree.mergeLine(new String[] { "e4", "c5", "Nf3",
+				"Qxh8" }));
+		assertEquals(0, tree.getDepth());
+		assertEquals(1, tree.getRoot().getChildCount());
+		assertEquals(4, tree.getSize());
+
+		assertEquals(2, tree.mergeLine(new String[] { "e4", "e5" }));
+		assertEquals(2, tree.getRoot().getChild(0).getChildCount());
+		assertEquals(5, tree.getSize());
+	}
+
+	@Test
+	public void testFromGame() {
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		Game sublineGame = game.deepCopy(false);
+		game.makeSanMove("e4");
+		game.makeSanMove("e5");
+		SublineNode subline = new SublineNode(sublineGame.makeSanMove("d4"));
+		subline.createReply(sublineGame.makeSanMove("d5"));
+		game.getMoveList().get(0).addAnnotation(subline);
+
+		GameTree tree = GameTree.fromGame(game);
+		assertEquals(2, game.getMoveList().getSize());
+		assertEquals(2, tree.getRoot().getChildCount());
+		assertEquals(5, tree.getSize());
+		assertTrue(tree.toPgn().endsWith("\n\n1. e4 (1. d4 d5) 1... e5 *"));
+	}
+
+	@Test
+	public void testPgnRoundTrip() {
+		GameTree tree = createTree();
+		tree.mergeLine(new String[] { "e4", "e5", "Nf3", "Nc6" });
+		tree.mergeLine(new String[] { "d4", "d5" });
+		tree.addSanMove("e4");
+		tree.mergeLine(new String[] { "c5" });
+		tree.back();
+
+		String pgn = tree.toPgn();
+		assertTrue(pgn.endsWith(
+				"\n\n1. e4 (1. d4 d5) 1... e5 (1... c5) 2. Nf3 Nc6 *"));
+
+		SimplePgnParser parser = new SimplePgnParser(pgn);
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		parser.addPgnParserListener(listener);
+		parser.parse();
+		List<Game> games = listener.getGames();
+		assertEquals(1, games.size());
+
+		while (tree.getCurrent().getChildCount() > 0) {
+			tree.forward(0);
+		}
+		assertEquals(tree.getGame().toFen(), games.get(0).toFen());
+	}
+
+	@Test
+	public void testRepetitionIsNotShared() {
+		GameTree tree = createTree();
+		for (String san : new String[] { "Nf3", "Nf6", "Ng1", "Ng8" }) {
+			tree.addSanMove(san);
+		}
+		assertFalse(tree.getCurrent() == tree.getRoot());
+		assertEquals(tree.getRoot().getKey(), tree.getCurrent().getKey());
+		assertEquals(5, tree.getSize());
+	}
+
+	@Test
+	public void testTranspositionIsShared() {
+		GameTree tree = createTree();
+		for (String san : new String[] { "Nf3", "Nf6", "Nc3" }) {
+			tree.addSanMove(san);
+		}
+		GameTree.Node transposition = tree.getCurrent();
+		tree.addSanMove("Nc6");
+		tree.backToRoot();
+
+		for (String san : new String[] { "Nc3", "Nf6", "Nf3" }) {
+			tree.addSanMove(san);
+		}
+		assertSame(transposition, tree.getCurrent());
+		assertTrue(transposition.isTransposition());
+		assertEquals(1, tree.getCurrent().getChildCount());
+
+		tree.forward(0);
+		assertEquals("r1bqkb1r/pppppppp/2n2n2/8/8/2N2N2/PPPPPPPP/R1BQKB1R w KQkq - 4 3",
+				tree.getGame().toFen());
+		assertEquals(7, tree.getSize());
+	}
+
+	private GameTree createTree() {
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		game.addState(Game.UPDATING_SAN_STATE);
+		return new GameTree(game);
+	}
+}
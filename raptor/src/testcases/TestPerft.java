@@ -0,0 +1,136 @@
+/**
+ * New BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ * Copyright 2009-2016 RaptorProject (https://github.com/Raptor-Fics-Interface/Raptor)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the RaptorProject nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package testcases;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import raptor.chess.Game;
+import raptor.chess.GameConstants;
+import raptor.chess.GameFactory;
+import raptor.chess.Variant;
+import raptor.chess.util.PerftUtils;
+
+/**
+ * Compares the number of leaf nodes of the legal move tree with known perft
+ * counts for each variant.
+ */
+public class TestPerft implements GameConstants {
+	private static final String KIWIPETE_FEN = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+	@Test
+	public void testAtomic() {
+		assertPerft(STARTING_POSITION_FEN, Variant.atomic, 197326, 4);
+		// Capturing next to your own king explodes it, Bxd2 is illegal.
+		assertPerft("4k3/8/8/8/8/8/3n4/2B1K3 w - - 0 1", Variant.atomic, 5, 1);
+		// Games end when a king explodes, so no moves are counted below it.
+		assertPerft(STARTING_POSITION_FEN, Variant.atomic, 4864979, 5);
+		// Castling may not pass through an attacked square next to your own
+		// king.
+		assertPerft(KIWIPETE_FEN, Variant.atomic, 88298, 3);
+		// Kings which touch can't check each other.
+		assertPerft("8/8/8/3kK3/8/8/8/R6r w - - 0 1", Variant.atomic, 143416, 4);
+	}
+
+	@Test
+	public void testClassic() {
+		assertPerft(STARTING_POSITION_FEN, Variant.classic, 197281, 4);
+		assertPerft(KIWIPETE_FEN, Variant.classic, 97862, 3);
+		assertPerft("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+				Variant.classic, 43238, 4);
+		assertPerft(
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+				Variant.classic, 9467, 3);
+		assertPerft(
+				"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+				Variant.classic, 62379, 3);
+	}
+
+	@Test
+	public void testCrazyhouse() {
+		assertPerft(STARTING_POSITION_FEN, Variant.crazyhouse, 4888832, 5);
+	}
+
+	@Test
+	public void testCrazyhouseTransposition() {
+		// Both sides have pieces in hand, so transposed positions only match
+		// if the drop counts are the same. The count is the one perft returns
+		// without a table.
+		String[] moves = { "e4", "d5", "exd5", "Qxd5", "Nc3", "Qxg2",
+				"Bxg2", "Bg4", "Bxb7", "Bxd1", "Bxa8" };
+		Game game = GameFactory.createStartingPosition(Variant.crazyhouse);
+		game.addState(Game.UPDATING_SAN_STATE);
+		for (String move : moves) {
+			game.makeSanMove(move);
+		}
+		game.clearState(Game.UPDATING_SAN_STATE);
+		Assert.assertEquals(119087356, PerftUtils.parallelPerft(game, 4, 1,
+				new PerftUtils.TranspositionTable(20)));
+	}
+
+	@Test
+	public void testParallel() {
+		assertParallelPerft(KIWIPETE_FEN, Variant.classic, 4085603, 4);
+		assertParallelPerft(STARTING_POSITION_FEN, Variant.atomic, 197326, 4);
+		assertParallelPerft(STARTING_POSITION_FEN, Variant.crazyhouse,
+				4888832, 5);
+	}
+
+	@Test
+	public void testFischerRandom() {
+		assertPerft(STARTING_POSITION_FEN, Variant.fischerRandom, 197281, 4);
+		assertPerft(
+				"bqnb1rkr/pp3ppp/3ppn2/2p5/5P2/P2P4/NPP1P1PP/BQ1BNRKR w KQkq - 2 9",
+				Variant.fischerRandom, 326672, 4);
+		assertPerft(
+				"b1q1rrkb/pppppppp/3nn3/8/P7/1PPP4/4PPPP/BQNNRKRB w KQ - 1 9",
+				Variant.fischerRandom, 273318, 4);
+		// Moving a rook off its start square has to remove its castling
+		// right, which gives the classic count.
+		assertPerft(KIWIPETE_FEN, Variant.fischerRandom, 4085603, 4);
+	}
+
+	@Test
+	public void testLosers() {
+		assertPerft(STARTING_POSITION_FEN, Variant.losers, 152955, 4);
+	}
+
+	@Test
+	public void testSuicide() {
+		assertPerft(STARTING_SUICIDE_POSITION_FEN, Variant.suicide, 153299, 4);
+	}
+
+	@Test
+	public void testWild() {
+		assertPerft(STARTING_POSITION_FEN, Variant.wild, 197281, 4);
+	}
+
+	private void assertParallelPerft(String fen, Variant variant,
+			long expected, int depth) {
+		Game game = GameFactory.createFromFen(fen, variant);
+		Assert.assertEquals(variant + " " + fen, expected, PerftUtils
+				.parallelPerft(game, depth, 2,
+						new PerftUtils.TranspositionTable(16)));
+		Assert.assertEquals(fen, game.toFen());
+	}
+
+	private void assertPerft(String fen, Variant variant, long expected,
+			int depth) {
+		Game game = GameFactory.createFromFen(fen, variant);
+		Assert.assertEquals(variant + " " + fen, expected, PerftUtils.perft(
+				game, depth));
+		Assert.assertEquals(fen, game.toFen());
+	}
+}
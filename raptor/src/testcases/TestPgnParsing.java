@@ -15,7 +15,9 @@ package testcases;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,15 +25,31 @@ import org.junit.Test;
 
 import junit.framework.Assert;
 import raptor.chess.Game;
+import raptor.chess.GameFactory;
+import raptor.chess.Move;
 import raptor.chess.MoveList;
 import raptor.chess.Result;
+import raptor.chess.Variant;
+import raptor.chess.pgn.LenientPgnParserListener;
 import raptor.chess.pgn.ListMaintainingPgnParserListener;
+import raptor.chess.pgn.MappedPgnParser;
+import raptor.chess.pgn.MoveStatisticsTree;
+import raptor.chess.pgn.MoveStatisticsTree.MoveResults;
+import raptor.chess.pgn.MoveStatisticsTree.PositionResults;
 import raptor.chess.pgn.Nag;
+import raptor.chess.pgn.ParallelPgnParser;
+import raptor.chess.pgn.PgnHeader;
+import raptor.chess.pgn.PgnIndex;
+import raptor.chess.pgn.PgnIndex.Entry;
 import raptor.chess.pgn.PgnParser;
 import raptor.chess.pgn.PgnParserError;
 import raptor.chess.pgn.PgnParserListener;
+import raptor.chess.pgn.PositionIndex;
+import raptor.chess.pgn.PositionIndex.MoveStats;
+import raptor.chess.pgn.PositionIndex.SearchResult;
 import raptor.chess.pgn.SimplePgnParser;
 import raptor.chess.pgn.StreamingPgnParser;
+import raptor.util.FileUtils;
 
 public class TestPgnParsing {
 
@@ -173,6 +191,53 @@ public class TestPgnParsing {
 		listener.getGames().get(0).makeSanMove("Qxf2#");
 	}
 
+	@Test
+	public void testCompactMoveList() throws Exception {
+		String[] files = { "atomic.pgn", "crazyhouseGames.pgn",
+				"nestedsublines.pgn", "wild5games.pgn" };
+		for (String file : files) {
+			final List<Game> games = new ArrayList<Game>();
+			StreamingPgnParser parser = new StreamingPgnParser(new File("projectFiles/test/" + file),
+					Integer.MAX_VALUE);
+			parser.addPgnParserListener(new LenientPgnParserListener() {
+				@Override
+				public void errorEncountered(PgnParserError error) {
+				}
+
+				@Override
+				public boolean gameParsed(Game game, int lineNumber) {
+					games.add(game);
+					return false;
+				}
+			});
+			parser.parse();
+
+			for (Game game : games) {
+				MoveList moveList = game.getMoveList();
+				String expected = describeMoves(moveList);
+				String fen = game.toFen();
+
+				moveList.compact();
+				Assert.assertTrue(moveList.isCompact());
+				Assert.assertEquals(file, expected, describeMoves(moveList));
+
+				// Rollback and replay the game on the compact list.
+				Move[] moves = moveList.asArray();
+				while (moveList.getSize() > 0) {
+					game.rollback();
+				}
+				for (Move move : moves) {
+					Assert.assertTrue(file + " Move " + move + " was illegal\n" + game, game.move(move));
+				}
+				Assert.assertEquals(file, fen, game.toFen());
+
+				moveList.expand();
+				Assert.assertFalse(moveList.isCompact());
+				Assert.assertEquals(file, expected, describeMoves(moveList));
+			}
+		}
+	}
+
 	@Test
 	public void testCrazyhosueFile() throws Exception {
 		StreamingPgnParser parser = new StreamingPgnParser(new File("projectFiles/test/crazyhouseGames.pgn"),
@@ -290,6 +355,291 @@ public class TestPgnParsing {
 		System.err.println(listener.getErrors());
 	}
 
+	@Test
+	public void testMappedParser() throws Exception {
+		String[] files = { "projectFiles/test/Alekhine4Pawns.pgn", "projectFiles/test/crazyhouseGames.pgn" };
+		for (String fileName : files) {
+			File file = new File(fileName);
+			ArrayList<Game> games = parseGames(file);
+
+			MappedPgnParser mappedParser = new MappedPgnParser(file);
+			ListMaintainingPgnParserListener mappedListener = new ListMaintainingPgnParserListener();
+			mappedParser.addPgnParserListener(mappedListener);
+			mappedParser.parse();
+			mappedParser.close();
+			ArrayList<Game> mappedGames = mappedListener.getGames();
+
+			Assert.assertEquals(fileName, games.size(), mappedGames.size());
+			for (int i = 0; i < games.size(); i++) {
+				Assert.assertEquals(games.get(i).toPgn(), mappedGames.get(i).toPgn());
+			}
+		}
+	}
+
+	@Test
+	public void testMoveStatisticsTree() throws Exception {
+		ArrayList<Game> games = parseGames(new File("projectFiles/test/Alekhine4Pawns.pgn"));
+
+		File file = File.createTempFile("moveStatistics", ".stats");
+		file.deleteOnExit();
+		MoveStatisticsTree tree = new MoveStatisticsTree(file);
+		tree.clear();
+
+		// The user plays white in the even games and black in the odd ones.
+		int[] expected = new int[3];
+		for (int i = 0; i < games.size(); i++) {
+			Game game = games.get(i);
+			int plies = game.getMoveList().getSize();
+			tree.addGame(game, i % 2 == 0, i + 1);
+			Assert.assertEquals(plies, game.getMoveList().getSize());
+			if (i % 2 == 0 && game.getResult() == Result.WHITE_WON) {
+				expected[0]++;
+			} else if (i % 2 == 0 && game.getResult() == Result.BLACK_WON) {
+				expected[1]++;
+			} else if (i % 2 == 0 && game.getResult() == Result.DRAW) {
+				expected[2]++;
+			}
+		}
+		Assert.assertEquals(games.size(), tree.getPgnLength());
+
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		PositionResults results = tree.getResults(game, true);
+		Assert.assertEquals(expected[0], results.getWins());
+		Assert.assertEquals(expected[1], results.getLosses());
+		Assert.assertEquals(expected[2], results.getDraws());
+		Assert.assertEquals("e4", results.getMoves().get(0).getSan());
+		int moveGames = 0;
+		for (MoveResults move : results.getMoves()) {
+			moveGames += move.getGameCount();
+		}
+		Assert.assertEquals(results.getGameCount(), moveGames);
+		Assert.assertEquals(tree.getGameCount(), results.getGameCount() + tree.getResults(game, false).getGameCount());
+
+		// Reloading the journal restores the tree, and an incomplete record
+		// at its end is dropped.
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 1, 0, 0 });
+		out.close();
+		MoveStatisticsTree reloaded = new MoveStatisticsTree(file);
+		reloaded.load();
+		Assert.assertEquals(length, file.length());
+		Assert.assertEquals(tree.getGameCount(), reloaded.getGameCount());
+		Assert.assertEquals(tree.getPgnLength(), reloaded.getPgnLength());
+
+		String[] line = { "e4", "Nf6", "e5", "Nd5", "d4", "d6", "c4", "Nb6", "f4" };
+		for (String san : line) {
+			game.makeSanMove(san);
+		}
+		for (int i = 0; i < 2; i++) {
+			PositionResults expectedResults = tree.getResults(game, i == 0);
+			PositionResults reloadedResults = reloaded.getResults(game, i == 0);
+			Assert.assertEquals(expectedResults.getGameCount(), reloadedResults.getGameCount());
+			Assert.assertEquals(expectedResults.getScore(), reloadedResults.getScore());
+			Assert.assertEquals(expectedResults.getAverageOpponentRating(),
+					reloadedResults.getAverageOpponentRating());
+			Assert.assertEquals(expectedResults.getMoves().size(), reloadedResults.getMoves().size());
+		}
+	}
+
+	@Test
+	public void testMoveStatisticsTreeRepetition() throws Exception {
+		File file = File.createTempFile("moveStatistics", ".stats");
+		file.deleteOnExit();
+		MoveStatisticsTree tree = new MoveStatisticsTree(file);
+		tree.clear();
+
+		// The starting position is reached three times, so it must only be
+		// counted once for each color.
+		String[] line = { "Nf3", "Nf6", "Ng1", "Ng8", "Nf3", "Nf6", "e4", "e5" };
+		for (int i = 0; i < 2; i++) {
+			Game game = GameFactory.createStartingPosition(Variant.classic);
+			for (String san : line) {
+				game.makeSanMove(san);
+			}
+			game.setHeader(PgnHeader.Result, Result.BLACK_WON.getDescription());
+			tree.addGame(game, i == 0, i + 1);
+		}
+
+		MoveStatisticsTree reloaded = new MoveStatisticsTree(file);
+		reloaded.load();
+		for (MoveStatisticsTree statistics : new MoveStatisticsTree[] { tree, reloaded }) {
+			Game game = GameFactory.createStartingPosition(Variant.classic);
+			for (int i = 0; i < 2; i++) {
+				PositionResults results = statistics.getResults(game, i == 0);
+				Assert.assertEquals(1, results.getGameCount());
+				Assert.assertEquals(1, results.getMoves().size());
+				Assert.assertEquals("Nf3", results.getMoves().get(0).getSan());
+			}
+
+			// The positions after the repetition are still counted.
+			for (String san : new String[] { "Nf3", "Nf6", "e4" }) {
+				game.makeSanMove(san);
+			}
+			Assert.assertEquals(1, statistics.getResults(game, false).getGameCount());
+			Assert.assertEquals("e5", statistics.getResults(game, false).getMoves().get(0).getSan());
+		}
+	}
+
+	@Test
+	public void testParallelParsing() throws Exception {
+		File file = copyToTempFile("Alekhine4Pawns.pgn");
+		long startTime = System.currentTimeMillis();
+		ArrayList<Game> games = parseGames(file);
+		long serialTime = System.currentTimeMillis() - startTime;
+
+		PgnIndex index = PgnIndex.open(file, null);
+		index.getIndexFile().deleteOnExit();
+		ListMaintainingPgnParserListener parallelListener = new ListMaintainingPgnParserListener();
+		startTime = System.currentTimeMillis();
+		new ParallelPgnParser(index, 4, 50).parse(parallelListener);
+		long parallelTime = System.currentTimeMillis() - startTime;
+		ArrayList<Game> parallelGames = parallelListener.getGames();
+
+		System.err.println("Parsed " + games.size() + " games serially in " + serialTime + "ms and on 4 threads in "
+				+ parallelTime + "ms");
+
+		// Games arrive in file order.
+		Assert.assertEquals(games.size(), parallelGames.size());
+		for (int i = 0; i < games.size(); i++) {
+			Assert.assertEquals(games.get(i).toPgn(), parallelGames.get(i).toPgn());
+		}
+	}
+
+	@Test
+	public void testPgnIndex() throws Exception {
+		File file = copyToTempFile("Alekhine4Pawns.pgn");
+		long lastModified = file.lastModified();
+		ArrayList<Game> games = parseGames(file);
+
+		PgnIndex index = PgnIndex.open(file, null);
+		File indexFile = index.getIndexFile();
+		indexFile.deleteOnExit();
+		Assert.assertEquals(games.size(), index.getGameCount());
+
+		// Games are read from their offsets, including ones past the first
+		// page of the index.
+		List<PgnParserError> errors = new ArrayList<PgnParserError>();
+		int[] gameIndexes = { 0, PgnIndex.PAGE_SIZE - 1, PgnIndex.PAGE_SIZE, 1000, games.size() - 1 };
+		for (int gameIndex : gameIndexes) {
+			Assert.assertEquals(games.get(gameIndex).toPgn(), index.loadGame(gameIndex, errors).toPgn());
+			Assert.assertEquals(games.get(gameIndex).getHeader(PgnHeader.White),
+					index.getEntry(gameIndex).getHeader(PgnHeader.White));
+		}
+
+		// The sidecar is reused while the pgn file is unchanged.
+		long indexModified = indexFile.lastModified();
+		PgnIndex reopened = PgnIndex.open(file, null);
+		Assert.assertEquals(indexModified, indexFile.lastModified());
+		Assert.assertEquals(index.getGameCount(), reopened.getGameCount());
+		Assert.assertEquals(index.getWhiteWins(), reopened.getWhiteWins());
+		Assert.assertEquals(games.get(1000).toPgn(), reopened.loadGame(1000, errors).toPgn());
+
+		// Appending a game invalidates it.
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("\n[Event \"Appended\"]\n[Result \"*\"]\n\n1. e4 *\n");
+		writer.close();
+		file.setLastModified(lastModified + 2000);
+		PgnIndex rebuilt = PgnIndex.open(file, null);
+		Assert.assertEquals(games.size() + 1, rebuilt.getGameCount());
+		Assert.assertEquals("Appended", rebuilt.getEntry(games.size()).getHeader(PgnHeader.Event));
+		Assert.assertEquals(1, rebuilt.loadGame(games.size(), errors).getMoveList().getSize());
+		Assert.assertTrue(errors.isEmpty());
+
+		// Errors have the line numbers of the pgn file.
+		writer = new FileWriter(file, true);
+		writer.write("\n[Event \"Unfinished\"]\n\n1. e4 (1. d4\n*\n");
+		writer.close();
+		file.setLastModified(lastModified + 4000);
+		rebuilt = PgnIndex.open(file, null);
+		int lineNumber = rebuilt.getEntry(games.size() + 1).getLineNumber();
+		rebuilt.loadGame(games.size() + 1, errors);
+		Assert.assertEquals(1, errors.size());
+		Assert.assertEquals(lineNumber + 3, errors.get(0).getLineNumber());
+	}
+
+	@Test
+	public void testPositionIndex() throws Exception {
+		File file = copyToTempFile("Alekhine4Pawns.pgn");
+		ArrayList<Game> games = parseGames(file);
+
+		PgnIndex index = PgnIndex.open(file, null);
+		index.getIndexFile().deleteOnExit();
+		PositionIndex positionIndex = PositionIndex.open(index, null);
+		positionIndex.getIndexFile().deleteOnExit();
+		Assert.assertNotNull(positionIndex);
+
+		// Every game starts from the initial position.
+		Game game = GameFactory.createStartingPosition(Variant.classic);
+		SearchResult result = positionIndex.search(game, 10);
+		Assert.assertEquals(games.size(), result.getGameCount());
+		Assert.assertEquals(10, result.getGames().length);
+		Assert.assertEquals(index.getWhiteWins(), result.getWhiteWins());
+		Assert.assertEquals(index.getBlackWins(), result.getBlackWins());
+		Assert.assertEquals(index.getDraws(), result.getDraws());
+		Assert.assertEquals("e4", result.getMoves().get(0).getSan());
+
+		// The games reaching the four pawns attack, found by replaying every
+		// game, including the ones which transposed into it.
+		String[] line = { "e4", "Nf6", "e5", "Nd5", "d4", "d6", "c4", "Nb6", "f4" };
+		for (String san : line) {
+			game.makeSanMove(san);
+		}
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < games.size(); i++) {
+			Game parsed = games.get(i);
+			boolean isReached = false;
+			for (int ply = parsed.getMoveList().getSize(); ply >= 0 && !isReached; ply--) {
+				isReached = parsed.getZobristGameHash() == game.getZobristGameHash();
+				if (ply > 0) {
+					parsed.rollback();
+				}
+			}
+			if (isReached) {
+				expected.add(i);
+			}
+		}
+
+		result = positionIndex.search(game, Integer.MAX_VALUE);
+		Assert.assertEquals(expected.size(), result.getGameCount());
+		int moveGames = 0;
+		for (MoveStats move : result.getMoves()) {
+			moveGames += move.getGameCount();
+		}
+		Assert.assertEquals(expected.size(), moveGames);
+		List<Entry> entries = index.getEntries(result.getGames(), 0, result.getGames().length);
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).intValue(), result.getGames()[i]);
+			Assert.assertEquals(expected.get(i).intValue(), entries.get(i).getIndex());
+			Assert.assertEquals(index.getEntry(expected.get(i)).getLineNumber(), entries.get(i).getLineNumber());
+		}
+
+		// The sidecar is reused while the PGN file is unchanged.
+		long lastModified = positionIndex.getIndexFile().lastModified();
+		PositionIndex reopened = PositionIndex.open(index, null);
+		Assert.assertEquals(lastModified, reopened.getIndexFile().lastModified());
+		Assert.assertEquals(expected.size(), reopened.search(game, 0).getGameCount());
+
+		// Crazyhouse positions with the same board but different pieces in
+		// hand are different positions.
+		File crazyhouseFile = File.createTempFile("positionIndexZh", ".pgn");
+		crazyhouseFile.deleteOnExit();
+		FileWriter writer = new FileWriter(crazyhouseFile);
+		writer.write("[Event \"Holding a pawn\"]\n[Variant \"crazyhouse\"]\n[Result \"*\"]\n\n"
+				+ "1. Nc3 d5 2. Nxd5 Qxd5 3. Nf3 Qd6 4. Ng1 Qc6 *\n\n"
+				+ "[Event \"Dropped the pawn\"]\n[Variant \"crazyhouse\"]\n[Result \"*\"]\n\n"
+				+ "1. Nc3 d5 2. Nxd5 Qxd5 3. P@c6 Qxc6 *\n");
+		writer.close();
+		PgnIndex crazyhouseIndex = PgnIndex.open(crazyhouseFile, null);
+		crazyhouseIndex.getIndexFile().deleteOnExit();
+		PositionIndex crazyhousePositions = PositionIndex.open(crazyhouseIndex, null);
+		crazyhousePositions.getIndexFile().deleteOnExit();
+		Game crazyhouseGame = crazyhouseIndex.loadGame(1, new ArrayList<PgnParserError>());
+		result = crazyhousePositions.search(crazyhouseGame, Integer.MAX_VALUE);
+		Assert.assertEquals(1, result.getGameCount());
+		Assert.assertEquals(1, result.getGames()[0]);
+	}
+
 	@Test
 	public void testSuicideFile() throws Exception {
 		StreamingPgnParser parser = new StreamingPgnParser(new File("projectFiles/test/suicidegames.pgn"),
@@ -372,6 +722,50 @@ public class TestPgnParsing {
 		}
 	}
 
+	/**
+	 * Copies the file in projectFiles/test to a temp file with the same last
+	 * modified time, so tests can write sidecar files next to it.
+	 */
+	private File copyToTempFile(String fileName) throws Exception {
+		File source = new File("projectFiles/test/" + fileName);
+		File result = File.createTempFile(fileName.substring(0, fileName.indexOf('.')), ".pgn");
+		result.deleteOnExit();
+		FileUtils.copyFiles(source, result);
+		result.setLastModified(source.lastModified());
+		return result;
+	}
+
+	private String describeMoves(MoveList moveList) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < moveList.getSize(); i++) {
+			Move move = moveList.get(i);
+			result.append(move.getSan()).append(' ').append(move.getFrom()).append(' ').append(move.getTo())
+					.append(' ').append(move.getPieceWithPromoteMask()).append(' ')
+					.append(move.getCaptureWithPromoteMask()).append(' ').append(move.getPiecePromotedTo())
+					.append(' ').append(move.getColor()).append(' ').append(move.getEpSquare()).append(' ')
+					.append(move.getMoveCharacteristic()).append(' ').append(move.getLastWhiteCastlingState())
+					.append(' ').append(move.getLastBlackCastlingState()).append(' ')
+					.append(move.getPrevious50MoveCount()).append(' ').append(move.getHalfMoveCount()).append(' ')
+					.append(move.getFullMoveCount()).append(' ').append(move.getPreviousEcoHeader()).append(' ')
+					.append(move.getPreviousOpeningHeader()).append(' ').append(move.getAtomicExplodedBB())
+					.append(' ').append(move.getAtomicExplodedPieces()).append(' ')
+					.append(move.getAnnotations().length).append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns every game in the file, parsed with a StreamingPgnParser.
+	 */
+	private ArrayList<Game> parseGames(File file) throws Exception {
+		StreamingPgnParser parser = new StreamingPgnParser(file, Integer.MAX_VALUE);
+		ListMaintainingPgnParserListener listener = new ListMaintainingPgnParserListener();
+		parser.addPgnParserListener(listener);
+		parser.parse();
+		parser.close();
+		return listener.getGames();
+	}
+
 	private String pgnFileAsString(String fileName) throws Exception {
 		StringBuilder builder = new StringBuilder();
 		@SuppressWarnings("resource")